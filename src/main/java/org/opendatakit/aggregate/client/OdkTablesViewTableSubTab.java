@@ -120,6 +120,7 @@ public class OdkTablesViewTableSubTab extends AggregateSubTabBase implements Tab
     topPanel.add(selectTablePanel);
     topPanel.setHorizontalAlignment(HasHorizontalAlignment.ALIGN_JUSTIFY);
     add(topPanel);
+    add(tableData.getPaginationNavBar());
     add(tableData);
 
   }
@@ -23,6 +23,7 @@ import org.opendatakit.aggregate.client.exception.ETagMismatchExceptionClient;
 import org.opendatakit.aggregate.client.exception.EntityNotFoundExceptionClient;
 import org.opendatakit.aggregate.client.exception.PermissionDeniedExceptionClient;
 import org.opendatakit.aggregate.client.exception.RequestFailureException;
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
 import org.opendatakit.common.persistence.client.exception.DatastoreFailureException;
 import org.opendatakit.common.security.client.exception.AccessDeniedException;
 
@@ -42,9 +43,6 @@ import com.google.gwt.user.client.rpc.RemoteServiceRelativePath;
 @RemoteServiceRelativePath("serverdataservice")
 public interface ServerDataService extends RemoteService {
 
-  ArrayList<RowClient> getRows(String tableId) throws AccessDeniedException, RequestFailureException,
-      DatastoreFailureException, PermissionDeniedExceptionClient, EntityNotFoundExceptionClient, BadColumnNameExceptionClient;
-
   TableContentsClient getRow(String tableId, String rowId) throws AccessDeniedException,
       RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
       EntityNotFoundExceptionClient, BadColumnNameExceptionClient;
@@ -63,9 +61,29 @@ public interface ServerDataService extends RemoteService {
 
   ArrayList<String> getFileRowInfoColumnNames();
 
-  TableContentsClient getTableContents(String tableId) throws AccessDeniedException,
-      RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
-      EntityNotFoundExceptionClient, BadColumnNameExceptionClient;
+  /**
+   * Get a page of the rows of a table.
+   *
+   * @param tableId
+   * @param columnNames
+   *          the columns whose values are returned; null or empty for all
+   *          columns.
+   * @param sortColumn
+   *          the column to sort by; null to return the rows in creation order.
+   * @param sortDescending
+   * @param cursor
+   *          the resumeCursor or backwardCursor of a page returned earlier;
+   *          null for the first page.
+   * @param fetchLimit
+   *          the maximum number of rows in the page; at most
+   *          TableContentsClient.MAX_FETCH_LIMIT.
+   * @return the page of rows, with the cursors of the neighbouring pages.
+   */
+  TableContentsClient getTableContents(String tableId, ArrayList<String> columnNames,
+      String sortColumn, boolean sortDescending, UIQueryResumePoint cursor, int fetchLimit)
+      throws AccessDeniedException, RequestFailureException, DatastoreFailureException,
+      PermissionDeniedExceptionClient, EntityNotFoundExceptionClient,
+      BadColumnNameExceptionClient;
 
   TableContentsForFilesClient getAppLevelFileInfoContents() throws AccessDeniedException,
       RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
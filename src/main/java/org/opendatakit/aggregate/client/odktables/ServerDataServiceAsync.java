@@ -18,6 +18,8 @@ package org.opendatakit.aggregate.client.odktables;
 
 import java.util.ArrayList;
 
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
+
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -28,8 +30,6 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  */
 public interface ServerDataServiceAsync {
 
-  void getRows(String tableId, AsyncCallback<ArrayList<RowClient>> callback);
-
   void getRow(String tableId, String rowId, AsyncCallback<TableContentsClient> callback);
 
   void createOrUpdateRow(String tableId, String rowId, RowClient row,
@@ -41,7 +41,9 @@ public interface ServerDataServiceAsync {
 
   void getFileRowInfoColumnNames(AsyncCallback<ArrayList<String>> callback);
 
-  void getTableContents(String tableId, AsyncCallback<TableContentsClient> callback);
+  void getTableContents(String tableId, ArrayList<String> columnNames, String sortColumn,
+      boolean sortDescending, UIQueryResumePoint cursor, int fetchLimit,
+      AsyncCallback<TableContentsClient> callback);
 
   void getAppLevelFileInfoContents(AsyncCallback<TableContentsForFilesClient> callback);
 
@@ -19,6 +19,8 @@ package org.opendatakit.aggregate.client.odktables;
 import java.io.Serializable;
 import java.util.ArrayList;
 
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
+
 /**
  * This represents the contents of a table. Essentially it is a wrapper of a
  * list of rows and the corresponding column names. <br>
@@ -26,6 +28,9 @@ import java.util.ArrayList;
  * that gets the column names and one that gets the rows, without having to
  * worry about the services returning at different times. For this reason there
  * is no corresponding client-side TableContents object.
+ * <p>
+ * When returned by ServerDataService.getTableContents, the rows are a single
+ * page of the table and the cursors move to the neighbouring pages.
  *
  * @author sudar.sam@gmail.com
  *
@@ -37,6 +42,16 @@ public class TableContentsClient implements Serializable {
    */
   private static final long serialVersionUID = -61478297837108751L;
 
+  /**
+   * The number of rows in a page if no fetch limit is requested.
+   */
+  public static final int DEFAULT_FETCH_LIMIT = 100;
+
+  /**
+   * The largest number of rows returned in a page.
+   */
+  public static final int MAX_FETCH_LIMIT = 500;
+
   public TableContentsClient() {
     // necessary for gwt serialization
   }
@@ -47,8 +62,34 @@ public class TableContentsClient implements Serializable {
   public ArrayList<RowClient> rows;
 
   /**
-   * The names of the table's columns.
+   * The names of the table's columns whose values are in the rows.
    */
   public ArrayList<String> columnNames;
 
+  /**
+   * The names of all of the table's columns.
+   */
+  public ArrayList<String> allColumnNames;
+
+  /**
+   * The column the rows are sorted by, or null if they are in creation order.
+   */
+  public String sortColumn;
+
+  public boolean sortDescending;
+
+  /**
+   * The cursor that fetches the next page, if hasMoreResults.
+   */
+  public UIQueryResumePoint resumeCursor;
+
+  /**
+   * The cursor that fetches the prior page, if hasPriorResults.
+   */
+  public UIQueryResumePoint backwardCursor;
+
+  public boolean hasMoreResults;
+
+  public boolean hasPriorResults;
+
 }
@@ -38,6 +38,11 @@ public class TableEntryClient implements Serializable {
   private String tableId;
   private String dataETag;
   private String schemaETag;
+  /**
+   * Non-null while the table is being deleted in the background. Describes
+   * how far the deletion has progressed.
+   */
+  private String deletionProgress;
 
   protected TableEntryClient() {
   }
@@ -73,6 +78,14 @@ public class TableEntryClient implements Serializable {
     this.schemaETag = schemaETag;
   }
 
+  public String getDeletionProgress() {
+    return deletionProgress;
+  }
+
+  public void setDeletionProgress(String deletionProgress) {
+    this.deletionProgress = deletionProgress;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (this == obj)
@@ -107,6 +120,14 @@ public class TableEntryClient implements Serializable {
       return false;
     }
 
+    if (deletionProgress == null) {
+      if (other.deletionProgress != null) {
+        return false;
+      }
+    } else if (!deletionProgress.equals(other.deletionProgress)) {
+      return false;
+    }
+
     return true;
   }
 
@@ -117,12 +138,14 @@ public class TableEntryClient implements Serializable {
     result = prime * result + ((dataETag == null) ? 0 : dataETag.hashCode());
     result = prime * result + ((schemaETag == null) ? 0 : schemaETag.hashCode());
     result = prime * result + ((tableId == null) ? 0 : tableId.hashCode());
+    result = prime * result + ((deletionProgress == null) ? 0 : deletionProgress.hashCode());
     return result;
   }
 
   @Override
   public String toString() {
     return "TableEntry [tableId=" + tableId + ", dataETag="
-        + dataETag + ", schemaETag=" + schemaETag + "]";
+        + dataETag + ", schemaETag=" + schemaETag + ", deletionProgress="
+        + deletionProgress + "]";
   }
 }
\ No newline at end of file
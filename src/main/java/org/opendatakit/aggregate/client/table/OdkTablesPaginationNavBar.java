@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.client.table;
+
+import org.opendatakit.aggregate.client.odktables.TableContentsClient;
+import org.opendatakit.aggregate.client.widgets.OdkTablesColumnListBox;
+import org.opendatakit.aggregate.client.widgets.OdkTablesPageButton;
+
+import com.google.gwt.user.client.ui.FlexTable;
+import com.google.gwt.user.client.ui.SimplePanel;
+
+/**
+ * The Previous and Next buttons and the column chooser of an
+ * OdkTablesViewTable.
+ */
+public class OdkTablesPaginationNavBar extends SimplePanel {
+
+  private final FlexTable controls;
+
+  public OdkTablesPaginationNavBar() {
+
+    getElement().setId("odktables_pagination");
+
+    controls = new FlexTable();
+    controls.addStyleName("form_title_bar");
+    controls.getElement().setAttribute("align", "center");
+
+    add(controls);
+  }
+
+  /**
+   * @param view
+   * @param page
+   *          the page being displayed, or null if there is none.
+   */
+  public void update(OdkTablesViewTable view, TableContentsClient page) {
+    controls.setWidget(0, 0, new OdkTablesPageButton(view, page, false));
+    controls.setWidget(0, 1, new OdkTablesPageButton(view, page, true));
+    controls.setWidget(0, 2, new OdkTablesColumnListBox(view, page));
+  }
+}
@@ -96,18 +96,26 @@ public class OdkTablesTableList extends FlexTable {
         // this will maintain the row you're adding to, always +1
         // because of the title row
         int j = i + 1;
-        setWidget(j, TABLE_ID_COLUMN, new HTML("<b>" + table.getTableId() + "</b>"));
         OdkTablesDeleteTableButton deleteButton = new OdkTablesDeleteTableButton(this,
             table.getTableId());
         if (!AggregateUI.getUI().getUserInfo().getGrantedAuthorities()
             .contains(GrantedAuthorityName.ROLE_ADMINISTER_TABLES)) {
           deleteButton.setEnabled(false);
         }
-        setWidget(j, DELETE_BUTTON_COLUMN, deleteButton);
-        setWidget(j, VIEW_TABLE_BUTTON_COLUMN,
-            new OdkTablesShowTableButton(this, table.getTableId()));
-        setWidget(j, TABLE_FILES_BUTTON_COLUMN,
-            new OdkTablesShowTableFilesButton(this, table.getTableId()));
+        if (table.getDeletionProgress() != null) {
+          // the table is being deleted in the background
+          setWidget(j, TABLE_ID_COLUMN, new HTML("<b>" + table.getTableId() + "</b> <i>"
+              + table.getDeletionProgress() + "</i>"));
+          deleteButton.setEnabled(false);
+          setWidget(j, DELETE_BUTTON_COLUMN, deleteButton);
+        } else {
+          setWidget(j, TABLE_ID_COLUMN, new HTML("<b>" + table.getTableId() + "</b>"));
+          setWidget(j, DELETE_BUTTON_COLUMN, deleteButton);
+          setWidget(j, VIEW_TABLE_BUTTON_COLUMN,
+              new OdkTablesShowTableButton(this, table.getTableId()));
+          setWidget(j, TABLE_FILES_BUTTON_COLUMN,
+              new OdkTablesShowTableFilesButton(this, table.getTableId()));
+        }
 
         if (j % 2 == 0) {
           getRowFormatter().addStyleName(j, "evenTableRow");
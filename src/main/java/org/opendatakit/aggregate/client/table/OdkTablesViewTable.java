@@ -22,6 +22,7 @@ import org.opendatakit.aggregate.client.AggregateSubTabBase;
 import org.opendatakit.aggregate.client.AggregateUI;
 import org.opendatakit.aggregate.client.OdkTablesViewTableSubTab;
 import org.opendatakit.aggregate.client.SecureGWT;
+import org.opendatakit.aggregate.client.exception.BadColumnNameExceptionClient;
 import org.opendatakit.aggregate.client.exception.EntityNotFoundExceptionClient;
 import org.opendatakit.aggregate.client.exception.PermissionDeniedExceptionClient;
 import org.opendatakit.aggregate.client.odktables.RowClient;
@@ -29,14 +30,19 @@ import org.opendatakit.aggregate.client.odktables.TableContentsClient;
 import org.opendatakit.aggregate.client.odktables.TableEntryClient;
 import org.opendatakit.aggregate.client.widgets.OdkTablesDeleteRowButton;
 import org.opendatakit.aggregate.constants.common.SubTabs;
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
 import org.opendatakit.common.security.common.GrantedAuthorityName;
 
+import com.google.gwt.event.dom.client.ClickEvent;
+import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.ui.FlexTable;
 import com.google.gwt.user.client.ui.HTML;
 
 /**
- * Displays the contents of a table.
+ * Displays the contents of a table, a page at a time. Clicking the heading of
+ * a column sorts the rows by that column; clicking it again reverses the sort.
+ * Only the values of the columns chosen in the navigation bar are fetched.
  *
  * @author sudar.sam@gmail.com
  *
@@ -52,6 +58,24 @@ public class OdkTablesViewTable extends FlexTable {
   // that table's column names
   private ArrayList<String> columnNames;
 
+  // the Previous and Next buttons
+  private final OdkTablesPaginationNavBar navBar;
+
+  // the cursor of the page being displayed; null for the first page.
+  private UIQueryResumePoint pageCursor;
+
+  // the column the rows are sorted by; null for creation order.
+  private String sortColumn;
+
+  private boolean sortDescending;
+
+  // the columns to show; null for all of them.
+  private ArrayList<String> shownColumns;
+
+  // appended to the heading of the sort column
+  private static final String SORT_ASCENDING_INDICATOR = " \u25B2";
+  private static final String SORT_DESCENDING_INDICATOR = " \u25BC";
+
   // this is the heading for the delete row button.
   private static final String DELETE_ROW_HEADING = "Delete";
 
@@ -90,6 +114,41 @@ public class OdkTablesViewTable extends FlexTable {
 
     // no current table.
     this.currentTable = null;
+
+    navBar = new OdkTablesPaginationNavBar();
+    navBar.update(this, null);
+
+    // clicking a column heading sorts by that column
+    addClickHandler(new ClickHandler() {
+      @Override
+      public void onClick(ClickEvent event) {
+        Cell cell = getCellForEvent(event);
+        if (cell == null || cell.getRowIndex() != 0 || currentTable == null
+            || columnNames == null) {
+          return;
+        }
+        // the first column holds the delete buttons
+        int index = cell.getCellIndex() - 1;
+        if (index < 0 || index >= columnNames.size()) {
+          return;
+        }
+        String column = columnNames.get(index);
+        if (column.equals(sortColumn)) {
+          sortDescending = !sortDescending;
+        } else {
+          sortColumn = column;
+          sortDescending = false;
+        }
+        showPage(null);
+      }
+    });
+  }
+
+  /**
+   * @return the Previous and Next buttons of this view.
+   */
+  public OdkTablesPaginationNavBar getPaginationNavBar() {
+    return navBar;
   }
 
   public OdkTablesViewTable(AggregateSubTabBase tableSubTab,
@@ -105,7 +164,6 @@ public class OdkTablesViewTable extends FlexTable {
    * This updates the display to show the contents of the table.
    */
   public void updateDisplay(TableEntryClient table) {
-    @SuppressWarnings("unused")
     TableEntryClient oldTable = this.currentTable;
 
     // for testing timing
@@ -113,8 +171,17 @@ public class OdkTablesViewTable extends FlexTable {
 
     this.currentTable = table;
 
+    if (table == null || oldTable == null || !table.getTableId().equals(oldTable.getTableId())) {
+      // start again at the first page of the new table
+      pageCursor = null;
+      sortColumn = null;
+      sortDescending = false;
+      shownColumns = null;
+    }
+
     if (table == null) {
       this.removeAllRows();
+      navBar.update(this, null);
     } else {
 
       /*** update the data ***/
@@ -139,6 +206,13 @@ public class OdkTablesViewTable extends FlexTable {
           // do nothing, b/c it's probably legitimate that you don't get an
           // error if there are rows you're not allowed to see.
 
+        } else if (caught instanceof BadColumnNameExceptionClient && sortColumn != null) {
+          // the rows cannot be sorted by that column -- go back to the
+          // creation order.
+          sortColumn = null;
+          sortDescending = false;
+          pageCursor = null;
+          AggregateUI.getUI().reportError(caught);
         } else {
           AggregateUI.getUI().reportError(caught);
         }
@@ -152,34 +226,44 @@ public class OdkTablesViewTable extends FlexTable {
         rows = tcc.rows;
         setRows(rows);
 
+        navBar.update(OdkTablesViewTable.this, tcc);
       }
     };
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
-    // TODO: paginate this
     if (AggregateUI.getUI().getUserInfo().getGrantedAuthorities()
         .contains(GrantedAuthorityName.ROLE_SYNCHRONIZE_TABLES)) {
-      SecureGWT.getServerDataService().getTableContents(table.getTableId(),
-        getDataCallback);
+      SecureGWT.getServerDataService().getTableContents(table.getTableId(), shownColumns,
+          sortColumn, sortDescending, pageCursor, TableContentsClient.DEFAULT_FETCH_LIMIT,
+          getDataCallback);
+    }
+  }
+
+  /**
+   * Display the page of rows starting at the given cursor.
+   *
+   * @param cursor
+   *          the resume or backward cursor of the page being displayed; null
+   *          for the first page.
+   */
+  public void showPage(UIQueryResumePoint cursor) {
+    if (currentTable == null) {
+      return;
     }
+    pageCursor = cursor;
+    updateData(currentTable);
+  }
+
+  /**
+   * Show only the given columns of the rows, staying on the current page.
+   *
+   * @param columns
+   *          the columns to show; null for all of them.
+   */
+  public void showColumns(ArrayList<String> columns) {
+    if (currentTable == null) {
+      return;
+    }
+    shownColumns = columns;
+    updateData(currentTable);
   }
 
   /*
@@ -251,7 +335,12 @@ public class OdkTablesViewTable extends FlexTable {
       for (String name : this.columnNames) {
         // We might have to do checking eventually to ensure metadata columns
         // are only displayed when necessary.
-        setText(0, i, name);
+        if (name.equals(sortColumn)) {
+          setText(0, i, name + (sortDescending ? SORT_DESCENDING_INDICATOR
+              : SORT_ASCENDING_INDICATOR));
+        } else {
+          setText(0, i, name);
+        }
         i++;
       }
       setText(0, i++, SAVEPOINT_TYPE);
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.client.widgets;
+
+import java.util.ArrayList;
+
+import org.opendatakit.aggregate.client.odktables.TableContentsClient;
+import org.opendatakit.aggregate.client.table.OdkTablesViewTable;
+
+import com.google.gwt.event.dom.client.ChangeEvent;
+
+/**
+ * Chooses the columns shown by the view of an ODK Tables table. Only the
+ * values of the chosen columns are fetched from the server.
+ */
+public final class OdkTablesColumnListBox extends AggregateListBox {
+
+  private static final String TOOLTIP_TXT = "Columns to show";
+  private static final String HELP_BALLOON_TXT = "Select the columns to show. Only the selected columns are fetched from the server. Select none to show every column.";
+
+  private static final int VISIBLE_ITEM_COUNT = 4;
+
+  private final OdkTablesViewTable parentView;
+
+  public OdkTablesColumnListBox(OdkTablesViewTable parentView, TableContentsClient page) {
+    super(TOOLTIP_TXT, true, HELP_BALLOON_TXT);
+    this.parentView = parentView;
+    setVisibleItemCount(VISIBLE_ITEM_COUNT);
+
+    if (page == null || page.allColumnNames == null) {
+      setEnabled(false);
+      return;
+    }
+    boolean showsAll = page.columnNames.size() == page.allColumnNames.size();
+    for (String columnName : page.allColumnNames) {
+      addItem(columnName);
+      if (!showsAll && page.columnNames.contains(columnName)) {
+        setItemSelected(getItemCount() - 1, true);
+      }
+    }
+  }
+
+  @Override
+  public void onChange(ChangeEvent event) {
+    super.onChange(event);
+
+    ArrayList<String> selected = new ArrayList<String>();
+    for (int i = 0; i < getItemCount(); i++) {
+      if (isItemSelected(i)) {
+        selected.add(getValue(i));
+      }
+    }
+    parentView.showColumns(selected.isEmpty() ? null : selected);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.client.widgets;
+
+import org.opendatakit.aggregate.client.odktables.TableContentsClient;
+import org.opendatakit.aggregate.client.table.OdkTablesViewTable;
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
+
+import com.google.gwt.event.dom.client.ClickEvent;
+
+/**
+ * Moves the view of an ODK Tables table to its next or previous page of rows.
+ */
+public final class OdkTablesPageButton extends AggregateButton {
+
+  private static final String NEXT_BUTTON_TXT = "Next";
+  private static final String NEXT_TOOLTIP_TXT = "Show the 'Next' page of rows";
+  private static final String NEXT_HELP_BALLOON_TXT = "The rows of a table are shown a page at a time. When this button is pressed Aggregate will show the 'Next' page of rows.";
+
+  private static final String PREV_BUTTON_TXT = "Previous";
+  private static final String PREV_TOOLTIP_TXT = "Show the 'Previous' page of rows";
+  private static final String PREV_HELP_BALLOON_TXT = "The rows of a table are shown a page at a time. When this button is pressed Aggregate will return to the 'Previous' page of rows.";
+
+  private final OdkTablesViewTable parentView;
+  private final UIQueryResumePoint cursor;
+
+  public OdkTablesPageButton(OdkTablesViewTable parentView, TableContentsClient page,
+      boolean forward) {
+    super(forward ? NEXT_BUTTON_TXT : PREV_BUTTON_TXT, forward ? NEXT_TOOLTIP_TXT
+        : PREV_TOOLTIP_TXT, forward ? NEXT_HELP_BALLOON_TXT : PREV_HELP_BALLOON_TXT);
+    this.parentView = parentView;
+
+    if (page == null) {
+      this.cursor = null;
+      setEnabled(false);
+    } else if (forward) {
+      this.cursor = page.resumeCursor;
+      setEnabled(page.hasMoreResults && cursor != null);
+    } else {
+      this.cursor = page.backwardCursor;
+      setEnabled(page.hasPriorResults && cursor != null);
+    }
+  }
+
+  @Override
+  public void onClick(ClickEvent event) {
+    super.onClick(event);
+
+    parentView.showPage(cursor);
+  }
+}
@@ -25,6 +25,10 @@ public class BeanDefs {
 
   public static final String HTTP_CLIENT_FACTORY = "http_client_factory";
   public static final String FORM_DELETE_BEAN = "form_delete";
+  public static final String TABLE_LOG_COMPACTION_BEAN = "table_log_compaction";
+  public static final String TABLE_SNAPSHOT_BEAN = "table_snapshot";
+  public static final String TABLE_ALTER_ROWS_BEAN = "table_alter_rows";
+  public static final String TABLE_DELETION_BEAN = "table_deletion";
   public static final String PURGE_OLDER_SUBMISSIONS_BEAN = "purge_submissions";
   public static final String USER_BEAN = "user_service";
   public static final String DATASTORE_BEAN = "datastore";
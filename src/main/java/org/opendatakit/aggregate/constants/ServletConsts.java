@@ -69,6 +69,11 @@ public final class ServletConsts {
    * The argument for a tableId.
    */
   public static final String TABLE_ID = "tableId";
+  /**
+   * For OdkTables:
+   * The argument for the id of an asynchronous alterRows job.
+   */
+  public static final String JOB_ID = "jobId";
   public static final String ODK_TABLES_SERVLET_BASE_PATH = "odktables";
 
   /**
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Limits the number of odktables requests that are processed concurrently --
+ * globally, per user and per table.
+ * <p>
+ * A request that cannot be admitted immediately waits in a bounded queue.
+ * Whenever a request completes, the queue is scanned in arrival order and
+ * every waiting request that now fits is admitted, so a request waiting on a
+ * busy table does not hold up requests against other tables. A single user
+ * may only occupy a limited number of the queue slots. If the queue is full,
+ * or a request waits longer than the configured time, the request is rejected
+ * and the caller should ask the client to retry later.
+ * <p>
+ * A limit that is zero or negative is unlimited.
+ */
+public class AdmissionController {
+
+  /**
+   * Returned by admit() and handed back to release() once the request
+   * completes.
+   */
+  public static final class Ticket {
+    private final String userKey;
+    private final String tableKey;
+    private boolean released = false;
+
+    private Ticket(String userKey, String tableKey) {
+      this.userKey = userKey;
+      this.tableKey = tableKey;
+    }
+  }
+
+  /**
+   * A point-in-time copy of the counters of the controller.
+   */
+  public static final class Metrics {
+    private final int inFlight;
+    private final int queueLength;
+    private final int peakQueueLength;
+    private final long admitted;
+    private final long queued;
+    private final long rejected;
+    private final long timedOut;
+    private final long totalQueueWaitMillis;
+
+    private Metrics(int inFlight, int queueLength, int peakQueueLength, long admitted,
+        long queued, long rejected, long timedOut, long totalQueueWaitMillis) {
+      this.inFlight = inFlight;
+      this.queueLength = queueLength;
+      this.peakQueueLength = peakQueueLength;
+      this.admitted = admitted;
+      this.queued = queued;
+      this.rejected = rejected;
+      this.timedOut = timedOut;
+      this.totalQueueWaitMillis = totalQueueWaitMillis;
+    }
+
+    /**
+     * @return the number of requests currently being processed.
+     */
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    /**
+     * @return the number of requests currently waiting to be admitted.
+     */
+    public int getQueueLength() {
+      return queueLength;
+    }
+
+    public int getPeakQueueLength() {
+      return peakQueueLength;
+    }
+
+    /**
+     * @return the number of requests admitted, with or without waiting.
+     */
+    public long getAdmitted() {
+      return admitted;
+    }
+
+    /**
+     * @return the number of requests that had to wait in the queue.
+     */
+    public long getQueued() {
+      return queued;
+    }
+
+    /**
+     * @return the number of requests turned away because the queue was full.
+     */
+    public long getRejected() {
+      return rejected;
+    }
+
+    /**
+     * @return the number of requests turned away after waiting too long.
+     */
+    public long getTimedOut() {
+      return timedOut;
+    }
+
+    public long getTotalQueueWaitMillis() {
+      return totalQueueWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Metrics [inFlight=");
+      builder.append(inFlight);
+      builder.append(", queueLength=");
+      builder.append(queueLength);
+      builder.append(", peakQueueLength=");
+      builder.append(peakQueueLength);
+      builder.append(", admitted=");
+      builder.append(admitted);
+      builder.append(", queued=");
+      builder.append(queued);
+      builder.append(", rejected=");
+      builder.append(rejected);
+      builder.append(", timedOut=");
+      builder.append(timedOut);
+      builder.append(", totalQueueWaitMillis=");
+      builder.append(totalQueueWaitMillis);
+      builder.append("]");
+      return builder.toString();
+    }
+  }
+
+  private static final class Waiter {
+    private final String userKey;
+    private final String tableKey;
+    private boolean admitted = false;
+
+    private Waiter(String userKey, String tableKey) {
+      this.userKey = userKey;
+      this.tableKey = tableKey;
+    }
+  }
+
+  private final int maxConcurrent;
+  private final int maxConcurrentPerUser;
+  private final int maxConcurrentPerTable;
+  private final int maxQueueLength;
+  private final int maxQueuedPerUser;
+  private final long maxQueueWaitMillis;
+
+  private int inFlight = 0;
+  private final Map<String, Integer> inFlightPerUser = new HashMap<String, Integer>();
+  private final Map<String, Integer> inFlightPerTable = new HashMap<String, Integer>();
+  private final Map<String, Integer> queuedPerUser = new HashMap<String, Integer>();
+  private final LinkedList<Waiter> queue = new LinkedList<Waiter>();
+
+  private int peakQueueLength = 0;
+  private long admitted = 0L;
+  private long queued = 0L;
+  private long rejected = 0L;
+  private long timedOut = 0L;
+  private long totalQueueWaitMillis = 0L;
+
+  /**
+   * @param maxConcurrent
+   *          requests processed at once across all users and tables.
+   * @param maxConcurrentPerUser
+   *          requests processed at once for any one user.
+   * @param maxConcurrentPerTable
+   *          requests processed at once against any one table.
+   * @param maxQueueLength
+   *          requests that may wait to be admitted. Zero rejects any request
+   *          that cannot be admitted immediately.
+   * @param maxQueuedPerUser
+   *          requests of any one user that may wait to be admitted.
+   * @param maxQueueWaitMillis
+   *          how long a request may wait before it is rejected.
+   */
+  public AdmissionController(int maxConcurrent, int maxConcurrentPerUser,
+      int maxConcurrentPerTable, int maxQueueLength, int maxQueuedPerUser,
+      long maxQueueWaitMillis) {
+    this.maxConcurrent = maxConcurrent;
+    this.maxConcurrentPerUser = maxConcurrentPerUser;
+    this.maxConcurrentPerTable = maxConcurrentPerTable;
+    this.maxQueueLength = Math.max(0, maxQueueLength);
+    this.maxQueuedPerUser = maxQueuedPerUser;
+    this.maxQueueWaitMillis = Math.max(0L, maxQueueWaitMillis);
+  }
+
+  /**
+   * Admit a request, waiting in the queue if necessary.
+   *
+   * @param userKey
+   *          identifies the user making the request.
+   * @param tableKey
+   *          identifies the table the request acts upon, or null if it does
+   *          not act upon a single table.
+   * @return the ticket to release() once the request completes, or null if the
+   *         request was rejected.
+   * @throws InterruptedException
+   */
+  public synchronized Ticket admit(String userKey, String tableKey) throws InterruptedException {
+    if (fits(userKey, tableKey)) {
+      acquire(userKey, tableKey);
+      return new Ticket(userKey, tableKey);
+    }
+
+    if (queue.size() >= maxQueueLength
+        || (maxQueuedPerUser > 0 && count(queuedPerUser, userKey) >= maxQueuedPerUser)) {
+      ++rejected;
+      return null;
+    }
+
+    Waiter w = new Waiter(userKey, tableKey);
+    queue.add(w);
+    increment(queuedPerUser, userKey);
+    ++queued;
+    peakQueueLength = Math.max(peakQueueLength, queue.size());
+
+    long start = System.currentTimeMillis();
+    long deadline = start + maxQueueWaitMillis;
+    try {
+      long remaining;
+      while (!w.admitted && (remaining = deadline - System.currentTimeMillis()) > 0L) {
+        wait(remaining);
+      }
+    } catch (InterruptedException e) {
+      if (w.admitted) {
+        release(new Ticket(userKey, tableKey));
+      } else {
+        dequeue(w);
+      }
+      throw e;
+    } finally {
+      totalQueueWaitMillis += System.currentTimeMillis() - start;
+    }
+
+    if (!w.admitted) {
+      dequeue(w);
+      ++timedOut;
+      return null;
+    }
+    return new Ticket(userKey, tableKey);
+  }
+
+  /**
+   * Release the slots held by a completed request and admit whichever waiting
+   * requests now fit.
+   *
+   * @param ticket
+   */
+  public synchronized void release(Ticket ticket) {
+    if (ticket == null || ticket.released) {
+      return;
+    }
+    ticket.released = true;
+    --inFlight;
+    decrement(inFlightPerUser, ticket.userKey);
+    if (ticket.tableKey != null) {
+      decrement(inFlightPerTable, ticket.tableKey);
+    }
+
+    boolean anyAdmitted = false;
+    Iterator<Waiter> iter = queue.iterator();
+    while (iter.hasNext()) {
+      if (!fits(null, null)) {
+        break;
+      }
+      Waiter w = iter.next();
+      if (fits(w.userKey, w.tableKey)) {
+        iter.remove();
+        decrement(queuedPerUser, w.userKey);
+        acquire(w.userKey, w.tableKey);
+        w.admitted = true;
+        anyAdmitted = true;
+      }
+    }
+    if (anyAdmitted) {
+      notifyAll();
+    }
+  }
+
+  public synchronized Metrics getMetrics() {
+    return new Metrics(inFlight, queue.size(), peakQueueLength, admitted, queued, rejected,
+        timedOut, totalQueueWaitMillis);
+  }
+
+  private boolean fits(String userKey, String tableKey) {
+    if (maxConcurrent > 0 && inFlight >= maxConcurrent) {
+      return false;
+    }
+    if (userKey != null && maxConcurrentPerUser > 0
+        && count(inFlightPerUser, userKey) >= maxConcurrentPerUser) {
+      return false;
+    }
+    if (tableKey != null && maxConcurrentPerTable > 0
+        && count(inFlightPerTable, tableKey) >= maxConcurrentPerTable) {
+      return false;
+    }
+    return true;
+  }
+
+  private void acquire(String userKey, String tableKey) {
+    ++inFlight;
+    ++admitted;
+    increment(inFlightPerUser, userKey);
+    if (tableKey != null) {
+      increment(inFlightPerTable, tableKey);
+    }
+  }
+
+  private void dequeue(Waiter w) {
+    if (queue.remove(w)) {
+      decrement(queuedPerUser, w.userKey);
+    }
+  }
+
+  private static int count(Map<String, Integer> counts, String key) {
+    Integer value = counts.get(key);
+    return (value == null) ? 0 : value;
+  }
+
+  private static void increment(Map<String, Integer> counts, String key) {
+    counts.put(key, count(counts, key) + 1);
+  }
+
+  private static void decrement(Map<String, Integer> counts, String key) {
+    int value = count(counts, key) - 1;
+    if (value <= 0) {
+      // don't accumulate entries for idle users and tables
+      counts.remove(key);
+    } else {
+      counts.put(key, value);
+    }
+  }
+}
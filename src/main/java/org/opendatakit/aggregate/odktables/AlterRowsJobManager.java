@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
+import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
+import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobFiles;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobs;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobs.DbTableAlterRowsJobEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.rest.entity.AlterRowsJob;
+import org.opendatakit.aggregate.odktables.rest.entity.AlterRowsJob.JobStatus;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissionsImpl;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
+import org.opendatakit.aggregate.task.TableAlterRows;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.PersistenceUtils;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.security.spring.UserGrantedAuthority;
+import org.opendatakit.common.web.CallingContext;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Manages the asynchronous alterRows requests (jobs).
+ * <p>
+ * The RowList of a job is staged in DbTableAlterRowsJobFiles and a background
+ * task applies it to the table in batches of ALTER_ROWS_BATCH_SIZE rows, each
+ * through DataManager.insertOrUpdateRows() and each under its own dataETag.
+ * Only the first batch must match the dataETag of the RowList; later batches
+ * are applied on top of any other writes made to the table in the meantime.
+ * The progress of the job and the outcomes of each batch are recorded as the
+ * batch is applied, so a task that is retried resumes after the last applied
+ * batch rather than re-applying the rows. The dataETag of each batch is
+ * recorded before it is applied, so that a retried task can also recover a
+ * batch that was applied but not recorded. A job holds its
+ * TABLES_ALTER_ROWS_JOB lock while it runs, and the watchdog relaunches jobs
+ * that have stalled.
+ * <p>
+ * Clients poll (or long-poll) the job for its status and, once it has
+ * finished, for the RowOutcomeList of all the applied rows.
+ */
+public class AlterRowsJobManager {
+
+  public static final String JOB_CONTENT_TYPE = "application/x-gzip";
+
+  private static final String ROWS_FILENAME = "rows.json.gz";
+
+  private static final String OUTCOMES_FILENAME_PREFIX = "outcomes-";
+
+  private static final String OUTCOMES_FILENAME_SUFFIX = ".json.gz";
+
+  /**
+   * Number of rows applied under each dataETag (and table lock).
+   */
+  public static final int ALTER_ROWS_BATCH_SIZE = 500;
+
+  /**
+   * Number of times a batch after the first is re-based on the table's current
+   * dataETag when another write changes it before the batch is applied.
+   */
+  private static final int MAX_REBASE_ATTEMPTS = 5;
+
+  /**
+   * Finished jobs are removed once they are this old.
+   */
+  public static final long JOB_RETENTION_MILLISECONDS = 7L * 24L * 60L * 60L * 1000L;
+
+  /**
+   * An unfinished job that has made no progress for this long is relaunched
+   * by the watchdog.
+   */
+  public static final long STALLED_JOB_MILLISECONDS = 10L * 60L * 1000L;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final Log logger = LogFactory.getLog(AlterRowsJobManager.class);
+
+  /**
+   * Notified whenever a job finishes on this server.
+   */
+  private static final Object lock = new Object();
+
+  private final String appId;
+  private final String tableId;
+  private final TablesUserPermissions userPermissions;
+  private final CallingContext cc;
+
+  public AlterRowsJobManager(String appId, String tableId, TablesUserPermissions userPermissions,
+      CallingContext cc) {
+    this.appId = appId;
+    this.tableId = tableId;
+    this.userPermissions = userPermissions;
+    this.cc = cc;
+  }
+
+  private static boolean isFinished(String status) {
+    return JobStatus.COMPLETE.name().equals(status) || JobStatus.FAILED.name().equals(status);
+  }
+
+  private static byte[] compress(Object value) throws IOException {
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(bas);
+    mapper.writeValue(gzip, value);
+    gzip.close();
+    return bas.toByteArray();
+  }
+
+  private static <T> T decompress(byte[] content, Class<T> valueType) throws IOException {
+    GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content));
+    try {
+      return mapper.readValue(gzip, valueType);
+    } finally {
+      gzip.close();
+    }
+  }
+
+  /**
+   * Stage the rows and launch the background task that applies them.
+   *
+   * @param rows
+   * @return the state of the newly created job.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws IOException
+   */
+  public AlterRowsJob submitJob(RowList rows) throws ODKDatastoreException,
+      PermissionDeniedException, InconsistentStateException, IOException {
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    if (entry.getSchemaETag() == null) {
+      throw new InconsistentStateException("Schema for table " + tableId
+          + " is not yet defined.");
+    }
+
+    purgeExpiredJobs();
+
+    String jobId = PersistenceUtils.newUri();
+
+    DbTableAlterRowsJobFiles jobFiles = new DbTableAlterRowsJobFiles(cc);
+    BlobEntitySet blobSet = jobFiles.newBlobEntitySet(jobId, cc);
+    blobSet.addBlob(compress(rows), JOB_CONTENT_TYPE, ROWS_FILENAME, true, cc);
+
+    DbTableAlterRowsJobEntity job = DbTableAlterRowsJobs.createNewEntity(jobId, tableId, cc);
+    job.setUriUser(cc.getCurrentUser().getUriUser());
+    job.setOdkTablesUserId(userPermissions.getOdkTablesUserId());
+    job.setStatus(JobStatus.PENDING.name());
+    job.setDataETag(rows.getDataETag());
+    job.setRowCount(rows.getRows().size());
+    job.setRowsApplied(0);
+    job.put(cc);
+
+    TableAlterRows alterRows = (TableAlterRows) cc.getBean(BeanDefs.TABLE_ALTER_ROWS_BEAN);
+    alterRows.createTableAlterRowsTask(jobId, cc);
+
+    logger.info("Submitted job " + jobId + " altering " + rows.getRows().size()
+        + " rows of table " + tableId);
+    return toAlterRowsJob(job);
+  }
+
+  /**
+   * Get the state of a job submitted against this table by this user. If the
+   * job has not finished, wait up to timeoutMillis for it to finish.
+   *
+   * @param jobId
+   * @param timeoutMillis
+   * @return the state of the job, including the outcomes if it has finished.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws IOException
+   */
+  public AlterRowsJob getJob(String jobId, long timeoutMillis) throws ODKDatastoreException,
+      PermissionDeniedException, IOException {
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (;;) {
+      DbTableAlterRowsJobEntity job = DbTableAlterRowsJobs.getJob(jobId, cc);
+      if (!tableId.equals(job.getTableId())) {
+        throw new ODKEntityNotFoundException("Job " + jobId + " was not found for table "
+            + tableId);
+      }
+      if (!job.getOdkTablesUserId().equals(userPermissions.getOdkTablesUserId())) {
+        throw new PermissionDeniedException(String.format(
+            "Denied table %s job %s access to user %s", tableId, jobId,
+            userPermissions.getOdkTablesUserId()));
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (isFinished(job.getStatus()) || remaining <= 0L) {
+        AlterRowsJob result = toAlterRowsJob(job);
+        if (isFinished(job.getStatus())) {
+          result.setOutcomes(getOutcomes(job));
+        }
+        return result;
+      }
+
+      // jobs finishing on this server wake us immediately; re-check for jobs
+      // run on other servers.
+      synchronized (lock) {
+        try {
+          lock.wait(Math.min(remaining, PersistConsts.MAX_SETTLE_MILLISECONDS));
+        } catch (InterruptedException e) {
+          // server is shutting down -- report the current state
+          deadline = 0L;
+        }
+      }
+    }
+  }
+
+  private AlterRowsJob toAlterRowsJob(DbTableAlterRowsJobEntity job) {
+    AlterRowsJob result = new AlterRowsJob(job.getId(), JobStatus.valueOf(job.getStatus()),
+        job.getRowCount(), job.getRowsApplied());
+    result.setErrorMessage(job.getErrorMessage());
+    return result;
+  }
+
+  private RowOutcomeList getOutcomes(DbTableAlterRowsJobEntity job)
+      throws ODKDatastoreException, IOException {
+    DbTableAlterRowsJobFiles jobFiles = new DbTableAlterRowsJobFiles(cc);
+    BlobEntitySet blobSet = jobFiles.getBlobEntitySet(job.getId(), cc);
+    ArrayList<RowOutcome> outcomes = new ArrayList<RowOutcome>();
+    int count = blobSet.getAttachmentCount(cc);
+    // the first attachment holds the rows; the rest, the outcomes of each batch
+    for (int i = 2; i <= count; ++i) {
+      RowOutcomeList batch = decompress(blobSet.getBlob(i, cc), RowOutcomeList.class);
+      outcomes.addAll(batch.getRows());
+    }
+    return new RowOutcomeList(outcomes, job.getDataETag());
+  }
+
+  /**
+   * Remove the finished jobs of this table that are older than
+   * JOB_RETENTION_MILLISECONDS.
+   *
+   * @throws ODKDatastoreException
+   */
+  private void purgeExpiredJobs() throws ODKDatastoreException {
+    long cutoff = System.currentTimeMillis() - JOB_RETENTION_MILLISECONDS;
+    DbTableAlterRowsJobFiles jobFiles = new DbTableAlterRowsJobFiles(cc);
+    for (DbTableAlterRowsJobEntity job : DbTableAlterRowsJobs.queryTableIdJobs(tableId, cc)) {
+      if (isFinished(job.getStatus()) && job.getLastUpdateDate().getTime() < cutoff) {
+        jobFiles.getBlobEntitySet(job.getId(), cc).remove(cc);
+        job.delete(cc);
+      }
+    }
+  }
+
+  /**
+   * Remove all the jobs of a table. Called when the table is deleted.
+   *
+   * @param tableId
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void deleteJobs(String tableId, CallingContext cc) throws ODKDatastoreException {
+    DbTableAlterRowsJobFiles jobFiles = new DbTableAlterRowsJobFiles(cc);
+    for (DbTableAlterRowsJobEntity job : DbTableAlterRowsJobs.queryTableIdJobs(tableId, cc)) {
+      jobFiles.getBlobEntitySet(job.getId(), cc).remove(cc);
+      job.delete(cc);
+    }
+  }
+
+  /**
+   * Apply the rows of a job to its table, resuming after the last batch that
+   * was applied. Called by the background task. Errors that would be returned
+   * to the client by the synchronous alterRows API fail the job; datastore and
+   * lock errors are thrown so that the task can be retried. If the job is
+   * already being run, its lock cannot be acquired and an ODKTaskLockException
+   * is thrown.
+   *
+   * @param jobId
+   * @param cc
+   *          the calling context of the background task.
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws IOException
+   */
+  public static void runJob(String jobId, CallingContext cc) throws ODKDatastoreException,
+      ODKTaskLockException, IOException {
+
+    DbTableAlterRowsJobEntity job;
+    try {
+      job = DbTableAlterRowsJobs.getJob(jobId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      logger.warn("Job " + jobId + " was deleted -- nothing to do");
+      return;
+    }
+    if (isFinished(job.getStatus())) {
+      return;
+    }
+
+    LockTemplate jobLock = new LockTemplate(jobId, ODKTablesTaskLockType.TABLES_ALTER_ROWS_JOB,
+        cc);
+    jobLock.acquire();
+    try {
+      // re-read the job now that no other task can be running it
+      job = DbTableAlterRowsJobs.getJob(jobId, cc);
+      if (isFinished(job.getStatus())) {
+        return;
+      }
+      job.setStatus(JobStatus.RUNNING.name());
+      job.put(cc);
+      applyJob(job, cc, jobLock);
+    } catch (ODKEntityNotFoundException e) {
+      logger.warn("Job " + jobId + " was deleted -- nothing to do");
+    } finally {
+      jobLock.release();
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private static void applyJob(DbTableAlterRowsJobEntity job, CallingContext cc,
+      LockTemplate jobLock) throws ODKDatastoreException, ODKTaskLockException, IOException {
+    String jobId = job.getId();
+    try {
+      Set<GrantedAuthority> grants = UserGrantedAuthority.getGrantedAuthorities(
+          job.getUriUser(), cc.getDatastore(), cc.getCurrentUser());
+      TablesUserPermissions userPermissions = new TablesUserPermissionsImpl(cc,
+          job.getUriUser(), grants);
+      String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
+      DataManager dm = new DataManager(appId, job.getTableId(), userPermissions, cc);
+
+      DbTableAlterRowsJobFiles jobFiles = new DbTableAlterRowsJobFiles(cc);
+      BlobEntitySet blobSet = jobFiles.getBlobEntitySet(jobId, cc);
+      List<Row> rows = decompress(blobSet.getBlob(1, cc), RowList.class).getRows();
+
+      applyBatches(job, rows, ALTER_ROWS_BATCH_SIZE, dm, blobSet, jobLock, cc);
+      job.setStatus(JobStatus.COMPLETE.name());
+      job.put(cc);
+      logger.info("Completed job " + jobId + " altering " + rows.size() + " rows of table "
+          + job.getTableId());
+    } catch (TableDataETagMismatchException e) {
+      failJob(job, e, cc);
+    } catch (ETagMismatchException e) {
+      failJob(job, e, cc);
+    } catch (PermissionDeniedException e) {
+      failJob(job, e, cc);
+    } catch (InconsistentStateException e) {
+      failJob(job, e, cc);
+    } catch (BadColumnNameException e) {
+      failJob(job, e, cc);
+    }
+  }
+
+  /**
+   * Apply the rows of the job, from job.getRowsApplied() onwards, in batches
+   * of batchSize rows, recording the progress and outcomes of each batch.
+   *
+   * @param job
+   * @param rows
+   *          all the rows of the job.
+   * @param batchSize
+   * @param dm
+   * @param blobSet
+   *          the staged rows and outcomes of the job.
+   * @param jobLock
+   *          renewed after each batch.
+   * @param cc
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws IOException
+   * @throws TableDataETagMismatchException
+   * @throws ETagMismatchException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws BadColumnNameException
+   */
+  static void applyBatches(DbTableAlterRowsJobEntity job, List<Row> rows, int batchSize,
+      DataManager dm, BlobEntitySet blobSet, LockTemplate jobLock, CallingContext cc)
+      throws ODKDatastoreException, ODKTaskLockException, IOException,
+      TableDataETagMismatchException, ETagMismatchException, PermissionDeniedException,
+      InconsistentStateException, BadColumnNameException {
+    int rowsApplied = job.getRowsApplied();
+    while (rowsApplied < rows.size()) {
+      int end = Math.min(rowsApplied + batchSize, rows.size());
+      ArrayList<Row> batchRows = new ArrayList<Row>(rows.subList(rowsApplied, end));
+
+      RowOutcomeList outcomes = null;
+      if (job.getBatchDataETag() != null) {
+        // an earlier attempt may have applied the batch without recording it
+        outcomes = dm.getAppliedRowOutcomes(new RowList(batchRows, job.getDataETag()),
+            job.getBatchDataETag());
+      }
+      int attempts = 0;
+      while (outcomes == null) {
+        // only the first batch must match the dataETag the client supplied.
+        // Other writers may change the table between batches, so later
+        // batches are re-based on its current dataETag and conflicts are
+        // left to the rowETag checks of the individual rows.
+        String dataETag = (rowsApplied == 0) ? job.getDataETag() : DbTableEntry
+            .getTableIdEntry(job.getTableId(), cc).getDataETag();
+        job.setBatchDataETag(PersistenceUtils.newUri());
+        job.put(cc);
+        try {
+          outcomes = dm.insertOrUpdateRows(new RowList(batchRows, dataETag),
+              job.getBatchDataETag());
+        } catch (TableDataETagMismatchException e) {
+          if (rowsApplied == 0 || ++attempts >= MAX_REBASE_ATTEMPTS) {
+            throw e;
+          }
+          logger.info("Job " + job.getId() + " re-basing rows " + rowsApplied + " to " + end
+              + " after a concurrent write to table " + job.getTableId());
+        }
+      }
+
+      // replaces the outcomes of an earlier attempt at this batch, if any
+      blobSet.addBlob(compress(outcomes), JOB_CONTENT_TYPE, OUTCOMES_FILENAME_PREFIX
+          + rowsApplied + OUTCOMES_FILENAME_SUFFIX, true, cc);
+      rowsApplied = end;
+      job.setRowsApplied(rowsApplied);
+      job.setDataETag(outcomes.getDataETag());
+      job.setBatchDataETag(null);
+      job.put(cc);
+      jobLock.renew();
+    }
+  }
+
+  /**
+   * Relaunch the background tasks of unfinished jobs, of all tables, that have
+   * made no progress for STALLED_JOB_MILLISECONDS. Called by the watchdog.
+   *
+   * @param cc
+   * @return true if any job is unfinished.
+   * @throws ODKDatastoreException
+   */
+  public static boolean restartStalledJobs(CallingContext cc) throws ODKDatastoreException {
+    List<DbTableAlterRowsJobEntity> jobs = DbTableAlterRowsJobs.queryStatusJobs(
+        Arrays.asList(JobStatus.PENDING.name(), JobStatus.RUNNING.name()), cc);
+    if (jobs.isEmpty()) {
+      return false;
+    }
+    TableAlterRows alterRows = (TableAlterRows) cc.getBean(BeanDefs.TABLE_ALTER_ROWS_BEAN);
+    long cutoff = System.currentTimeMillis() - STALLED_JOB_MILLISECONDS;
+    for (DbTableAlterRowsJobEntity job : jobs) {
+      if (job.getLastUpdateDate().getTime() < cutoff) {
+        logger.info("Restarting stalled job " + job.getId() + " of table " + job.getTableId());
+        // record the restart so that it is not restarted again right away
+        job.put(cc);
+        alterRows.createTableAlterRowsTask(job.getId(), cc);
+      }
+    }
+    return true;
+  }
+
+  private static void failJob(DbTableAlterRowsJobEntity job, Exception e, CallingContext cc)
+      throws ODKDatastoreException {
+    logger.warn("Job " + job.getId() + " failed: " + e.toString());
+    String message = e.getMessage();
+    if (message != null && message.length() > 4000) {
+      message = message.substring(0, 4000);
+    }
+    job.setStatus(JobStatus.FAILED.name());
+    job.setErrorMessage(message);
+    job.put(cc);
+  }
+
+  /**
+   * Mark a job as FAILED if it has not finished. Used when the background task
+   * cannot be retried.
+   *
+   * @param jobId
+   * @param e
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void abandonJob(String jobId, Exception e, CallingContext cc)
+      throws ODKDatastoreException {
+    try {
+      DbTableAlterRowsJobEntity job = DbTableAlterRowsJobs.getJob(jobId, cc);
+      if (!isFinished(job.getStatus())) {
+        failJob(job, e, cc);
+      }
+    } catch (ODKEntityNotFoundException ex) {
+      // ignore -- the job was deleted
+    } finally {
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
+  }
+}
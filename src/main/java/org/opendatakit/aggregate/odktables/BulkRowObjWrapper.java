@@ -13,6 +13,8 @@ class BulkRowObjWrapper {
   private RowOutcome outcome;
   
   private Scope filterScope;
+  private String rowId;
+  private String previousRowETag;
   
   private boolean newRowId;
   private boolean nullIncomingScope;
@@ -25,6 +27,7 @@ class BulkRowObjWrapper {
       newRowId = true;
       row.setRowId(PersistenceUtils.newUri());
     }
+    rowId = row.getRowId();
     nullIncomingScope = false;
     filterScope = row.getFilterScope();
     if (filterScope == null) {
@@ -92,6 +95,28 @@ class BulkRowObjWrapper {
   public boolean hasNullIncomingScope() {
     return nullIncomingScope;
   }
+
+  /**
+   * @return the rowETag the updated entity supersedes, for the DbLogTable.
+   */
+  public String getPreviousRowETag() {
+    return previousRowETag;
+  }
+
+  public void setPreviousRowETag(String previousRowETag) {
+    this.previousRowETag = previousRowETag;
+  }
+
+  /**
+   * Discard the entity and outcome so that the row can be prepared again.
+   */
+  public void reset() {
+    entity = null;
+    outcome = null;
+    previousRowETag = null;
+    row.setRowId(rowId);
+    row.setFilterScope(filterScope);
+  }
   
 
   
@@ -16,13 +16,18 @@
 
 package org.opendatakit.aggregate.odktables;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.logging.Log;
@@ -32,18 +37,26 @@ import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
+import org.opendatakit.aggregate.odktables.relation.ColumnPlan;
 import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
 import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
 import org.opendatakit.aggregate.odktables.relation.DbLogTable;
 import org.opendatakit.aggregate.odktables.relation.DbTable;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry.DbTableChangeSetIndexEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets.DbTableChangeSetsEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
 import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
 import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint;
 import org.opendatakit.aggregate.odktables.relation.EntityConverter;
 import org.opendatakit.aggregate.odktables.relation.EntityCreator;
 import org.opendatakit.aggregate.odktables.rest.entity.ChangeSetList;
+import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowFilter;
 import org.opendatakit.aggregate.odktables.rest.entity.RowList;
 import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome;
 import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome.OutcomeType;
@@ -51,17 +64,22 @@ import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.common.ermodel.Entity;
 import org.opendatakit.common.ermodel.Query;
 import org.opendatakit.common.ermodel.Query.WebsafeQueryResult;
 import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.PersistenceUtils;
 import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 
@@ -77,6 +95,17 @@ public class DataManager {
 
   private static final Log logger = LogFactory.getLog(DataManager.class);
 
+  /**
+   * Number of log entries read per query when building the change set index
+   * of an existing table.
+   */
+  private static final int CHANGE_SET_INDEX_FETCH_LIMIT = 2000;
+
+  /**
+   * Maximum number of dataETags returned by one call to getChangeSetsSince.
+   */
+  private static final int CHANGE_SET_FETCH_LIMIT = 2000;
+
   public static class WebsafeRows {
     public final List<Row> rows;
 
@@ -100,6 +129,25 @@ public class DataManager {
     }
   }
 
+  /**
+   * Supplies the rows for {@link DataManager#importRows}.
+   */
+  public interface RowSource {
+    /**
+     * @return the next row to import, or null if there are no more rows.
+     * @throws IOException
+     */
+    Row nextRow() throws IOException;
+  }
+
+  /**
+   * Notified as each batch of rows is written by
+   * {@link DataManager#importRows}.
+   */
+  public interface ImportProgressListener {
+    void rowsImported(int totalRowCount);
+  }
+
   private CallingContext cc;
   private TablesUserPermissions userPermissions;
   private EntityConverter converter;
@@ -142,6 +190,22 @@ public class DataManager {
     return tableId;
   }
 
+  /**
+   * Lock-free retrieval of the current dataETag of the table, for use in
+   * answering If-None-Match requests. Does not access the data or log tables.
+   *
+   * @return the current dataETag, or null if it is unknown or a change is in
+   *         progress (the caller should then take the normal path).
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  public String getCurrentDataETag() throws ODKDatastoreException, PermissionDeniedException {
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+
+    return ETagCache.getDataETag(tableId, cc);
+  }
+
   private void revertPendingChanges(DbTableEntryEntity entry,
       List<DbColumnDefinitionsEntity> columns, DbTable table, DbLogTable logTable)
       throws ODKDatastoreException, BadColumnNameException {
@@ -153,6 +217,10 @@ public class DataManager {
     }
 
     logger.warn("Reverting changes for dataETag " + dataETag);
+    DbTableChangeSetsEntity changeSet = DbTableChangeSets.getChangeSet(tableId, dataETag, cc);
+    if (changeSet != null) {
+      changeSet.delete(cc);
+    }
     // search for log entries matching the TableEntry dataETag
     // log entries are written first, so these should exist, and the
     // row entries may or may not reflect the log contents.
@@ -207,6 +275,116 @@ public class DataManager {
     }
   }
 
+  /**
+   * Tables that were created before the DbTableChangeSets index was introduced
+   * have no entries in it. Build their index from the DbLogTable. At most
+   * CHANGE_SET_INDEX_FETCH_LIMIT log entries are indexed per call, so that the
+   * table lock is held for a bounded time; the progress is recorded in
+   * DbTableChangeSetIndexEntry and the next call resumes from there. Until the
+   * index is complete, callers must use the DbLogTable. Must be called with
+   * the table lock held and after revertPendingChanges().
+   *
+   * @param entry
+   * @param logTable
+   * @return true if the index of the table is complete.
+   * @throws ODKDatastoreException
+   */
+  private boolean ensureChangeSetIndex(DbTableEntryEntity entry, DbLogTable logTable)
+      throws ODKDatastoreException {
+    DbTableChangeSetIndexEntryEntity indexEntry = DbTableChangeSetIndexEntry.getTableIdEntry(
+        tableId, cc);
+    if (indexEntry != null && indexEntry.isComplete()) {
+      return true;
+    }
+    if (indexEntry == null) {
+      if (entry.getDataETag() == null) {
+        // no data has been written -- there is nothing to index
+        DbTableChangeSetIndexEntry.markComplete(tableId, cc);
+        return true;
+      }
+      logger.warn("Building the change set index for table " + tableId);
+      indexEntry = DbTableChangeSetIndexEntry.createNewEntity(tableId, cc);
+    }
+
+    String indexedSequenceValue = indexEntry.getIndexedSequenceValue();
+    Query query = logTable.query("DataManager.ensureChangeSetIndex", cc);
+    if (indexedSequenceValue == null) {
+      query.greaterThanOrEqual(DbLogTable.SEQUENCE_VALUE, entry.getAprioriDataSequenceValue());
+    } else {
+      query.greaterThan(DbLogTable.SEQUENCE_VALUE, indexedSequenceValue);
+    }
+    query.sortAscending(DbLogTable.SEQUENCE_VALUE);
+    WebsafeQueryResult result = query.execute(null, CHANGE_SET_INDEX_FETCH_LIMIT);
+
+    DbTableChangeSetsEntity changeSet = null;
+    for (Entity logEntity : result.entities) {
+      String dataETag = logEntity.getString(DbLogTable.DATA_ETAG_AT_MODIFICATION);
+      String sequenceValue = logEntity.getString(DbLogTable.SEQUENCE_VALUE);
+      if (changeSet == null || !changeSet.getDataETag().equals(dataETag)) {
+        if (changeSet != null) {
+          changeSet.put(cc);
+        }
+        // the log entries of a change set are contiguous. The change set may
+        // have been begun by the previous call, or already recorded when it
+        // was written; the index is rebuilt from its first log entry.
+        changeSet = DbTableChangeSets.getChangeSet(tableId, dataETag, cc);
+        if (changeSet == null) {
+          changeSet = DbTableChangeSets.createNewEntity(tableId, dataETag, cc);
+          changeSet.setFirstSequenceValue(sequenceValue);
+          changeSet.setRowCount(0);
+        } else if (changeSet.getFirstSequenceValue().compareTo(sequenceValue) >= 0) {
+          changeSet.setFirstSequenceValue(sequenceValue);
+          changeSet.setRowCount(0);
+        }
+      }
+      changeSet.setLastSequenceValue(sequenceValue);
+      changeSet.setRowCount(changeSet.getRowCount() + 1);
+      indexedSequenceValue = sequenceValue;
+    }
+    if (changeSet != null) {
+      changeSet.put(cc);
+    }
+
+    indexEntry.setIndexedSequenceValue(indexedSequenceValue);
+    boolean isComplete = !result.hasMore || result.websafeResumeCursor == null;
+    indexEntry.setComplete(isComplete);
+    indexEntry.put(cc);
+    if (isComplete) {
+      logger.warn("Completed the change set index for table " + tableId);
+    }
+    return isComplete;
+  }
+
+  /**
+   * Record the change set for the log entries just written under the given
+   * dataETag. Must be called with the table lock held and before the dataETag
+   * is committed to the DbTableEntry.
+   *
+   * @param dataETag
+   * @param logEntities
+   *          the log entries, in the order their sequence values were
+   *          assigned.
+   * @throws ODKDatastoreException
+   */
+  private void recordChangeSet(String dataETag, List<Entity> logEntities)
+      throws ODKDatastoreException {
+    if (logEntities.isEmpty()) {
+      return;
+    }
+    recordChangeSet(dataETag, logEntities.get(0).getString(DbLogTable.SEQUENCE_VALUE),
+        logEntities.get(logEntities.size() - 1).getString(DbLogTable.SEQUENCE_VALUE),
+        logEntities.size());
+  }
+
+  private void recordChangeSet(String dataETag, String firstSequenceValue,
+      String lastSequenceValue, int rowCount) throws ODKDatastoreException {
+    DbTableChangeSetsEntity changeSet = DbTableChangeSets.createNewEntity(tableId, dataETag, cc);
+    changeSet.setFirstSequenceValue(firstSequenceValue);
+    changeSet.setLastSequenceValue(lastSequenceValue);
+    changeSet.setRowCount(rowCount);
+    changeSet.put(cc);
+  }
+
   /**
    * Retrieve all current rows of the table.
    *
@@ -226,6 +404,7 @@ public class DataManager {
     String currentDataETag = null;
     
     List<DbColumnDefinitionsEntity> columns = null;
+    ColumnPlan tablePlan = null;
     WebsafeQueryResult result = null;
     LockTemplate propsLock = new LockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
@@ -247,6 +426,7 @@ public class DataManager {
 
       DbTable table = DbTable.getRelation(tableDefn, columns, cc);
       DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      tablePlan = new ColumnPlan(table, columns);
 
       revertPendingChanges(entry, columns, table, logTable);
 
@@ -269,7 +449,112 @@ public class DataManager {
 
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRow(entity, columns);
+      Row row = converter.toRow(entity, tablePlan);
+      if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
+        rows.add(row);
+      } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
+          row.getRowId(), row.getFilterScope())) {
+        rows.add(row);
+      }
+    }
+    return new WebsafeRows(rows, currentDataETag, result.websafeRefetchCursor, result.websafeBackwardCursor,
+        result.websafeResumeCursor, result.hasMore, result.hasPrior);
+  }
+
+  /**
+   * Retrieve the current rows of the table that satisfy all of the given
+   * filters, ordered by the given column (or by creation date if that is
+   * null). Only user-defined columns that are stored in their own database
+   * column can be filtered or sorted upon. Rows with equal values in the sort
+   * column are ordered by rowId. Rows whose sort column is null come after all
+   * others in ascending order, and before them in descending order.
+   *
+   * @param filters
+   * @param sortElementKey
+   *          may be null
+   * @param sortDescending
+   * @param startCursor
+   * @param fetchLimit
+   * @return the matching rows
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws ODKTaskLockException
+   * @throws InconsistentStateException
+   * @throws BadColumnNameException
+   *           if a filter or the sort refers to an unknown column, or a
+   *           filter value does not suit its column
+   */
+  public WebsafeRows queryRows(List<RowFilter> filters, String sortElementKey,
+      boolean sortDescending, QueryResumePoint startCursor, int fetchLimit)
+      throws ODKDatastoreException, PermissionDeniedException, ODKTaskLockException,
+      InconsistentStateException, BadColumnNameException {
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+
+    String currentDataETag = null;
+
+    List<DbColumnDefinitionsEntity> columns = null;
+    ColumnPlan tablePlan = null;
+    WebsafeQueryResult result = null;
+    LockTemplate propsLock = new LockTemplate(tableId,
+        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    try {
+      propsLock.acquire();
+
+      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+      String schemaETag = entry.getSchemaETag();
+
+      if (schemaETag == null) {
+        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+      }
+
+      currentDataETag = entry.getDataETag();
+
+      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
+          .getDefinition(tableId, schemaETag, cc);
+      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+
+      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      tablePlan = new ColumnPlan(table, columns);
+
+      revertPendingChanges(entry, columns, table, logTable);
+
+      Query query = buildFilteredRowsQuery(table, columns, filters);
+      if (query == null) {
+        // nothing can match
+        return new WebsafeRows(new ArrayList<Row>(), currentDataETag, null, null, null, false,
+            false);
+      }
+
+      boolean isForward = (startCursor == null || startCursor.isForwardCursor());
+      Direction direction = (isForward != sortDescending) ? Direction.ASCENDING
+          : Direction.DESCENDING;
+      if (sortElementKey == null) {
+        DataField creationDate = table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME);
+        query.addSort(creationDate, direction);
+        // we need the filter to activate the sort...
+        query.addFilter(creationDate,
+            org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN,
+            BasicConsts.EPOCH);
+        result = query.execute(startCursor, fetchLimit);
+      } else {
+        DataField sortField = getQueryableField(table, columns, sortElementKey);
+        result = querySortedRows(table, columns, filters, sortField, direction, startCursor,
+            fetchLimit);
+      }
+
+    } finally {
+      propsLock.release();
+    }
+
+    if (result.entities == null || columns == null) {
+      throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
+    }
+
+    ArrayList<Row> rows = new ArrayList<Row>();
+    for (Entity entity : result.entities) {
+      Row row = converter.toRow(entity, tablePlan);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -281,6 +566,171 @@ public class DataManager {
         result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
 
+  /**
+   * A cursor cannot resume within rows whose sort column is null, so those
+   * rows are fetched by a second query that is ordered by rowId alone. In
+   * ascending order the non-null rows are read first and the null rows
+   * second; in descending order the reverse. The attribute of the cursor
+   * tells which of the two queries it resumes. When the first query runs out,
+   * the page is filled from the start of the second.
+   */
+  private WebsafeQueryResult querySortedRows(DbTable table,
+      List<DbColumnDefinitionsEntity> columns, List<RowFilter> filters, DataField sortField,
+      Direction direction, QueryResumePoint startCursor, int fetchLimit)
+      throws ODKDatastoreException, BadColumnNameException {
+    DataField rowIdField = table.getDataField(CommonFieldsBase.URI_COLUMN_NAME);
+    boolean nullsFirst = (direction == Direction.DESCENDING);
+    boolean resumesNulls = (startCursor != null && rowIdField.getName().equals(
+        startCursor.getAttributeName()));
+    boolean startsInFirst = (startCursor == null || resumesNulls == nullsFirst);
+
+    Query query = buildFilteredRowsQuery(table, columns, filters);
+    addSortedRowsCriteria(query, sortField, rowIdField, direction, startsInFirst == nullsFirst);
+    WebsafeQueryResult result = query.execute(startCursor, fetchLimit);
+    if (!startsInFirst || result.hasMore) {
+      return result;
+    }
+
+    int remaining = (fetchLimit == 0) ? 0 : fetchLimit - result.entities.size();
+    Query rest = buildFilteredRowsQuery(table, columns, filters);
+    addSortedRowsCriteria(rest, sortField, rowIdField, direction, !nullsFirst);
+    WebsafeQueryResult restResult = rest.execute(null,
+        (fetchLimit != 0 && remaining == 0) ? 1 : remaining);
+    if (restResult.entities.isEmpty()) {
+      return result;
+    }
+    if (fetchLimit != 0 && remaining == 0) {
+      // the page is already full -- the second query only tells us there is
+      // more to come.
+      return new WebsafeQueryResult(result.entities, result.websafeRefetchCursor,
+          result.websafeBackwardCursor, result.websafeResumeCursor, true, result.hasPrior);
+    }
+    // the second query ran without a cursor, so its cursors are forward ones
+    // even if this page is being read backward.
+    boolean isForward = (startCursor == null || startCursor.isForwardCursor());
+    List<Entity> entities = new ArrayList<Entity>(result.entities);
+    entities.addAll(restResult.entities);
+    return new WebsafeQueryResult(entities, result.websafeRefetchCursor,
+        result.entities.isEmpty() ? withDirection(restResult.websafeBackwardCursor, !isForward)
+            : result.websafeBackwardCursor, withDirection(restResult.websafeResumeCursor,
+            isForward), restResult.hasMore, result.hasPrior);
+  }
+
+  private static String withDirection(String websafeCursor, boolean isForward) {
+    QueryResumePoint cursor = QueryResumePoint.fromWebsafeCursor(websafeCursor);
+    if (cursor == null) {
+      return null;
+    }
+    return new QueryResumePoint(cursor.getAttributeName(), cursor.getValue(),
+        cursor.getUriLastReturnedValue(), isForward).asWebsafeCursor();
+  }
+
+  private void addSortedRowsCriteria(Query query, DataField sortField, DataField rowIdField,
+      Direction direction, boolean nullRows) {
+    if (nullRows) {
+      query.addFilter(sortField, FilterOperation.EQUAL, null);
+    } else {
+      query.addFilter(sortField, FilterOperation.NOT_EQUAL, null);
+      query.addSort(sortField, direction);
+    }
+    query.addSort(rowIdField, direction);
+  }
+
+  /**
+   * @return the query for the current rows of the table that satisfy all of
+   *         the given filters, or null if no row can satisfy them.
+   * @throws BadColumnNameException
+   *           if a filter refers to an unknown column or has a value that
+   *           does not suit its column
+   */
+  private Query buildFilteredRowsQuery(DbTable table, List<DbColumnDefinitionsEntity> columns,
+      List<RowFilter> filters) throws BadColumnNameException {
+    Query query = buildRowsQuery(table);
+    if (filters != null) {
+      for (RowFilter filter : filters) {
+        DataField field = getQueryableField(table, columns, filter.getElementKey());
+        if (filter.getOperation() == RowFilter.Operation.IN) {
+          List<Object> values = new ArrayList<Object>();
+          if (filter.getValues() != null) {
+            for (String value : filter.getValues()) {
+              values.add(toFilterValue(field, filter.getElementKey(), value));
+            }
+          }
+          if (values.isEmpty()) {
+            return null;
+          }
+          query.include(field, values);
+        } else if (filter.getOperation() != null) {
+          query.addFilter(field, filterOperationMap.get(filter.getOperation()),
+              toFilterValue(field, filter.getElementKey(), filter.getValue()));
+        } else {
+          throw new IllegalArgumentException("Filter operation is not specified for "
+              + filter.getElementKey());
+        }
+      }
+    }
+    return query;
+  }
+
+  private static final Map<RowFilter.Operation, FilterOperation> filterOperationMap;
+  static {
+    filterOperationMap = new HashMap<RowFilter.Operation, FilterOperation>();
+    filterOperationMap.put(RowFilter.Operation.EQUAL, FilterOperation.EQUAL);
+    filterOperationMap.put(RowFilter.Operation.NOT_EQUAL, FilterOperation.NOT_EQUAL);
+    filterOperationMap.put(RowFilter.Operation.LESS_THAN, FilterOperation.LESS_THAN);
+    filterOperationMap.put(RowFilter.Operation.LESS_THAN_OR_EQUAL,
+        FilterOperation.LESS_THAN_OR_EQUAL);
+    filterOperationMap.put(RowFilter.Operation.GREATER_THAN, FilterOperation.GREATER_THAN);
+    filterOperationMap.put(RowFilter.Operation.GREATER_THAN_OR_EQUAL,
+        FilterOperation.GREATER_THAN_OR_EQUAL);
+  }
+
+  /**
+   * @return the DataField of the DbTable holding the given user-defined column
+   * @throws BadColumnNameException
+   *           if the column does not exist or is not stored in its own
+   *           database column.
+   */
+  private DataField getQueryableField(DbTable table, List<DbColumnDefinitionsEntity> columns,
+      String elementKey) throws BadColumnNameException {
+    if (elementKey != null) {
+      for (DbColumnDefinitionsEntity column : columns) {
+        if (column.getElementKey().equals(elementKey) && column.isUnitOfRetention()) {
+          return table.getDataField(elementKey.toUpperCase());
+        }
+      }
+    }
+    throw new BadColumnNameException("Bad column name " + elementKey);
+  }
+
+  /**
+   * Convert the string representation of a column value into the object type
+   * expected by the persistence layer.
+   *
+   * @throws BadColumnNameException
+   *           if the value is not a number and the column is numeric.
+   */
+  private Object toFilterValue(DataField field, String elementKey, String value)
+      throws BadColumnNameException {
+    if (value == null) {
+      return null;
+    }
+    try {
+      switch (field.getDataType()) {
+      case BOOLEAN:
+        return WebUtils.parseBoolean(value);
+      case INTEGER:
+        return Long.valueOf(value);
+      case DECIMAL:
+        return new BigDecimal(value);
+      default:
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      throw new BadColumnNameException("Bad value " + value + " for column " + elementKey);
+    }
+  }
+
   /**
    * @return the query for current rows in the table
    */
@@ -305,12 +755,38 @@ public class DataManager {
   public WebsafeRows getRowsSince(String dataETag, QueryResumePoint startCursor, int fetchLimit)
       throws ODKDatastoreException, ODKTaskLockException, InconsistentStateException,
       PermissionDeniedException, BadColumnNameException {
+    return getRowsSince(dataETag, startCursor, fetchLimit, false);
+  }
+
+  /**
+   * Retrieves a set of rows representing the changes since the given data etag.
+   *
+   * @param dataETag
+   *          the data ETag
+   * @param asDeltas
+   *          true to delta-encode the rows against the revisions the client
+   *          already holds (see {@link Row#getBaseRowETag()}). Ignored for
+   *          backward cursors.
+   * @return the rows which have changed or been added since the given data etag
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws InconsistentStateException
+   * @throws PermissionDeniedException
+   * @throws BadColumnNameException
+   */
+  public WebsafeRows getRowsSince(String dataETag, QueryResumePoint startCursor, int fetchLimit,
+      boolean asDeltas) throws ODKDatastoreException, ODKTaskLockException,
+      InconsistentStateException, PermissionDeniedException, BadColumnNameException {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
     String currentDataETag = null;
+    boolean isSnapshot = false;
     
     List<DbColumnDefinitionsEntity> columns = null;
+    ColumnPlan tablePlan = null;
+    ColumnPlan logPlan = null;
+    DbLogTable logTable = null;
     WebsafeQueryResult result = null;
     LockTemplate propsLock = new LockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
@@ -331,7 +807,9 @@ public class DataManager {
       columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
 
       DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      tablePlan = new ColumnPlan(table, columns);
+      logPlan = new ColumnPlan(logTable, columns);
 
       revertPendingChanges(entry, columns, table, logTable);
 
@@ -342,11 +820,18 @@ public class DataManager {
         } catch (ODKEntityNotFoundException e) {
           // TODO: log this as a warning -- may be returning a very large set
           sequenceValue = null;
+          // if the log has been compacted, the dataETag may have been removed
+          // from it. Return the current contents of the table instead.
+          isSnapshot = (DbTableLogCheckpoint.getCheckpointSequenceValue(tableId, cc) != null);
         }
       }
 
       Query query;
-      if (sequenceValue == null) {
+      if (isSnapshot) {
+        logger.warn("ETag " + dataETag + " precedes the log checkpoint of " + tableId
+            + " -- returning the current table contents");
+        query = buildRowsSnapshotQuery(table, startCursor);
+      } else if (sequenceValue == null) {
         query = buildRowsFromBeginningQuery(logTable, entry, (startCursor == null ? true
             : startCursor.isForwardCursor()));
       } else {
@@ -368,7 +853,9 @@ public class DataManager {
     // row.
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRowFromLogTable(entity, columns);
+      // snapshot rows are fetched from the DbTable, not the DbLogTable
+      Row row = isSnapshot ? converter.toRow(entity, tablePlan) : converter.toRowFromLogTable(
+          entity, logPlan);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -376,7 +863,15 @@ public class DataManager {
         rows.add(row);
       }
     }
-    return new WebsafeRows(computeDiff(rows), currentDataETag, result.websafeRefetchCursor,
+    List<Row> diffRows = computeDiff(rows);
+    // the base revisions of a page fetched backwards may be on pages that the
+    // client has not yet fetched; send whole rows.
+    boolean isForwardCursor = (startCursor == null ? true : startCursor.isForwardCursor());
+    if (asDeltas && !isSnapshot && isForwardCursor) {
+      encodeDeltas(diffRows, getBaseRowETags(result.entities), logTable, logPlan,
+          new DataKeyValueDeepComparator(columns));
+    }
+    return new WebsafeRows(diffRows, currentDataETag, result.websafeRefetchCursor,
         result.websafeBackwardCursor, result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
   
@@ -411,6 +906,7 @@ public class DataManager {
     String currentDataETag = null;
     
     List<DbColumnDefinitionsEntity> columns = null;
+    ColumnPlan logPlan = null;
     WebsafeQueryResult result = null;
     LockTemplate propsLock = new LockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
@@ -432,6 +928,7 @@ public class DataManager {
 
       DbTable table = DbTable.getRelation(tableDefn, columns, cc);
       DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      logPlan = new ColumnPlan(logTable, columns);
 
       revertPendingChanges(entry, columns, table, logTable);
 
@@ -491,7 +988,7 @@ public class DataManager {
     // row.
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRowFromLogTable(entity, columns);
+      Row row = converter.toRowFromLogTable(entity, logPlan);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -534,16 +1031,13 @@ public class DataManager {
     
     query.addSort(DbLogTable.SEQUENCE_VALUE, Direction.DESCENDING);
 
-    List<Entity> values = query.execute();
-    if (values == null || values.size() == 0) {
+    // the descending sort on the sequence value ensures we get the last change for 
+    // this dataETagAtModification. This assumes the client has gotten all records
+    // matching this tag, and is requesting changes *after* the tag.
+    Entity e = query.getFirst();
+    if (e == null) {
       throw new ODKEntityNotFoundException("ETag " + dataETag + " was not found in log table!");
-    } else if (values.size() != 1) {
-      // the descending sort on the sequence value ensures we get the last change for 
-      // this dataETagAtModification. This assumes the client has gotten all records
-      // matching this tag, and is requesting changes *after* the tag.
-      logger.info("Multiple records for dataETagAtModification " + dataETag + " count: " + values.size());
     }
-    Entity e = values.get(0);
     return e.getString(DbLogTable.SEQUENCE_VALUE);
   }
   
@@ -580,11 +1074,10 @@ public class DataManager {
            org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN_OR_EQUAL, givenTimestamp);
     }
     
-    List<Entity> values = query.execute();
-    if (values == null || values.size() == 0) {
+    Entity e = query.getFirst();
+    if (e == null) {
       throw new ODKEntityNotFoundException("Timestamp " + dateToCompare.toString() + " was not found in log table!");
     } 
-    Entity e = values.get(0);
     return e.getString(DbLogTable.SEQUENCE_VALUE);
   }
   
@@ -621,11 +1114,10 @@ public class DataManager {
            org.opendatakit.common.persistence.Query.FilterOperation.LESS_THAN_OR_EQUAL, givenTimestamp);
     }
     
-    List<Entity> values = query.execute();
-    if (values == null || values.size() == 0) {
+    Entity e = query.getFirst();
+    if (e == null) {
       throw new ODKEntityNotFoundException("Timestamp " + dateToCompare.toString() + " was not found in log table!");
     } 
-    Entity e = values.get(0);
     return e.getString(DbLogTable.SEQUENCE_VALUE);
   }
 
@@ -646,6 +1138,26 @@ public class DataManager {
     return query;
   }
 
+  /**
+   * Used when the requested dataETag has been compacted out of the log. Returns
+   * all rows in the table, including deleted rows, so that the client can
+   * reconcile its copy against the current contents of the table.
+   *
+   * @param table
+   * @param startCursor
+   * @return the query for the current state of every row in the table
+   */
+  private Query buildRowsSnapshotQuery(DbTable table, QueryResumePoint startCursor) {
+    Query query = table.query("DataManager.buildRowsSnapshotQuery", cc);
+    query.addSort(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+        (startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING
+            : Direction.DESCENDING);
+    // we need the filter to activate the sort...
+    query.addFilter(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+        org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
+    return query;
+  }
+
   /**
    * @param sequenceValue
    * @return the query for rows which have been changed or added since the given
@@ -705,6 +1217,148 @@ public class DataManager {
     return new ArrayList<Row>(diff.values());
   }
 
+  /**
+   * Determine the base revision of each row in a page of DbLogTable entries:
+   * the revision preceding the earliest entry for that row in the page. A
+   * client applying the pages in order holds that revision, either from before
+   * the sync or from a previous page.
+   *
+   * @param logEntities
+   *          the DbLogTable entities of the page
+   * @return map of rowId to the rowETag of its base revision (null if the
+   *         earliest entry is the insertion of the row).
+   */
+  private Map<String, String> getBaseRowETags(List<Entity> logEntities) {
+    Map<String, String> earliestSequenceValues = new HashMap<String, String>();
+    Map<String, String> baseRowETags = new HashMap<String, String>();
+    for (Entity entity : logEntities) {
+      String rowId = entity.getString(DbLogTable.ROW_ID);
+      String sequenceValue = entity.getString(DbLogTable.SEQUENCE_VALUE);
+      String earliest = earliestSequenceValues.get(rowId);
+      if (earliest == null || sequenceValue.compareTo(earliest) < 0) {
+        earliestSequenceValues.put(rowId, sequenceValue);
+        baseRowETags.put(rowId, entity.getString(DbLogTable.PREVIOUS_ROW_ETAG));
+      }
+    }
+    return baseRowETags;
+  }
+
+  /**
+   * Delta-encode the rows: replace the values of each row with those that
+   * differ from the values of its base revision, and identify that revision
+   * with the baseRowETag. Rows that are deleted, have no base revision, or
+   * whose base revision is no longer in the DbLogTable (e.g., it has been
+   * compacted) are left whole. So are rows whose base revision the user
+   * could not have read (e.g., the row was moved into the user's filter
+   * scope), as the client cannot hold that revision.
+   *
+   * @param rows
+   * @param baseRowETags
+   *          map of rowId to the rowETag of its base revision
+   * @param logTable
+   * @param logPlan
+   * @param dc
+   * @throws ODKDatastoreException
+   */
+  private void encodeDeltas(List<Row> rows, Map<String, String> baseRowETags,
+      DbLogTable logTable, ColumnPlan logPlan, DataKeyValueDeepComparator dc)
+      throws ODKDatastoreException {
+    Set<String> wantedRowETags = new HashSet<String>();
+    for (Row row : rows) {
+      String baseRowETag = baseRowETags.get(row.getRowId());
+      if (baseRowETag != null && !row.isDeleted()) {
+        wantedRowETags.add(baseRowETag);
+      }
+    }
+    if (wantedRowETags.isEmpty()) {
+      return;
+    }
+
+    // fetch all of the base revisions at once
+    Query query = logTable.query("DataManager.encodeDeltas", cc);
+    query.include(PersistConsts.URI_COLUMN_NAME, wantedRowETags);
+    Map<String, Entity> bases = new HashMap<String, Entity>();
+    for (Entity base : query.execute()) {
+      bases.put(base.getId(), base);
+    }
+
+    boolean unfilteredRead = userPermissions.hasPermission(appId, tableId,
+        TablePermission.UNFILTERED_READ);
+    for (Row row : rows) {
+      String baseRowETag = baseRowETags.get(row.getRowId());
+      if (baseRowETag == null || row.isDeleted()) {
+        continue;
+      }
+      Entity base = bases.get(baseRowETag);
+      if (base == null || !row.getRowId().equals(base.getString(DbLogTable.ROW_ID))) {
+        // send the whole row
+        continue;
+      }
+      if (!unfilteredRead
+          && !userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
+              row.getRowId(), converter.getDbLogTableFilterScope(base))) {
+        // send the whole row
+        continue;
+      }
+      Map<String, String> baseValues = Row.convertToMap(logPlan.getRowValues(base));
+      ArrayList<DataKeyValue> changes = new ArrayList<DataKeyValue>();
+      for (DataKeyValue value : row.getValues()) {
+        DataKeyValue baseValue = new DataKeyValue(value.column, baseValues.get(value.column));
+        if (dc.compare(value, baseValue) != 0) {
+          changes.add(value);
+        }
+      }
+      row.setValues(changes);
+      row.setBaseRowETag(baseRowETag);
+    }
+  }
+
+  /**
+   * A row uploaded as a delta holds only the values that differ from its base
+   * revision. Fill in the remaining values from that revision: the DbTable
+   * entity if it is still the base revision, otherwise the DbLogTable entry of
+   * the base revision.
+   *
+   * @param row
+   *          the delta-encoded row
+   * @param entity
+   *          the DbTable entity of the row
+   * @param columns
+   * @param logTable
+   * @return false if the base revision is not available.
+   * @throws ODKDatastoreException
+   */
+  private boolean expandDelta(Row row, Entity entity, List<DbColumnDefinitionsEntity> columns,
+      DbLogTable logTable) throws ODKDatastoreException {
+    String baseRowETag = row.getBaseRowETag();
+    ArrayList<DataKeyValue> values;
+    if (entity.isFromDatabase() && baseRowETag.equals(entity.getString(DbTable.ROW_ETAG))) {
+      values = converter.getRowValues(entity, columns);
+    } else {
+      Entity base;
+      try {
+        base = logTable.getEntity(baseRowETag, cc);
+      } catch (ODKEntityNotFoundException e) {
+        return false;
+      }
+      if (!row.getRowId().equals(base.getString(DbLogTable.ROW_ID))) {
+        return false;
+      }
+      values = converter.getRowValues(base, columns);
+    }
+    Map<String, String> changes = Row.convertToMap(row.getValues());
+    for (DataKeyValue value : values) {
+      if (changes.containsKey(value.column)) {
+        value.value = changes.remove(value.column);
+      }
+    }
+    // unknown columns are rejected as they would be in a whole row
+    values.addAll(Row.convertFromMap(changes));
+    row.setValues(values);
+    row.setBaseRowETag(null);
+    return true;
+  }
+
   /**
    * Retrieve a row from the table.
    *
@@ -884,191 +1538,382 @@ public class DataManager {
     }
   }
 
+  private List<BulkRowObjWrapper> wrapRows(RowList rows) {
+    List<BulkRowObjWrapper> rowWrapperList = new ArrayList<BulkRowObjWrapper>();
+    for (Row row : rows.getRows()) {
+      rowWrapperList.add(new BulkRowObjWrapper(row));
+    }
+    return rowWrapperList;
+  }
+
   /**
-   * The tableUri of the returned rowOutcomeList is null.
-   *  
-   * @param rows
-   * @return
-   * @throws ODKEntityPersistException
-   * @throws ODKEntityNotFoundException
+   * Read the current state of each row and determine whether it can be
+   * inserted, updated or deleted. The entities of the rows that can be are
+   * updated in memory under dataETagAtModification, but nothing is written.
+   *
+   * @param rowWrapperList
+   * @param columns
+   * @param table
+   * @param logTable
+   *          used to expand delta-encoded rows
+   * @param dataETagAtModification
    * @throws ODKDatastoreException
-   * @throws ODKTaskLockException
-   * @throws ETagMismatchException
-   * @throws BadColumnNameException
    * @throws PermissionDeniedException
-   * @throws InconsistentStateException
-   * @throws TableDataETagMismatchException 
    */
-  public RowOutcomeList insertOrUpdateRows(RowList rows) throws ODKEntityPersistException,
-      ODKEntityNotFoundException, ODKDatastoreException, ODKTaskLockException,
-      ETagMismatchException, BadColumnNameException, PermissionDeniedException,
-      InconsistentStateException, TableDataETagMismatchException {
+  private void prepareRows(List<BulkRowObjWrapper> rowWrapperList,
+      List<DbColumnDefinitionsEntity> columns, DbTable table, DbLogTable logTable,
+      String dataETagAtModification) throws ODKDatastoreException, PermissionDeniedException {
 
-    long startTime = System.currentTimeMillis();
+    DataKeyValueDeepComparator dc = new DataKeyValueDeepComparator(columns);
 
-    try {
-      Validate.notNull(rows);
-      ArrayList<RowOutcome> rowOutcomes = new ArrayList<RowOutcome>();
-
-      userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
-      
-      String dataETagAtModification = null;
-      
-      LockTemplate propsLock = new LockTemplate(tableId,
-          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
+      Row row = rowWrapper.getRow();
 
-      List<DbColumnDefinitionsEntity> columns = null;
+      Entity entity = null;
       try {
-        propsLock.acquire();
-        Sequencer sequencer = new Sequencer(cc);
+        entity = table.getEntity(rowWrapper.getRowId(), cc);
 
-        DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-        String schemaETag = entry.getSchemaETag();
+        if (rowWrapper.hasNewRowId()) {
+          // yikes! -- generated UUID conflicts with an existing one.
+          rowWrapper.setOutcome(OutcomeType.IN_CONFLICT);
+          continue;
+        }
 
-        if (schemaETag == null) {
-          throw new InconsistentStateException("Schema for table " + tableId
-              + " is not yet defined.");
+      } catch (ODKEntityNotFoundException e) {
+
+        if (row.isDeleted()) {
+          rowWrapper.setOutcome(OutcomeType.DENIED);
+          continue;
         }
-        
-        String dataETag = entry.getDataETag();
-        if (!((dataETag == null) ? (rows.getDataETag() == null) : dataETag.equals(rows.getDataETag())) ) {
-          throw new TableDataETagMismatchException("The dataETag for table " + tableId + " does not match that supplied in the RowList");          
+
+        // presumptive initialization for insert...
+        entity = table.newEntity(rowWrapper.getRowId(), cc);
+        entity.set(DbTable.CREATE_USER, userPermissions.getOdkTablesUserId());
+      }
+
+      // add entity to row wrapper
+      rowWrapper.setEntity(entity);
+
+      if (row.getBaseRowETag() != null && !row.isDeleted()
+          && !expandDelta(row, entity, columns, logTable)) {
+        // the client must resolve this against the current row and upload
+        // the whole row
+        if (entity.isFromDatabase()) {
+          rowWrapper.setOutcome(converter.toRow(entity, columns), OutcomeType.IN_CONFLICT);
+        } else {
+          rowWrapper.setOutcome(OutcomeType.DENIED);
         }
+        continue;
+      }
 
-        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
-            cc);
-        columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+      // determine whether the update or insert should go through or not.
+      // if entity.isFromDatabase() is true, it is an update or delete
+      prepareRowForInsertUpdateOrDelete(rowWrapper, columns, table, dc);
 
-        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-        DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      // OK we are able to update or insert or delete the record
+      if (!rowWrapper.outcomeAlreadySet()) {
+        Scope scope = rowWrapper.getFilterScope();
 
-        revertPendingChanges(entry, columns, table, logTable);
+        if (row.isDeleted()) {
 
-        logger.error("Before loop Time elpased: " + (System.currentTimeMillis() - startTime));
+          // remember the previous row ETag so we can chain revisions in the
+          // DbLogTable
+          rowWrapper.setPreviousRowETag(entity.getString(DbTable.ROW_ETAG));
 
-        DataKeyValueDeepComparator dc = new DataKeyValueDeepComparator(columns);
+          // update the row ETag and deletion status
+          entity.set(DbTable.ROW_ETAG, PersistenceUtils.newUri());
+          entity.set(DbTable.DELETED, true);
 
-        // mark as pending change.
-        // get new dataETag
-        dataETagAtModification = PersistenceUtils.newUri();
-        entry.setPendingDataETag(dataETagAtModification);
-        entry.put(cc);
+        } else {
+          // this will be null of the entity is newly created...
+          rowWrapper.setPreviousRowETag(row.getRowETag());
 
-        List<Entity> entityInsertList = new ArrayList<Entity>();
-        List<Entity> entityUpdateList = new ArrayList<Entity>();
-        List<Entity> logEntityList = new ArrayList<Entity>();
+          // update the fields in the DbTable entity...
+          creator.setRowFields(entity, PersistenceUtils.newUri(), dataETagAtModification,
+              userPermissions.getOdkTablesUserId(), false, scope, row.getFormId(),
+              row.getLocale(), row.getSavepointType(), row.getSavepointTimestamp(),
+              row.getSavepointCreator(), row.getValues(), columns);
 
-        ArrayList<BulkRowObjWrapper> rowWrapperList = new ArrayList<BulkRowObjWrapper>();
+        }
+      }
+    }
+  }
 
-        for (Row row : rows.getRows()) {
+  /**
+   * Write the rows prepared by prepareRows() and commit dataETagAtModification
+   * as the dataETag of the table. Must be called with the table lock held and
+   * after revertPendingChanges().
+   *
+   * @param rowWrapperList
+   * @param columns
+   * @param table
+   * @param logTable
+   * @param entry
+   * @param dataETagAtModification
+   * @param rowOutcomes
+   *          the outcome of each row is appended to this list.
+   * @throws ODKDatastoreException
+   */
+  private void writeRows(List<BulkRowObjWrapper> rowWrapperList,
+      List<DbColumnDefinitionsEntity> columns, DbTable table, DbLogTable logTable,
+      DbTableEntryEntity entry, String dataETagAtModification, List<RowOutcome> rowOutcomes)
+      throws ODKDatastoreException {
 
-          BulkRowObjWrapper rowWrapper = new BulkRowObjWrapper(row);
+    Sequencer sequencer = new Sequencer(cc);
 
-          // and add row wrapper for bulk processing
-          rowWrapperList.add(rowWrapper);
+    // mark as pending change.
+    entry.setPendingDataETag(dataETagAtModification);
+    entry.put(cc);
 
-          Entity entity = null;
-          try {
-            entity = table.getEntity(rowWrapper.getRowId(), cc);
+    List<Entity> entityInsertList = new ArrayList<Entity>();
+    List<Entity> entityUpdateList = new ArrayList<Entity>();
+    List<Entity> logEntityList = new ArrayList<Entity>();
 
-            if (rowWrapper.hasNewRowId()) {
-              // yikes! -- generated UUID conflicts with an existing one.
-              rowWrapper.setOutcome(OutcomeType.IN_CONFLICT);
-              rowWrapperList.add(rowWrapper);
-              continue;
-            }
+    for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
+      if (!rowWrapper.outcomeAlreadySet()) {
+        Entity entity = rowWrapper.getEntity();
 
-          } catch (ODKEntityNotFoundException e) {
+        // create log table entry
+        Entity logEntity = creator.newLogEntity(logTable, dataETagAtModification,
+            rowWrapper.getPreviousRowETag(), entity, columns, sequencer, cc);
 
-            if (row.isDeleted()) {
-              rowWrapper.setOutcome(OutcomeType.DENIED);
-              rowWrapperList.add(rowWrapper);
-              continue;
-            }
+        logEntityList.add(logEntity);
 
-            // presumptive initialization for insert...
-            entity = table.newEntity(rowWrapper.getRowId(), cc);
-            entity.set(DbTable.CREATE_USER, userPermissions.getOdkTablesUserId());
-          }
+        if (entity.isFromDatabase()) {
+          entityUpdateList.add(entity);
+        } else {
+          entityInsertList.add(entity);
+        }
+      }
+    }
 
-          // add entity to row wrapper
-          rowWrapper.setEntity(entity);
+    // commit the log change to the database (must be done first!)
+    if (!logEntityList.isEmpty()) {
+      logTable.bulkAlterEntities(logEntityList, cc);
+    }
 
-          // determine whether the update or insert should go through or not.
-          // if entity.isFromDatabase() is true, it is an update or delete
-          prepareRowForInsertUpdateOrDelete(rowWrapper, columns, table, dc);
+    // commit the row updates
+    if (!entityUpdateList.isEmpty()) {
+      table.bulkAlterEntities(entityUpdateList, cc);
+    }
+    // commit the row inserts
+    if (!entityInsertList.isEmpty()) {
+      table.bulkAlterEntities(entityInsertList, cc);
+    }
+    recordChangeSet(dataETagAtModification, logEntityList);
+
+    // commit change
+    entry.setDataETag(entry.getPendingDataETag());
+    entry.setPendingDataETag(null);
+    entry.put(cc);
+    TableChangeNotifier.dataETagChanged(tableId, entry.getDataETag());
+
+    for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
+      if (!rowWrapper.outcomeAlreadySet()) {
+        // we need to return the fields from the entity we upserted.
+        Row newServer = converter.toRow(rowWrapper.getEntity(), columns);
+        rowWrapper.setOutcome(newServer, OutcomeType.SUCCESS);
+      }
+      // update the outcomes set...
+      rowOutcomes.add(rowWrapper.getOutcome());
+    }
+  }
 
-          // OK we are able to update or insert or delete the record
-          if (!rowWrapper.outcomeAlreadySet()) {
-            Scope scope = rowWrapper.getFilterScope();
+  /**
+   * insertOrUpdateRows() when row-level concurrency is enabled in the server
+   * preferences. The rows are read and checked for permissions and conflicts
+   * without holding the table lock. The lock is then held only to confirm that
+   * the table has not changed since the rows were read and to write the
+   * changes. Every write to the rows of a table either changes its dataETag
+   * or leaves a pending dataETag, so if neither happened, the rows that were
+   * read are still current.
+   *
+   * @param rows
+   * @param dataETagAtModification
+   * @param startTime
+   * @return
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws BadColumnNameException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws TableDataETagMismatchException
+   */
+  private RowOutcomeList insertOrUpdateRowsOptimistically(RowList rows,
+      String dataETagAtModification, long startTime) throws ODKDatastoreException, ODKTaskLockException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException, TableDataETagMismatchException {
 
-            String previousRowETag;
+    ArrayList<RowOutcome> rowOutcomes = new ArrayList<RowOutcome>();
 
-            if (row.isDeleted()) {
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    String schemaETag = entry.getSchemaETag();
 
-              // remember the previous row ETag so we can chain revisions in the
-              // DbLogTable
-              previousRowETag = entity.getString(DbTable.ROW_ETAG);
+    if (schemaETag == null) {
+      throw new InconsistentStateException("Schema for table " + tableId
+          + " is not yet defined.");
+    }
 
-              // update the row ETag and deletion status
-              entity.set(DbTable.ROW_ETAG, PersistenceUtils.newUri());
-              entity.set(DbTable.DELETED, true);
+    String dataETag = entry.getDataETag();
+    if (!((dataETag == null) ? (rows.getDataETag() == null) : dataETag.equals(rows.getDataETag())) ) {
+      throw new TableDataETagMismatchException("The dataETag for table " + tableId + " does not match that supplied in the RowList");
+    }
 
-            } else {
-              // this will be null of the entity is newly created...
-              previousRowETag = row.getRowETag();
+    DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag, cc);
+    List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
 
-              // update the fields in the DbTable entity...
-              creator.setRowFields(entity, PersistenceUtils.newUri(), dataETagAtModification,
-                  userPermissions.getOdkTablesUserId(), false, scope, row.getFormId(),
-                  row.getLocale(), row.getSavepointType(), row.getSavepointTimestamp(),
-                  row.getSavepointCreator(), row.getValues(), columns);
+    DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+    DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
 
-            }
+    List<BulkRowObjWrapper> rowWrapperList = wrapRows(rows);
 
-            // create log table entry
-            Entity logEntity = creator.newLogEntity(logTable, dataETagAtModification,
-                previousRowETag, entity, columns, sequencer, cc);
+    // if a write is in progress (or was abandoned), the rows may be partially
+    // updated and can only be read once it has completed or been reverted.
+    boolean prepared = (entry.getPendingDataETag() == null);
+    if (prepared) {
+      prepareRows(rowWrapperList, columns, table, logTable, dataETagAtModification);
+    }
 
-            logEntityList.add(logEntity);
+    logger.error("Before lock Time elpased: " + (System.currentTimeMillis() - startTime));
 
-            if (entity.isFromDatabase()) {
-              entityUpdateList.add(entity);
-            } else {
-              entityInsertList.add(entity);
-            }
-          }
+    LockTemplate propsLock = new LockTemplate(tableId,
+        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    try {
+      propsLock.acquire();
 
-        }
+      entry = DbTableEntry.getTableIdEntry(tableId, cc);
+      if (!schemaETag.equals(entry.getSchemaETag())) {
+        throw new InconsistentStateException("Schema for table " + tableId
+            + " changed while the rows were being updated.");
+      }
 
-        // commit the log change to the database (must be done first!)
-        if (!logEntityList.isEmpty()) {
-          logTable.bulkAlterEntities(logEntityList, cc);
+      String currentDataETag = entry.getDataETag();
+      if (!((dataETag == null) ? (currentDataETag == null) : dataETag.equals(currentDataETag))) {
+        throw new TableDataETagMismatchException("The dataETag for table " + tableId + " does not match that supplied in the RowList");
+      }
+
+      if (entry.getPendingDataETag() != null) {
+        revertPendingChanges(entry, columns, table, logTable);
+        prepared = false;
+      }
+
+      if (!prepared) {
+        for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
+          rowWrapper.reset();
         }
+        prepareRows(rowWrapperList, columns, table, logTable, dataETagAtModification);
+      }
+
+      writeRows(rowWrapperList, columns, table, logTable, entry, dataETagAtModification,
+          rowOutcomes);
+
+      logger.error("End lock Time elpased: " + (System.currentTimeMillis() - startTime));
+    } finally {
+      propsLock.release();
+    }
+
+    long time = (System.currentTimeMillis() - startTime);
+    int numRows = rows.getRows().size();
+    if (numRows != 0) {
+      logger.error("Time: " + time + " size: " + numRows + " per iteration " + (time / numRows));
+    }
 
-        // commit the row updates
-        if (!entityUpdateList.isEmpty()) {
-          table.bulkAlterEntities(entityUpdateList, cc);
+    return new RowOutcomeList(rowOutcomes, dataETagAtModification);
+  }
+
+  /**
+   * The tableUri of the returned rowOutcomeList is null.
+   *  
+   * @param rows
+   * @return
+   * @throws ODKEntityPersistException
+   * @throws ODKEntityNotFoundException
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws ETagMismatchException
+   * @throws BadColumnNameException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws TableDataETagMismatchException 
+   */
+  public RowOutcomeList insertOrUpdateRows(RowList rows) throws ODKEntityPersistException,
+      ODKEntityNotFoundException, ODKDatastoreException, ODKTaskLockException,
+      ETagMismatchException, BadColumnNameException, PermissionDeniedException,
+      InconsistentStateException, TableDataETagMismatchException {
+    return insertOrUpdateRows(rows, PersistenceUtils.newUri());
+  }
+
+  /**
+   * insertOrUpdateRows() under a dataETag chosen by the caller. A caller that
+   * records the dataETag before the write can tell, after a failure, whether
+   * the write took effect (see {@link #getAppliedRowOutcomes(RowList, String)}).
+   *
+   * @param rows
+   * @param dataETagAtModification
+   *          the new dataETag of the table. Must not have been used before.
+   * @return
+   * @throws ODKEntityPersistException
+   * @throws ODKEntityNotFoundException
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws ETagMismatchException
+   * @throws BadColumnNameException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws TableDataETagMismatchException
+   */
+  public RowOutcomeList insertOrUpdateRows(RowList rows, String dataETagAtModification)
+      throws ODKEntityPersistException, ODKEntityNotFoundException, ODKDatastoreException,
+      ODKTaskLockException, ETagMismatchException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException, TableDataETagMismatchException {
+
+    long startTime = System.currentTimeMillis();
+
+    try {
+      Validate.notNull(rows);
+      Validate.notNull(dataETagAtModification);
+      ArrayList<RowOutcome> rowOutcomes = new ArrayList<RowOutcome>();
+
+      userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+
+      if (ServerPreferencesProperties.getOdkTablesRowLevelConcurrencyEnabled(cc)) {
+        return insertOrUpdateRowsOptimistically(rows, dataETagAtModification, startTime);
+      }
+      
+      LockTemplate propsLock = new LockTemplate(tableId,
+          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+
+      List<DbColumnDefinitionsEntity> columns = null;
+      try {
+        propsLock.acquire();
+
+        DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+        String schemaETag = entry.getSchemaETag();
+
+        if (schemaETag == null) {
+          throw new InconsistentStateException("Schema for table " + tableId
+              + " is not yet defined.");
         }
-        // commit the row inserts
-        if (!entityInsertList.isEmpty()) {
-          table.bulkAlterEntities(entityInsertList, cc);
+        
+        String dataETag = entry.getDataETag();
+        if (!((dataETag == null) ? (rows.getDataETag() == null) : dataETag.equals(rows.getDataETag())) ) {
+          throw new TableDataETagMismatchException("The dataETag for table " + tableId + " does not match that supplied in the RowList");          
         }
 
-        // commit change
-        entry.setDataETag(entry.getPendingDataETag());
-        entry.setPendingDataETag(null);
-        entry.put(cc);
+        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
+            cc);
+        columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
 
-        for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
-          if (!rowWrapper.outcomeAlreadySet()) {
-            // we need to return the fields from the entity we upserted.
-            Row newServer = converter.toRow(rowWrapper.getEntity(), columns);
-            rowWrapper.setOutcome(newServer, OutcomeType.SUCCESS);
-          }
-          // update the outcomes set...
-          rowOutcomes.add(rowWrapper.getOutcome());
-        }
+        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+        DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+        revertPendingChanges(entry, columns, table, logTable);
+
+        logger.error("Before loop Time elpased: " + (System.currentTimeMillis() - startTime));
+
+        List<BulkRowObjWrapper> rowWrapperList = wrapRows(rows);
+        prepareRows(rowWrapperList, columns, table, logTable, dataETagAtModification);
+        writeRows(rowWrapperList, columns, table, logTable, entry, dataETagAtModification,
+            rowOutcomes);
 
         logger.error("End loop Time elpased: " + (System.currentTimeMillis() - startTime));
       } finally {
@@ -1119,6 +1964,273 @@ public class DataManager {
     }
   }
 
+  /**
+   * Reconstruct the outcomes of an
+   * {@link #insertOrUpdateRows(RowList, String)} of these rows whose outcomes
+   * were lost (e.g., because the server failed before the caller recorded
+   * them). Rows written under dataETagAtModification succeeded; the others
+   * are reported against their current state on the server, as the write
+   * would have reported them. Rows that were given a rowId by the write are
+   * matched, in order, to the written rows that are not otherwise accounted
+   * for.
+   *
+   * @param rows
+   * @param dataETagAtModification
+   * @return the outcomes, or null if the write did not take effect.
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   */
+  public RowOutcomeList getAppliedRowOutcomes(RowList rows, String dataETagAtModification)
+      throws ODKDatastoreException, ODKTaskLockException, PermissionDeniedException,
+      InconsistentStateException {
+    Validate.notNull(rows);
+    Validate.notNull(dataETagAtModification);
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+
+    List<DbColumnDefinitionsEntity> columns;
+    DbTable table;
+    List<Entity> written;
+    LockTemplate propsLock = new LockTemplate(tableId,
+        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    try {
+      propsLock.acquire();
+
+      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+      String schemaETag = entry.getSchemaETag();
+
+      if (schemaETag == null) {
+        throw new InconsistentStateException("Schema for table " + tableId
+            + " is not yet defined.");
+      }
+
+      // a write that was interrupted leaves its dataETag pending and is
+      // reverted; one that took effect is (or was) the table's dataETag.
+      if (!dataETagAtModification.equals(entry.getDataETag())
+          && DbTableChangeSets.getChangeSet(tableId, dataETagAtModification, cc) == null) {
+        return null;
+      }
+
+      DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
+          cc);
+      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+      table = DbTable.getRelation(tableDefn, columns, cc);
+      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+      Query query = logTable.query("DataManager.getAppliedRowOutcomes", cc);
+      query.equal(DbLogTable.DATA_ETAG_AT_MODIFICATION, dataETagAtModification);
+      query.sortAscending(DbLogTable.SEQUENCE_VALUE);
+      written = query.execute();
+    } finally {
+      propsLock.release();
+    }
+
+    Set<String> rowIds = new HashSet<String>();
+    for (Row row : rows.getRows()) {
+      if (row.getRowId() != null) {
+        rowIds.add(row.getRowId());
+      }
+    }
+    Map<String, Row> writtenRows = new HashMap<String, Row>();
+    List<Row> unclaimedRows = new ArrayList<Row>();
+    for (Entity logEntity : written) {
+      Row row = converter.toRowFromLogTable(logEntity, columns);
+      if (rowIds.contains(row.getRowId())) {
+        writtenRows.put(row.getRowId(), row);
+      } else {
+        unclaimedRows.add(row);
+      }
+    }
+
+    DataKeyValueDeepComparator dc = new DataKeyValueDeepComparator(columns);
+    ArrayList<RowOutcome> rowOutcomes = new ArrayList<RowOutcome>();
+    int nextUnclaimed = 0;
+    for (Row row : rows.getRows()) {
+      Row writtenRow = null;
+      if (row.getRowId() == null) {
+        if (nextUnclaimed < unclaimedRows.size()) {
+          writtenRow = unclaimedRows.get(nextUnclaimed++);
+        }
+      } else {
+        writtenRow = writtenRows.get(row.getRowId());
+      }
+
+      RowOutcome outcome;
+      if (writtenRow != null) {
+        outcome = new RowOutcome(writtenRow);
+        outcome.setOutcome(OutcomeType.SUCCESS);
+      } else {
+        Entity entity = null;
+        if (row.getRowId() != null) {
+          try {
+            entity = table.getEntity(row.getRowId(), cc);
+          } catch (ODKEntityNotFoundException e) {
+            // the row was neither inserted nor deleted
+          }
+        }
+        Row currentRow = (entity == null) ? null : converter.toRow(entity, columns);
+        if (currentRow == null
+            || !(userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)
+            || userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
+                currentRow.getRowId(), currentRow.getFilterScope()))) {
+          outcome = new RowOutcome(row);
+          outcome.setOutcome(OutcomeType.DENIED);
+        } else if (row.hasMatchingSignificantFieldValues(currentRow, dc)) {
+          outcome = new RowOutcome(currentRow);
+          outcome.setOutcome(OutcomeType.SUCCESS);
+        } else {
+          outcome = new RowOutcome(currentRow);
+          outcome.setOutcome(OutcomeType.IN_CONFLICT);
+        }
+      }
+      rowOutcomes.add(outcome);
+    }
+    return new RowOutcomeList(rowOutcomes, dataETagAtModification);
+  }
+
+  /**
+   * Bulk-load the rows of a newly created (empty) table. Unlike
+   * {@link #insertOrUpdateRows(RowList)}, the rows are not checked against
+   * existing rows. They are streamed from the source and written in batches
+   * of batchSize using bulk inserts. The table lock and the Sequencer are
+   * held (and the lock is renewed) for the entire import, and a single
+   * dataETag covers all of the imported rows.
+   * <p>
+   * If the import fails part-way, the dataETag of the table remains pending
+   * and the rows already written are reverted by the next access to the table.
+   *
+   * @param source
+   *          the rows to insert. Rows without a rowId are assigned one.
+   * @param batchSize
+   *          the number of rows to write in each bulk insert
+   * @param progress
+   *          notified after each batch is written; may be null
+   * @return the number of rows imported
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   *           if the table already holds data
+   * @throws BadColumnNameException
+   * @throws IOException
+   *           if the source cannot be read
+   */
+  public int importRows(RowSource source, int batchSize, ImportProgressListener progress)
+      throws ODKDatastoreException, ODKTaskLockException, PermissionDeniedException,
+      InconsistentStateException, BadColumnNameException, IOException {
+    Validate.notNull(source);
+    Validate.isTrue(batchSize > 0);
+
+    long startTime = System.currentTimeMillis();
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+
+    int rowCount = 0;
+    LockTemplate propsLock = new LockTemplate(tableId,
+        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    try {
+      propsLock.acquire();
+      Sequencer sequencer = new Sequencer(cc);
+
+      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+      String schemaETag = entry.getSchemaETag();
+
+      if (schemaETag == null) {
+        throw new InconsistentStateException("Schema for table " + tableId
+            + " is not yet defined.");
+      }
+
+      DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
+          cc);
+      List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+
+      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+      revertPendingChanges(entry, columns, table, logTable);
+
+      if (entry.getDataETag() != null) {
+        throw new InconsistentStateException("Table " + tableId
+            + " already has data. Rows can only be imported into a newly created table.");
+      }
+
+      // mark as pending change.
+      String dataETagAtModification = PersistenceUtils.newUri();
+      entry.setPendingDataETag(dataETagAtModification);
+      entry.put(cc);
+
+      List<Entity> entityInsertList = new ArrayList<Entity>();
+      List<Entity> logEntityList = new ArrayList<Entity>();
+      String firstSequenceValue = null;
+      String lastSequenceValue = null;
+      boolean done = false;
+      while (!done) {
+        entityInsertList.clear();
+        logEntityList.clear();
+        while (entityInsertList.size() < batchSize) {
+          Row row = source.nextRow();
+          if (row == null) {
+            done = true;
+            break;
+          }
+          String rowId = row.getRowId();
+          if (rowId == null) {
+            rowId = PersistenceUtils.newUri();
+          }
+          Scope scope = row.getFilterScope();
+          if (scope == null) {
+            scope = Scope.EMPTY_SCOPE;
+          }
+          Entity entity = table.newEntity(rowId, cc);
+          entity.set(DbTable.CREATE_USER, userPermissions.getOdkTablesUserId());
+          creator.setRowFields(entity, PersistenceUtils.newUri(), dataETagAtModification,
+              userPermissions.getOdkTablesUserId(), false, scope, row.getFormId(),
+              row.getLocale(), row.getSavepointType(), row.getSavepointTimestamp(),
+              row.getSavepointCreator(), row.getValues(), columns);
+
+          logEntityList.add(creator.newLogEntity(logTable, dataETagAtModification, null, entity,
+              columns, sequencer, cc));
+          entityInsertList.add(entity);
+        }
+
+        if (!entityInsertList.isEmpty()) {
+          // the log entries must be written first
+          logTable.bulkAlterEntities(logEntityList, cc);
+          table.bulkAlterEntities(entityInsertList, cc);
+          if (firstSequenceValue == null) {
+            firstSequenceValue = logEntityList.get(0).getString(DbLogTable.SEQUENCE_VALUE);
+          }
+          lastSequenceValue = logEntityList.get(logEntityList.size() - 1).getString(
+              DbLogTable.SEQUENCE_VALUE);
+          rowCount += entityInsertList.size();
+          if (progress != null) {
+            progress.rowsImported(rowCount);
+          }
+          logger.info("importRows: " + tableId + " imported " + rowCount + " rows");
+        }
+        propsLock.renew();
+      }
+
+      if (rowCount != 0) {
+        recordChangeSet(dataETagAtModification, firstSequenceValue, lastSequenceValue, rowCount);
+      }
+
+      // commit change
+      entry.setDataETag(entry.getPendingDataETag());
+      entry.setPendingDataETag(null);
+      entry.put(cc);
+      TableChangeNotifier.dataETagChanged(tableId, entry.getDataETag());
+    } finally {
+      propsLock.release();
+    }
+
+    logger.info("importRows: " + tableId + " imported " + rowCount + " rows in "
+        + (System.currentTimeMillis() - startTime) + "ms");
+    return rowCount;
+  }
+
   /**
    * Inserts or Updates a row. If inserting, the row must not already exist or
    * the eTag for the row being inserted must exactly match that on the server.
@@ -1302,11 +2414,13 @@ public class DataManager {
         // update db
         DbLogTable.putEntity(logEntity, cc);
         DbTable.putEntity(entity, cc);
+        recordChangeSet(dataETagAtModification, Collections.singletonList(logEntity));
 
         // commit change
         entry.setDataETag(entry.getPendingDataETag());
         entry.setPendingDataETag(null);
         entry.put(cc);
+        TableChangeNotifier.dataETagChanged(tableId, entry.getDataETag());
 
       } finally {
         propsLock.release();
@@ -1476,6 +2590,7 @@ public class DataManager {
         DbLogTable.putEntity(logEntity, cc);
         // commit the row change
         DbTable.putEntity(entity, cc);
+        recordChangeSet(dataETagAtModification, Collections.singletonList(logEntity));
 
         // NOTE: the DbTableInstanceFiles objects are never deleted unless the
         // table is dropped.
@@ -1488,6 +2603,7 @@ public class DataManager {
         entry.setDataETag(entry.getPendingDataETag());
         entry.setPendingDataETag(null);
         entry.put(cc);
+        TableChangeNotifier.dataETagChanged(tableId, entry.getDataETag());
 
       } finally {
         propsLock.release();
@@ -1557,7 +2673,7 @@ public class DataManager {
     String retrievalSequenceValue = null;
     
     List<DbColumnDefinitionsEntity> columns = null;
-    List<?> result = null;
+    ArrayList<String> dataETags = new ArrayList<String>();
     LockTemplate propsLock = new LockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
     try {
@@ -1582,14 +2698,23 @@ public class DataManager {
       DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
 
       revertPendingChanges(entry, columns, table, logTable);
+      boolean isIndexed = ensureChangeSetIndex(entry, logTable);
 
       String unifiedSequenceValue = null;
       if (dataETag != null) {
-        try {
-          unifiedSequenceValue = getSequenceValueForDataETag(logTable, dataETag);
-        } catch (ODKEntityNotFoundException e) {
-          // TODO: log this as a warning -- may be returning a very large set
-          unifiedSequenceValue = null;
+        if (isIndexed) {
+          DbTableChangeSetsEntity changeSet = DbTableChangeSets.getChangeSet(tableId, dataETag,
+              cc);
+          if (changeSet != null) {
+            unifiedSequenceValue = changeSet.getLastSequenceValue();
+          }
+        } else {
+          try {
+            unifiedSequenceValue = getSequenceValueForDataETag(logTable, dataETag);
+          } catch (ODKEntityNotFoundException e) {
+            // TODO: log this as a warning -- may be returning a very large set
+            unifiedSequenceValue = null;
+          }
         }
       }
 
@@ -1597,29 +2722,37 @@ public class DataManager {
           (unifiedSequenceValue == null || (unifiedSequenceValue.compareTo(sequenceValue) < 0)) ) {
         unifiedSequenceValue = sequenceValue;
       }
-      
-      Query query;
-      if (unifiedSequenceValue == null) {
-        query = buildRowsFromBeginningQuery(logTable, entry, true);
+
+      if (isIndexed) {
+        List<DbTableChangeSetsEntity> result = DbTableChangeSets.queryChangeSetsSince(tableId,
+            unifiedSequenceValue, CHANGE_SET_FETCH_LIMIT, cc);
+        for (DbTableChangeSetsEntity changeSet : result) {
+          dataETags.add(changeSet.getDataETag());
+        }
+        if (result.size() == CHANGE_SET_FETCH_LIMIT) {
+          // there may be more -- the caller resumes after the last one returned
+          retrievalSequenceValue = result.get(result.size() - 1).getLastSequenceValue();
+        }
       } else {
-        query = buildRowsSinceQuery(logTable, unifiedSequenceValue, true);
+        // the index is still being built; scan the log
+        Query query;
+        if (unifiedSequenceValue == null) {
+          query = buildRowsFromBeginningQuery(logTable, entry, true);
+        } else {
+          query = buildRowsSinceQuery(logTable, unifiedSequenceValue, true);
+        }
+        for (Object o : query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION)) {
+          dataETags.add((String) o);
+        }
       }
-      
-      result = query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION);
     } finally {
       propsLock.release();
     }
 
-    if (result == null || result.isEmpty() ) {
+    if (dataETags.isEmpty()) {
       return new ChangeSetList(null, currentDataETag, retrievalSequenceValue);
     }
 
-    ArrayList<String> dataETags = new ArrayList<String>();
-    for (Object o : result) {
-      String value = (String) o;
-      dataETags.add(value);
-    }
-    
     return new ChangeSetList(dataETags, currentDataETag, retrievalSequenceValue);
   }
 
@@ -1642,12 +2775,41 @@ public class DataManager {
    */
   public WebsafeRows getChangeSetRows(String dataETag, boolean isActive,
       QueryResumePoint startCursor, int fetchLimit) throws PermissionDeniedException, ODKDatastoreException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
+    return getChangeSetRows(dataETag, isActive, startCursor, fetchLimit, false);
+  }
+
+  /**
+   * Returns the set of rows for a given dataETag (changeSet).
+   * If the isActive flag is true, then return only the subset
+   * of these that are the most current (in the DbTable).
+   * Otherwise, return the full set of changes from the DbLogTable.
+   * 
+   * @param dataETag
+   * @param isActive
+   * @param startCursor
+   * @param fetchLimit
+   * @param asDeltas
+   *          true to delta-encode the DbLogTable rows against the revisions
+   *          they replaced (see {@link Row#getBaseRowETag()}). Ignored if
+   *          isActive is true or for backward cursors.
+   * @return
+   * @throws PermissionDeniedException
+   * @throws ODKDatastoreException
+   * @throws InconsistentStateException
+   * @throws ODKTaskLockException
+   * @throws BadColumnNameException
+   */
+  public WebsafeRows getChangeSetRows(String dataETag, boolean isActive,
+      QueryResumePoint startCursor, int fetchLimit, boolean asDeltas) throws PermissionDeniedException, ODKDatastoreException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
     String currentDataETag = null;
     
     List<DbColumnDefinitionsEntity> columns = null;
+    ColumnPlan tablePlan = null;
+    ColumnPlan logPlan = null;
+    DbLogTable logTable = null;
     WebsafeQueryResult result = null;
     LockTemplate propsLock = new LockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
@@ -1668,9 +2830,18 @@ public class DataManager {
       columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
 
       DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      tablePlan = new ColumnPlan(table, columns);
+      logPlan = new ColumnPlan(logTable, columns);
 
       revertPendingChanges(entry, columns, table, logTable);
+      boolean isIndexed = ensureChangeSetIndex(entry, logTable);
+
+      if (isIndexed && DbTableChangeSets.getChangeSet(tableId, dataETag, cc) == null) {
+        // not a change set of this table -- there is nothing to return
+        return new WebsafeRows(new ArrayList<Row>(), currentDataETag, null, null, null, false,
+            false);
+      }
 
       boolean isForwardCursor = (startCursor == null ? true
           : startCursor.isForwardCursor());
@@ -1719,7 +2890,7 @@ public class DataManager {
     if ( isActive ) {
       // query is against DbTable
       for (Entity entity : result.entities) {
-        Row row = converter.toRow(entity, columns);
+        Row row = converter.toRow(entity, tablePlan);
         if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
           rows.add(row);
         } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -1731,7 +2902,7 @@ public class DataManager {
     } else {
       // query is against DbLogTable
       for (Entity entity : result.entities) {
-        Row row = converter.toRowFromLogTable(entity, columns);
+        Row row = converter.toRowFromLogTable(entity, logPlan);
         if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
           rows.add(row);
         } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -1741,7 +2912,15 @@ public class DataManager {
       }
       
     }
-    return new WebsafeRows(computeDiff(rows), currentDataETag, result.websafeRefetchCursor,
+    List<Row> diffRows = computeDiff(rows);
+    // the base revisions of a page fetched backwards may be on pages that the
+    // client has not yet fetched; send whole rows.
+    boolean isForwardCursor = (startCursor == null ? true : startCursor.isForwardCursor());
+    if (asDeltas && !isActive && isForwardCursor) {
+      encodeDeltas(diffRows, getBaseRowETags(result.entities), logTable, logPlan,
+          new DataKeyValueDeepComparator(columns));
+    }
+    return new WebsafeRows(diffRows, currentDataETag, result.websafeRefetchCursor,
         result.websafeBackwardCursor, result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.odktables.relation.DbManifestETags;
+import org.opendatakit.aggregate.odktables.relation.DbManifestETags.DbManifestETagEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Node-local cache of the current dataETag of each table and of the
+ * file manifest ETags (keyed by tableId or DbManifestETags.APP_LEVEL).
+ *
+ * Used to answer If-None-Match requests without acquiring the table lock
+ * or touching the data and log tables. The file manifests themselves are
+ * also cached (per appId and odkClientVersion), tagged with the manifest
+ * ETag they were computed under; a cached manifest is only returned while
+ * that ETag is still current. Updates made on this server are
+ * written through to the cache. Updates made on other servers are picked
+ * up because cached values are only trusted for
+ * PersistConsts.MAX_SETTLE_MILLISECONDS; after that, the value is re-read
+ * from the datastore by primary key.
+ */
+public class ETagCache {
+
+  private static final class CachedETag {
+    final String eTag;
+    final long timestamp;
+
+    CachedETag(String eTag) {
+      this.eTag = eTag;
+      this.timestamp = System.currentTimeMillis();
+    }
+
+    boolean isFresh() {
+      return timestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System.currentTimeMillis();
+    }
+  }
+
+  private static final class CachedManifest {
+    final String eTag;
+    final List<OdkTablesFileManifestEntry> entries;
+
+    CachedManifest(String eTag, List<OdkTablesFileManifestEntry> entries) {
+      this.eTag = eTag;
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * NOTE: should only be accessed via the synchronized methods below.
+   */
+  private static final Map<String, CachedETag> dataETags = new HashMap<String, CachedETag>();
+  private static final Map<String, CachedETag> manifestETags = new HashMap<String, CachedETag>();
+  /**
+   * tableId (or DbManifestETags.APP_LEVEL) to a map of appId/odkClientVersion
+   * to the manifest entries.
+   */
+  private static final Map<String, Map<String, CachedManifest>> manifests = new HashMap<String, Map<String, CachedManifest>>();
+
+  private ETagCache() {
+  }
+
+  private static synchronized String getFresh(Map<String, CachedETag> map, String key) {
+    CachedETag cached = map.get(key);
+    if (cached == null) {
+      return null;
+    }
+    if (!cached.isFresh()) {
+      map.remove(key);
+      return null;
+    }
+    return cached.eTag;
+  }
+
+  private static synchronized void put(Map<String, CachedETag> map, String key, String eTag) {
+    if (eTag == null) {
+      map.remove(key);
+    } else {
+      map.put(key, new CachedETag(eTag));
+    }
+  }
+
+  /**
+   * Return the dataETag of the table, or null if the table does not exist,
+   * has no data, or has a change in progress (a pendingDataETag).
+   *
+   * @param tableId
+   * @param cc
+   * @return the current dataETag or null
+   * @throws ODKDatastoreException
+   */
+  public static String getDataETag(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    String eTag = getFresh(dataETags, tableId);
+    if (eTag != null) {
+      return eTag;
+    }
+
+    DbTableEntryEntity entry;
+    try {
+      entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+    if (entry.getSchemaETag() == null || entry.getPendingDataETag() != null) {
+      // table is not yet live or a change is in progress or needs to be reverted.
+      // Make the caller take the slow path.
+      return null;
+    }
+    eTag = entry.getDataETag();
+    put(dataETags, tableId, eTag);
+    return eTag;
+  }
+
+  /**
+   * Called after the dataETag of the table has been committed.
+   *
+   * @param tableId
+   * @param dataETag
+   */
+  public static void putDataETag(String tableId, String dataETag) {
+    put(dataETags, tableId, dataETag);
+  }
+
+  /**
+   * Return the manifest ETag for the given tableId (or
+   * DbManifestETags.APP_LEVEL), or null if it has not yet been computed.
+   *
+   * @param tableId
+   * @param cc
+   * @return the current manifest ETag or null
+   * @throws ODKDatastoreException
+   */
+  public static String getManifestETag(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    String eTag = getFresh(manifestETags, tableId);
+    if (eTag != null) {
+      return eTag;
+    }
+
+    DbManifestETagEntity eTagEntity;
+    try {
+      eTagEntity = DbManifestETags.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+    eTag = eTagEntity.getManifestETag();
+    put(manifestETags, tableId, eTag);
+    return eTag;
+  }
+
+  /**
+   * Called after the manifest ETag has been persisted.
+   *
+   * @param tableId
+   * @param eTag
+   */
+  public static void putManifestETag(String tableId, String eTag) {
+    put(manifestETags, tableId, eTag);
+  }
+
+  /**
+   * Return a copy of the manifest entries that were computed under the given
+   * manifest ETag, or null if they are not cached. The caller is free to
+   * modify the returned entries (e.g., to supply the downloadUrl).
+   *
+   * @param appId
+   * @param odkClientVersion
+   * @param tableId
+   *          the tableId or DbManifestETags.APP_LEVEL
+   * @param eTag
+   *          the current manifest ETag (from getManifestETag())
+   * @return the manifest entries or null
+   */
+  public static synchronized ArrayList<OdkTablesFileManifestEntry> getManifestEntries(
+      String appId, String odkClientVersion, String tableId, String eTag) {
+    if (eTag == null) {
+      return null;
+    }
+    Map<String, CachedManifest> versions = manifests.get(tableId);
+    if (versions == null) {
+      return null;
+    }
+    String key = appId + "/" + odkClientVersion;
+    CachedManifest cached = versions.get(key);
+    if (cached == null) {
+      return null;
+    }
+    if (!eTag.equals(cached.eTag)) {
+      versions.remove(key);
+      return null;
+    }
+    return copyOf(cached.entries);
+  }
+
+  /**
+   * Cache the manifest entries computed under the given manifest ETag. The
+   * ETag must have been obtained before the entries were computed, so that a
+   * concurrent change to the file set is never masked.
+   *
+   * @param appId
+   * @param odkClientVersion
+   * @param tableId
+   *          the tableId or DbManifestETags.APP_LEVEL
+   * @param eTag
+   *          the manifest ETag before the entries were computed. If null,
+   *          nothing is cached.
+   * @param entries
+   */
+  public static synchronized void putManifestEntries(String appId, String odkClientVersion,
+      String tableId, String eTag, List<OdkTablesFileManifestEntry> entries) {
+    if (eTag == null) {
+      return;
+    }
+    Map<String, CachedManifest> versions = manifests.get(tableId);
+    if (versions == null) {
+      versions = new HashMap<String, CachedManifest>();
+      manifests.put(tableId, versions);
+    }
+    versions.put(appId + "/" + odkClientVersion, new CachedManifest(eTag, copyOf(entries)));
+  }
+
+  private static ArrayList<OdkTablesFileManifestEntry> copyOf(
+      List<OdkTablesFileManifestEntry> entries) {
+    ArrayList<OdkTablesFileManifestEntry> copy = new ArrayList<OdkTablesFileManifestEntry>(
+        entries.size());
+    for (OdkTablesFileManifestEntry entry : entries) {
+      OdkTablesFileManifestEntry e = new OdkTablesFileManifestEntry();
+      e.filename = entry.filename;
+      e.contentLength = entry.contentLength;
+      e.contentType = entry.contentType;
+      e.md5hash = entry.md5hash;
+      e.downloadUrl = entry.downloadUrl;
+      copy.add(e);
+    }
+    return copy;
+  }
+
+  private static synchronized void forgetManifests(String tableId) {
+    manifests.remove(tableId);
+  }
+
+  /**
+   * Called when the manifest ETag has been deleted (the file set changed).
+   *
+   * @param tableId
+   */
+  public static void forgetManifestETag(String tableId) {
+    put(manifestETags, tableId, null);
+    forgetManifests(tableId);
+  }
+
+  /**
+   * Called when a table is created or deleted.
+   *
+   * @param tableId
+   */
+  public static void forgetTable(String tableId) {
+    put(dataETags, tableId, null);
+    put(manifestETags, tableId, null);
+    forgetManifests(tableId);
+  }
+}
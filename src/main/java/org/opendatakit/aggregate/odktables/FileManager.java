@@ -184,12 +184,9 @@ public class FileManager {
 
     {
       try {
-        DbManifestETagEntity etag;
-        if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
-          etag = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
-        } else {
-          etag = DbManifestETags.getTableIdEntry(tableId, cc);
-        }
+        String eTagKey = DbTableFileInfo.NO_TABLE_ID.equals(tableId) ? DbManifestETags.APP_LEVEL : tableId;
+        ETagCache.forgetManifestETag(eTagKey);
+        DbManifestETagEntity etag = DbManifestETags.getTableIdEntry(eTagKey, cc);
         etag.delete(cc);
       } catch ( ODKEntityNotFoundException e ) {
         // ignore...
@@ -281,12 +278,9 @@ public class FileManager {
     if ( !entities.isEmpty() ) {
       // -1) clear the eTag for the manifest of this tableId
       try {
-        DbManifestETagEntity etag;
-        if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
-          etag = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
-        } else {
-          etag = DbManifestETags.getTableIdEntry(tableId, cc);
-        }
+        String eTagKey = DbTableFileInfo.NO_TABLE_ID.equals(tableId) ? DbManifestETags.APP_LEVEL : tableId;
+        ETagCache.forgetManifestETag(eTagKey);
+        DbManifestETagEntity etag = DbManifestETags.getTableIdEntry(eTagKey, cc);
         etag.delete(cc);
       } catch ( ODKEntityNotFoundException e ) {
         // ignore...
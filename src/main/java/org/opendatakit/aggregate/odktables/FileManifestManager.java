@@ -25,6 +25,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.odktables.impl.api.FileServiceImpl;
+import org.opendatakit.aggregate.odktables.relation.DbManifestETags;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo.DbTableFileInfoEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableFiles;
@@ -66,9 +67,17 @@ public class FileManifestManager {
    */
   public OdkTablesFileManifest getManifestForTable(String tableId) throws ODKDatastoreException {
     // TODO: need to handle access control.
-    DbTableFiles dbTableFiles = new DbTableFiles(cc);
-    List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForTableIdFiles(odkClientVersion, tableId, cc);
-    ArrayList<OdkTablesFileManifestEntry> manifestEntries = getEntriesFromQuery(entities, dbTableFiles);
+    // the manifest only changes when its ETag is cleared, so a manifest
+    // computed under the current ETag can be reused.
+    String eTag = ETagCache.getManifestETag(tableId, cc);
+    ArrayList<OdkTablesFileManifestEntry> manifestEntries = ETagCache.getManifestEntries(appId,
+        odkClientVersion, tableId, eTag);
+    if (manifestEntries == null) {
+      DbTableFiles dbTableFiles = new DbTableFiles(cc);
+      List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForTableIdFiles(odkClientVersion, tableId, cc);
+      manifestEntries = getEntriesFromQuery(entities, dbTableFiles);
+      ETagCache.putManifestEntries(appId, odkClientVersion, tableId, eTag, manifestEntries);
+    }
     OdkTablesFileManifest manifest = new OdkTablesFileManifest(manifestEntries);
     return manifest;
   }
@@ -83,9 +92,16 @@ public class FileManifestManager {
    */
   public OdkTablesFileManifest getManifestForAppLevelFiles() throws ODKDatastoreException {
     // TODO: need to handle access control.
-    DbTableFiles dbTableFiles = new DbTableFiles(cc);
-    List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForAppLevelFiles(odkClientVersion, cc);
-    ArrayList<OdkTablesFileManifestEntry> manifestEntries = getEntriesFromQuery(entities, dbTableFiles);
+    String eTag = ETagCache.getManifestETag(DbManifestETags.APP_LEVEL, cc);
+    ArrayList<OdkTablesFileManifestEntry> manifestEntries = ETagCache.getManifestEntries(appId,
+        odkClientVersion, DbManifestETags.APP_LEVEL, eTag);
+    if (manifestEntries == null) {
+      DbTableFiles dbTableFiles = new DbTableFiles(cc);
+      List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForAppLevelFiles(odkClientVersion, cc);
+      manifestEntries = getEntriesFromQuery(entities, dbTableFiles);
+      ETagCache.putManifestEntries(appId, odkClientVersion, DbManifestETags.APP_LEVEL, eTag,
+          manifestEntries);
+    }
     OdkTablesFileManifest manifest = new OdkTablesFileManifest(manifestEntries);
     return manifest;
   }
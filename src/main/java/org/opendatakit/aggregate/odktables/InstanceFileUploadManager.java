@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceUploads;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceUploads.DbTableInstanceUploadEntity;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Coordinates the resumable uploads of row attachments.
+ * <p>
+ * Each request that touches an upload holds its TABLES_INSTANCE_FILE_UPLOAD
+ * lock, so that two chunks can never be appended to the same staged file at
+ * once. Uploads that receive no chunk for ABANDONED_UPLOAD_MILLISECONDS are
+ * discarded by the watchdog.
+ */
+public class InstanceFileUploadManager {
+
+  /**
+   * An upload that has received no chunk for this long is discarded.
+   */
+  public static final long ABANDONED_UPLOAD_MILLISECONDS = 24L * 60L * 60L * 1000L;
+
+  private static final Log logger = LogFactory.getLog(InstanceFileUploadManager.class);
+
+  private InstanceFileUploadManager() {
+  }
+
+  /**
+   * @param tableId
+   * @param rowId
+   * @param filePath
+   * @param cc
+   * @return the (not yet acquired) lock of the upload of this file.
+   */
+  public static LockTemplate getUploadLock(String tableId, String rowId, String filePath,
+      CallingContext cc) {
+    // the file path may be too long for a lock name; use its hash.
+    String lockName = tableId + "/" + CommonFieldsBase.newMD5HashUri(rowId + "/" + filePath);
+    return new LockTemplate(lockName, ODKTablesTaskLockType.TABLES_INSTANCE_FILE_UPLOAD, cc);
+  }
+
+  /**
+   * Discard the staged content of every upload, of every table, that has not
+   * received a chunk for ABANDONED_UPLOAD_MILLISECONDS. Uploads whose lock is
+   * held are in use and are skipped.
+   *
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void expireAbandonedUploads(CallingContext cc) throws ODKDatastoreException {
+    Date cutoff = new Date(System.currentTimeMillis() - ABANDONED_UPLOAD_MILLISECONDS);
+    for (DbTableEntryEntity tableEntry : DbTableEntry.query(cc)) {
+      if (tableEntry.getSchemaETag() == null) {
+        // the table is being deleted
+        continue;
+      }
+      String tableId = tableEntry.getId();
+      List<DbTableInstanceUploadEntity> uploads = DbTableInstanceUploads.queryStaleUploads(
+          tableId, cutoff, cc);
+      if (uploads.isEmpty()) {
+        continue;
+      }
+      DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+      for (DbTableInstanceUploadEntity upload : uploads) {
+        LockTemplate uploadLock = getUploadLock(tableId, upload.getRowId(),
+            upload.getFilePath(), cc);
+        try {
+          uploadLock.acquire();
+        } catch (ODKTaskLockException e) {
+          continue;
+        }
+        try {
+          logger.info("Discarding abandoned upload of " + upload.getFilePath() + " of row "
+              + upload.getRowId() + " of table " + tableId);
+          BlobEntitySet instance = blobStore.newBlobEntitySet(upload.getRowId(), cc);
+          instance.abandonStagedBlob(upload.getFilePath(), cc);
+          upload.delete(cc);
+        } finally {
+          try {
+            uploadLock.release();
+          } catch (ODKTaskLockException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+  }
+}
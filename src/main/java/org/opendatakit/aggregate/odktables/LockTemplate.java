@@ -86,6 +86,22 @@ public class LockTemplate {
     }
   }
 
+  /**
+   * Extends the expiration of a lock that is already held. Long-running
+   * operations should call this periodically so that the lock does not time
+   * out while they are still working.
+   *
+   * @throws ODKTaskLockException
+   *           if the lock is no longer held by this LockTemplate.
+   */
+  public void renew() throws ODKTaskLockException {
+    TaskLock lock = ds.createTaskLock(user);
+    if (!lock.renewLock(lockId, tableId, type)) {
+      throw new ODKTaskLockException(String.format("Unable to renew lock. "
+          + "lockId: %s, tableId: %s, type: %s", lockId, tableId, type));
+    }
+  }
+
   /**
    * Tries up to 5 times to release lock, then gives up. In this case the lock
    * will eventually timeout and be forced to release.
@@ -26,7 +26,10 @@ import org.opendatakit.common.persistence.ITaskLockType;
  */
 public enum ODKTablesTaskLockType implements ITaskLockType {
   TABLES_NON_PERMISSIONS_CHANGES(66000),
-  TABLES_USER_PERMISSION_CREATION(66000);
+  TABLES_USER_PERMISSION_CREATION(66000),
+  TABLES_INSTANCE_FILE_UPLOAD(66000),
+  TABLES_ALTER_ROWS_JOB(66000),
+  TABLES_DELETION(66000);
 
   private long timeout;
 
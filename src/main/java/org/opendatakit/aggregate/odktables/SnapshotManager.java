@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbLogTable;
+import org.opendatakit.aggregate.odktables.relation.DbTable;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableSnapshotEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableSnapshotEntry.DbTableSnapshotEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableSnapshots;
+import org.opendatakit.aggregate.odktables.relation.EntityConverter;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Query.WebsafeQueryResult;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.BasicConsts;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Manages the precomputed, compressed snapshots of the contents of a table.
+ * <p>
+ * A snapshot is a gzip-compressed JSON RowList holding every non-deleted row
+ * of the table and the dataETag of the table when the snapshot was begun. A
+ * device performing an initial sync downloads the snapshot and then calls
+ * getRowsSince(dataETag) to obtain the changes made after that point. Rows
+ * that changed while the snapshot was being written may appear in their newer
+ * state in the snapshot; they are also returned by getRowsSince(), so the
+ * device ends up with a consistent copy of the table.
+ */
+public class SnapshotManager {
+
+  public static final String SNAPSHOT_FILENAME = "snapshot.json.gz";
+
+  public static final String SNAPSHOT_CONTENT_TYPE = "application/x-gzip";
+
+  /**
+   * Number of rows fetched while holding the table lock.
+   */
+  public static final int SNAPSHOT_BATCH_SIZE = 500;
+
+  /**
+   * A new snapshot is created once this many changes have been made to the
+   * table since the last snapshot (or since the table was created).
+   */
+  public static final int SNAPSHOT_CHANGE_THRESHOLD = 1000;
+
+  /**
+   * A snapshot that does not reflect the current dataETag is refreshed once it
+   * is this old, even if fewer than SNAPSHOT_CHANGE_THRESHOLD changes have
+   * been made.
+   */
+  public static final long SNAPSHOT_MAX_AGE_MILLISECONDS = 24L * 60L * 60L * 1000L;
+
+  /**
+   * The watchdog considers each table at most this often.
+   */
+  public static final long SNAPSHOT_CHECK_INTERVAL_MILLISECONDS = 60L * 60L * 1000L;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final Log logger = LogFactory.getLog(SnapshotManager.class);
+
+  /**
+   * The current snapshot of a table. The content itself is not read until
+   * openStream() is called.
+   */
+  public static class Snapshot {
+    public final String schemaETag;
+    public final String dataETag;
+    public final String contentHash;
+    public final long contentLength;
+    private final BlobEntitySet blobSet;
+    private final CallingContext cc;
+
+    Snapshot(String schemaETag, String dataETag, String contentHash, long contentLength,
+        BlobEntitySet blobSet, CallingContext cc) {
+      this.schemaETag = schemaETag;
+      this.dataETag = dataETag;
+      this.contentHash = contentHash;
+      this.contentLength = contentLength;
+      this.blobSet = blobSet;
+      this.cc = cc;
+    }
+
+    /**
+     * @return a stream over the snapshot content. The parts of the content
+     *         are fetched from the datastore as they are read. The caller
+     *         must close the stream.
+     * @throws ODKDatastoreException
+     */
+    public BlobInputStream openStream() throws ODKDatastoreException {
+      return blobSet.getBlobStream(1, cc);
+    }
+  }
+
+  private final String tableId;
+  private final CallingContext cc;
+  private final EntityConverter converter;
+
+  public SnapshotManager(String tableId, CallingContext cc) {
+    this.tableId = tableId;
+    this.cc = cc;
+    this.converter = new EntityConverter();
+  }
+
+  /**
+   * @return the current snapshot of the table, or null if there is none.
+   * @throws ODKDatastoreException
+   */
+  public Snapshot getSnapshot() throws ODKDatastoreException {
+    DbTableSnapshotEntryEntity entry;
+    try {
+      entry = DbTableSnapshotEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+    if (entry.getSnapshotUri() == null) {
+      return null;
+    }
+    DbTableSnapshots snapshots = new DbTableSnapshots(cc);
+    BlobEntitySet blobSet = snapshots.getBlobEntitySet(entry.getSnapshotUri(), cc);
+    if (blobSet.getAttachmentCount(cc) < 1) {
+      // being replaced by a newer snapshot
+      return null;
+    }
+    // A null contentHash means the content is not fully stored.
+    String contentHash = blobSet.getContentHash(1, cc);
+    Long contentLength = blobSet.getContentLength(1, cc);
+    if (contentHash == null || contentLength == null) {
+      return null;
+    }
+    return new Snapshot(entry.getSchemaETag(), entry.getDataETag(), contentHash, contentLength,
+        blobSet, cc);
+  }
+
+  /**
+   * Determine whether a new snapshot should be created for this table. Called
+   * by the watchdog; records the time of the check so that each table is only
+   * examined once every SNAPSHOT_CHECK_INTERVAL_MILLISECONDS.
+   *
+   * @param tableEntry
+   * @return true if a snapshot task should be launched.
+   * @throws ODKDatastoreException
+   */
+  public boolean isSnapshotNeeded(DbTableEntryEntity tableEntry) throws ODKDatastoreException {
+    String schemaETag = tableEntry.getSchemaETag();
+    if (schemaETag == null || tableEntry.getPendingDataETag() != null) {
+      return false;
+    }
+
+    DbTableSnapshotEntryEntity entry;
+    try {
+      entry = DbTableSnapshotEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      entry = DbTableSnapshotEntry.createNewEntity(tableId, cc);
+    }
+
+    long now = System.currentTimeMillis();
+    Date lastCheck = entry.getLastCheckDate();
+    if (lastCheck != null && lastCheck.getTime() + SNAPSHOT_CHECK_INTERVAL_MILLISECONDS > now) {
+      return false;
+    }
+    entry.setLastCheckDate(new Date(now));
+    entry.put(cc);
+
+    boolean hasSnapshot = (entry.getSnapshotUri() != null);
+    if (hasSnapshot && !schemaETag.equals(entry.getSchemaETag())) {
+      return true;
+    }
+    if (hasSnapshot && tableEntry.getDataETag() != null
+        && tableEntry.getDataETag().equals(entry.getDataETag())) {
+      return false;
+    }
+    if (hasSnapshot && entry.getSnapshotDate() != null
+        && entry.getSnapshotDate().getTime() + SNAPSHOT_MAX_AGE_MILLISECONDS < now) {
+      return true;
+    }
+
+    // count the changes since the last snapshot, up to the threshold
+    DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag, cc);
+    List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+    DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+    String sequenceValue = hasSnapshot ? entry.getSequenceValue() : null;
+    Query query = logTable.query("SnapshotManager.isSnapshotNeeded", cc);
+    if (sequenceValue == null) {
+      query.greaterThanOrEqual(DbLogTable.SEQUENCE_VALUE, tableEntry.getAprioriDataSequenceValue());
+    } else {
+      query.greaterThan(DbLogTable.SEQUENCE_VALUE, sequenceValue);
+    }
+    query.sortAscending(DbLogTable.SEQUENCE_VALUE);
+    WebsafeQueryResult result = query.execute(null, SNAPSHOT_CHANGE_THRESHOLD);
+    return result.entities.size() >= SNAPSHOT_CHANGE_THRESHOLD;
+  }
+
+  /**
+   * Create a new snapshot of the table and make it the current snapshot.
+   * The rows are read in batches, re-acquiring the table lock for each batch.
+   * Each batch is compressed and written to the datastore as the blob is
+   * stored, so the snapshot is never held in memory.
+   *
+   * @return true if the snapshot was created.
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws IOException
+   */
+  public boolean createSnapshot() throws ODKDatastoreException, ODKTaskLockException, IOException {
+
+    SnapshotContentStream content = new SnapshotContentStream();
+    // read the first batch before creating the blob set, so that an
+    // unstable table is abandoned without writing anything.
+    content.fill();
+    if (content.abandoned) {
+      return false;
+    }
+
+    // store the snapshot in its own blob set and then swap it in
+    DbTableSnapshots snapshots = new DbTableSnapshots(cc);
+    BlobEntitySet blobSet = snapshots.newBlobEntitySet(cc);
+    try {
+      blobSet.addBlob(content, SNAPSHOT_CONTENT_TYPE, SNAPSHOT_FILENAME, true, cc);
+    } catch (IOException e) {
+      blobSet.remove(cc);
+      if (content.failure instanceof ODKTaskLockException) {
+        throw (ODKTaskLockException) content.failure;
+      } else if (content.failure instanceof ODKDatastoreException) {
+        throw (ODKDatastoreException) content.failure;
+      }
+      throw e;
+    }
+    if (content.abandoned) {
+      blobSet.remove(cc);
+      return false;
+    }
+
+    String schemaETag = content.schemaETag;
+    String dataETag = content.dataETag;
+    String sequenceValue = content.sequenceValue;
+    int rowCount = content.rowCount;
+
+    DbTableSnapshotEntryEntity entry;
+    try {
+      entry = DbTableSnapshotEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      entry = DbTableSnapshotEntry.createNewEntity(tableId, cc);
+    }
+    String oldUri = entry.getSnapshotUri();
+    entry.setSnapshotUri(blobSet.getUri());
+    entry.setSchemaETag(schemaETag);
+    entry.setDataETag(dataETag);
+    entry.setSequenceValue(sequenceValue);
+    entry.setRowCount(rowCount);
+    entry.setSnapshotDate(new Date());
+    entry.put(cc);
+
+    if (oldUri != null) {
+      snapshots.getBlobEntitySet(oldUri, cc).remove(cc);
+    }
+
+    logger.info("Created snapshot of " + tableId + " with " + rowCount + " rows at dataETag "
+        + dataETag);
+    return true;
+  }
+
+  /**
+   * Remove the snapshot and its entry. Called when the table is deleted.
+   *
+   * @throws ODKDatastoreException
+   */
+  public void deleteSnapshot() throws ODKDatastoreException {
+    DbTableSnapshotEntryEntity entry;
+    try {
+      entry = DbTableSnapshotEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      return;
+    }
+    if (entry.getSnapshotUri() != null) {
+      DbTableSnapshots snapshots = new DbTableSnapshots(cc);
+      snapshots.getBlobEntitySet(entry.getSnapshotUri(), cc).remove(cc);
+    }
+    entry.delete(cc);
+  }
+  /**
+   * The gzip-compressed JSON content of a new snapshot. The next batch of
+   * rows is read from the table only when the bytes of the previous batch
+   * have been consumed, so at most one compressed batch is held in memory.
+   * <p>
+   * If the table is deleted or changes its schema part-way through, the
+   * stream ends early and abandoned is set; the caller must discard what
+   * was read.
+   */
+  private class SnapshotContentStream extends InputStream {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final JsonGenerator gen;
+    private byte[] pending = new byte[0];
+    private int offset = 0;
+    private boolean finished = false;
+    private QueryResumePoint startCursor = null;
+
+    String schemaETag = null;
+    String dataETag = null;
+    String sequenceValue = null;
+    int rowCount = 0;
+    boolean abandoned = false;
+    Exception failure = null;
+
+    SnapshotContentStream() throws IOException {
+      gen = mapper.getFactory().createGenerator(new GZIPOutputStream(buffer), JsonEncoding.UTF8);
+    }
+
+    /**
+     * Generate batches until some bytes are available or the content is
+     * complete.
+     *
+     * @return false at the end of the content.
+     * @throws IOException
+     */
+    boolean fill() throws IOException {
+      while (offset >= pending.length) {
+        if (finished) {
+          return false;
+        }
+        try {
+          writeNextBatch();
+        } catch (ODKDatastoreException e) {
+          failure = e;
+          throw new IOException("Unable to read rows for snapshot of " + tableId, e);
+        } catch (ODKTaskLockException e) {
+          failure = e;
+          throw new IOException("Unable to lock table for snapshot of " + tableId, e);
+        }
+        pending = buffer.toByteArray();
+        offset = 0;
+        buffer.reset();
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return pending[offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, pending.length - offset);
+      System.arraycopy(pending, offset, b, off, count);
+      offset += count;
+      return count;
+    }
+
+    private void abandon(String reason) {
+      logger.warn(reason + " -- abandoning snapshot of " + tableId);
+      abandoned = true;
+      finished = true;
+    }
+
+    private void writeNextBatch() throws ODKDatastoreException, ODKTaskLockException,
+        IOException {
+      WebsafeQueryResult result;
+      List<DbColumnDefinitionsEntity> columns;
+      LockTemplate propsLock = new LockTemplate(tableId,
+          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+      try {
+        propsLock.acquire();
+
+        DbTableEntryEntity entry;
+        try {
+          entry = DbTableEntry.getTableIdEntry(tableId, cc);
+        } catch (ODKEntityNotFoundException e) {
+          abandon("Table was deleted");
+          return;
+        }
+        if (entry.getSchemaETag() == null || entry.getPendingDataETag() != null) {
+          abandon("Table is not in a stable state");
+          return;
+        }
+        if (schemaETag == null) {
+          // first batch -- capture the state the snapshot is based upon
+          schemaETag = entry.getSchemaETag();
+          dataETag = entry.getDataETag();
+        } else if (!schemaETag.equals(entry.getSchemaETag())) {
+          abandon("Schema changed");
+          return;
+        }
+
+        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
+            cc);
+        columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+
+        if (sequenceValue == null) {
+          DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+          Query seqQuery = logTable.query("SnapshotManager.createSnapshot", cc);
+          seqQuery.sortDescending(DbLogTable.SEQUENCE_VALUE);
+          List<Entity> last = seqQuery.execute(null, 1).entities;
+          sequenceValue = last.isEmpty() ? entry.getAprioriDataSequenceValue() : last.get(0)
+              .getString(DbLogTable.SEQUENCE_VALUE);
+
+          gen.writeStartObject();
+          gen.writeStringField("dataETag", dataETag);
+          gen.writeArrayFieldStart("rows");
+        }
+
+        Query query = table.query("SnapshotManager.createSnapshot", cc);
+        query.equal(DbTable.DELETED, false);
+        query.addSort(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+            Direction.ASCENDING);
+        // we need the filter to activate the sort...
+        query.addFilter(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+            org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN,
+            BasicConsts.EPOCH);
+        result = query.execute(startCursor, SNAPSHOT_BATCH_SIZE);
+      } finally {
+        propsLock.release();
+      }
+
+      for (Entity entity : result.entities) {
+        Row row = converter.toRow(entity, columns);
+        mapper.writeValue(gen, row);
+        ++rowCount;
+      }
+
+      if (!result.hasMore || result.websafeResumeCursor == null) {
+        gen.writeEndArray();
+        gen.writeEndObject();
+        // also finishes the gzip stream
+        gen.close();
+        finished = true;
+      } else {
+        gen.flush();
+        startCursor = QueryResumePoint.fromWebsafeCursor(result.websafeResumeCursor);
+      }
+    }
+  }
+}
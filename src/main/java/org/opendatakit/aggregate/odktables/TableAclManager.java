@@ -31,6 +31,7 @@ import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.TableAcl;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesPermissionsCache;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.common.ermodel.Entity;
 import org.opendatakit.common.ermodel.Query.WebsafeQueryResult;
@@ -240,6 +241,7 @@ public class TableAclManager {
       acl.setRole(role.name());
     }
     acl.put(cc);
+    TablesPermissionsCache.forgetTable(tableId);
 
     return converter.toTableAcl(acl);
   }
@@ -261,6 +263,7 @@ public class TableAclManager {
         scope.getType().name(), scope.getValue(), cc);
     if (acl != null) {
       acl.delete(cc);
+      TablesPermissionsCache.forgetTable(tableId);
     }
   }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * In-process notification of dataETag changes, used to implement the
+ * long-poll change notification API.
+ *
+ * DataManager reports each committed dataETag here. Waiting requests are
+ * woken immediately for changes made on this server. Changes made on other
+ * servers are detected by re-checking the ETagCache every
+ * PersistConsts.MAX_SETTLE_MILLISECONDS.
+ */
+public class TableChangeNotifier {
+
+  private static final Object lock = new Object();
+
+  /**
+   * Incremented on every change. Guarded by lock.
+   */
+  private static long changeCount = 0L;
+
+  private TableChangeNotifier() {
+  }
+
+  /**
+   * Called by the DataManager after a new dataETag has been committed.
+   *
+   * @param tableId
+   * @param dataETag
+   */
+  public static void dataETagChanged(String tableId, String dataETag) {
+    ETagCache.putDataETag(tableId, dataETag);
+    synchronized (lock) {
+      ++changeCount;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Wait until the dataETag of one of the given tables differs from the
+   * dataETag supplied for it, or until the timeout expires.
+   *
+   * Tables that do not exist or that have a change in progress are not
+   * reported.
+   *
+   * @param knownEntries
+   *          the tableIds and dataETags known to the caller.
+   * @param timeoutMillis
+   * @param cc
+   * @return the entries (with the current dataETag) that have changed. Empty
+   *         if the timeout expired without any change.
+   * @throws ODKDatastoreException
+   * @throws InterruptedException
+   */
+  public static List<TableEntry> waitForChanges(List<TableEntry> knownEntries,
+      long timeoutMillis, CallingContext cc) throws ODKDatastoreException, InterruptedException {
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (;;) {
+      long startCount;
+      synchronized (lock) {
+        startCount = changeCount;
+      }
+
+      List<TableEntry> changed = new ArrayList<TableEntry>();
+      for (TableEntry known : knownEntries) {
+        String current = ETagCache.getDataETag(known.getTableId(), cc);
+        if (current != null && !current.equals(known.getDataETag())) {
+          changed.add(new TableEntry(known.getTableId(), current, known.getSchemaETag()));
+        }
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (!changed.isEmpty() || remaining <= 0L) {
+        return changed;
+      }
+
+      synchronized (lock) {
+        if (startCount == changeCount) {
+          lock.wait(Math.min(remaining, PersistConsts.MAX_SETTLE_MILLISECONDS));
+        }
+      }
+    }
+  }
+}
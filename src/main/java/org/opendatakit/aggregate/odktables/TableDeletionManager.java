@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbLogTable;
+import org.opendatakit.aggregate.odktables.relation.DbTable;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableDeletions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDeletions.DbTableDeletionEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
+import org.opendatakit.aggregate.odktables.security.TablesPermissionsCache;
+import org.opendatakit.aggregate.task.TableDeletion;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Manages the deletion of ODK Tables tables in the background.
+ * <p>
+ * Deleting a table only tombstones it: the schemaETag is removed from its
+ * DbTableEntry (so the table no longer exists to the API) and recorded in
+ * DbTableDeletions. A background task then deletes the data rows, log rows
+ * and instance attachments in batches of TABLE_DELETE_BATCH_SIZE, recording
+ * its progress after each batch, and finally calls
+ * TableManager.deleteVersionedTable() to drop the now-empty relations and the
+ * remaining metadata of the table. Only that last step holds the table lock.
+ */
+public class TableDeletionManager {
+
+  /**
+   * Number of rows (or attachment sets) deleted per batch.
+   */
+  public static final int TABLE_DELETE_BATCH_SIZE = 100;
+
+  /**
+   * A deletion that has made no progress for this long is restarted by the
+   * watchdog.
+   */
+  public static final long STALLED_DELETION_MILLISECONDS = 10L * 60L * 1000L;
+
+  private static final Log logger = LogFactory.getLog(TableDeletionManager.class);
+
+  private TableDeletionManager() {
+  }
+
+  /**
+   * @param tableId
+   * @param cc
+   * @return true if the table is being deleted in the background.
+   * @throws ODKDatastoreException
+   */
+  public static boolean isDeletionPending(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    try {
+      DbTableDeletions.getTableIdEntry(tableId, cc);
+      return true;
+    } catch (ODKEntityNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Tombstone the table and launch the background task that deletes it. The
+   * caller must hold the TABLES_NON_PERMISSIONS_CHANGES lock of the table.
+   *
+   * @param tableEntry
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void tombstoneTable(DbTableEntryEntity tableEntry, CallingContext cc)
+      throws ODKDatastoreException {
+    String tableId = tableEntry.getId();
+    if (!isDeletionPending(tableId, cc)) {
+      DbTableDeletionEntity deletion = DbTableDeletions.createNewEntity(tableId, cc);
+      deletion.setSchemaETag(tableEntry.getSchemaETag());
+      deletion.setUriUser(cc.getCurrentUser().getUriUser());
+      deletion.put(cc);
+
+      tableEntry.setSchemaETag(null);
+      tableEntry.put(cc);
+      ETagCache.forgetTable(tableId);
+      TablesPermissionsCache.forgetTable(tableId);
+    }
+
+    TableDeletion tableDeletion = (TableDeletion) cc.getBean(BeanDefs.TABLE_DELETION_BEAN);
+    tableDeletion.createTableDeletionTask(tableId, cc);
+    logger.info("Tombstoned table " + tableId);
+  }
+
+  /**
+   * Delete a tombstoned table, resuming where any earlier attempt stopped.
+   * Called by the background task. Holds the TABLES_DELETION lock of the table
+   * while it runs, so that a restarted task cannot run alongside a slow one.
+   * The caller must not hold the table lock.
+   *
+   * @param tableId
+   * @param cc
+   *          the calling context of the background task.
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   */
+  public static void runDeletion(String tableId, CallingContext cc)
+      throws ODKDatastoreException, ODKTaskLockException {
+
+    LockTemplate deletionLock = new LockTemplate(tableId, ODKTablesTaskLockType.TABLES_DELETION,
+        cc);
+    deletionLock.acquire();
+    try {
+      deleteTombstonedTable(tableId, deletionLock, cc);
+    } finally {
+      deletionLock.release();
+    }
+  }
+
+  private static void deleteTombstonedTable(String tableId, LockTemplate deletionLock,
+      CallingContext cc) throws ODKDatastoreException, ODKTaskLockException {
+
+    DbTableDeletionEntity deletion;
+    try {
+      deletion = DbTableDeletions.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      logger.warn("Deletion of table " + tableId + " has already finished -- nothing to do");
+      return;
+    }
+
+    DbTableEntryEntity tableEntry;
+    try {
+      tableEntry = DbTableEntry.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      // an earlier attempt removed the table but not its tombstone
+      deletion.delete(cc);
+      return;
+    }
+
+    // the tombstoned schema and any schema left over from an interrupted
+    // schema change
+    List<String> schemaETags = new ArrayList<String>();
+    for (String schemaETag : new String[] { deletion.getSchemaETag(),
+        tableEntry.getStaleSchemaETag(), tableEntry.getPendingSchemaETag() }) {
+      if (schemaETag != null && !schemaETags.contains(schemaETag)) {
+        schemaETags.add(schemaETag);
+      }
+    }
+
+    for (String schemaETag : schemaETags) {
+      DbTableDefinitionsEntity definitionEntity = DbTableDefinitions.getDefinition(tableId,
+          schemaETag, cc);
+      if (definitionEntity == null) {
+        continue;
+      }
+      List<DbColumnDefinitionsEntity> colDefs = DbColumnDefinitions.query(tableId, schemaETag,
+          cc);
+      if (!deleteRows(DbTable.getRelation(definitionEntity, colDefs, cc), deletion,
+          deletionLock, cc)
+          || !deleteRows(DbLogTable.getRelation(definitionEntity, colDefs, cc), deletion,
+              deletionLock, cc)) {
+        return;
+      }
+    }
+
+    DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+    for (;;) {
+      int count = blobStore.deleteBlobEntitySets(TABLE_DELETE_BATCH_SIZE, cc);
+      if (count == 0) {
+        break;
+      }
+      if (!isDeletionPending(tableId, cc)) {
+        logger.warn("Deletion of table " + tableId + " finished elsewhere -- stopping");
+        return;
+      }
+      deletion.setFilesDeleted(deletion.getFilesDeleted() + count);
+      deletion.put(cc);
+      deletionLock.renew();
+    }
+
+    // everything that remains is small: drop the emptied relations and the
+    // metadata of the table.
+    LockTemplate propsLock = new LockTemplate(tableId,
+        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+    try {
+      propsLock.acquire();
+      try {
+        tableEntry = DbTableEntry.getTableIdEntry(tableId, cc);
+      } catch (ODKEntityNotFoundException e) {
+        // already removed
+        tableEntry = null;
+      }
+      if (!isDeletionPending(tableId, cc)
+          || (tableEntry != null && tableEntry.getSchemaETag() != null)) {
+        // the deletion finished elsewhere and the tableId may have been re-used
+        logger.warn("Deletion of table " + tableId + " finished elsewhere -- stopping");
+        return;
+      }
+      if (tableEntry != null) {
+        String schemaETag = deletion.getSchemaETag();
+        if (schemaETag != null && !schemaETag.equals(tableEntry.getStaleSchemaETag())
+            && !schemaETag.equals(tableEntry.getPendingSchemaETag())) {
+          // restore the tombstoned schema so that it is deleted as the current one
+          tableEntry.setSchemaETag(schemaETag);
+        }
+        TableManager.deleteVersionedTable(tableEntry, true, cc);
+      }
+      deletion.delete(cc);
+    } finally {
+      propsLock.release();
+    }
+
+    logger.info("Completed deletion of table " + tableId + " removing "
+        + deletion.getRowsDeleted() + " rows and " + deletion.getFilesDeleted()
+        + " attachment sets");
+  }
+
+  /**
+   * @return false if the tombstone of the table has gone, i.e., the deletion
+   *         finished elsewhere and must not record any more progress.
+   */
+  private static boolean deleteRows(Relation relation, DbTableDeletionEntity deletion,
+      LockTemplate deletionLock, CallingContext cc) throws ODKDatastoreException,
+      ODKTaskLockException {
+    for (;;) {
+      int count = relation.deleteRecords(TABLE_DELETE_BATCH_SIZE, cc);
+      if (count == 0) {
+        return true;
+      }
+      if (!isDeletionPending(deletion.getId(), cc)) {
+        logger.warn("Deletion of table " + deletion.getId() + " finished elsewhere -- stopping");
+        return false;
+      }
+      deletion.setRowsDeleted(deletion.getRowsDeleted() + count);
+      deletion.put(cc);
+      deletionLock.renew();
+    }
+  }
+
+  /**
+   * Restart the deletions that have stopped making progress. Called by the
+   * watchdog.
+   *
+   * @param cc
+   * @return true if any table is being deleted.
+   * @throws ODKDatastoreException
+   */
+  public static boolean restartStalledDeletions(CallingContext cc) throws ODKDatastoreException {
+    List<DbTableDeletionEntity> deletions = DbTableDeletions.query(cc);
+    if (deletions.isEmpty()) {
+      return false;
+    }
+    TableDeletion tableDeletion = (TableDeletion) cc.getBean(BeanDefs.TABLE_DELETION_BEAN);
+    long cutoff = System.currentTimeMillis() - STALLED_DELETION_MILLISECONDS;
+    for (DbTableDeletionEntity deletion : deletions) {
+      if (deletion.getLastUpdateDate().getTime() < cutoff) {
+        logger.info("Restarting stalled deletion of table " + deletion.getId());
+        // record the restart so that it is not restarted again right away
+        deletion.put(cc);
+        tableDeletion.createTableDeletionTask(deletion.getId(), cc);
+      }
+    }
+    return true;
+  }
+}
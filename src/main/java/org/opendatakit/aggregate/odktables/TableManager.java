@@ -30,6 +30,8 @@ import org.opendatakit.aggregate.odktables.relation.DbManifestETags.DbManifestET
 import org.opendatakit.aggregate.odktables.relation.DbTable;
 import org.opendatakit.aggregate.odktables.relation.DbTableAcl;
 import org.opendatakit.aggregate.odktables.relation.DbTableAcl.DbTableAclEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets;
 import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
 import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
@@ -39,6 +41,9 @@ import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo.DbTableFileI
 import org.opendatakit.aggregate.odktables.relation.DbTableFiles;
 import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
 import org.opendatakit.aggregate.odktables.relation.DbTableInstanceManifestETags;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceUploads;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint.DbTableLogCheckpointEntity;
 import org.opendatakit.aggregate.odktables.relation.EntityConverter;
 import org.opendatakit.aggregate.odktables.relation.EntityCreator;
 import org.opendatakit.aggregate.odktables.relation.RUtil;
@@ -48,6 +53,7 @@ import org.opendatakit.aggregate.odktables.rest.entity.TableDefinition;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesPermissionsCache;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.common.ermodel.BlobEntitySet;
 import org.opendatakit.common.ermodel.Entity;
@@ -110,7 +116,8 @@ public class TableManager {
   }
 
   /**
-   * Retrieve a list of all table entries in the datastore.
+   * Retrieve a list of all table entries in the datastore. Tables that are
+   * being deleted are not included.
    *
    * @return a list of all table entries.
    * @throws ODKDatastoreException
@@ -118,32 +125,54 @@ public class TableManager {
   public WebsafeTables getTables(QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException {
     List<TableEntry> filteredList = new ArrayList<TableEntry>();
 
-    // TODO: properly return exactly fetchLimit results when we are paginating
-    // right now, this will read fetchLimit results, then filter it down to the
-    // set of tables the user is eligible to see.
-
-    Query query = DbTableEntry.getRelation(cc).query("DbTableEntry.query", cc);
-    query.addSort(DbTableEntry.getRelation(cc).getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
-        (startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
-    // we need the filter to activate the sort...
-    query.addFilter(DbTableEntry.getRelation(cc).getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
-        org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
-    WebsafeQueryResult result = query.execute(startCursor, fetchLimit);
-    List<DbTableEntryEntity> results = new ArrayList<DbTableEntryEntity>();
-    for (Entity e : result.entities) {
-      results.add(new DbTableEntryEntity(e));
-    }
-    List<TableEntry> tables = converter.toTableEntries(results);
-    for (TableEntry e : tables) {
-      if (userPermissions.hasPermission(appId, e.getTableId(), TablePermission.READ_TABLE_ENTRY)) {
-        filteredList.add(e);
+    // Read only as many entries as are still needed to fill the page, so that
+    // the resume cursor of the last read is exactly after the last entry
+    // returned. The permissions of each batch are resolved together (or come
+    // from the TablesPermissionsCache), so this is usually a single read
+    // of the table entries plus one ACL query per scope.
+    QueryResumePoint cursor = startCursor;
+    WebsafeQueryResult firstResult = null;
+    WebsafeQueryResult result;
+    for (;;) {
+      Query query = DbTableEntry.getRelation(cc).query("DbTableEntry.query", cc);
+      query.addSort(DbTableEntry.getRelation(cc).getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+          (cursor == null || cursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
+      // we need the filter to activate the sort...
+      query.addFilter(DbTableEntry.getRelation(cc).getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+          org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
+      result = query.execute(cursor, fetchLimit - filteredList.size());
+      if (firstResult == null) {
+        firstResult = result;
+      }
+      List<DbTableEntryEntity> results = new ArrayList<DbTableEntryEntity>();
+      List<String> tableIds = new ArrayList<String>();
+      for (Entity e : result.entities) {
+        DbTableEntryEntity entry = new DbTableEntryEntity(e);
+        if (entry.getSchemaETag() == null && TableDeletionManager.isDeletionPending(entry.getId(), cc)) {
+          // tombstoned -- the table no longer exists
+          continue;
+        }
+        results.add(entry);
+        tableIds.add(entry.getId());
+      }
+      userPermissions.resolvePermissions(appId, tableIds);
+      List<TableEntry> tables = converter.toTableEntries(results);
+      for (TableEntry e : tables) {
+        if (userPermissions.hasPermission(appId, e.getTableId(), TablePermission.READ_TABLE_ENTRY)) {
+          filteredList.add(e);
+        }
+      }
+      if (filteredList.size() >= fetchLimit || !result.hasMore
+          || result.websafeResumeCursor == null) {
+        break;
       }
+      cursor = QueryResumePoint.fromWebsafeCursor(result.websafeResumeCursor);
     }
 
     return new WebsafeTables(filteredList,
-        result.websafeRefetchCursor,
-        result.websafeBackwardCursor,
-        result.websafeResumeCursor, result.hasMore, result.hasPrior);
+        firstResult.websafeRefetchCursor,
+        firstResult.websafeBackwardCursor,
+        result.websafeResumeCursor, result.hasMore, firstResult.hasPrior);
   }
 
   /**
@@ -278,6 +307,10 @@ public class TableManager {
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_TABLE_ENTRY);
     // get table entry entity
     DbTableEntryEntity entryEntity = DbTableEntry.getTableIdEntry(tableId, cc);
+    if (entryEntity.getSchemaETag() == null && TableDeletionManager.isDeletionPending(tableId, cc)) {
+      // tombstoned -- the table no longer exists
+      throw new ODKEntityNotFoundException("Table " + tableId + " is being deleted");
+    }
     return converter.toTableEntry(entryEntity);
   }
 
@@ -300,10 +333,44 @@ public class TableManager {
   public TableEntry createTable(String tableId, List<Column> columns)
       throws ODKEntityPersistException, ODKDatastoreException,
       TableAlreadyExistsException, PermissionDeniedException, ODKTaskLockException {
+    return createTable(tableId, columns, null);
+  }
+
+  /**
+   * Creates a new table with database indices on the given columns. The
+   * indices are only created if the table does not already exist.
+   *
+   * @param tableId
+   *          the unique identifier for the table
+   * @param columns
+   *          the columns the table should have
+   * @param indexedElementKeys
+   *          the elementKeys of the columns to index; may be null
+   * @return a table entry representing the newly created table
+   * @throws TableAlreadyExistsException
+   *           if a table with the given table id already exists
+   * @throws ODKEntityPersistException
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws ODKTaskLockException
+   */
+  public TableEntry createTable(String tableId, List<Column> columns,
+      List<String> indexedElementKeys) throws ODKEntityPersistException, ODKDatastoreException,
+      TableAlreadyExistsException, PermissionDeniedException, ODKTaskLockException {
     Validate.notNull(tableId);
     Validate.notEmpty(tableId);
     Validate.noNullElements(columns);
 
+    // build the column definitions up front so that a bad indexed column is
+    // rejected before anything is written.
+    String pendingSchemaETag = PersistenceUtils.newUri();
+    List<DbColumnDefinitionsEntity> colDefs = new ArrayList<DbColumnDefinitionsEntity>();
+    for (Column column : columns) {
+      colDefs.add(creator.newColumnEntity(tableId, pendingSchemaETag, column, cc));
+    }
+    DbColumnDefinitions.markUnitOfRetention(colDefs);
+    DbTable.verifyIndexedColumns(colDefs, indexedElementKeys);
+
     // Idempotent action: creating a table succeeds if the table already exists with a matching schema.
 
     // lock table
@@ -318,6 +385,13 @@ public class TableManager {
         tableEntry = null;
       }
 
+      if (tableEntry != null && tableEntry.getSchemaETag() == null
+          && TableDeletionManager.isDeletionPending(tableId, cc)) {
+        throw new TableAlreadyExistsException(String.format(
+            "Table with tableId '%s' is being deleted. Retry once the deletion has finished.",
+            tableId));
+      }
+
       // check if table exists
       if (tableEntry != null && tableEntry.getSchemaETag() != null) {
 
@@ -366,8 +440,6 @@ public class TableManager {
         return existing;
       }
 
-      String pendingSchemaETag = PersistenceUtils.newUri();
-
       if ( tableEntry != null ) {
         // we are in some sort of intermediate state
         // of table creation. Remove everything!
@@ -431,10 +503,6 @@ public class TableManager {
       /**
        * Write out the column definitions
        */
-      List<DbColumnDefinitionsEntity> colDefs = new ArrayList<DbColumnDefinitionsEntity>();
-      for (Column column : columns) {
-        colDefs.add(creator.newColumnEntity(tableId, pendingSchemaETag, column, cc));
-      }
       for (DbColumnDefinitionsEntity e : colDefs) {
         e.put(cc);
       }
@@ -448,16 +516,21 @@ public class TableManager {
        * Instantiate the actual tables
        */
       @SuppressWarnings("unused")
-      DbTable tableRelation = DbTable.getRelation(tableDefinition, colDefs, cc);
+      DbTable tableRelation = DbTable.getRelation(tableDefinition, colDefs, indexedElementKeys, cc);
       @SuppressWarnings("unused")
       DbLogTable logTableRelation = DbLogTable.getRelation(tableDefinition, colDefs, cc);
 
+      // every change set of the new table is indexed as it is written
+      DbTableChangeSetIndexEntry.markComplete(tableId, cc);
+
       /**
        * Transition the schema to live
        */
       tableEntry.setSchemaETag(tableEntry.getPendingSchemaETag());
       tableEntry.setPendingSchemaETag(null);
       tableEntry.put(cc);
+      ETagCache.forgetTable(tableId);
+      TablesPermissionsCache.forgetTable(tableId);
 
       return converter.toTableEntry(tableEntry);
     } finally {
@@ -495,6 +568,10 @@ public class TableManager {
         if ( logTableRelation != null ) {
           logTableRelation.dropRelation(cc);
         }
+
+        // and the index of its change sets
+        DbTableChangeSets.deleteTableChangeSets(tableEntry.getId(), cc);
+        DbTableChangeSetIndexEntry.deleteTableIdEntry(tableEntry.getId(), cc);
         
         // drop the manifest ETags table for instance attachments
         DbTableInstanceManifestETags instanceManifestETagsRelation =
@@ -502,6 +579,11 @@ public class TableManager {
         if ( instanceManifestETagsRelation != null ) {
           instanceManifestETagsRelation.dropRelation(cc);
         }
+
+        // drop the table of in-progress attachment uploads
+        DbTableInstanceUploads instanceUploadsRelation =
+          DbTableInstanceUploads.getRelation(tableEntry.getId(), cc);
+        instanceUploadsRelation.dropRelation(cc);
           
         // delete the blob store (holding the instance attachments)
         DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableEntry.getId(), cc);
@@ -509,12 +591,30 @@ public class TableManager {
 
         // delete the table-level file manifest ETag entry for this tableId
         // it is OK if this doesn't exist.
+        ETagCache.forgetTable(tableEntry.getId());
+        TablesPermissionsCache.forgetTable(tableEntry.getId());
         try {
           DbManifestETagEntity entity = DbManifestETags.getTableIdEntry(tableEntry.getId(), cc);
           entity.delete(cc);
         } catch ( ODKEntityNotFoundException e) {
           // ignore...
         }
+
+        // delete the snapshot of this tableId
+        SnapshotManager sm = new SnapshotManager(tableEntry.getId(), cc);
+        sm.deleteSnapshot();
+
+        // delete the asynchronous alterRows jobs of this tableId
+        AlterRowsJobManager.deleteJobs(tableEntry.getId(), cc);
+
+        // delete the log compaction checkpoint for this tableId
+        // it is OK if this doesn't exist.
+        try {
+          DbTableLogCheckpointEntity entity = DbTableLogCheckpoint.getTableIdEntry(tableEntry.getId(), cc);
+          entity.delete(cc);
+        } catch ( ODKEntityNotFoundException e) {
+          // ignore...
+        }
         
         // delete app-level files specific to this table
         List<DbTableFileInfoEntity> entries = DbTableFileInfo.queryForAllOdkClientVersionsOfTableIdFiles(tableEntry.getId(), cc);
@@ -615,7 +715,8 @@ public class TableManager {
   }
 
   /**
-   * Deletes a table.
+   * Deletes a table. The table is tombstoned immediately; its rows, files and
+   * metadata are removed by a background task (see TableDeletionManager).
    *
    * @param tableId
    *          the unique identifier of the table to delete.
@@ -637,7 +738,13 @@ public class TableManager {
     LockTemplate propsLock = new LockTemplate(tableId, ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
     try {
       propsLock.acquire();
-      deleteVersionedTable(tableEntry, true, cc);
+      // re-read the entry now that we hold the lock
+      tableEntry = DbTableEntry.getTableIdEntry(tableId, cc);
+      if (tableEntry.getSchemaETag() == null && TableDeletionManager.isDeletionPending(tableId, cc)) {
+        // already tombstoned
+        throw new ODKEntityNotFoundException("Table " + tableId + " is being deleted");
+      }
+      TableDeletionManager.tombstoneTable(tableEntry, cc);
     } finally {
       propsLock.release();
     }
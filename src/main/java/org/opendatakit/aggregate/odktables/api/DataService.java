@@ -16,13 +16,18 @@
 
 package org.opendatakit.aggregate.odktables.api;
 
+import java.io.IOException;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -32,6 +37,7 @@ import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.AlterRowsJob;
 import org.opendatakit.aggregate.odktables.rest.entity.RowList;
 import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResource;
@@ -44,10 +50,22 @@ public interface DataService {
   public static final String QUERY_ROW_ETAG = "row_etag";
   public static final String CURSOR_PARAMETER = "cursor";
   public static final String FETCH_LIMIT = "fetchLimit";
+  public static final String TIMEOUT_PARAMETER = "timeout";
+
+  /**
+   * Maximum number of seconds to wait for an alterRows job to finish.
+   */
+  public static final int MAX_JOB_WAIT_SECONDS = 50;
+
+  public static final String ERROR_MSG_INVALID_TIMEOUT = "The timeout parameter must be a whole number of seconds.";
 
   /**
    * Get all data rows.
    * 
+   * If the If-None-Match header matches the current dataETag of the table,
+   * a 304 (Not Modified) is returned without retrieving any rows.
+   * 
+   * @param httpHeaders
    * @param cursor - null or a websafeCursor value from the RowResourceList of a previous call
    * @param fetchLimit - null or the number of rows to fetch. If null, server will choose the limit.
    * @return {@link RowResourceList} containing the rows being returned.
@@ -59,7 +77,7 @@ public interface DataService {
    */
   @GET
   @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
-  public Response /*RowResourceList*/ getRows(@QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException;
+  public Response /*RowResourceList*/ getRows(@Context HttpHeaders httpHeaders, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException;
 
   /**
    * API for creating, updating or deleting rows.
@@ -84,6 +102,48 @@ public interface DataService {
       throws ODKTaskLockException, ODKDatastoreException, ETagMismatchException,
       PermissionDeniedException, BadColumnNameException, InconsistentStateException, TableDataETagMismatchException;
 
+  /**
+   * Asynchronous API for creating, updating or deleting rows.
+   * 
+   * The rows are staged on the server and applied by a background task in 
+   * batches of AlterRowsJobManager.ALTER_ROWS_BATCH_SIZE rows, each batch 
+   * advancing the dataETag of the table. This returns 202 (Accepted) with a 
+   * Location header identifying the job. The job fails if the RowList 
+   * dataETag does not match the dataETag of the table when the first batch 
+   * is applied.
+   * 
+   * @param rows
+   * @return {@link AlterRowsJob} of the newly created job.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws IOException
+   */
+  @POST
+  @Path("jobs")
+  @Consumes({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  public Response /*AlterRowsJob*/ submitAlterRowsJob(RowList rows)
+      throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, IOException;
+
+  /**
+   * Get the state of an alterRows job. Once the job is COMPLETE (or FAILED), 
+   * the response includes the {@link RowOutcomeList} of the applied rows.
+   * 
+   * @param jobId
+   * @param timeout - null or the number of seconds to wait for the job to finish. 
+   *   If null, the current state is returned immediately. At most MAX_JOB_WAIT_SECONDS.
+   * @return {@link AlterRowsJob} of the job.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws IOException
+   */
+  @GET
+  @Path("jobs/{jobId}")
+  @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  public Response /*AlterRowsJob*/ getAlterRowsJob(@PathParam("jobId") String jobId, @QueryParam(TIMEOUT_PARAMETER) String timeout)
+      throws ODKDatastoreException, PermissionDeniedException, IOException;
+
   /**
    * Get the current values for a single rowId
    * 
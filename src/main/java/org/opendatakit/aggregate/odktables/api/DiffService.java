@@ -21,6 +21,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -39,12 +41,21 @@ public interface DiffService {
   public static final String QUERY_SEQUENCE_VALUE = "sequence_value";
   public static final String CURSOR_PARAMETER = "cursor";
   public static final String FETCH_LIMIT = "fetchLimit";
+  public static final String QUERY_DELTA = "delta";
 
   /**
+   * If the If-None-Match header matches the current dataETag of the table,
+   * a 304 (Not Modified) is returned without retrieving any rows.
    *
+   * If delta is true, updated rows carry a baseRowETag and only the values 
+   * that differ from that revision of the row. The base revision is the one 
+   * the client holds if it applies the pages of changes in order.
+   *
+   * @param httpHeaders
    * @param dataETag
    * @param cursor - null or a websafeCursor value from the RowResourceList of a previous call
    * @param fetchLimit - null or the number of rows to fetch. If null, server will choose the limit.
+   * @param delta - null or "true" to delta-encode the updated rows.
    * @return {@link RowResourceList} of row changes since the dataETag value
    * @throws ODKDatastoreException
    * @throws PermissionDeniedException
@@ -54,7 +65,7 @@ public interface DiffService {
    */
   @GET
   @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
-  public Response /*RowResourceList*/ getRowsSince(@QueryParam(QUERY_DATA_ETAG) String dataETag, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit)
+  public Response /*RowResourceList*/ getRowsSince(@Context HttpHeaders httpHeaders, @QueryParam(QUERY_DATA_ETAG) String dataETag, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit, @QueryParam(QUERY_DELTA) String delta)
       throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException;
   
   /**
@@ -86,11 +97,15 @@ public interface DiffService {
    * If isActive is specified, then return only the currently-active
    * row changes. I.e., if a later changeSet has revised an
    * affected row, do not return that row.
+   * 
+   * If delta is true (and isActive is not), updated rows carry a baseRowETag 
+   * and only the values that differ from that revision of the row.
 
    * @param dataETag
    * @param isActive
    * @param cursor
    * @param fetchLimit
+   * @param delta
    * @return
    * @throws ODKDatastoreException
    * @throws PermissionDeniedException
@@ -101,6 +116,6 @@ public interface DiffService {
   @GET
   @Path("changeSets/{dataETag}")
   @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
-  public Response /*RowResourceList*/ getChangeSetRows(@PathParam("dataETag") String dataETag, @QueryParam(QUERY_ACTIVE_ONLY) String isActive, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit)
+  public Response /*RowResourceList*/ getChangeSetRows(@PathParam("dataETag") String dataETag, @QueryParam(QUERY_ACTIVE_ONLY) String isActive, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit, @QueryParam(QUERY_DELTA) String delta)
       throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException;
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.api;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+
+/**
+ * Exports the current rows of a table as a CSV file.
+ * <p>
+ * The rows are read from the datastore a page at a time and streamed to the
+ * response, so the export does not hold the table in memory. Row-level
+ * filtering is applied as for the rows API. The CSV can be re-imported
+ * through the CSV upload servlet.
+ */
+public interface ExportService {
+
+  public static final String GZIP_PARAMETER = "gzip";
+
+  /**
+   * Get the current rows of this table as a CSV file.
+   *
+   * @param gzip
+   *          if "true", the CSV file is gzip-compressed.
+   * @return the CSV file, streamed as it is generated.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  @GET
+  public Response exportCsv(@QueryParam(GZIP_PARAMETER) String gzip)
+      throws ODKDatastoreException, PermissionDeniedException;
+}
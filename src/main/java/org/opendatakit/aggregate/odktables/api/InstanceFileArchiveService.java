@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.api;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+
+/**
+ * Downloads the instance files (row attachments) of many rows of a table as a
+ * single zip archive.
+ * <p>
+ * The archive holds the attachments of the rows named by the row_id query
+ * parameters (which may be repeated), or of the rows changed in the change
+ * set named by the data_etag query parameter, or, if neither is given, of
+ * every row of the table. Each file is stored under {rowId}/subpathToFile,
+ * matching the layout of the instances directory on the device.
+ * <p>
+ * The archive is streamed: each entry is written as the parts of its blob
+ * are read from the datastore, so neither the files nor the archive are held
+ * in memory. Files whose upload has not completed are omitted.
+ */
+public interface InstanceFileArchiveService {
+
+  public static final String QUERY_ROW_ID = "row_id";
+  public static final String QUERY_DATA_ETAG = "data_etag";
+
+  /**
+   * Get the instance files of the selected rows of this table as a zip file.
+   *
+   * @param rowIds
+   *          the rows whose files are wanted. May be empty.
+   * @param dataETag
+   *          the change set whose rows' files are wanted. Ignored if rowIds
+   *          are given.
+   * @return the zip file, streamed as it is generated.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  @GET
+  public Response getArchive(@QueryParam(QUERY_ROW_ID) List<String> rowIds,
+      @QueryParam(QUERY_DATA_ETAG) String dataETag) throws ODKDatastoreException,
+      PermissionDeniedException;
+}
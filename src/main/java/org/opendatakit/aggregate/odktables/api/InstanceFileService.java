@@ -16,12 +16,14 @@
 package org.opendatakit.aggregate.odktables.api;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -54,6 +56,14 @@ import org.opendatakit.common.persistence.exception.ODKTaskLockException;
  * <p>
  * These urls should be generated by a file manifest servlet on a table id
  * basis.
+ * <p>
+ * Large files may instead be uploaded in several requests, so that an upload
+ * can be resumed after a dropped connection. A POST to upload/subpathToFile
+ * starts (or resumes) the upload and reports the number of bytes already
+ * received in the X-OpenDataKit-Upload-Offset header. Each PUT to
+ * upload/subpathToFile?offset=n appends a chunk of the file beginning at that
+ * offset. A POST to commit/subpathToFile, with the md5 hash of the file in the
+ * X-OpenDataKit-Content-Hash header, completes the upload.
  *
  * @author sudar.sam@gmail.com
  *
@@ -67,6 +77,7 @@ public interface InstanceFileService {
   public static final String SERVLET_PATH = "files";
 
   public static final String PARAM_AS_ATTACHMENT = "as_attachment";
+  public static final String PARAM_OFFSET = "offset";
   public static final String ERROR_MSG_INVALID_ROW_ID = "Invalid RowId.";
   public static final String ERROR_MSG_INSUFFICIENT_PATH = "Not Enough Path Segments: must be at least 1.";
   public static final String ERROR_MSG_UNRECOGNIZED_APP_ID = "Unrecognized app id: ";
@@ -85,6 +96,19 @@ public interface InstanceFileService {
   @POST
   @Path("file/{filePath:.*}")
   @Consumes({MediaType.MEDIA_TYPE_WILDCARD})
-  public Response putFile(@Context HttpServletRequest req, @PathParam("filePath") List<PathSegment> segments, byte[] content) throws IOException, ODKTaskLockException;
+  public Response putFile(@Context HttpServletRequest req, @PathParam("filePath") List<PathSegment> segments, InputStream content) throws IOException, ODKTaskLockException;
+
+  @POST
+  @Path("upload/{filePath:.*}")
+  public Response startUpload(@Context HttpServletRequest req, @PathParam("filePath") List<PathSegment> segments) throws IOException;
+
+  @PUT
+  @Path("upload/{filePath:.*}")
+  @Consumes({MediaType.MEDIA_TYPE_WILDCARD})
+  public Response putUploadChunk(@Context HttpServletRequest req, @PathParam("filePath") List<PathSegment> segments, @QueryParam(PARAM_OFFSET) Long offset, InputStream content) throws IOException;
+
+  @POST
+  @Path("commit/{filePath:.*}")
+  public Response commitUpload(@Context HttpServletRequest req, @PathParam("filePath") List<PathSegment> segments) throws IOException;
 
 }
@@ -2,7 +2,9 @@ package org.opendatakit.aggregate.odktables.api;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -19,6 +21,8 @@ import org.opendatakit.aggregate.odktables.impl.api.FileManifestServiceImpl;
 import org.opendatakit.aggregate.odktables.impl.api.FileServiceImpl;
 import org.opendatakit.aggregate.odktables.impl.api.TableServiceImpl;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntryList;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncRequestList;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 
@@ -26,6 +30,13 @@ public interface OdkTables {
 
   public static final String CURSOR_PARAMETER = "cursor";
   public static final String FETCH_LIMIT = "fetchLimit";
+  public static final String TIMEOUT_PARAMETER = "timeout";
+
+  /**
+   * Default and maximum number of seconds to wait for a table change.
+   */
+  public static final int DEFAULT_CHANGE_WAIT_SECONDS = 30;
+  public static final int MAX_CHANGE_WAIT_SECONDS = 50;
   
   /**
    * Return the JSON serialized list of appNames that this server supports.
@@ -59,6 +70,66 @@ public interface OdkTables {
       @Context UriInfo info, @PathParam("appId") String appId, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws AppNameMismatchException,
       PermissionDeniedException, ODKDatastoreException, ODKTaskLockException;
 
+  /**
+   * Long-poll for changes to the data of a set of tables.
+   * 
+   * The request supplies the tableIds and the dataETags known to the client.
+   * Returns as soon as the dataETag of any of these tables changes, or after
+   * the timeout (in seconds) expires. The returned list holds the changed
+   * tables with their new dataETag; it is empty if nothing changed.
+   * 
+   * @param sc
+   * @param req
+   * @param httpHeaders
+   * @param info
+   * @param appId
+   * @param timeout - null or the number of seconds to wait.
+   * @param knownTables
+   * @return {@link TableEntryList} of the tables that changed.
+   * @throws AppNameMismatchException
+   * @throws PermissionDeniedException
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   */
+  @POST
+  @Path("{appId}/changes")
+  @Consumes({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  public Response /*TableEntryList*/ waitForTableChanges(@Context ServletContext sc, @Context HttpServletRequest req, @Context HttpHeaders httpHeaders,
+      @Context UriInfo info, @PathParam("appId") String appId, @QueryParam(TIMEOUT_PARAMETER) String timeout, TableEntryList knownTables) throws AppNameMismatchException,
+      PermissionDeniedException, ODKDatastoreException, ODKTaskLockException;
+
+  /**
+   * Fetch the changes to the data of a set of tables in a single request.
+   * 
+   * The request supplies, for each table, the tableId, the schemaETag and
+   * dataETag known to the client, and the resume cursor of a prior incomplete
+   * fetch. Each table is processed as the diff API of that table would process
+   * it, returning at most fetchLimit changed rows per table. Failures (e.g., a
+   * schemaETag mismatch or a permissions failure) are reported in the result
+   * for that table and do not affect the processing of the other tables.
+   * 
+   * @param sc
+   * @param req
+   * @param httpHeaders
+   * @param info
+   * @param appId
+   * @param fetchLimit
+   * @param syncTables
+   * @return TableSyncResultList holding one result per requested table
+   * @throws AppNameMismatchException
+   * @throws PermissionDeniedException
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   */
+  @POST
+  @Path("{appId}/sync")
+  @Consumes({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+  public Response /*TableSyncResultList*/ syncTables(@Context ServletContext sc, @Context HttpServletRequest req, @Context HttpHeaders httpHeaders,
+      @Context UriInfo info, @PathParam("appId") String appId, @QueryParam(FETCH_LIMIT) String fetchLimit, TableSyncRequestList syncTables) throws AppNameMismatchException,
+      PermissionDeniedException, ODKDatastoreException, ODKTaskLockException;
+
   @Path("{appId}/tables/{tableId}")
   public TableServiceImpl getTablesService(@Context ServletContext sc, @Context HttpServletRequest req, @Context HttpHeaders httpHeaders,
       @Context UriInfo info, @PathParam("appId") String appId, @PathParam("tableId") String tableId) throws AppNameMismatchException, PermissionDeniedException, ODKDatastoreException, ODKTaskLockException;
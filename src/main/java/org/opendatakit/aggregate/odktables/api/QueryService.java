@@ -18,7 +18,9 @@ package org.opendatakit.aggregate.odktables.api;
 
 import java.text.ParseException;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
@@ -29,6 +31,7 @@ import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
 import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.RowQuery;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResourceList;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
@@ -78,4 +81,27 @@ public interface QueryService {
  @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
  public Response /*RowResourceList*/ getRowsInTimeRangeBasedOnSavepointTimestamp(@QueryParam(QUERY_START_TIME) String startTime, @QueryParam(QUERY_END_TIME) String endTime, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit)
    throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException, ParseException;
-}
\ No newline at end of file
+
+ /**
+  * Return the current rows of the table that satisfy all of the filters in the
+  * query. Only columns that are stored in their own database column can be
+  * filtered or sorted upon; declare them as indexedColumns when creating the
+  * table for these queries to be efficient.
+  *
+  * @param cursor - null or a websafeCursor value from the RowResourceList of a previous call
+  * @param fetchLimit - null or the number of rows to fetch. If null, server will choose the limit.
+  * @param query - the filters and sort order to apply
+  * @return {@link RowResourceList} of the matching rows
+  * @throws ODKDatastoreException
+  * @throws PermissionDeniedException
+  * @throws InconsistentStateException
+  * @throws ODKTaskLockException
+  * @throws BadColumnNameException
+  */
+ @POST
+ @Path("rows")
+ @Consumes({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+ @Produces({MediaType.APPLICATION_JSON, ApiConstants.MEDIA_TEXT_XML_UTF8, ApiConstants.MEDIA_APPLICATION_XML_UTF8})
+ public Response /*RowResourceList*/ getRowsMatching(@QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit, RowQuery query)
+   throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException;
+}
@@ -105,6 +105,16 @@ public interface RealizedTableService {
   @Path("attachments/{rowId}")
   public InstanceFileService getInstanceFiles(@PathParam("rowId") String rowId) throws ODKDatastoreException, PermissionDeniedException, SchemaETagMismatchException, AppNameMismatchException, ODKTaskLockException;
 
+  /**
+   * Instance file archive subresource for a realized tableId (supplied in implementation constructor)
+   *
+   * @return {@link InstanceFileArchiveService} for downloading the file attachments of many rows at once.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  @Path("archive")
+  public InstanceFileArchiveService getInstanceFileArchive() throws ODKDatastoreException, PermissionDeniedException;
+
   /**
    * Differences subresource for a realized tableId (supplied in implementation constructor)
    *
@@ -130,4 +140,24 @@ public interface RealizedTableService {
    */
   @Path("query")
   public QueryService getQuery() throws ODKDatastoreException, PermissionDeniedException, SchemaETagMismatchException, AppNameMismatchException, ODKTaskLockException;
+
+  /**
+   * Snapshot subresource for a realized tableId (supplied in implementation constructor)
+   *
+   * @return {@link SnapshotService} for the compressed snapshot of this table.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  @Path("snapshot")
+  public SnapshotService getSnapshot() throws ODKDatastoreException, PermissionDeniedException;
+
+  /**
+   * CSV export subresource for a realized tableId (supplied in implementation constructor)
+   *
+   * @return {@link ExportService} for exporting the rows of this table.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   */
+  @Path("export")
+  public ExportService getExport() throws ODKDatastoreException, PermissionDeniedException;
 }
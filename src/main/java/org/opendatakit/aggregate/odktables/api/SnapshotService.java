@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.api;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+
+/**
+ * Serves the precomputed, compressed snapshot of a table's contents.
+ * <p>
+ * A device performing an initial sync should fetch the snapshot (resuming an
+ * interrupted download with a Range request and an If-Range of the ETag),
+ * decompress it to obtain a RowList, and then call the diff API with the
+ * RowList's dataETag to obtain the changes made since the snapshot was taken.
+ * If no snapshot is available (404), the device should page through the rows
+ * API instead.
+ */
+public interface SnapshotService {
+
+  /**
+   * Get the gzip-compressed JSON RowList snapshot of this table. Supports a
+   * single byte range (Range), conditional range requests (If-Range) and
+   * If-None-Match against the ETag of the snapshot content.
+   *
+   * @param httpHeaders
+   * @return the snapshot, the requested byte range of the snapshot, or an
+   *         error status.
+   * @throws ODKDatastoreException
+   */
+  @GET
+  public Response getSnapshotFile(@Context HttpHeaders httpHeaders) throws ODKDatastoreException;
+}
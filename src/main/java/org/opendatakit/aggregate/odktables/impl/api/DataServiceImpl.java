@@ -16,6 +16,7 @@
 
 package org.opendatakit.aggregate.odktables.impl.api;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -23,10 +24,14 @@ import java.util.List;
 
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
+import org.opendatakit.aggregate.odktables.AlterRowsJobManager;
 import org.opendatakit.aggregate.odktables.DataManager;
 import org.opendatakit.aggregate.odktables.DataManager.WebsafeRows;
 import org.opendatakit.aggregate.odktables.api.DataService;
@@ -39,6 +44,7 @@ import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.AlterRowsJob;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
 import org.opendatakit.aggregate.odktables.rest.entity.RowList;
 import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
@@ -55,17 +61,30 @@ import org.opendatakit.common.web.CallingContext;
 public class DataServiceImpl implements DataService {
   private final String schemaETag;
   private final DataManager dm;
+  private final AlterRowsJobManager jm;
   private final UriInfo info;
 
   public DataServiceImpl(String appId, String tableId, String schemaETag, UriInfo info, TablesUserPermissions userPermissions, CallingContext cc)
       throws ODKEntityNotFoundException, ODKDatastoreException {
     this.schemaETag = schemaETag;
     this.dm = new DataManager(appId, tableId, userPermissions, cc);
+    this.jm = new AlterRowsJobManager(appId, tableId, userPermissions, cc);
     this.info = info;
   }
 
   @Override
-  public Response getRows(@QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
+  public Response getRows(HttpHeaders httpHeaders, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
+    // retrieve the incoming if-none-match eTag...
+    List<String> eTags = httpHeaders.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
+    String eTag = (eTags == null || eTags.isEmpty()) ? null : eTags.get(0);
+    if (eTag != null && eTag.equals(dm.getCurrentDataETag())) {
+      // nothing has changed -- don't lock the table or fetch any rows
+      return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+
     int limit = (fetchLimit == null || fetchLimit.length() == 0) ? 2000 : Integer.parseInt(fetchLimit);
     WebsafeRows websafeResult = dm.getRows(QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit);
     RowResourceList rowResourceList = new RowResourceList(getResources(websafeResult.rows),
@@ -74,10 +93,14 @@ public class DataServiceImpl implements DataService {
         WebUtils.safeEncode(websafeResult.websafeBackwardCursor),
         WebUtils.safeEncode(websafeResult.websafeResumeCursor),
         websafeResult.hasMore, websafeResult.hasPrior);
-    return Response.ok(rowResourceList)
+    ResponseBuilder rBuild = Response.ok(rowResourceList)
         .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
         .header("Access-Control-Allow-Origin", "*")
-        .header("Access-Control-Allow-Credentials", "true").build();
+        .header("Access-Control-Allow-Credentials", "true");
+    if (websafeResult.dataETag != null) {
+      rBuild.header(HttpHeaders.ETAG, websafeResult.dataETag);
+    }
+    return rBuild.build();
   }
   
   @Override
@@ -93,6 +116,45 @@ public class DataServiceImpl implements DataService {
         .header("Access-Control-Allow-Credentials", "true").build();
   }
 
+  @Override
+  public Response /*AlterRowsJob*/ submitAlterRowsJob(RowList rows)
+      throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, IOException {
+
+    AlterRowsJob job = jm.submitJob(rows);
+    String locationUrl = getJobUri(job.getJobId());
+    job.setSelfUri(locationUrl);
+    return Response.status(Status.ACCEPTED).header("Location", locationUrl).entity(job)
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  @Override
+  public Response /*AlterRowsJob*/ getAlterRowsJob(@PathParam("jobId") String jobId, @QueryParam(TIMEOUT_PARAMETER) String timeout)
+      throws ODKDatastoreException, PermissionDeniedException, IOException {
+
+    int timeoutSeconds;
+    try {
+      timeoutSeconds = (timeout == null || timeout.length() == 0) ? 0 : Integer.parseInt(timeout);
+    } catch (NumberFormatException e) {
+      return Response.status(Status.BAD_REQUEST).entity(DataService.ERROR_MSG_INVALID_TIMEOUT)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    timeoutSeconds = Math.max(0, Math.min(timeoutSeconds, MAX_JOB_WAIT_SECONDS));
+
+    AlterRowsJob job = jm.getJob(jobId, timeoutSeconds * 1000L);
+    job.setSelfUri(getJobUri(jobId));
+    if (job.getOutcomes() != null) {
+      updateTableUri(job.getOutcomes());
+    }
+    return Response.ok(job)
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
   @Override
   public Response getRow(@PathParam("rowId") String rowId) throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
     Row row = dm.getRow(rowId);
@@ -118,6 +180,22 @@ public class DataServiceImpl implements DataService {
     }
   }
   
+  private String getJobUri(String jobId) {
+    String appId = dm.getAppId();
+    String tableId = dm.getTableId();
+
+    UriBuilder ub = info.getBaseUriBuilder();
+    ub.path(OdkTables.class, "getTablesService");
+    URI self = ub.clone().path(TableService.class, "getRealizedTable").path(RealizedTableService.class, "getData").path(DataService.class, "getAlterRowsJob")
+        .build(appId, tableId, schemaETag, jobId);
+    try {
+      return self.toURL().toExternalForm();
+    } catch (MalformedURLException e) {
+      e.printStackTrace();
+      throw new IllegalArgumentException("unable to convert URL ");
+    }
+  }
+
   private RowResource getResource(Row row) {
     String appId = dm.getAppId();
     String tableId = dm.getTableId();
@@ -22,7 +22,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
@@ -62,20 +65,60 @@ public class DiffServiceImpl implements DiffService {
   }
 
   @Override
-  public Response getRowsSince(@QueryParam(QUERY_DATA_ETAG) String dataETag, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit) throws ODKDatastoreException,
+  public Response getRowsSince(HttpHeaders httpHeaders, @QueryParam(QUERY_DATA_ETAG) String dataETag, @QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit, @QueryParam(QUERY_DELTA) String delta) throws ODKDatastoreException,
       PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
+    // retrieve the incoming if-none-match eTag...
+    List<String> eTags = httpHeaders.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
+    String eTag = (eTags == null || eTags.isEmpty()) ? null : eTags.get(0);
+    if (eTag != null && eTag.equals(dm.getCurrentDataETag())) {
+      // nothing has changed -- don't lock the table or fetch any rows
+      return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+
+    RowResourceList rowResourceList = getRowResourcesSince(dataETag, cursor, fetchLimit,
+        isTrue(delta));
+    ResponseBuilder rBuild = Response.ok(rowResourceList)
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true");
+    if (rowResourceList.getDataETag() != null) {
+      rBuild.header(HttpHeaders.ETAG, rowResourceList.getDataETag());
+    }
+    return rBuild.build();
+  }
+
+  /**
+   * Shared by the diff API and the batched sync API of OdkTables.
+   *
+   * @param dataETag
+   * @param cursor
+   * @param fetchLimit
+   * @param asDeltas
+   * @return the changes since dataETag, as would be returned by getRowsSince()
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   * @throws ODKTaskLockException
+   * @throws BadColumnNameException
+   */
+  RowResourceList getRowResourcesSince(String dataETag, String cursor, String fetchLimit,
+      boolean asDeltas) throws ODKDatastoreException, PermissionDeniedException,
+      InconsistentStateException, ODKTaskLockException, BadColumnNameException {
     int limit = (fetchLimit == null || fetchLimit.length() == 0) ? 2000 : Integer.parseInt(fetchLimit);
-    WebsafeRows websafeResult = dm.getRowsSince(dataETag, QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit);
-    RowResourceList rowResourceList = new RowResourceList(getResources(websafeResult.rows),
+    WebsafeRows websafeResult = dm.getRowsSince(dataETag, QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit, asDeltas);
+    return new RowResourceList(getResources(websafeResult.rows),
         websafeResult.dataETag, getTableUri(),
         WebUtils.safeEncode(websafeResult.websafeRefetchCursor),
         WebUtils.safeEncode(websafeResult.websafeBackwardCursor),
         WebUtils.safeEncode(websafeResult.websafeResumeCursor),
         websafeResult.hasMore, websafeResult.hasPrior);
-    return Response.ok(rowResourceList)
-        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
-        .header("Access-Control-Allow-Origin", "*")
-        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  private static boolean isTrue(String value) {
+    return (value != null && value.equalsIgnoreCase("true"));
   }
 
   private String getTableUri() {
@@ -134,13 +177,12 @@ public class DiffServiceImpl implements DiffService {
 
   @Override
   public Response getChangeSetRows(String dataETag, String isActive, String cursor,
-      String fetchLimit) throws ODKDatastoreException, PermissionDeniedException,
+      String fetchLimit, String delta) throws ODKDatastoreException, PermissionDeniedException,
       InconsistentStateException, ODKTaskLockException, BadColumnNameException {
 
-    boolean bIsActive = (isActive == null || isActive.length() == 0 || !isActive.equalsIgnoreCase("true")) 
-        ? false : true;
+    boolean bIsActive = isTrue(isActive);
     int limit = (fetchLimit == null || fetchLimit.length() == 0) ? 2000 : Integer.parseInt(fetchLimit);
-    WebsafeRows websafeResult = dm.getChangeSetRows(dataETag, bIsActive, QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit);
+    WebsafeRows websafeResult = dm.getChangeSetRows(dataETag, bIsActive, QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit, isTrue(delta));
     RowResourceList rowResourceList = new RowResourceList(getResources(websafeResult.rows),
         websafeResult.dataETag, getTableUri(),
         WebUtils.safeEncode(websafeResult.websafeRefetchCursor),
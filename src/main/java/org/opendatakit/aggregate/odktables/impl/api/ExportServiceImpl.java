@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.impl.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.lang3.CharEncoding;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.DataManager;
+import org.opendatakit.aggregate.odktables.api.ExportService;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.importexport.CsvUtil;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+public class ExportServiceImpl implements ExportService {
+
+  private static final Log LOGGER = LogFactory.getLog(ExportServiceImpl.class);
+
+  private static final String GZIP_CONTENT_TYPE = "application/x-gzip";
+
+  private final String appId;
+  private final String tableId;
+  private final String schemaETag;
+  private final TablesUserPermissions userPermissions;
+  private final CallingContext cc;
+
+  public ExportServiceImpl(String appId, String tableId, String schemaETag,
+      TablesUserPermissions userPermissions, CallingContext cc) {
+    this.appId = appId;
+    this.tableId = tableId;
+    this.schemaETag = schemaETag;
+    this.userPermissions = userPermissions;
+    this.cc = cc;
+  }
+
+  @Override
+  public Response exportCsv(@QueryParam(GZIP_PARAMETER) String gzip)
+      throws ODKDatastoreException, PermissionDeniedException {
+    // fail before the response is committed if the user cannot read rows
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+
+    // only the columns that are stored in the database have values
+    final List<String> elementKeys = new ArrayList<String>();
+    for (DbColumnDefinitionsEntity column : DbColumnDefinitions.query(tableId, schemaETag, cc)) {
+      if (column.isUnitOfRetention()) {
+        elementKeys.add(column.getElementKey());
+      }
+    }
+
+    final boolean compress = "true".equalsIgnoreCase(gzip);
+    final DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
+
+    StreamingOutput stream = new StreamingOutput() {
+
+      @Override
+      public void write(OutputStream output) throws IOException, WebApplicationException {
+        GZIPOutputStream gzipStream = null;
+        if (compress) {
+          gzipStream = new GZIPOutputStream(output);
+          output = gzipStream;
+        }
+        Writer writer = new OutputStreamWriter(output, CharEncoding.UTF_8);
+        try {
+          new CsvUtil().exportTable(dm, elementKeys, writer);
+        } catch (IOException e) {
+          throw e;
+        } catch (Exception e) {
+          // the response has already been started; abort it.
+          LOGGER.error("Export of " + tableId + " failed: " + e.toString());
+          e.printStackTrace();
+          throw new WebApplicationException(e);
+        }
+        writer.flush();
+        if (gzipStream != null) {
+          gzipStream.finish();
+        }
+      }
+    };
+
+    String filename = tableId + (compress ? ".csv.gz" : ".csv");
+    return Response.ok(stream, compress ? GZIP_CONTENT_TYPE : HtmlConsts.RESP_TYPE_CSV)
+        .header(HtmlConsts.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+}
@@ -29,6 +29,7 @@ import javax.ws.rs.core.UriInfo;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.odktables.ETagCache;
 import org.opendatakit.aggregate.odktables.FileManifestManager;
 import org.opendatakit.aggregate.odktables.api.FileManifestService;
 import org.opendatakit.aggregate.odktables.api.FileService;
@@ -88,6 +89,13 @@ public class FileManifestServiceImpl implements FileManifestService {
     String eTag = (eTags == null || eTags.isEmpty()) ? null : eTags.get(0);
     DbManifestETagEntity eTagEntity = null;
     try {
+      // check the cached manifest ETag first; this avoids the manifest queries.
+      if ( eTag != null && eTag.equals(ETagCache.getManifestETag(DbManifestETags.APP_LEVEL, cc)) ) {
+        return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      }
         try {
           eTagEntity = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
         } catch ( ODKEntityNotFoundException e ) {
@@ -128,6 +136,7 @@ public class FileManifestServiceImpl implements FileManifestService {
       }
       // and whatever the eTag is in that entity is the eTag we should return...
       eTag = eTagEntity.getManifestETag();
+      ETagCache.putManifestETag(DbManifestETags.APP_LEVEL, eTag);
       
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
@@ -160,6 +169,13 @@ public class FileManifestServiceImpl implements FileManifestService {
     String eTag = (eTags == null || eTags.isEmpty()) ? null : eTags.get(0);
     DbManifestETagEntity eTagEntity = null;
     try {
+      // check the cached manifest ETag first; this avoids the manifest queries.
+      if ( eTag != null && eTag.equals(ETagCache.getManifestETag(tableId, cc)) ) {
+        return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      }
         try {
           eTagEntity = DbManifestETags.getTableIdEntry(tableId, cc);
         } catch ( ODKEntityNotFoundException e ) {
@@ -199,6 +215,7 @@ public class FileManifestServiceImpl implements FileManifestService {
       }
       // and whatever the eTag is in that entity is the eTag we should return...
       eTag = eTagEntity.getManifestETag();
+      ETagCache.putManifestETag(tableId, eTag);
       
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
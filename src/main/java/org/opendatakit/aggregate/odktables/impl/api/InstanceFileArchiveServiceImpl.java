@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.impl.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.DataManager;
+import org.opendatakit.aggregate.odktables.DataManager.WebsafeRows;
+import org.opendatakit.aggregate.odktables.api.InstanceFileArchiveService;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
+import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+public class InstanceFileArchiveServiceImpl implements InstanceFileArchiveService {
+
+  private static final Log LOGGER = LogFactory.getLog(InstanceFileArchiveServiceImpl.class);
+
+  private static final String ZIP_CONTENT_TYPE = "application/zip";
+
+  /**
+   * Number of rows fetched per page when walking a change set or the table.
+   */
+  private static final int ROW_PAGE_SIZE = 500;
+
+  private final String appId;
+  private final String tableId;
+  private final TablesUserPermissions userPermissions;
+  private final CallingContext cc;
+
+  public InstanceFileArchiveServiceImpl(String appId, String tableId,
+      TablesUserPermissions userPermissions, CallingContext cc) {
+    this.appId = appId;
+    this.tableId = tableId;
+    this.userPermissions = userPermissions;
+    this.cc = cc;
+  }
+
+  @Override
+  public Response getArchive(@QueryParam(QUERY_ROW_ID) List<String> rowIds,
+      @QueryParam(QUERY_DATA_ETAG) final String dataETag) throws ODKDatastoreException,
+      PermissionDeniedException {
+    // fail before the response is committed if the user cannot read rows
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+
+    final List<String> selectedRowIds = new ArrayList<String>();
+    if (rowIds != null) {
+      for (String rowId : rowIds) {
+        if (rowId != null && rowId.length() != 0 && !selectedRowIds.contains(rowId)) {
+          selectedRowIds.add(rowId);
+        }
+      }
+    }
+
+    final DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
+    final DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+
+    StreamingOutput stream = new StreamingOutput() {
+
+      @Override
+      public void write(OutputStream output) throws IOException, WebApplicationException {
+        ZipOutputStream zip = new ZipOutputStream(output);
+        int fileCount = 0;
+        try {
+          if (!selectedRowIds.isEmpty()) {
+            for (String rowId : selectedRowIds) {
+              try {
+                // applies the row-level access filter
+                dm.getRow(rowId);
+              } catch (ODKEntityNotFoundException e) {
+                continue;
+              } catch (PermissionDeniedException e) {
+                continue;
+              }
+              fileCount += writeRowFiles(zip, blobStore, rowId);
+            }
+          } else {
+            // the change set is sorted by rowId; a row may appear in it more
+            // than once.
+            String lastRowId = null;
+            QueryResumePoint startCursor = null;
+            for (;;) {
+              WebsafeRows page;
+              if (dataETag != null && dataETag.length() != 0) {
+                page = dm.getChangeSetRows(dataETag, false, startCursor, ROW_PAGE_SIZE);
+              } else {
+                page = dm.getRows(startCursor, ROW_PAGE_SIZE);
+              }
+              for (Row row : page.rows) {
+                if (!row.getRowId().equals(lastRowId)) {
+                  lastRowId = row.getRowId();
+                  fileCount += writeRowFiles(zip, blobStore, lastRowId);
+                }
+              }
+              if (!page.hasMore || page.websafeResumeCursor == null) {
+                break;
+              }
+              startCursor = QueryResumePoint.fromWebsafeCursor(page.websafeResumeCursor);
+            }
+          }
+        } catch (IOException e) {
+          throw e;
+        } catch (Exception e) {
+          // the response has already been started; abort it.
+          LOGGER.error("Archive of the files of " + tableId + " failed", e);
+          throw new WebApplicationException(e);
+        }
+        zip.finish();
+        LOGGER.info("Archived " + fileCount + " instance files of " + tableId);
+      }
+    };
+
+    String filename = toFilename(tableId
+        + ((selectedRowIds.size() == 1) ? "-" + selectedRowIds.get(0) : "") + "-files.zip");
+    return Response.ok(stream, ZIP_CONTENT_TYPE)
+        .header(HtmlConsts.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  /**
+   * Write the stored files of a row to the archive.
+   *
+   * @param zip
+   * @param blobStore
+   * @param rowId
+   * @return the number of files written.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  private int writeRowFiles(ZipOutputStream zip, DbTableInstanceFiles blobStore, String rowId)
+      throws ODKDatastoreException, IOException {
+    BlobEntitySet instance = blobStore.getBlobEntitySet(rowId, cc);
+    int written = 0;
+    int count = instance.getAttachmentCount(cc);
+    for (int i = 1; i <= count; ++i) {
+      String path = instance.getUnrootedFilename(i, cc);
+      String contentType = instance.getContentType(i, cc);
+      Long contentLength = instance.getContentLength(i, cc);
+      // A null contentHash means the file content is not fully stored.
+      if (path == null || instance.getContentHash(i, cc) == null || contentLength == null
+          || contentLength == 0L) {
+        continue;
+      }
+
+      String entryName = toEntryName(rowId, path);
+      if (entryName == null) {
+        LOGGER.warn("Skipping instance file " + path + " of row " + rowId + " of " + tableId
+            + " -- it is not a relative path");
+        continue;
+      }
+
+      ZipEntry entry = new ZipEntry(entryName);
+      Date lastUpdate = instance.getLastUpdateDate(i, cc);
+      if (lastUpdate != null) {
+        entry.setTime(lastUpdate.getTime());
+      }
+      // media files are already compressed; don't spend time deflating them.
+      zip.setLevel(isCompressed(contentType) ? Deflater.NO_COMPRESSION
+          : Deflater.DEFAULT_COMPRESSION);
+      zip.putNextEntry(entry);
+      BlobInputStream fileStream = instance.getBlobStream(i, cc);
+      try {
+        fileStream.writeTo(zip, 0L, contentLength);
+      } finally {
+        fileStream.close();
+      }
+      zip.closeEntry();
+      ++written;
+    }
+    return written;
+  }
+
+  /**
+   * The name of the archive entry for a file of a row: rowId/path. Empty and
+   * "." segments of the path are dropped and a leading "/" is removed, so the
+   * entry always unpacks under the directory of its row. The rowId is a single
+   * directory name; any separators in it are replaced.
+   *
+   * @param rowId
+   * @param path
+   * @return the entry name, or null if the path would climb out of the
+   *         directory of the row (has a ".." segment) or names no file.
+   */
+  static String toEntryName(String rowId, String path) {
+    StringBuilder b = new StringBuilder();
+    String dir = rowId.replace('/', '_').replace('\\', '_');
+    if (dir.equals(".") || dir.equals("..")) {
+      dir = "_" + dir;
+    }
+    b.append(dir);
+    boolean hasFile = false;
+    for (String segment : path.split("[/\\\\]")) {
+      if (segment.length() == 0 || segment.equals(".")) {
+        continue;
+      }
+      if (segment.equals("..")) {
+        return null;
+      }
+      b.append("/").append(segment);
+      hasFile = true;
+    }
+    return hasFile ? b.toString() : null;
+  }
+
+  /**
+   * @param name
+   * @return the name with every character that is not safe in a quoted
+   *         Content-Disposition filename replaced by an underscore.
+   */
+  static String toFilename(String name) {
+    StringBuilder b = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); ++i) {
+      char ch = name.charAt(i);
+      if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+          || ch == '.' || ch == '-' || ch == '_') {
+        b.append(ch);
+      } else {
+        b.append('_');
+      }
+    }
+    return b.toString();
+  }
+
+  private static boolean isCompressed(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = contentType.toLowerCase();
+    return type.startsWith("image/") || type.startsWith("video/") || type.startsWith("audio/")
+        || type.endsWith("zip");
+  }
+}
@@ -15,7 +15,10 @@
  */
 package org.opendatakit.aggregate.odktables.impl.api;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,18 +26,23 @@ import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.constants.ErrorConsts;
+import org.opendatakit.aggregate.odktables.InstanceFileUploadManager;
+import org.opendatakit.aggregate.odktables.LockTemplate;
 import org.opendatakit.aggregate.odktables.api.InstanceFileService;
 import org.opendatakit.aggregate.odktables.api.OdkTables;
 import org.opendatakit.aggregate.odktables.api.RealizedTableService;
@@ -43,6 +51,8 @@ import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
 import org.opendatakit.aggregate.odktables.relation.DbTableInstanceManifestETags;
 import org.opendatakit.aggregate.odktables.relation.DbTableInstanceManifestETags.DbTableInstanceManifestETagEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceUploads;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceUploads.DbTableInstanceUploadEntity;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
 import org.opendatakit.aggregate.odktables.rest.entity.Error;
 import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifest;
@@ -50,12 +60,13 @@ import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntr
 import org.opendatakit.aggregate.odktables.rest.entity.Error.ErrorType;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
 import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
 import org.opendatakit.common.ermodel.BlobEntitySet;
-import org.opendatakit.common.persistence.PersistenceUtils;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
@@ -71,8 +82,26 @@ public class InstanceFileServiceImpl implements InstanceFileService {
    */
   public static final String NO_TABLE_ID = "";
 
+  /**
+   * HTTP statuses for range requests (not in the JAX-RS 1.1 Status enum)
+   */
+  private static final int PARTIAL_CONTENT = 206;
+  private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
   private static final String ERROR_FILE_VERSION_DIFFERS = "File on server does not match file being uploaded. Aborting upload. ";
 
+  private static final String ERROR_MSG_INVALID_OFFSET = "A non-negative offset parameter is required.";
+
+  private static final String ERROR_MSG_MISSING_CONTENT_HASH = "The md5 hash of the file is required in the " + ApiConstants.CONTENT_HASH_HEADER + " header.";
+
+  private static final String ERROR_NO_UPLOAD_IN_PROGRESS = "No upload of this file is in progress. ";
+
+  private static final String ERROR_UPLOAD_HASH_MISMATCH = "The uploaded content does not match its md5 hash. The upload must be restarted. ";
+
+  private static final String ERROR_UPLOAD_IN_PROGRESS = "Another request for this upload is in progress. Retry later. ";
+
+  private static final String ERROR_CONTENT_NOT_HELD = "File content with this hash is not held by this row. Resend with the file content. ";
+
   /**
    * The name of the folder that contains the files associated with a table in
    * an app.
@@ -243,13 +272,13 @@ public class InstanceFileServiceImpl implements InstanceFileService {
       for (int i = 1; i <= count; ++i) {
         String path = instance.getUnrootedFilename(i, cc);
         if (path != null && path.equals(partialPath)) {
-          byte[] fileBlob = instance.getBlob(i, cc);
           String contentType = instance.getContentType(i, cc);
           String contentHash = instance.getContentHash(i, cc);
           Long contentLength = instance.getContentLength(i, cc);
 
           // And now prepare everything to be returned to the caller.
-          if (fileBlob != null && contentType != null && contentLength != null
+          // A null contentHash means the file content is not fully stored.
+          if (contentHash != null && contentType != null && contentLength != null
               && contentLength != 0L) {
             
             // test if we should return a NOT_MODIFIED response...
@@ -259,9 +288,47 @@ public class InstanceFileServiceImpl implements InstanceFileService {
                   .header("Access-Control-Allow-Origin", "*")
                   .header("Access-Control-Allow-Credentials", "true").build();
             }
+
+            // the content is streamed from the datastore one part at a time.
+            final BlobInputStream fileStream = instance.getBlobStream(i, cc);
+
+            // a Range is only honored if the If-Range (if any) matches the file
+            List<String> ranges = httpHeaders.getRequestHeader(ApiConstants.RANGE_HEADER);
+            String range = (ranges == null || ranges.isEmpty()) ? null : ranges.get(0);
+            List<String> ifRanges = httpHeaders.getRequestHeader(ApiConstants.IF_RANGE_HEADER);
+            String ifRange = (ifRanges == null || ifRanges.isEmpty()) ? null : ifRanges.get(0);
+            if (range != null && (ifRange == null || ifRange.equals(contentHash))) {
+              long[] span = WebUtils.parseByteRange(range, contentLength);
+              if (span == null) {
+                fileStream.close();
+                return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(ApiConstants.CONTENT_RANGE_HEADER,
+                        ApiConstants.BYTES_RANGE_UNIT + " */" + contentLength)
+                    .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Credentials", "true").build();
+              }
+              if (span.length == 2) {
+                long first = span[0];
+                long last = span[1];
+                return Response.status(PARTIAL_CONTENT)
+                    .entity(streamBlob(fileStream, first, last - first + 1L)).type(contentType)
+                    .header(HttpHeaders.ETAG, contentHash)
+                    .header(HttpHeaders.CONTENT_LENGTH, last - first + 1L)
+                    .header(ApiConstants.CONTENT_RANGE_HEADER,
+                        ApiConstants.BYTES_RANGE_UNIT + " " + first + "-" + last + "/" + contentLength)
+                    .header(ApiConstants.ACCEPT_RANGES_HEADER, ApiConstants.BYTES_RANGE_UNIT)
+                    .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Credentials", "true").build();
+              }
+              // otherwise, the Range was malformed -- ignore it.
+            }
             
-            ResponseBuilder rBuild = Response.ok(fileBlob, contentType).header(HttpHeaders.ETAG, contentHash)
+            ResponseBuilder rBuild = Response.ok(streamBlob(fileStream, 0L, contentLength), contentType)
+                .header(HttpHeaders.ETAG, contentHash)
                 .header(HttpHeaders.CONTENT_LENGTH, contentLength)
+                .header(ApiConstants.ACCEPT_RANGES_HEADER, ApiConstants.BYTES_RANGE_UNIT)
                 .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Credentials", "true");
@@ -305,9 +372,32 @@ public class InstanceFileServiceImpl implements InstanceFileService {
     }
   }
 
+  /**
+   * Wrap the blob stream so that the requested span of it is written
+   * directly to the response.
+   *
+   * @param fileStream
+   * @param first
+   * @param count
+   * @return
+   */
+  private static StreamingOutput streamBlob(final BlobInputStream fileStream, final long first,
+      final long count) {
+    return new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+          fileStream.writeTo(output, first, count);
+        } finally {
+          fileStream.close();
+        }
+      }
+    };
+  }
+
   @Override
   public Response putFile(@Context HttpServletRequest req,
-      @PathParam("filePath") List<PathSegment> segments, byte[] content) throws IOException,
+      @PathParam("filePath") List<PathSegment> segments, InputStream content) throws IOException,
       ODKTaskLockException {
 
     if (segments.size() < 1) {
@@ -323,7 +413,6 @@ public class InstanceFileServiceImpl implements InstanceFileService {
     // appid/data/attachments/tableid/instances/instanceId/rest/of/path
     String partialPath = constructPathFromSegments(segments);
     String contentType = req.getContentType();
-    String md5Hash = PersistenceUtils.newMD5HashUri(content);
     try {
       userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
 
@@ -346,28 +435,27 @@ public class InstanceFileServiceImpl implements InstanceFileService {
       
       DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
       BlobEntitySet instance = blobStore.newBlobEntitySet(rowId, cc);
-      int count = instance.getAttachmentCount(cc);
-      for (int i = 1; i <= count; ++i) {
-        String path = instance.getUnrootedFilename(i, cc);
-        if (path != null && path.equals(partialPath)) {
-          // we already have this in our store -- check that it is identical.
-          // if not, we have a problem!!!
-          if (md5Hash.equals(instance.getContentHash(i, cc))) {
-            return Response.status(Status.CREATED).header("Location", locationUrl)
-                .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
-                .header("Access-Control-Allow-Origin", "*")
-                .header("Access-Control-Allow-Credentials", "true").build();
-          } else {
-            return Response.status(Status.BAD_REQUEST)
-                .entity(ERROR_FILE_VERSION_DIFFERS + "\n" + partialPath)
-                .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
-                .header("Access-Control-Allow-Origin", "*")
-                .header("Access-Control-Allow-Credentials", "true").build();
-          }
+      BlobSubmissionOutcome outcome = null;
+      String offeredHash = req.getHeader(ApiConstants.CONTENT_HASH_HEADER);
+      if (offeredHash != null) {
+        // the client sent the hash first; if this row already holds this
+        // content, it is shared without reading the request body.
+        outcome = instance.addBlobByContentHash(offeredHash, contentType, partialPath, false, cc);
+        if (outcome == null && req.getContentLength() == 0) {
+          // the client must resend the request with the file content.
+          return Response.status(Status.PRECONDITION_FAILED)
+              .entity(ERROR_CONTENT_NOT_HELD + "\n" + partialPath)
+              .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+              .header("Access-Control-Allow-Origin", "*")
+              .header("Access-Control-Allow-Credentials", "true").build();
         }
       }
-      BlobSubmissionOutcome outcome = instance
-          .addBlob(content, contentType, partialPath, false, cc);
+      if (outcome == null) {
+        // the content is streamed into the blob store; if we already have this
+        // file, the outcome reports whether it is identical. If it is not, we
+        // have a problem!!!
+        outcome = instance.addBlob(content, contentType, partialPath, false, cc);
+      }
       if (outcome == BlobSubmissionOutcome.NEW_FILE_VERSION) {
         return Response.status(Status.BAD_REQUEST)
             .entity(ERROR_FILE_VERSION_DIFFERS + "\n" + partialPath)
@@ -399,6 +487,320 @@ public class InstanceFileServiceImpl implements InstanceFileService {
     }
   }
 
+  @Override
+  public Response startUpload(@Context HttpServletRequest req,
+      @PathParam("filePath") List<PathSegment> segments) throws IOException {
+
+    if (segments.size() < 1) {
+      return Response.status(Status.BAD_REQUEST).entity(InstanceFileService.ERROR_MSG_INSUFFICIENT_PATH)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    String partialPath = constructPathFromSegments(segments);
+    String contentType = req.getContentType();
+    if (contentType == null) {
+      contentType = MediaType.APPLICATION_OCTET_STREAM;
+    }
+    String offeredHash = req.getHeader(ApiConstants.CONTENT_HASH_HEADER);
+    LockTemplate uploadLock = InstanceFileUploadManager.getUploadLock(tableId, rowId,
+        partialPath, cc);
+    try {
+      userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+      uploadLock.acquire();
+      try {
+        String locationUrl = getFileLocationUrl(partialPath);
+
+        DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+        BlobEntitySet instance = blobStore.newBlobEntitySet(rowId, cc);
+
+        DbTableInstanceUploadEntity upload = DbTableInstanceUploads.getUpload(tableId, rowId,
+            partialPath, cc);
+        Long offset = (upload == null) ? null : instance.getStagedBlobLength(partialPath, cc);
+        if (offset == null) {
+          if (upload != null) {
+            // the file was since uploaded in a single request
+            upload.delete(cc);
+          }
+
+          // if we already have this file, it must be identical.
+          String currentHash = null;
+          int count = instance.getAttachmentCount(cc);
+          for (int i = 1; i <= count; ++i) {
+            String path = instance.getUnrootedFilename(i, cc);
+            if (path != null && path.equals(partialPath)) {
+              currentHash = instance.getContentHash(i, cc);
+              break;
+            }
+          }
+          if (currentHash != null) {
+            if (currentHash.equals(offeredHash)) {
+              return Response.status(Status.CREATED).header("Location", locationUrl)
+                  .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+                  .header("Access-Control-Allow-Origin", "*")
+                  .header("Access-Control-Allow-Credentials", "true").build();
+            }
+            return Response.status(Status.BAD_REQUEST)
+                .entity(ERROR_FILE_VERSION_DIFFERS + "\n" + partialPath)
+                .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Credentials", "true").build();
+          }
+
+          // we are adding a file
+          forgetManifestETag();
+
+          // if the server already holds this content, no upload is needed.
+          if (offeredHash != null
+              && instance.addBlobByContentHash(offeredHash, contentType, partialPath, false, cc) != null) {
+            return Response.status(Status.CREATED).header("Location", locationUrl)
+                .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Credentials", "true").build();
+          }
+
+          // stage the content before recording the upload, so that a recorded
+          // upload always has staged content.
+          instance.startStagedBlob(contentType, partialPath, cc);
+          upload = DbTableInstanceUploads.createNewEntity(tableId, rowId, partialPath, cc);
+          upload.put(cc);
+          offset = 0L;
+        }
+
+        return Response.ok().header(ApiConstants.UPLOAD_OFFSET_HEADER, offset)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      } finally {
+        uploadLock.release();
+      }
+    } catch (ODKTaskLockException e) {
+      return uploadLocked(partialPath);
+    } catch (ODKDatastoreException e) {
+      LOGGER.error(("ODKTables file upload persistence error: " + e.getMessage()));
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+          .entity(ErrorConsts.PERSISTENCE_LAYER_PROBLEM + "\n" + e.getMessage())
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    } catch (PermissionDeniedException e) {
+      return permissionDenied(e);
+    }
+  }
+
+  @Override
+  public Response putUploadChunk(@Context HttpServletRequest req,
+      @PathParam("filePath") List<PathSegment> segments,
+      @QueryParam(PARAM_OFFSET) Long offset, InputStream content) throws IOException {
+
+    if (segments.size() < 1) {
+      return Response.status(Status.BAD_REQUEST).entity(InstanceFileService.ERROR_MSG_INSUFFICIENT_PATH)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    if (offset == null || offset < 0L) {
+      return Response.status(Status.BAD_REQUEST).entity(ERROR_MSG_INVALID_OFFSET)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    String partialPath = constructPathFromSegments(segments);
+    LockTemplate uploadLock = InstanceFileUploadManager.getUploadLock(tableId, rowId,
+        partialPath, cc);
+    try {
+      userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+      uploadLock.acquire();
+      try {
+        DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+        BlobEntitySet instance = blobStore.newBlobEntitySet(rowId, cc);
+
+        Long staged = getStagedLength(instance, partialPath);
+        if (staged == null) {
+          return Response.status(Status.NOT_FOUND).entity(ERROR_NO_UPLOAD_IN_PROGRESS + "\n" + partialPath)
+              .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+              .header("Access-Control-Allow-Origin", "*")
+              .header("Access-Control-Allow-Credentials", "true").build();
+        }
+        if (offset.longValue() != staged.longValue()) {
+          // the client must resume from the offset we have
+          return Response.status(Status.CONFLICT).header(ApiConstants.UPLOAD_OFFSET_HEADER, staged)
+              .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+              .header("Access-Control-Allow-Origin", "*")
+              .header("Access-Control-Allow-Credentials", "true").build();
+        }
+
+        // the chunk is written directly as parts of the staged file
+        long length = instance.appendStagedBlob(new LockRenewingInputStream(content, uploadLock),
+            offset, partialPath, cc);
+        // record the progress so that the upload is not discarded as abandoned
+        DbTableInstanceUploadEntity upload = DbTableInstanceUploads.getUpload(tableId, rowId,
+            partialPath, cc);
+        if (upload != null) {
+          upload.put(cc);
+        }
+        return Response.ok().header(ApiConstants.UPLOAD_OFFSET_HEADER, length)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      } finally {
+        uploadLock.release();
+      }
+    } catch (ODKTaskLockException e) {
+      return uploadLocked(partialPath);
+    } catch (ODKDatastoreException e) {
+      LOGGER.error(("ODKTables file upload persistence error: " + e.getMessage()));
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+          .entity(ErrorConsts.PERSISTENCE_LAYER_PROBLEM + "\n" + e.getMessage())
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    } catch (PermissionDeniedException e) {
+      return permissionDenied(e);
+    }
+  }
+
+  @Override
+  public Response commitUpload(@Context HttpServletRequest req,
+      @PathParam("filePath") List<PathSegment> segments) throws IOException {
+
+    if (segments.size() < 1) {
+      return Response.status(Status.BAD_REQUEST).entity(InstanceFileService.ERROR_MSG_INSUFFICIENT_PATH)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    String md5Hash = req.getHeader(ApiConstants.CONTENT_HASH_HEADER);
+    if (md5Hash == null) {
+      return Response.status(Status.BAD_REQUEST).entity(ERROR_MSG_MISSING_CONTENT_HASH)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+    String partialPath = constructPathFromSegments(segments);
+    LockTemplate uploadLock = InstanceFileUploadManager.getUploadLock(tableId, rowId,
+        partialPath, cc);
+    try {
+      userPermissions.checkPermission(appId, tableId, TablePermission.WRITE_ROW);
+      uploadLock.acquire();
+      try {
+        String locationUrl = getFileLocationUrl(partialPath);
+
+        DbTableInstanceFiles blobStore = new DbTableInstanceFiles(tableId, cc);
+        BlobEntitySet instance = blobStore.newBlobEntitySet(rowId, cc);
+
+        if (getStagedLength(instance, partialPath) == null) {
+          return Response.status(Status.NOT_FOUND).entity(ERROR_NO_UPLOAD_IN_PROGRESS + "\n" + partialPath)
+              .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+              .header("Access-Control-Allow-Origin", "*")
+              .header("Access-Control-Allow-Credentials", "true").build();
+        }
+
+        BlobSubmissionOutcome outcome = instance.finishStagedBlob(md5Hash, partialPath, cc);
+        if (outcome == null) {
+          // the staged content was discarded; the client must upload it again.
+          return Response.status(Status.BAD_REQUEST)
+              .entity(ERROR_UPLOAD_HASH_MISMATCH + "\n" + partialPath)
+              .header(ApiConstants.UPLOAD_OFFSET_HEADER, 0L)
+              .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+              .header("Access-Control-Allow-Origin", "*")
+              .header("Access-Control-Allow-Credentials", "true").build();
+        }
+        DbTableInstanceUploadEntity upload = DbTableInstanceUploads.getUpload(tableId, rowId,
+            partialPath, cc);
+        if (upload != null) {
+          upload.delete(cc);
+        }
+        forgetManifestETag();
+
+        return Response.status(Status.CREATED).header("Location", locationUrl)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      } finally {
+        uploadLock.release();
+      }
+    } catch (ODKTaskLockException e) {
+      return uploadLocked(partialPath);
+    } catch (ODKDatastoreException e) {
+      LOGGER.error(("ODKTables file upload persistence error: " + e.getMessage()));
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+          .entity(ErrorConsts.PERSISTENCE_LAYER_PROBLEM + "\n" + e.getMessage())
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    } catch (PermissionDeniedException e) {
+      return permissionDenied(e);
+    }
+  }
+
+  /**
+   * @param instance
+   * @param partialPath
+   * @return the number of bytes received for the resumable upload of this
+   *         file, or null if no resumable upload is in progress.
+   * @throws ODKDatastoreException
+   */
+  private Long getStagedLength(BlobEntitySet instance, String partialPath)
+      throws ODKDatastoreException {
+    DbTableInstanceUploadEntity upload = DbTableInstanceUploads.getUpload(tableId, rowId,
+        partialPath, cc);
+    if (upload == null) {
+      return null;
+    }
+    Long staged = instance.getStagedBlobLength(partialPath, cc);
+    if (staged == null) {
+      // the file was since uploaded in a single request
+      upload.delete(cc);
+    }
+    return staged;
+  }
+
+  private String getFileLocationUrl(String partialPath) throws IOException {
+    UriBuilder ub = info.getBaseUriBuilder();
+    ub.path(OdkTables.class, "getTablesService");
+
+    URI getFile = ub.clone().path(TableService.class, "getRealizedTable")
+        .path(RealizedTableService.class, "getInstanceFiles").path(InstanceFileService.class, "getFile")
+          .build(appId, tableId, schemaETag, rowId, partialPath);
+
+    return getFile.toURL().toExternalForm();
+  }
+
+  /**
+   * We are adding a file -- delete any cached ETag value for this row's
+   * attachments manifest.
+   *
+   * @throws ODKDatastoreException
+   */
+  private void forgetManifestETag() throws ODKDatastoreException {
+    try {
+      DbTableInstanceManifestETagEntity entity = DbTableInstanceManifestETags.getRowIdEntry(tableId, rowId, cc);
+      entity.delete(cc);
+    } catch (ODKEntityNotFoundException e) {
+      // ignore...
+    }
+  }
+
+  private Response uploadLocked(String partialPath) {
+    return Response.status(Status.CONFLICT).entity(ERROR_UPLOAD_IN_PROGRESS + "\n" + partialPath)
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  private Response permissionDenied(PermissionDeniedException e) {
+    String msg = e.getMessage();
+    if (msg == null) {
+      msg = e.toString();
+    }
+    LOGGER.error(("ODKTables file upload permissions error: " + msg));
+    return Response.status(Status.FORBIDDEN).entity(new Error(ErrorType.PERMISSION_DENIED, msg))
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
   /**
    * Construct the path for the file. This is the entire path excluding the app
    * id.
@@ -427,4 +829,45 @@ public class InstanceFileServiceImpl implements InstanceFileService {
     return wholePath;
   }
 
+  /**
+   * Renews the lock of an upload while a chunk is being received, as a large
+   * chunk may take longer to arrive than the lock lasts.
+   */
+  private static final class LockRenewingInputStream extends FilterInputStream {
+
+    private static final long RENEWAL_INTERVAL_MILLISECONDS = 20000L;
+
+    private final LockTemplate lock;
+    private long lastRenewal;
+
+    LockRenewingInputStream(InputStream in, LockTemplate lock) {
+      super(in);
+      this.lock = lock;
+      this.lastRenewal = System.currentTimeMillis();
+    }
+
+    @Override
+    public int read() throws IOException {
+      renewIfDue();
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      renewIfDue();
+      return super.read(b, off, len);
+    }
+
+    private void renewIfDue() throws IOException {
+      long now = System.currentTimeMillis();
+      if (now - lastRenewal >= RENEWAL_INTERVAL_MILLISECONDS) {
+        try {
+          lock.renew();
+        } catch (ODKTaskLockException e) {
+          throw new IOException("Lost the lock of the upload", e);
+        }
+        lastRenewal = now;
+      }
+    }
+  }
 }
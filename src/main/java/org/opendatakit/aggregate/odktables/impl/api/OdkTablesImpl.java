@@ -1,5 +1,8 @@
 package org.opendatakit.aggregate.odktables.impl.api;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Path;
@@ -11,11 +14,26 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.odktables.TableChangeNotifier;
+import org.opendatakit.aggregate.odktables.TableManager;
 import org.opendatakit.aggregate.odktables.api.OdkTables;
 import org.opendatakit.aggregate.odktables.exception.AppNameMismatchException;
+import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
+import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Error;
+import org.opendatakit.aggregate.odktables.rest.entity.Error.ErrorType;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntryList;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncRequest;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncRequestList;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncResult;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncResultList;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.web.CallingContext;
 
@@ -85,6 +103,118 @@ public class OdkTablesImpl implements OdkTables {
     return ts.getTables(cursor, fetchLimit);
   }
 
+  @Override
+  public Response /*TableEntryList*/ waitForTableChanges(ServletContext sc, HttpServletRequest req,
+      HttpHeaders httpHeaders, UriInfo info, String appId, @QueryParam(TIMEOUT_PARAMETER) String timeout,
+      TableEntryList knownTables) throws AppNameMismatchException, PermissionDeniedException,
+      ODKDatastoreException, ODKTaskLockException {
+
+    ServiceUtils.examineRequest(sc, req, httpHeaders);
+    CallingContext cc = ContextFactory.getCallingContext(sc, req);
+    String preferencesAppId = ContextFactory.getOdkTablesAppId(cc);
+
+    if ( !preferencesAppId.equals(appId) ) {
+      throw new AppNameMismatchException("AppName (" + appId + ") differs");
+    }
+
+    int seconds = (timeout == null || timeout.length() == 0) ? DEFAULT_CHANGE_WAIT_SECONDS : Integer.parseInt(timeout);
+    if ( seconds < 0 ) {
+      seconds = 0;
+    } else if ( seconds > MAX_CHANGE_WAIT_SECONDS ) {
+      seconds = MAX_CHANGE_WAIT_SECONDS;
+    }
+
+    List<TableEntry> known = (knownTables == null) ? new ArrayList<TableEntry>() : knownTables.getEntries();
+    TablesUserPermissions userPermissions = ContextFactory.getTablesUserPermissions(cc);
+    for ( TableEntry entry : known ) {
+      userPermissions.checkPermission(appId, entry.getTableId(), TablePermission.READ_ROW);
+    }
+
+    ArrayList<TableEntry> changed = new ArrayList<TableEntry>();
+    try {
+      changed.addAll(TableChangeNotifier.waitForChanges(known, seconds * 1000L, cc));
+    } catch (InterruptedException e) {
+      // server is shutting down -- report no changes; the client will ask again.
+    }
+
+    return Response.ok(new TableEntryList(changed))
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  @Override
+  public Response /*TableSyncResultList*/ syncTables(ServletContext sc, HttpServletRequest req,
+      HttpHeaders httpHeaders, UriInfo info, String appId, @QueryParam(FETCH_LIMIT) String fetchLimit,
+      TableSyncRequestList syncTables) throws AppNameMismatchException, PermissionDeniedException,
+      ODKDatastoreException, ODKTaskLockException {
+
+    ServiceUtils.examineRequest(sc, req, httpHeaders);
+    CallingContext cc = ContextFactory.getCallingContext(sc, req);
+    String preferencesAppId = ContextFactory.getOdkTablesAppId(cc);
+
+    if ( !preferencesAppId.equals(appId) ) {
+      throw new AppNameMismatchException("AppName (" + appId + ") differs");
+    }
+
+    List<TableSyncRequest> requested = (syncTables == null) ? new ArrayList<TableSyncRequest>() : syncTables.getEntries();
+    TablesUserPermissions userPermissions = ContextFactory.getTablesUserPermissions(cc);
+    TableManager tm = new TableManager(appId, userPermissions, cc);
+
+    ArrayList<TableSyncResult> results = new ArrayList<TableSyncResult>();
+    for ( TableSyncRequest request : requested ) {
+      results.add(syncTable(tm, info, appId, request, fetchLimit, userPermissions, cc));
+    }
+
+    return Response.ok(new TableSyncResultList(results))
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true").build();
+  }
+
+  /**
+   * Process one table of a batched sync request. Any failure is reported in
+   * the returned result rather than thrown, so that it does not abort the
+   * processing of the remaining tables.
+   */
+  private TableSyncResult syncTable(TableManager tm, UriInfo info, String appId,
+      TableSyncRequest request, String fetchLimit, TablesUserPermissions userPermissions,
+      CallingContext cc) {
+    String tableId = request.getTableId();
+    if ( tableId == null || tableId.length() == 0 ) {
+      return new TableSyncResult(tableId, null, new Error(ErrorType.BAD_REQUEST, "tableId is not specified"));
+    }
+    String schemaETag = null;
+    try {
+      TableEntry entry = tm.getTable(tableId);
+      if ( entry == null || entry.getSchemaETag() == null ) {
+        return new TableSyncResult(tableId, null, new Error(ErrorType.TABLE_NOT_FOUND, "Table not found\n" + tableId));
+      }
+      schemaETag = entry.getSchemaETag();
+      if ( !schemaETag.equals(request.getSchemaETag()) ) {
+        return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.SCHEMA_ETAG_MISMATCH, "SchemaETag differs\n" + schemaETag));
+      }
+      DiffServiceImpl diff = new DiffServiceImpl(appId, tableId, schemaETag, info, userPermissions, cc);
+      return new TableSyncResult(tableId, schemaETag,
+          diff.getRowResourcesSince(request.getDataETag(), request.getCursor(), fetchLimit,
+              request.isDelta()));
+    } catch (PermissionDeniedException e) {
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.PERMISSION_DENIED, e.getMessage()));
+    } catch (BadColumnNameException e) {
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.BAD_COLUMN_NAME, e.getMessage()));
+    } catch (InconsistentStateException e) {
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.INTERNAL_ERROR, e.getMessage()));
+    } catch (ODKTaskLockException e) {
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.LOCK_TIMEOUT, e.getMessage()));
+    } catch (ODKEntityNotFoundException e) {
+      // deleted while we were processing it
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.TABLE_NOT_FOUND, "Table not found\n" + tableId));
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      return new TableSyncResult(tableId, schemaETag, new Error(ErrorType.INTERNAL_ERROR, e.getMessage()));
+    }
+  }
+
   @Override
   public TableServiceImpl getTablesService(ServletContext sc, HttpServletRequest req,
       HttpHeaders httpHeaders, UriInfo info, String appId, String tableId) throws AppNameMismatchException,
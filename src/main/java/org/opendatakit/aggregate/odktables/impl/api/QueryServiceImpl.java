@@ -39,6 +39,7 @@ import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.relation.DbLogTable;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowQuery;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResource;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResourceList;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
@@ -89,6 +90,24 @@ public class QueryServiceImpl implements QueryService {
         websafeResult.hasMore, websafeResult.hasPrior);
     return Response.ok(rowResourceList).build();
   }
+
+
+  @Override
+  public Response getRowsMatching(@QueryParam(CURSOR_PARAMETER) String cursor, @QueryParam(FETCH_LIMIT) String fetchLimit, RowQuery query) throws ODKDatastoreException,
+      PermissionDeniedException, InconsistentStateException, ODKTaskLockException, BadColumnNameException {
+    if (query == null) {
+      throw new IllegalArgumentException("A rowQuery must be supplied");
+    }
+    int limit = (fetchLimit == null || fetchLimit.length() == 0) ? 2000 : Integer.parseInt(fetchLimit);
+    WebsafeRows websafeResult = dm.queryRows(query.getFilters(), query.getSortElementKey(), query.isSortDescending(), QueryResumePoint.fromWebsafeCursor(WebUtils.safeDecode(cursor)), limit);
+    RowResourceList rowResourceList = new RowResourceList(getResources(websafeResult.rows),
+        websafeResult.dataETag, getTableUri(),
+        WebUtils.safeEncode(websafeResult.websafeRefetchCursor),
+        WebUtils.safeEncode(websafeResult.websafeBackwardCursor),
+        WebUtils.safeEncode(websafeResult.websafeResumeCursor),
+        websafeResult.hasMore, websafeResult.hasPrior);
+    return Response.ok(rowResourceList).build();
+  }
   
 
   private String getTableUri() {
@@ -33,10 +33,13 @@ import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.odktables.TableManager;
 import org.opendatakit.aggregate.odktables.api.DataService;
 import org.opendatakit.aggregate.odktables.api.DiffService;
+import org.opendatakit.aggregate.odktables.api.ExportService;
+import org.opendatakit.aggregate.odktables.api.InstanceFileArchiveService;
 import org.opendatakit.aggregate.odktables.api.InstanceFileService;
 import org.opendatakit.aggregate.odktables.api.OdkTables;
 import org.opendatakit.aggregate.odktables.api.QueryService;
 import org.opendatakit.aggregate.odktables.api.RealizedTableService;
+import org.opendatakit.aggregate.odktables.api.SnapshotService;
 import org.opendatakit.aggregate.odktables.api.TableService;
 import org.opendatakit.aggregate.odktables.exception.AppNameMismatchException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
@@ -127,6 +130,27 @@ public class RealizedTableServiceImpl implements RealizedTableService {
     return service;
   }
 
+  @Override
+  public SnapshotService getSnapshot() throws ODKDatastoreException, PermissionDeniedException {
+
+    SnapshotService service = new SnapshotServiceImpl(appId, tableId, schemaETag, userPermissions, cc);
+    return service;
+  }
+
+  @Override
+  public ExportService getExport() throws ODKDatastoreException, PermissionDeniedException {
+
+    ExportService service = new ExportServiceImpl(appId, tableId, schemaETag, userPermissions, cc);
+    return service;
+  }
+
+  @Override
+  public InstanceFileArchiveService getInstanceFileArchive() throws ODKDatastoreException, PermissionDeniedException {
+
+    InstanceFileArchiveService service = new InstanceFileArchiveServiceImpl(appId, tableId, userPermissions, cc);
+    return service;
+  }
+
   @Override
   public InstanceFileService getInstanceFileService() throws PermissionDeniedException {
     throw new PermissionDeniedException("rowId is required");
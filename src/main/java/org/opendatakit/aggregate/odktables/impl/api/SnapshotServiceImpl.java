@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.impl.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.SnapshotManager;
+import org.opendatakit.aggregate.odktables.SnapshotManager.Snapshot;
+import org.opendatakit.aggregate.odktables.api.SnapshotService;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Error;
+import org.opendatakit.aggregate.odktables.rest.entity.Error.ErrorType;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.utils.WebUtils;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+public class SnapshotServiceImpl implements SnapshotService {
+
+  private static final Log LOGGER = LogFactory.getLog(SnapshotServiceImpl.class);
+
+  /**
+   * HTTP statuses for range requests (not in the JAX-RS 1.1 Status enum)
+   */
+  private static final int PARTIAL_CONTENT = 206;
+  private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+  private final String appId;
+  private final String tableId;
+  private final String schemaETag;
+  private final TablesUserPermissions userPermissions;
+  private final SnapshotManager sm;
+
+  public SnapshotServiceImpl(String appId, String tableId, String schemaETag,
+      TablesUserPermissions userPermissions, CallingContext cc) {
+    this.appId = appId;
+    this.tableId = tableId;
+    this.schemaETag = schemaETag;
+    this.userPermissions = userPermissions;
+    this.sm = new SnapshotManager(tableId, cc);
+  }
+
+  @Override
+  public Response getSnapshotFile(@Context HttpHeaders httpHeaders) throws ODKDatastoreException {
+    try {
+      userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+      // the snapshot holds every row; users with row-level filtering must
+      // use the rows API.
+      userPermissions.checkPermission(appId, tableId, TablePermission.UNFILTERED_READ);
+    } catch (PermissionDeniedException e) {
+      String msg = e.getMessage();
+      if (msg == null) {
+        msg = e.toString();
+      }
+      LOGGER.error(("ODKTables snapshot permissions error: " + msg));
+      return Response.status(Status.FORBIDDEN).entity(new Error(ErrorType.PERMISSION_DENIED, msg))
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+
+    Snapshot snapshot = sm.getSnapshot();
+    if (snapshot == null || !schemaETag.equals(snapshot.schemaETag)) {
+      return Response.status(Status.NOT_FOUND)
+          .entity("No snapshot is available for table " + tableId)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+
+    String eTag = snapshot.contentHash;
+    long length = snapshot.contentLength;
+
+    // test if we should return a NOT_MODIFIED response (without reading the
+    // snapshot content)...
+    String ifNoneMatch = getHeader(httpHeaders, HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch != null && ifNoneMatch.equals(eTag)) {
+      return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
+          .header(ApiConstants.SNAPSHOT_DATA_ETAG_HEADER, snapshot.dataETag)
+          .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+          .header("Access-Control-Allow-Origin", "*")
+          .header("Access-Control-Allow-Credentials", "true").build();
+    }
+
+    // a Range is only honored if the If-Range (if any) matches the snapshot
+    String range = getHeader(httpHeaders, ApiConstants.RANGE_HEADER);
+    String ifRange = getHeader(httpHeaders, ApiConstants.IF_RANGE_HEADER);
+    if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+      long[] span = WebUtils.parseByteRange(range, length);
+      if (span == null) {
+        return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header(ApiConstants.CONTENT_RANGE_HEADER,
+                ApiConstants.BYTES_RANGE_UNIT + " */" + length)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      }
+      if (span.length == 2) {
+        long start = span[0];
+        long end = span[1];
+        return Response.status(PARTIAL_CONTENT)
+            .entity(streamSnapshot(snapshot, start, end - start + 1L))
+            .type(SnapshotManager.SNAPSHOT_CONTENT_TYPE)
+            .header(HttpHeaders.ETAG, eTag)
+            .header(HttpHeaders.CONTENT_LENGTH, end - start + 1L)
+            .header(ApiConstants.CONTENT_RANGE_HEADER,
+                ApiConstants.BYTES_RANGE_UNIT + " " + start + "-" + end + "/" + length)
+            .header(ApiConstants.ACCEPT_RANGES_HEADER, ApiConstants.BYTES_RANGE_UNIT)
+            .header(ApiConstants.SNAPSHOT_DATA_ETAG_HEADER, snapshot.dataETag)
+            .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+            .header("Access-Control-Allow-Origin", "*")
+            .header("Access-Control-Allow-Credentials", "true").build();
+      }
+      // otherwise, the Range was malformed -- ignore it.
+    }
+
+    ResponseBuilder rBuild = Response
+        .ok(streamSnapshot(snapshot, 0L, length), SnapshotManager.SNAPSHOT_CONTENT_TYPE)
+        .header(HttpHeaders.ETAG, eTag)
+        .header(HttpHeaders.CONTENT_LENGTH, length)
+        .header(ApiConstants.ACCEPT_RANGES_HEADER, ApiConstants.BYTES_RANGE_UNIT)
+        .header(ApiConstants.SNAPSHOT_DATA_ETAG_HEADER, snapshot.dataETag)
+        .header(HtmlConsts.CONTENT_DISPOSITION,
+            "attachment; filename=\"" + SnapshotManager.SNAPSHOT_FILENAME + "\"")
+        .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
+        .header("Access-Control-Allow-Origin", "*")
+        .header("Access-Control-Allow-Credentials", "true");
+    return rBuild.build();
+  }
+
+  /**
+   * Wrap the snapshot so that the requested span of it is read from the
+   * datastore and written directly to the response.
+   *
+   * @param snapshot
+   * @param first
+   * @param count
+   * @return
+   * @throws ODKDatastoreException
+   */
+  private static StreamingOutput streamSnapshot(Snapshot snapshot, final long first,
+      final long count) throws ODKDatastoreException {
+    final BlobInputStream content = snapshot.openStream();
+    return new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+          content.writeTo(output, first, count);
+        } finally {
+          content.close();
+        }
+      }
+    };
+  }
+
+  private static String getHeader(HttpHeaders httpHeaders, String name) {
+    List<String> values = httpHeaders.getRequestHeader(name);
+    return (values == null || values.isEmpty()) ? null : values.get(0);
+  }
+}
@@ -225,7 +225,7 @@ public class TableServiceImpl implements TableService {
     // creating the table is the Administer Tables role.
     List<Column> columns = definition.getColumns();
 
-    TableEntry entry = tm.createTable(tableId, columns);
+    TableEntry entry = tm.createTable(tableId, columns, definition.getIndexedColumns());
     TableResource resource = getResource(info, appId, entry);
 
     // set the table-level manifest ETag if known...
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.impl.api.wink;
+
+import java.io.IOException;
+import java.util.Random;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.odktables.AdmissionController;
+import org.opendatakit.aggregate.odktables.AdmissionController.Ticket;
+import org.opendatakit.aggregate.odktables.rest.ApiConstants;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Admission control for the odktables REST api. Limits the number of requests
+ * processed concurrently per table, per user and overall (see
+ * AdmissionController), and answers 503 (Service Unavailable) with a
+ * Retry-After header when a request cannot be admitted.
+ * <p>
+ * The two long-polling requests, GET of an alterRows job and POST to
+ * /odktables/{appId}/changes, are not counted when they carry a timeout query
+ * parameter, as they hold no datastore resources while they wait. CORS
+ * pre-flight requests are not counted either.
+ * <p>
+ * The limits are set by the init-params of the filter in web.xml. This filter
+ * must be mapped after the Spring Security filter chain so that the
+ * requesting user is known.
+ */
+public class OdkTablesAdmissionFilter implements Filter {
+
+  private static final Log logger = LogFactory.getLog(OdkTablesAdmissionFilter.class);
+
+  public static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+  public static final String MAX_CONCURRENT_REQUESTS_PER_USER = "maxConcurrentRequestsPerUser";
+  public static final String MAX_CONCURRENT_REQUESTS_PER_TABLE = "maxConcurrentRequestsPerTable";
+  public static final String MAX_QUEUE_LENGTH = "maxQueueLength";
+  public static final String MAX_QUEUED_REQUESTS_PER_USER = "maxQueuedRequestsPerUser";
+  public static final String MAX_QUEUE_WAIT_MILLISECONDS = "maxQueueWaitMilliseconds";
+  public static final String RETRY_AFTER_SECONDS = "retryAfterSeconds";
+
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 40;
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_USER = 4;
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_TABLE = 10;
+  private static final int DEFAULT_MAX_QUEUE_LENGTH = 100;
+  private static final int DEFAULT_MAX_QUEUED_REQUESTS_PER_USER = 8;
+  private static final int DEFAULT_MAX_QUEUE_WAIT_MILLISECONDS = 10000;
+  private static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+
+  private static final String ODKTABLES_PATH = "/odktables/";
+  private static final String TABLES_SEGMENT = "tables";
+  private static final String CHANGES_SEGMENT = "changes";
+  private static final String REF_SEGMENT = "ref";
+  private static final String ROWS_SEGMENT = "rows";
+  private static final String JOBS_SEGMENT = "jobs";
+  private static final String TIMEOUT_PARAMETER = "timeout";
+
+  /**
+   * How often the queue metrics are written to the log.
+   */
+  private static final long METRICS_LOG_INTERVAL_MILLISECONDS = 60000L;
+
+  private static final String SERVICE_UNAVAILABLE_MESSAGE = "The server is busy. Please retry later.";
+
+  private static AdmissionController controller = null;
+
+  private final Random random = new Random();
+  private int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+  private long lastMetricsLogTime = 0L;
+  private ServletContext sc;
+
+  /**
+   * @return the counters of the admission controller, or null if the filter
+   *         has not been initialized.
+   */
+  public static synchronized AdmissionController.Metrics getMetrics() {
+    return (controller == null) ? null : controller.getMetrics();
+  }
+
+  private static synchronized void setController(AdmissionController value) {
+    controller = value;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    sc = filterConfig.getServletContext();
+    retryAfterSeconds = Math.max(1,
+        getIntParameter(filterConfig, RETRY_AFTER_SECONDS, DEFAULT_RETRY_AFTER_SECONDS));
+    setController(new AdmissionController(
+        getIntParameter(filterConfig, MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS),
+        getIntParameter(filterConfig, MAX_CONCURRENT_REQUESTS_PER_USER,
+            DEFAULT_MAX_CONCURRENT_REQUESTS_PER_USER),
+        getIntParameter(filterConfig, MAX_CONCURRENT_REQUESTS_PER_TABLE,
+            DEFAULT_MAX_CONCURRENT_REQUESTS_PER_TABLE),
+        getIntParameter(filterConfig, MAX_QUEUE_LENGTH, DEFAULT_MAX_QUEUE_LENGTH),
+        getIntParameter(filterConfig, MAX_QUEUED_REQUESTS_PER_USER,
+            DEFAULT_MAX_QUEUED_REQUESTS_PER_USER),
+        getIntParameter(filterConfig, MAX_QUEUE_WAIT_MILLISECONDS,
+            DEFAULT_MAX_QUEUE_WAIT_MILLISECONDS)));
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
+      FilterChain chain) throws IOException, ServletException {
+
+    AdmissionController ac;
+    synchronized (OdkTablesAdmissionFilter.class) {
+      ac = controller;
+    }
+
+    if (ac == null || !(servletRequest instanceof HttpServletRequest)
+        || !(servletResponse instanceof HttpServletResponse)) {
+      chain.doFilter(servletRequest, servletResponse);
+      return;
+    }
+
+    HttpServletRequest req = (HttpServletRequest) servletRequest;
+    HttpServletResponse resp = (HttpServletResponse) servletResponse;
+    String[] segments = getPathSegments(req);
+
+    if ("OPTIONS".equals(req.getMethod()) || isLongPoll(req, segments)) {
+      chain.doFilter(servletRequest, servletResponse);
+      return;
+    }
+
+    String userKey = getUserKey(req);
+    String tableKey = getTableKey(segments);
+
+    Ticket ticket;
+    try {
+      ticket = ac.admit(userKey, tableKey);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ticket = null;
+    }
+
+    logMetrics(ac);
+
+    if (ticket == null) {
+      logger.warn("Rejected request from " + userKey + " for " + req.getRequestURI());
+      rejectRequest(resp);
+      return;
+    }
+
+    try {
+      chain.doFilter(servletRequest, servletResponse);
+    } finally {
+      ac.release(ticket);
+    }
+  }
+
+  /**
+   * Examines only the path and query string so that the body of the request
+   * is not consumed.
+   *
+   * @param req
+   * @param segments
+   *          the path segments following /odktables/, or null.
+   * @return true if the request is a GET of an alterRows job
+   *         (/odktables/{appId}/tables/{tableId}/ref/{schemaETag}/rows/jobs/{jobId})
+   *         or a POST to /odktables/{appId}/changes, and has a timeout query
+   *         parameter.
+   */
+  private boolean isLongPoll(HttpServletRequest req, String[] segments) {
+    if (segments == null) {
+      return false;
+    }
+    boolean isJobPoll = "GET".equals(req.getMethod()) && segments.length == 8
+        && TABLES_SEGMENT.equals(segments[1]) && REF_SEGMENT.equals(segments[3])
+        && ROWS_SEGMENT.equals(segments[5]) && JOBS_SEGMENT.equals(segments[6])
+        && segments[7].length() != 0;
+    boolean isChangesPoll = "POST".equals(req.getMethod()) && segments.length == 2
+        && CHANGES_SEGMENT.equals(segments[1]);
+    if (!isJobPoll && !isChangesPoll) {
+      return false;
+    }
+    String query = req.getQueryString();
+    if (query == null) {
+      return false;
+    }
+    for (String term : query.split("&")) {
+      if (term.equals(TIMEOUT_PARAMETER) || term.startsWith(TIMEOUT_PARAMETER + "=")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String getUserKey(HttpServletRequest req) {
+    String uriUser = null;
+    try {
+      CallingContext cc = ContextFactory.getCallingContext(sc, req);
+      User user = cc.getCurrentUser();
+      if (user != null) {
+        uriUser = user.getUriUser();
+      }
+    } catch (Exception e) {
+      // ignore...
+    }
+    if (uriUser == null || User.ANONYMOUS_USER.equals(uriUser)) {
+      // don't make every anonymous device share the same per-user limit
+      return User.ANONYMOUS_USER + ":" + req.getRemoteAddr();
+    }
+    return uriUser;
+  }
+
+  /**
+   * @param req
+   * @return the path segments following /odktables/, or null if the request
+   *         is not for the odktables api.
+   */
+  private String[] getPathSegments(HttpServletRequest req) {
+    String path = req.getRequestURI();
+    String contextPath = req.getContextPath();
+    if (path == null) {
+      return null;
+    }
+    if (contextPath != null && path.startsWith(contextPath)) {
+      path = path.substring(contextPath.length());
+    }
+    if (!path.startsWith(ODKTABLES_PATH)) {
+      return null;
+    }
+    return path.substring(ODKTABLES_PATH.length()).split("/");
+  }
+
+  /**
+   * @param segments
+   *          the path segments following /odktables/, or null.
+   * @return appId/tableId for requests of the form
+   *         /odktables/{appId}/tables/{tableId}/..., otherwise null.
+   */
+  private String getTableKey(String[] segments) {
+    if (segments == null || segments.length < 3 || !TABLES_SEGMENT.equals(segments[1])
+        || segments[2].length() == 0) {
+      return null;
+    }
+    return segments[0] + "/" + segments[2];
+  }
+
+  private void rejectRequest(HttpServletResponse resp) throws IOException {
+    // spread the retries of the rejected clients over time
+    int retryAfter = retryAfterSeconds + random.nextInt(retryAfterSeconds + 1);
+    resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    resp.setHeader("Retry-After", Integer.toString(retryAfter));
+    resp.setHeader(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION);
+    resp.setHeader("Access-Control-Allow-Origin", "*");
+    resp.setHeader("Access-Control-Allow-Credentials", "true");
+    resp.setContentType("text/plain; charset=UTF-8");
+    resp.getWriter().write(SERVICE_UNAVAILABLE_MESSAGE);
+  }
+
+  private void logMetrics(AdmissionController ac) {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now - lastMetricsLogTime < METRICS_LOG_INTERVAL_MILLISECONDS) {
+        return;
+      }
+      lastMetricsLogTime = now;
+    }
+    logger.info("odktables admission control " + ac.getMetrics().toString());
+  }
+
+  private static int getIntParameter(FilterConfig filterConfig, String name, int defaultValue) {
+    String value = filterConfig.getInitParameter(name);
+    if (value == null || value.trim().length() == 0) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      logger.warn("Ignoring invalid value for " + name + ": " + value);
+      return defaultValue;
+    }
+  }
+}
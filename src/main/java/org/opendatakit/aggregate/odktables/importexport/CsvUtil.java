@@ -17,197 +17,359 @@
 package org.opendatakit.aggregate.odktables.importexport;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.client.exception.BadColumnNameExceptionClient;
 import org.opendatakit.aggregate.client.exception.ETagMismatchExceptionClient;
 import org.opendatakit.aggregate.client.exception.EntityNotFoundExceptionClient;
 import org.opendatakit.aggregate.client.exception.ImportFromCSVExceptionClient;
 import org.opendatakit.aggregate.client.exception.PermissionDeniedExceptionClient;
-import org.opendatakit.aggregate.client.odktables.ColumnClient;
+import org.opendatakit.aggregate.odktables.DataManager;
+import org.opendatakit.aggregate.odktables.DataManager.ImportProgressListener;
+import org.opendatakit.aggregate.odktables.DataManager.RowSource;
+import org.opendatakit.aggregate.odktables.DataManager.WebsafeRows;
+import org.opendatakit.aggregate.odktables.TableManager;
+import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
+import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.exception.TableAlreadyExistsException;
 import org.opendatakit.aggregate.odktables.rest.RFC4180CsvReader;
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvWriter;
+import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissionsImpl;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.web.CallingContext;
 
 /**
- * This is OBSOLETE and BROKEN!!!!  See the one from the Android codebase.
- *
- * Holds various things for importing and exporting tables through CSVs.
+ * Imports a new table from a CSV file, and exports the rows of a table to a
+ * CSV file.
  * <p>
- * Modified from the same class on the phone.
- *
- * TODO: subclass from phone definition and modify to fit server. TODO: THIS IS
- * BROKEN!!!!
+ * The first line of the CSV holds the column names. The row metadata columns
+ * (_id, _form_id, _locale, _savepoint_type, _savepoint_timestamp,
+ * _savepoint_creator, _filter_type and _filter_value) are recognized and
+ * applied to each row; the client-only columns are ignored. All other columns
+ * become string columns of the new table, using the column name as the
+ * elementKey.
+ * <p>
+ * The file is parsed as a stream and the rows are written in batches through
+ * {@link DataManager#importRows}, so the file is never held in memory and the
+ * whole import shares one table lock and one dataETag. Each _id is checked
+ * against those already read before its batch is written; if the file repeats
+ * an _id, or the import otherwise fails, the new table is deleted.
  *
  * @author sudar.sam@gmail.com
  *
  */
 public class CsvUtil {
 
+  private static final Log logger = LogFactory.getLog(CsvUtil.class);
+
+  /**
+   * Number of rows written in each bulk insert.
+   */
+  public static final int IMPORT_BATCH_SIZE = 500;
+
+  /**
+   * Number of rows fetched from the datastore for each page of an export.
+   */
+  public static final int EXPORT_PAGE_SIZE = 1000;
+
+  /**
+   * The row metadata columns written by {@link #exportTable} after the _id
+   * and user-defined columns.
+   */
+  private static final String[] EXPORT_METADATA_COLUMNS = { TableConstants.FORM_ID,
+      TableConstants.LOCALE, TableConstants.SAVEPOINT_TYPE, TableConstants.SAVEPOINT_TIMESTAMP,
+      TableConstants.SAVEPOINT_CREATOR, TableConstants.ROW_ETAG, TableConstants.FILTER_TYPE,
+      TableConstants.FILTER_VALUE };
+
   private static final String LAST_MOD_TIME_LABEL = "_ts";
   private static final String SRC_PHONE_LABEL = "_pn";
 
-  // private final DataUtil du;
-  // private final DbHelper dbh;
-
   /**
    * Tables imported through this function are added to the active key value
    * store. Doing it another way would give users a workaround to add tables to
    * the server database.
    *
-   * @param file
+   * @param buffReader
    * @param tableName
-   * @return
+   *          the tableId of the new table
+   * @param cc
+   * @return true if the table was created and its rows imported
    */
   public boolean importNewTable(BufferedReader buffReader, String tableName, CallingContext cc)
       throws ImportFromCSVExceptionClient, ETagMismatchExceptionClient,
       PermissionDeniedExceptionClient, EntityNotFoundExceptionClient, BadColumnNameExceptionClient {
-    LogFactory.getLog(getClass()).error("importNewTable out of date and is unimplemented!");
-    return false;
-    // List<ColumnClient> columns = new ArrayList<ColumnClient>();
-    // try {
-    // CSVReader reader = new CSVReader(buffReader);
-    // String[] row = reader.readNext();
-    // if (row.length == 0) {
-    // reader.close();
-    // return true;
-    // }
-    // // adding columns
-    // // For the server, I think this should never happen, because this is
-    // // only going to be a JSON activity...right?
-    // //if ((row.length == 1) && (row[0].startsWith("{"))) {
-    // // tp.setFromJson(row[0]);
-    // // row = reader.readNext();
-    // //} else {
-    // int startIndex = 0;
-    // if (row[startIndex].equals(LAST_MOD_TIME_LABEL)) {
-    // startIndex++;
-    // }
-    // if ((row.length > startIndex) && row[startIndex].equals(SRC_PHONE_LABEL))
-    // {
-    // startIndex++;
-    // }
-    // // Here we add the columns.
-    // for (int i = startIndex; i < row.length; i++) {
-    // //tp.addColumn(row[i]);
-    // // TODO on the phone it imports with "none". Make sure that there is a
-    // // similar default on the server. Atm I'm using "string", which might
-    // // not be the answer.
-    // // TODO make the proper safe_name_entry here. Replace spaces with
-    // // underscores, precede with underscore.
-    // //String backingName = RUtil.convertToDbSafeBackingColumnName(row[i]);
-    // ColumnClient newCol = new ColumnClient(row[i],
-    // ColumnClient.ColumnType.STRING);
-    // // TODO check for name conflicts
-    // columns.add(newCol);
-    // }
-    // // not sure what these booleans are going.
-    // boolean includeTs = row[0].equals(LAST_MOD_TIME_LABEL);
-    // boolean includePn = (!includeTs || (row.length > 1))
-    // && row[includeTs ? 1 : 0].equals(SRC_PHONE_LABEL);
-    // return importTable(reader, tableName,
-    // columns, includeTs, includePn, cc);
-    // } catch (FileNotFoundException e) {
-    // return false;
-    // } catch (IOException e) {
-    // return false;
-    // }
+    importNewTable(buffReader, tableName, null, cc);
+    return true;
   }
 
-  /*
-   * public boolean importAddToTable(File file, String tableId) { // TODO is
-   * this the correct KVS to get the properties from? TableProperties tp =
-   * TableProperties.getTablePropertiesForTable(dbh, tableId,
-   * KeyValueStore.Type.ACTIVE); try { CSVReader reader = new CSVReader(new
-   * FileReader(file)); String[] row = reader.readNext(); if (row.length == 0) {
-   * reader.close(); return true; } if ((row.length == 1) &&
-   * row[0].startsWith("{")) { tp.setFromJson(row[0]); row = reader.readNext();
-   * } boolean includeTs = row[0].equals(LAST_MOD_TIME_LABEL); boolean includePn
-   * = (row.length > (includeTs ? 1 : 0)) && row[includeTs ? 1 :
-   * 0].equals(SRC_PHONE_LABEL); int startIndex = (includeTs ? 1 : 0) +
-   * (includePn ? 1 : 0); String[] columns = new String[tp.getColumns().length];
-   * for (int i = 0; i < columns.length; i++) { String displayName =
-   * row[startIndex + i]; String dbName =
-   * tp.getColumnByDisplayName(displayName); columns[i] = dbName; } return
-   * importTable(reader, tableId, columns, includeTs, includePn); } catch
-   * (FileNotFoundException e) { return false; } catch (IOException e) { return
-   * false; } }
+  /**
+   * Create the table and import its rows, notifying the progress listener as
+   * each batch of rows is written.
+   *
+   * @param buffReader
+   * @param tableName
+   *          the tableId of the new table
+   * @param progress
+   *          may be null
+   * @param cc
+   * @return the number of rows imported
+   */
+  public int importNewTable(BufferedReader buffReader, String tableName,
+      ImportProgressListener progress, CallingContext cc) throws ImportFromCSVExceptionClient,
+      PermissionDeniedExceptionClient, BadColumnNameExceptionClient {
+    if (tableName == null || tableName.trim().length() == 0) {
+      throw new ImportFromCSVExceptionClient("A table name must be supplied");
+    }
+    String tableId = tableName.trim();
+
+    final RFC4180CsvReader reader = new RFC4180CsvReader(buffReader);
+    try {
+      String[] header = reader.readNext();
+      if (header == null || header.length == 0) {
+        throw new ImportFromCSVExceptionClient("The CSV file does not have a header row");
+      }
+
+      // map of metadata column name to its index in the row
+      final Map<String, Integer> metadataIndices = new HashMap<String, Integer>();
+      // the user-defined columns and their indices in the row
+      final List<String> elementKeys = new ArrayList<String>();
+      final List<Integer> elementIndices = new ArrayList<Integer>();
+      List<Column> columns = new ArrayList<Column>();
+      for (int i = 0; i < header.length; ++i) {
+        String name = header[i];
+        if (name == null || name.length() == 0) {
+          throw new ImportFromCSVExceptionClient("Column " + (i + 1) + " does not have a name");
+        }
+        if (name.equals(TableConstants.ID) || TableConstants.SHARED_COLUMN_NAMES.contains(name)) {
+          metadataIndices.put(name, i);
+        } else if (TableConstants.CLIENT_ONLY_COLUMN_NAMES.contains(name)
+            || name.equals(LAST_MOD_TIME_LABEL) || name.equals(SRC_PHONE_LABEL)) {
+          // ignored
+        } else {
+          elementKeys.add(name);
+          elementIndices.add(i);
+          columns.add(new Column(name, name, "string", null));
+        }
+      }
+
+      String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
+      TablesUserPermissions userPermissions = new TablesUserPermissionsImpl(cc);
+
+      TableManager tm = new TableManager(appId, userPermissions, cc);
+      boolean isNewTable = (tm.getTable(tableId) == null);
+      tm.createTable(tableId, columns);
+
+      boolean imported = false;
+      try {
+        DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
+        int rowCount = dm.importRows(new RowSource() {
+
+          // the _id values read so far; the bulk insert does not check them.
+          private final Set<String> rowIds = new HashSet<String>();
+          private int rowNumber = 0;
+
+          @Override
+          public Row nextRow() throws IOException {
+            String[] line;
+            do {
+              line = reader.readNext();
+              if (line == null) {
+                return null;
+              }
+              ++rowNumber;
+              // skip blank lines
+            } while (line.length == 0);
+
+            String rowId = getMetadata(line, TableConstants.ID);
+            if (rowId != null && rowId.length() == 0) {
+              rowId = null;
+            }
+            if (rowId != null && !rowIds.add(rowId)) {
+              throw new IllegalArgumentException("The _id " + rowId + " in row " + rowNumber
+                  + " appears more than once in the CSV file");
+            }
+
+            ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
+            for (int j = 0; j < elementKeys.size(); ++j) {
+              values.add(new DataKeyValue(elementKeys.get(j), getField(line, elementIndices.get(j))));
+            }
+
+            String savepointType = getMetadata(line, TableConstants.SAVEPOINT_TYPE);
+            String savepointTimestamp = getMetadata(line, TableConstants.SAVEPOINT_TIMESTAMP);
+            String filterType = getMetadata(line, TableConstants.FILTER_TYPE);
+            Scope filterScope = Scope.EMPTY_SCOPE;
+            if (filterType != null) {
+              filterScope = new Scope(Scope.Type.valueOf(filterType),
+                  getMetadata(line, TableConstants.FILTER_VALUE));
+            }
+            return Row.forInsert(rowId,
+                getMetadata(line, TableConstants.FORM_ID),
+                getMetadata(line, TableConstants.LOCALE),
+                (savepointType == null) ? SavepointTypeManipulator.complete() : savepointType,
+                (savepointTimestamp == null) ? TableConstants.nanoSecondsFromMillis(System
+                    .currentTimeMillis()) : savepointTimestamp,
+                getMetadata(line, TableConstants.SAVEPOINT_CREATOR), filterScope, values);
+          }
+
+          private String getMetadata(String[] line, String name) {
+            Integer idx = metadataIndices.get(name);
+            return (idx == null) ? null : getField(line, idx);
+          }
+
+          private String getField(String[] line, int idx) {
+            return (idx < line.length) ? line[idx] : null;
+          }
+        }, IMPORT_BATCH_SIZE, progress);
+        imported = true;
+
+        logger.info("Imported " + rowCount + " rows into " + tableId);
+        return rowCount;
+      } finally {
+        if (!imported && isNewTable) {
+          // don't leave a partially imported table behind
+          try {
+            tm.deleteTable(tableId);
+          } catch (Exception e) {
+            logger.error("Unable to delete " + tableId + " after its import failed: "
+                + e.toString());
+          }
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient("Unable to read the CSV file", e);
+    } catch (IllegalStateException e) {
+      // thrown by the reader for badly formed files
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient("The CSV file is badly formed", e);
+    } catch (IllegalArgumentException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient(e.getMessage(), e);
+    } catch (TableAlreadyExistsException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient(e.getMessage(), e);
+    } catch (InconsistentStateException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient(e.getMessage(), e);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient("Datastore failure while importing the CSV file", e);
+    } catch (ODKTaskLockException e) {
+      e.printStackTrace();
+      throw new ImportFromCSVExceptionClient("Unable to lock the table while importing", e);
+    } catch (PermissionDeniedException e) {
+      e.printStackTrace();
+      throw new PermissionDeniedExceptionClient(e);
+    } catch (BadColumnNameException e) {
+      e.printStackTrace();
+      throw new BadColumnNameExceptionClient(e);
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Write the current rows of the table to the writer as CSV. The rows are
+   * fetched a page at a time and written as they are fetched, so only one
+   * page of rows is held in memory. The output can be re-imported with
+   * {@link #importNewTable}.
+   *
+   * @param dm
+   *          the DataManager for the table; rows are filtered by the
+   *          permissions of its user.
+   * @param elementKeys
+   *          the elementKeys of the user-defined columns to write, in order.
+   * @param writer
+   * @return the number of rows written
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws ODKTaskLockException
+   * @throws InconsistentStateException
+   * @throws BadColumnNameException
+   * @throws IOException
    */
+  public int exportTable(DataManager dm, List<String> elementKeys, Writer writer)
+      throws ODKDatastoreException, PermissionDeniedException, ODKTaskLockException,
+      InconsistentStateException, BadColumnNameException, IOException {
+    RFC4180CsvWriter cw = new RFC4180CsvWriter(writer);
+
+    int width = 1 + elementKeys.size() + EXPORT_METADATA_COLUMNS.length;
+    String[] line = new String[width];
+    int idx = 0;
+    line[idx++] = TableConstants.ID;
+    for (String elementKey : elementKeys) {
+      line[idx++] = elementKey;
+    }
+    for (String name : EXPORT_METADATA_COLUMNS) {
+      line[idx++] = name;
+    }
+    cw.writeNext(line);
+
+    Map<String, Integer> elementIndices = new HashMap<String, Integer>();
+    for (int i = 0; i < elementKeys.size(); ++i) {
+      elementIndices.put(elementKeys.get(i), 1 + i);
+    }
+    int metadataStart = 1 + elementKeys.size();
+
+    int rowCount = 0;
+    QueryResumePoint startCursor = null;
+    for (;;) {
+      WebsafeRows page = dm.getRows(startCursor, EXPORT_PAGE_SIZE);
+      for (Row row : page.rows) {
+        line = new String[width];
+        line[0] = row.getRowId();
+        for (DataKeyValue kv : row.getValues()) {
+          Integer i = elementIndices.get(kv.column);
+          if (i != null) {
+            line[i] = kv.value;
+          }
+        }
+        idx = metadataStart;
+        line[idx++] = row.getFormId();
+        line[idx++] = row.getLocale();
+        line[idx++] = row.getSavepointType();
+        line[idx++] = row.getSavepointTimestamp();
+        line[idx++] = row.getSavepointCreator();
+        line[idx++] = row.getRowETag();
+        Scope scope = row.getFilterScope();
+        line[idx++] = (scope == null || scope.getType() == null) ? null : scope.getType().name();
+        line[idx++] = (scope == null) ? null : scope.getValue();
+        cw.writeNext(line);
+      }
+      rowCount += page.rows.size();
+      cw.flush();
 
-  private boolean importTable(RFC4180CsvReader reader, String tableName, List<ColumnClient> columns,
-      boolean includeTs, boolean includePn, CallingContext cc) throws BadColumnNameExceptionClient,
-      EntityNotFoundExceptionClient, PermissionDeniedExceptionClient, ETagMismatchExceptionClient,
-      ImportFromCSVExceptionClient {
-    return false; // unimplemented and out of date.
-    // NOTE: this reader will return null if the row is empty.
-    // Compatible with Excel on Mac and Windows.
-    //
-    // int tsIndex = includeTs ? 0 : -1;
-    // int pnIndex = includePn ? (includeTs ? 1 : 0) : -1;
-    // int startIndex = (includeTs ? 1 : 0) + (includePn ? 1 : 0);
-    // //DbTable dbt = DbTable.getDbTable(dbh, tableId);
-    // try {
-    // String newTableId = CommonFieldsBase.newUri();
-    // PropertiesMetadata metadataObject = new PropertiesMetadata(newTableId,
-    // tableName, columns);
-    // String metadataString = metadataObject.getAsJson();
-    // TableManager tm = new TableManager(cc);
-    // TableDefinitionClient tableDef = new TableDefinitionClient(
-    // tableName, columns, metadataString);
-    // // Now create the actual table in the db. Null for the id so it auto
-    // // generates a UUID.
-    // //ServerTableServiceImpl tableService = new ServerTableServiceImpl();
-    // // we do this just to create the table. the fact that we don't use it
-    // // is ok.
-    // TableEntryClient tableEntry = ServerOdkTablesUtil.createTable(
-    // newTableId, tableDef, cc);
-    //
-    // // And now add all the rows for the doowop.
-    // //ServerDataServiceImpl dataService = new ServerDataServiceImpl();
-    // Map<String, String> values = new HashMap<String, String>();
-    // String[] row = reader.readNext();
-    // while (row != null) {
-    // for (int i = 0; i < columns.size(); i++) {
-    // values.put(columns.get(i).getDbName(), row[startIndex + i]);
-    // }
-    // // we want to generate a UUID for each row.
-    // String newRowId = UUID.randomUUID().toString();
-    // RowClient newTableRow = RowClient.forInsert(newRowId, values);
-    // // So I think atm, that both of these should be -1, as we're not
-    // // allowing any ADDING to the table at this point from the server via
-    // // CSV.
-    // //String lastModTime = tsIndex == -1 ? du.formatNowForDb() :
-    // row[tsIndex];
-    // //String srcPhone = pnIndex == -1 ? null : row[pnIndex];
-    // DateTimeFormatter formatter =
-    // DateTimeFormat.forPattern("yyyy-MM-dd-HH-mm-ss").withZoneUTC();
-    // String lastModTime = formatter.print(new DateTime());
-    // String srcPhone = null;
-    // //dbt.addRow(values, lastModTime, srcPhone);
-    // //dataService.createOrUpdateRow(newTableId, newRowId, newTableRow);
-    // // TODO if this fails we should probably delete the table we've created
-    // ServerOdkTablesUtil.createOrUpdateRow(newTableId, newRowId,
-    // newTableRow, cc);
-    // values.clear();
-    // row = reader.readNext();
-    // }
-    // reader.close();
-    // return true;
-    // } catch (IOException e) {
-    // e.printStackTrace();
-    // return false;
-    // } catch (DatastoreFailureException e) {
-    // e.printStackTrace();
-    // throw new ImportFromCSVExceptionClient("datastore failure in CsvUtil",
-    // e);
-    // } catch (RequestFailureException e) {
-    // e.printStackTrace();
-    // throw new ImportFromCSVExceptionClient("request failure in csvutil", e);
-    // } catch (AccessDeniedException e) {
-    // e.printStackTrace();
-    // throw new ImportFromCSVExceptionClient("access denied while importing" +
-    // " from csv", e);
-    // }
+      if (!page.hasMore || page.websafeResumeCursor == null) {
+        break;
+      }
+      startCursor = QueryResumePoint.fromWebsafeCursor(page.websafeResumeCursor);
+    }
+    logger.info("Exported " + rowCount + " rows of " + dm.getTableId());
+    return rowCount;
   }
 
   /*
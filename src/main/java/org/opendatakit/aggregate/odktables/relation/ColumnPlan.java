@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+
+/**
+ * The persisted columns of a {@link DbTable} or {@link DbLogTable} relation,
+ * resolved once to the DataFields of that relation.
+ * <p>
+ * Converting an entity through a plan avoids the per-value upper-casing, name
+ * lookup and field verification of {@link Entity#getAsString(String)}. Build
+ * one plan for the relation (i.e., schemaETag) used by a query and use it for
+ * every entity that query returns.
+ */
+public class ColumnPlan {
+
+  private final String[] elementKeys;
+  private final DataField[] fields;
+
+  /**
+   * @param relation
+   *          the {@link DbTable} or {@link DbLogTable} the entities come from.
+   * @param columns
+   *          the {@link DbColumnDefinitions} entities of the table
+   */
+  public ColumnPlan(Relation relation, List<DbColumnDefinitionsEntity> columns) {
+    List<String> keys = new ArrayList<String>();
+    List<DataField> dataFields = new ArrayList<DataField>();
+    for (DbColumnDefinitionsEntity column : columns) {
+      if (column.isUnitOfRetention()) {
+        String elementKey = column.getElementKey();
+        keys.add(elementKey);
+        dataFields.add(relation.getDataField(elementKey.toUpperCase()));
+      }
+    }
+    this.elementKeys = keys.toArray(new String[keys.size()]);
+    this.fields = dataFields.toArray(new DataField[dataFields.size()]);
+  }
+
+  /**
+   * @param entity
+   *          an entity of the relation this plan was built for.
+   * @return the values of the persisted columns of the entity.
+   */
+  public ArrayList<DataKeyValue> getRowValues(Entity entity) {
+    ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>(fields.length);
+    for (int i = 0; i < fields.length; ++i) {
+      values.add(new DataKeyValue(elementKeys[i], entity.getAsString(fields[i])));
+    }
+    return values;
+  }
+}
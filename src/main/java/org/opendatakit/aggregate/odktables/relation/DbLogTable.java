@@ -17,6 +17,7 @@
 package org.opendatakit.aggregate.odktables.relation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -35,7 +36,7 @@ public class DbLogTable extends Relation {
 
   private DbLogTable(String namespace, String tableName, List<DataField> fields, CallingContext cc)
       throws ODKDatastoreException {
-    super(namespace, tableName, fields, cc);
+    super(namespace, tableName, fields, compositeIndexes, cc);
   }
 
   public static final String LAST_UPDATE_DATE_COLUMN_NAME = CommonFieldsBase.LAST_UPDATE_DATE_COLUMN_NAME;
@@ -55,8 +56,9 @@ public class DbLogTable extends Relation {
   // ETag of the DbTable Row's state prior to this one (may be null if the row did not exist)
   public static final DataField PREVIOUS_ROW_ETAG = new DataField("_PREVIOUS_ROW_ETAG", DataType.STRING, true);
   // ETag in the TableEntry that tracks this modification (for eventual bulk updates)
+  // indexed by the (DATA_ETAG_AT_MODIFICATION, SEQUENCE_VALUE) composite index
   public static final DataField DATA_ETAG_AT_MODIFICATION = new DataField(
-      "_DATA_ETAG_AT_MODIFICATION", DataType.STRING, false).setIndexable(IndexType.HASH);
+      "_DATA_ETAG_AT_MODIFICATION", DataType.STRING, false);
   // UriUser that originally created the record
   public static final DataField CREATE_USER = new DataField("_CREATE_USER", DataType.STRING, true);
   // UriUser that last modified the record
@@ -85,8 +87,9 @@ public class DbLogTable extends Relation {
       DataType.STRING, true, 10L);
   // nanoseconds at the time the form was saved (on client).
   // limited to 40 characters
+  // indexed by the (SAVEPOINT_TIMESTAMP, SEQUENCE_VALUE) composite index
   public static final DataField SAVEPOINT_TIMESTAMP = new DataField(
-      TableConstants.SAVEPOINT_TIMESTAMP.toUpperCase(), DataType.STRING, false, 40L).setIndexable(IndexType.ORDERED);
+      TableConstants.SAVEPOINT_TIMESTAMP.toUpperCase(), DataType.STRING, false, 40L);
   // the creator of this row, as reported by the device (may be a remote SMS user)
   public static final DataField SAVEPOINT_CREATOR = new DataField(
       TableConstants.SAVEPOINT_CREATOR.toUpperCase(), DataType.STRING, true);
@@ -114,6 +117,20 @@ public class DbLogTable extends Relation {
     dataFields.add(SAVEPOINT_CREATOR);
   }
 
+  /**
+   * The sync anchors (getRowsSince, getRowsInTimeRange) look up the first (or
+   * last) sequence value matching a dataETag or a timestamp range. These
+   * indices allow that to be answered without scanning the log.
+   */
+  private static final List<List<String>> compositeIndexes;
+  static {
+    compositeIndexes = new ArrayList<List<String>>();
+    compositeIndexes.add(Arrays.asList(DATA_ETAG_AT_MODIFICATION.getName(),
+        SEQUENCE_VALUE.getName()));
+    compositeIndexes.add(Arrays.asList(LAST_UPDATE_DATE_COLUMN_NAME, SEQUENCE_VALUE.getName()));
+    compositeIndexes.add(Arrays.asList(SAVEPOINT_TIMESTAMP.getName(), SEQUENCE_VALUE.getName()));
+  }
+
   private static final EntityConverter converter = new EntityConverter();
 
   public static final String getDbLogTableName(String dataTableName) {
@@ -112,6 +112,12 @@ public class DbTable extends Relation {
     dataFields.add(SAVEPOINT_CREATOR);
   }
 
+  /**
+   * Longest string column that can be indexed (limited by the MySQL index key
+   * length).
+   */
+  private static final long MAX_INDEXED_STRING_LENGTH = 250L;
+
   private static final EntityConverter converter = new EntityConverter();
 
   public static DbTable getRelation(DbTableDefinitionsEntity entity, List<DbColumnDefinitionsEntity> entities, CallingContext cc)
@@ -121,6 +127,77 @@ public class DbTable extends Relation {
     return getRelation(entity.getDbTableName(), fields, cc);
   }
 
+  /**
+   * Used when creating the table. The user-defined columns named in
+   * indexedElementKeys are given (ordered) database indices.
+   *
+   * @param entity
+   * @param entities
+   * @param indexedElementKeys
+   *          elementKeys of persisted columns to index; may be null.
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTable getRelation(DbTableDefinitionsEntity entity,
+      List<DbColumnDefinitionsEntity> entities, List<String> indexedElementKeys, CallingContext cc)
+      throws ODKDatastoreException {
+    List<DataField> fields = converter.toFields(entities);
+    for (DataField match : getIndexedFields(fields, indexedElementKeys)) {
+      match.setIndexable(IndexType.ORDERED);
+    }
+    fields.addAll(getStaticFields());
+    return getRelation(entity.getDbTableName(), fields, cc);
+  }
+
+  /**
+   * Verify that the columns named in indexedElementKeys can be indexed. Called
+   * before any part of the table is persisted.
+   *
+   * @param entities
+   *          the column definitions, marked with their unit of retention.
+   * @param indexedElementKeys
+   *          may be null.
+   * @throws IllegalArgumentException
+   *           if a column is not a persisted column of the table or is too
+   *           long to be indexed.
+   */
+  public static void verifyIndexedColumns(List<DbColumnDefinitionsEntity> entities,
+      List<String> indexedElementKeys) {
+    getIndexedFields(converter.toFields(entities), indexedElementKeys);
+  }
+
+  private static List<DataField> getIndexedFields(List<DataField> fields,
+      List<String> indexedElementKeys) {
+    List<DataField> matches = new ArrayList<DataField>();
+    if (indexedElementKeys == null) {
+      return matches;
+    }
+    for (String elementKey : indexedElementKeys) {
+      if (elementKey == null) {
+        throw new IllegalArgumentException("Indexed column must not be null");
+      }
+      DataField match = null;
+      for (DataField f : fields) {
+        if (f.getName().equals(elementKey.toUpperCase())) {
+          match = f;
+          break;
+        }
+      }
+      if (match == null) {
+        throw new IllegalArgumentException("Column " + elementKey
+            + " is not stored in its own database column of the table and cannot be indexed");
+      }
+      if (match.getDataType() == DataType.STRING && match.getMaxCharLen() != null
+          && match.getMaxCharLen() > MAX_INDEXED_STRING_LENGTH) {
+        throw new IllegalArgumentException("Column " + elementKey
+            + " is too long to be indexed");
+      }
+      matches.add(match);
+    }
+    return matches;
+  }
+
   private static synchronized DbTable getRelation(String dbTableName, List<DataField> fields,
       CallingContext cc) throws ODKDatastoreException {
     DbTable relation = new DbTable(RUtil.NAMESPACE, dbTableName, fields, cc);
@@ -185,6 +185,29 @@ public class DbTableAcl extends Relation {
     return result;
   }
 
+  /**
+   * Retrieves the acl entities of every table for the given scope.
+   *
+   * @param scopeType
+   * @param scopeValue
+   * @param cc
+   * @return the acl entities, one per table that has an acl for this scope.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableAclEntity> queryScopeTypeValueAcls(String scopeType,
+      String scopeValue, CallingContext cc) throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableAcl.queryScopeTypeValueAcls()", cc);
+    query.equal(DbTableAcl.SCOPE_TYPE, scopeType);
+    query.equal(DbTableAcl.SCOPE_VALUE, scopeValue);
+    List<Entity> entities = query.execute();
+
+    List<DbTableAclEntity> acls = new ArrayList<DbTableAclEntity>();
+    for (Entity e : entities) {
+      acls.add(new DbTableAclEntity(e));
+    }
+    return acls;
+  }
+
   /**
    * Retrieves the acl entity for a given table and scope.
    *
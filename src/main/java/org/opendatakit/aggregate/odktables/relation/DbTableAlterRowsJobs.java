@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Tracks the asynchronous alterRows requests (jobs). The RowList of each job
+ * and the outcomes of its batches are stored in DbTableAlterRowsJobFiles,
+ * under a BlobEntitySet whose uri is the jobId.
+ * <p>
+ * The jobId is the PK of this table.
+ */
+public class DbTableAlterRowsJobs extends Relation {
+
+  private DbTableAlterRowsJobs(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_ALTER_ROWS_JOBS";
+
+  private static final DataField TABLE_ID = new DataField("TABLE_ID", DataType.STRING, false);
+
+  /**
+   * The user that submitted the job. The rows are applied with that user's
+   * permissions.
+   */
+  private static final DataField URI_USER = new DataField("URI_USER", DataType.STRING, false);
+
+  private static final DataField ODK_TABLES_USER_ID = new DataField("ODK_TABLES_USER_ID",
+      DataType.STRING, false);
+
+  /**
+   * One of the AlterRowsJob.JobStatus values.
+   */
+  private static final DataField STATUS = new DataField("STATUS", DataType.STRING, false);
+
+  /**
+   * The dataETag against which the next batch of rows is applied. Once all of
+   * the rows are applied, this is the dataETag of the last batch.
+   */
+  private static final DataField DATA_ETAG = new DataField("DATA_ETAG", DataType.STRING, true);
+
+  /**
+   * The dataETag under which the next batch of rows is being applied. It is
+   * recorded before the batch is applied so that a retried task can tell
+   * whether the batch took effect. Null between batches.
+   */
+  private static final DataField BATCH_DATA_ETAG = new DataField("BATCH_DATA_ETAG",
+      DataType.STRING, true);
+
+  private static final DataField ROW_COUNT = new DataField("ROW_COUNT", DataType.INTEGER, false);
+
+  private static final DataField ROWS_APPLIED = new DataField("ROWS_APPLIED", DataType.INTEGER,
+      false);
+
+  private static final DataField ERROR_MESSAGE = new DataField("ERROR_MESSAGE", DataType.STRING,
+      true, 4096L);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(TABLE_ID);
+    dataFields.add(URI_USER);
+    dataFields.add(ODK_TABLES_USER_ID);
+    dataFields.add(STATUS);
+    dataFields.add(DATA_ETAG);
+    dataFields.add(BATCH_DATA_ETAG);
+    dataFields.add(ROW_COUNT);
+    dataFields.add(ROWS_APPLIED);
+    dataFields.add(ERROR_MESSAGE);
+  }
+
+  public static class DbTableAlterRowsJobEntity {
+    Entity e;
+
+    public DbTableAlterRowsJobEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the jobId
+    public String getId() {
+      return e.getId();
+    }
+
+    public Date getCreationDate() {
+      return e.getCreationDate();
+    }
+
+    public Date getLastUpdateDate() {
+      return e.getLastUpdateDate();
+    }
+
+    // Accessors
+
+    public String getTableId() {
+      return e.getString(TABLE_ID);
+    }
+
+    public void setTableId(String value) {
+      e.set(TABLE_ID, value);
+    }
+
+    public String getUriUser() {
+      return e.getString(URI_USER);
+    }
+
+    public void setUriUser(String value) {
+      e.set(URI_USER, value);
+    }
+
+    public String getOdkTablesUserId() {
+      return e.getString(ODK_TABLES_USER_ID);
+    }
+
+    public void setOdkTablesUserId(String value) {
+      e.set(ODK_TABLES_USER_ID, value);
+    }
+
+    public String getStatus() {
+      return e.getString(STATUS);
+    }
+
+    public void setStatus(String value) {
+      e.set(STATUS, value);
+    }
+
+    public String getDataETag() {
+      return e.getString(DATA_ETAG);
+    }
+
+    public void setDataETag(String value) {
+      e.set(DATA_ETAG, value);
+    }
+
+    public String getBatchDataETag() {
+      return e.getString(BATCH_DATA_ETAG);
+    }
+
+    public void setBatchDataETag(String value) {
+      e.set(BATCH_DATA_ETAG, value);
+    }
+
+    public Integer getRowCount() {
+      return e.getInteger(ROW_COUNT);
+    }
+
+    public void setRowCount(Integer value) {
+      e.set(ROW_COUNT, value);
+    }
+
+    public Integer getRowsApplied() {
+      return e.getInteger(ROWS_APPLIED);
+    }
+
+    public void setRowsApplied(Integer value) {
+      e.set(ROWS_APPLIED, value);
+    }
+
+    public String getErrorMessage() {
+      return e.getString(ERROR_MESSAGE);
+    }
+
+    public void setErrorMessage(String value) {
+      e.set(ERROR_MESSAGE, value);
+    }
+  }
+
+  private static DbTableAlterRowsJobs relation = null;
+
+  public static synchronized final DbTableAlterRowsJobs getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableAlterRowsJobs(RUtil.NAMESPACE, RELATION_NAME, dataFields, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param jobId
+   * @param tableId
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableAlterRowsJobEntity createNewEntity(String jobId, String tableId,
+      CallingContext cc) throws ODKDatastoreException {
+    DbTableAlterRowsJobEntity entity = new DbTableAlterRowsJobEntity(getRelation(cc).newEntity(
+        jobId, cc));
+    entity.setTableId(tableId);
+    return entity;
+  }
+
+  public static DbTableAlterRowsJobEntity getJob(String jobId, CallingContext cc)
+      throws ODKOverQuotaException, ODKEntityNotFoundException, ODKDatastoreException {
+
+    return new DbTableAlterRowsJobEntity(getRelation(cc).getEntity(jobId, cc));
+  }
+
+  /**
+   * @param tableId
+   * @param cc
+   * @return all the jobs submitted against the tableId.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableAlterRowsJobEntity> queryTableIdJobs(String tableId,
+      CallingContext cc) throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableAlterRowsJobs.queryTableIdJobs", cc);
+    query.equal(TABLE_ID, tableId);
+
+    List<Entity> list = query.execute();
+    List<DbTableAlterRowsJobEntity> results = new ArrayList<DbTableAlterRowsJobEntity>();
+    for (Entity e : list) {
+      results.add(new DbTableAlterRowsJobEntity(e));
+    }
+    return results;
+  }
+
+  /**
+   * @param statuses
+   * @param cc
+   * @return the jobs, of all tables, whose status is one of those given.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableAlterRowsJobEntity> queryStatusJobs(Collection<String> statuses,
+      CallingContext cc) throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableAlterRowsJobs.queryStatusJobs", cc);
+    query.include(STATUS, statuses);
+
+    List<Entity> list = query.execute();
+    List<DbTableAlterRowsJobEntity> results = new ArrayList<DbTableAlterRowsJobEntity>();
+    for (Entity e : list) {
+      results.add(new DbTableAlterRowsJobEntity(e));
+    }
+    return results;
+  }
+
+}
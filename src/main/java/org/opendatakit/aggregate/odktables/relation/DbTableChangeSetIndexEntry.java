@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Tracks the building of the DbTableChangeSets index of a given TableId from
+ * its DbLogTable. Until the index is complete, the change sets of the table
+ * must be found by scanning its DbLogTable.
+ * <p>
+ * TableId is the PK of this table.
+ */
+public class DbTableChangeSetIndexEntry extends Relation {
+
+  private DbTableChangeSetIndexEntry(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_CHANGE_SET_INDEX_ENTRY";
+
+  /**
+   * The sequence value of the last DbLogTable entry that has been indexed.
+   * Null if none have been.
+   */
+  private static final DataField INDEXED_SEQUENCE_VALUE = new DataField(
+      "INDEXED_SEQUENCE_VALUE", DataType.STRING, true);
+
+  /**
+   * True once every DbLogTable entry written before the index was introduced
+   * has been indexed.
+   */
+  private static final DataField IS_COMPLETE = new DataField("IS_COMPLETE", DataType.BOOLEAN,
+      false);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(INDEXED_SEQUENCE_VALUE);
+    dataFields.add(IS_COMPLETE);
+  }
+
+  public static class DbTableChangeSetIndexEntryEntity {
+    Entity e;
+
+    public DbTableChangeSetIndexEntryEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the tableId
+    public String getId() {
+      return e.getId();
+    }
+
+    // Accessors
+
+    public String getIndexedSequenceValue() {
+      return e.getString(INDEXED_SEQUENCE_VALUE);
+    }
+
+    public void setIndexedSequenceValue(String value) {
+      e.set(INDEXED_SEQUENCE_VALUE, value);
+    }
+
+    public Boolean isComplete() {
+      return e.getBoolean(IS_COMPLETE);
+    }
+
+    public void setComplete(Boolean value) {
+      e.set(IS_COMPLETE, value);
+    }
+  }
+
+  private static DbTableChangeSetIndexEntry relation = null;
+
+  public static synchronized final DbTableChangeSetIndexEntry getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableChangeSetIndexEntry(RUtil.NAMESPACE, RELATION_NAME, dataFields, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param tableId
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableChangeSetIndexEntryEntity createNewEntity(String tableId,
+      CallingContext cc) throws ODKDatastoreException {
+    DbTableChangeSetIndexEntryEntity entity = new DbTableChangeSetIndexEntryEntity(getRelation(
+        cc).newEntity(tableId, cc));
+    entity.setComplete(false);
+    return entity;
+  }
+
+  /**
+   * @param tableId
+   * @param cc
+   * @return the entry for the table, or null if its index has not been started.
+   * @throws ODKDatastoreException
+   */
+  public static DbTableChangeSetIndexEntryEntity getTableIdEntry(String tableId,
+      CallingContext cc) throws ODKDatastoreException {
+    try {
+      return new DbTableChangeSetIndexEntryEntity(getRelation(cc).getEntity(tableId, cc));
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Record that the index of the table is complete. Called when a table is
+   * created, as every change set of a new table is indexed as it is written.
+   *
+   * @param tableId
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void markComplete(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    DbTableChangeSetIndexEntryEntity entity = getTableIdEntry(tableId, cc);
+    if (entity == null) {
+      entity = createNewEntity(tableId, cc);
+    }
+    entity.setComplete(true);
+    entity.put(cc);
+  }
+
+  /**
+   * Remove the entry for the table. Called when the table's data is dropped.
+   *
+   * @param tableId
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void deleteTableIdEntry(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    DbTableChangeSetIndexEntryEntity entity = getTableIdEntry(tableId, cc);
+    if (entity != null) {
+      entity.delete(cc);
+    }
+  }
+}
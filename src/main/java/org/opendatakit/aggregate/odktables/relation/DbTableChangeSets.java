@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Index of the change sets (the dataETags) that have been applied to each
+ * ODK Tables table.
+ * <p>
+ * A change set is the group of DbLogTable entries written under a single
+ * dataETag. Because those entries are written while the table lock is held,
+ * their sequence values form a contiguous range. This relation records that
+ * range and the number of log entries for each dataETag so that the change
+ * sets since a given sequence value can be listed without scanning the
+ * DbLogTable.
+ * <p>
+ * The dataETag is the PK of this table.
+ */
+public class DbTableChangeSets extends Relation {
+
+  private DbTableChangeSets(String namespace, String tableName, List<DataField> fields,
+      List<List<String>> compositeIndexes, CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, compositeIndexes, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_CHANGE_SETS";
+
+  private static final DataField TABLE_ID = new DataField("TABLE_ID", DataType.STRING, false);
+
+  /**
+   * The sequence value of the first log entry of this change set.
+   */
+  private static final DataField FIRST_SEQUENCE_VALUE = new DataField("FIRST_SEQUENCE_VALUE",
+      DataType.STRING, false);
+
+  /**
+   * The sequence value of the last log entry of this change set.
+   */
+  private static final DataField LAST_SEQUENCE_VALUE = new DataField("LAST_SEQUENCE_VALUE",
+      DataType.STRING, false);
+
+  /**
+   * The number of log entries (changed rows) of this change set that remain
+   * in the DbLogTable. Log compaction reduces it as it deletes superseded
+   * entries and removes the change set once none remain.
+   */
+  private static final DataField ROW_COUNT = new DataField("ROW_COUNT", DataType.INTEGER, false);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(TABLE_ID);
+    dataFields.add(FIRST_SEQUENCE_VALUE);
+    dataFields.add(LAST_SEQUENCE_VALUE);
+    dataFields.add(ROW_COUNT);
+  }
+
+  private static final List<List<String>> compositeIndexes;
+  static {
+    compositeIndexes = new ArrayList<List<String>>();
+    compositeIndexes.add(Arrays.asList(TABLE_ID.getName(), LAST_SEQUENCE_VALUE.getName()));
+  }
+
+  public static class DbTableChangeSetsEntity {
+    Entity e;
+
+    public DbTableChangeSetsEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the dataETag
+    public String getDataETag() {
+      return e.getId();
+    }
+
+    // Accessors
+
+    public String getTableId() {
+      return e.getString(TABLE_ID);
+    }
+
+    public void setTableId(String value) {
+      e.set(TABLE_ID, value);
+    }
+
+    public String getFirstSequenceValue() {
+      return e.getString(FIRST_SEQUENCE_VALUE);
+    }
+
+    public void setFirstSequenceValue(String value) {
+      e.set(FIRST_SEQUENCE_VALUE, value);
+    }
+
+    public String getLastSequenceValue() {
+      return e.getString(LAST_SEQUENCE_VALUE);
+    }
+
+    public void setLastSequenceValue(String value) {
+      e.set(LAST_SEQUENCE_VALUE, value);
+    }
+
+    public Integer getRowCount() {
+      return e.getInteger(ROW_COUNT);
+    }
+
+    public void setRowCount(Integer value) {
+      e.set(ROW_COUNT, value);
+    }
+  }
+
+  private static DbTableChangeSets relation = null;
+
+  public static synchronized final DbTableChangeSets getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableChangeSets(RUtil.NAMESPACE, RELATION_NAME, dataFields,
+          compositeIndexes, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param tableId
+   * @param dataETag
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableChangeSetsEntity createNewEntity(String tableId, String dataETag,
+      CallingContext cc) throws ODKDatastoreException {
+    DbTableChangeSetsEntity entity = new DbTableChangeSetsEntity(getRelation(cc).newEntity(
+        dataETag, cc));
+    entity.setTableId(tableId);
+    return entity;
+  }
+
+  /**
+   * @param tableId
+   * @param dataETag
+   * @param cc
+   * @return the change set for the dataETag or null if it is not a change set
+   *         of the table.
+   * @throws ODKDatastoreException
+   */
+  public static DbTableChangeSetsEntity getChangeSet(String tableId, String dataETag,
+      CallingContext cc) throws ODKDatastoreException {
+    try {
+      DbTableChangeSetsEntity entity = new DbTableChangeSetsEntity(getRelation(cc).getEntity(
+          dataETag, cc));
+      return tableId.equals(entity.getTableId()) ? entity : null;
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Return the first fetchLimit change sets of the table that contain log
+   * entries after the given sequence value.
+   *
+   * @param tableId
+   * @param sequenceValue
+   *          null to return the change sets from the start of the table.
+   * @param fetchLimit
+   * @param cc
+   * @return the change sets, ordered by their last sequence value.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableChangeSetsEntity> queryChangeSetsSince(String tableId,
+      String sequenceValue, int fetchLimit, CallingContext cc) throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableChangeSets.queryChangeSetsSince", cc);
+    query.equal(TABLE_ID, tableId);
+    if (sequenceValue == null) {
+      // we need the filter to activate the sort
+      query.greaterThan(LAST_SEQUENCE_VALUE, " ");
+    } else {
+      query.greaterThan(LAST_SEQUENCE_VALUE, sequenceValue);
+    }
+    query.sortAscending(LAST_SEQUENCE_VALUE);
+
+    List<Entity> list = query.execute(null, fetchLimit).entities;
+    List<DbTableChangeSetsEntity> results = new ArrayList<DbTableChangeSetsEntity>();
+    for (Entity e : list) {
+      results.add(new DbTableChangeSetsEntity(e));
+    }
+    return results;
+  }
+
+  /**
+   * Delete all the change sets recorded for the table.
+   *
+   * @param tableId
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void deleteTableChangeSets(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableChangeSets.deleteTableChangeSets", cc);
+    query.equal(TABLE_ID, tableId);
+    for (Entity e : query.execute()) {
+      e.delete(cc);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * The tombstones of the tables that are being deleted in the background. A
+ * table is tombstoned by removing the schemaETag from its DbTableEntry and
+ * recording it here; the background task then deletes the rows and instance
+ * files of the table in batches and finally removes the table, its metadata
+ * and this record.
+ * <p>
+ * The tableId is the PK of this table.
+ */
+public class DbTableDeletions extends Relation {
+
+  private DbTableDeletions(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_DELETIONS";
+
+  /**
+   * The schemaETag the table had when it was tombstoned.
+   */
+  private static final DataField SCHEMA_ETAG = new DataField("SCHEMA_ETAG", DataType.STRING,
+      true);
+
+  /**
+   * The user that requested the deletion.
+   */
+  private static final DataField URI_USER = new DataField("URI_USER", DataType.STRING, false);
+
+  /**
+   * The number of data and log rows deleted so far.
+   */
+  private static final DataField ROWS_DELETED = new DataField("ROWS_DELETED", DataType.INTEGER,
+      false);
+
+  /**
+   * The number of instance attachment sets deleted so far.
+   */
+  private static final DataField FILES_DELETED = new DataField("FILES_DELETED",
+      DataType.INTEGER, false);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(SCHEMA_ETAG);
+    dataFields.add(URI_USER);
+    dataFields.add(ROWS_DELETED);
+    dataFields.add(FILES_DELETED);
+  }
+
+  public static class DbTableDeletionEntity {
+    Entity e;
+
+    public DbTableDeletionEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the tableId
+    public String getId() {
+      return e.getId();
+    }
+
+    public Date getCreationDate() {
+      return e.getCreationDate();
+    }
+
+    public Date getLastUpdateDate() {
+      return e.getLastUpdateDate();
+    }
+
+    // Accessors
+
+    public String getSchemaETag() {
+      return e.getString(SCHEMA_ETAG);
+    }
+
+    public void setSchemaETag(String value) {
+      e.set(SCHEMA_ETAG, value);
+    }
+
+    public String getUriUser() {
+      return e.getString(URI_USER);
+    }
+
+    public void setUriUser(String value) {
+      e.set(URI_USER, value);
+    }
+
+    public Integer getRowsDeleted() {
+      return e.getInteger(ROWS_DELETED);
+    }
+
+    public void setRowsDeleted(Integer value) {
+      e.set(ROWS_DELETED, value);
+    }
+
+    public Integer getFilesDeleted() {
+      return e.getInteger(FILES_DELETED);
+    }
+
+    public void setFilesDeleted(Integer value) {
+      e.set(FILES_DELETED, value);
+    }
+  }
+
+  private static DbTableDeletions relation = null;
+
+  public static synchronized final DbTableDeletions getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableDeletions(RUtil.NAMESPACE, RELATION_NAME, dataFields, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param tableId
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableDeletionEntity createNewEntity(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    DbTableDeletionEntity entity = new DbTableDeletionEntity(getRelation(cc).newEntity(tableId,
+        cc));
+    entity.setRowsDeleted(0);
+    entity.setFilesDeleted(0);
+    return entity;
+  }
+
+  public static DbTableDeletionEntity getTableIdEntry(String tableId, CallingContext cc)
+      throws ODKOverQuotaException, ODKEntityNotFoundException, ODKDatastoreException {
+
+    return new DbTableDeletionEntity(getRelation(cc).getEntity(tableId, cc));
+  }
+
+  /**
+   * @param cc
+   * @return the tables that are being deleted.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableDeletionEntity> query(CallingContext cc) throws ODKDatastoreException {
+    Query query = getRelation(cc).query("DbTableDeletions.query", cc);
+
+    List<Entity> list = query.execute();
+    List<DbTableDeletionEntity> results = new ArrayList<DbTableDeletionEntity>();
+    for (Entity e : list) {
+      results.add(new DbTableDeletionEntity(e));
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Tracks the resumable uploads of row attachments that are in progress.
+ * <p>
+ * The content of an attachment being uploaded is staged directly in the
+ * DbTableInstanceFiles blob store, in the intermediate (null content hash)
+ * state. An entry in this relation distinguishes such a staged attachment
+ * from one whose save was interrupted.
+ * <p>
+ * The last update date of an entry is refreshed by every chunk received, so
+ * that uploads that have been abandoned can be found and discarded.
+ * <p>
+ * The PK of this table is derived from the rowId and the file path of the
+ * attachment.
+ */
+public class DbTableInstanceUploads extends Relation {
+
+  private DbTableInstanceUploads(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final DataField ROW_ID = new DataField("_ROW_ID", DataType.STRING, false);
+
+  private static final DataField FILE_PATH = new DataField("_FILE_PATH", DataType.STRING, false,
+      4096L);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(ROW_ID);
+    dataFields.add(FILE_PATH);
+  }
+
+  public static class DbTableInstanceUploadEntity {
+    Entity e;
+
+    public DbTableInstanceUploadEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key
+    public String getId() {
+      return e.getId();
+    }
+
+    public Date getLastUpdateDate() {
+      return e.getLastUpdateDate();
+    }
+
+    // Accessors
+
+    public String getRowId() {
+      return e.getString(ROW_ID);
+    }
+
+    public void setRowId(String value) {
+      e.set(ROW_ID, value);
+    }
+
+    public String getFilePath() {
+      return e.getString(FILE_PATH);
+    }
+
+    public void setFilePath(String value) {
+      e.set(FILE_PATH, value);
+    }
+  }
+
+  public static synchronized DbTableInstanceUploads getRelation(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    DbTableInstanceUploads relation = new DbTableInstanceUploads(RUtil.NAMESPACE,
+        tableId.toUpperCase(Locale.ENGLISH) + "_UPL", dataFields, cc);
+    return relation;
+  }
+
+  private static String getUploadId(String rowId, String filePath) {
+    return CommonFieldsBase.newMD5HashUri(rowId + "/" + filePath);
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param tableId
+   * @param rowId
+   * @param filePath
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableInstanceUploadEntity createNewEntity(String tableId, String rowId,
+      String filePath, CallingContext cc) throws ODKDatastoreException {
+    DbTableInstanceUploadEntity entity = new DbTableInstanceUploadEntity(getRelation(tableId, cc)
+        .newEntity(getUploadId(rowId, filePath), cc));
+    entity.setRowId(rowId);
+    entity.setFilePath(filePath);
+    return entity;
+  }
+
+  /**
+   * @param tableId
+   * @param rowId
+   * @param filePath
+   * @param cc
+   * @return the entry for the upload in progress, or null if there is none.
+   * @throws ODKDatastoreException
+   */
+  public static DbTableInstanceUploadEntity getUpload(String tableId, String rowId,
+      String filePath, CallingContext cc) throws ODKDatastoreException {
+    try {
+      return new DbTableInstanceUploadEntity(getRelation(tableId, cc).getEntity(
+          getUploadId(rowId, filePath), cc));
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param tableId
+   * @param olderThan
+   * @param cc
+   * @return the uploads that have not received a chunk since the given date.
+   * @throws ODKDatastoreException
+   */
+  public static List<DbTableInstanceUploadEntity> queryStaleUploads(String tableId,
+      Date olderThan, CallingContext cc) throws ODKDatastoreException {
+    DbTableInstanceUploads relation = getRelation(tableId, cc);
+    Query query = relation.query("DbTableInstanceUploads.queryStaleUploads", cc);
+    query.lessThan(relation.getDataField(CommonFieldsBase.LAST_UPDATE_DATE_COLUMN_NAME),
+        olderThan);
+
+    List<Entity> list = query.execute();
+    List<DbTableInstanceUploadEntity> results = new ArrayList<DbTableInstanceUploadEntity>();
+    for (Entity e : list) {
+      results.add(new DbTableInstanceUploadEntity(e));
+    }
+    return results;
+  }
+
+}
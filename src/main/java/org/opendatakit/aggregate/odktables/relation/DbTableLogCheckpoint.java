@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Tracks the compaction of the DbLogTable for a given TableId.
+ * <p>
+ * Compaction removes the log entries that are older than the retention window
+ * and that have been superseded by a later change to the same row. The most
+ * recent log entry for each row is always retained. Once compacted, the
+ * checkpoint sequence value is the sequence value below which the log no
+ * longer holds a complete history. A client whose dataETag is not found in the
+ * log of a compacted table must re-fetch the current contents of the table.
+ * <p>
+ * TableId is the PK of this table.
+ */
+public class DbTableLogCheckpoint extends Relation {
+
+  private DbTableLogCheckpoint(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_LOG_CHECKPOINT";
+
+  /**
+   * Log entries older than this sequence value may have been removed.
+   * Null if no compaction has yet completed.
+   */
+  private static final DataField CHECKPOINT_SEQUENCE_VALUE = new DataField(
+      "CHECKPOINT_SEQUENCE_VALUE", DataType.STRING, true);
+
+  /**
+   * When the most recent compaction task was started.
+   */
+  private static final DataField LAST_COMPACTION_START = new DataField("LAST_COMPACTION_START",
+      DataType.DATETIME, true);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(CHECKPOINT_SEQUENCE_VALUE);
+    dataFields.add(LAST_COMPACTION_START);
+  }
+
+  public static class DbTableLogCheckpointEntity {
+    Entity e;
+
+    public DbTableLogCheckpointEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the tableId
+    public String getId() {
+      return e.getId();
+    }
+
+    // Accessors
+
+    public String getCheckpointSequenceValue() {
+      return e.getString(CHECKPOINT_SEQUENCE_VALUE);
+    }
+
+    public void setCheckpointSequenceValue(String value) {
+      e.set(CHECKPOINT_SEQUENCE_VALUE, value);
+    }
+
+    public Date getLastCompactionStart() {
+      return e.getDate(LAST_COMPACTION_START);
+    }
+
+    public void setLastCompactionStart(Date value) {
+      e.set(LAST_COMPACTION_START, value);
+    }
+  }
+
+  private static DbTableLogCheckpoint relation = null;
+
+  public static synchronized final DbTableLogCheckpoint getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableLogCheckpoint(RUtil.NAMESPACE, RELATION_NAME, dataFields, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableLogCheckpointEntity createNewEntity(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    return new DbTableLogCheckpointEntity(getRelation(cc).newEntity(tableId, cc));
+  }
+
+  public static DbTableLogCheckpointEntity getTableIdEntry(String tableId, CallingContext cc)
+      throws ODKOverQuotaException, ODKEntityNotFoundException, ODKDatastoreException {
+
+    return new DbTableLogCheckpointEntity(getRelation(cc).getEntity(tableId, cc));
+  }
+
+  /**
+   * @param tableId
+   * @param cc
+   * @return the checkpoint sequence value or null if the log has never been
+   *         compacted.
+   * @throws ODKDatastoreException
+   */
+  public static String getCheckpointSequenceValue(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    try {
+      return getTableIdEntry(tableId, cc).getCheckpointSequenceValue();
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.relation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Relation;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Identifies the current compressed snapshot of the contents of a given
+ * TableId. The snapshot itself is stored in DbTableSnapshots.
+ * <p>
+ * TableId is the PK of this table.
+ */
+public class DbTableSnapshotEntry extends Relation {
+
+  private DbTableSnapshotEntry(String namespace, String tableName, List<DataField> fields,
+      CallingContext cc) throws ODKDatastoreException {
+    super(namespace, tableName, fields, cc);
+  }
+
+  private static final String RELATION_NAME = "TABLE_SNAPSHOT_ENTRY";
+
+  /**
+   * The uri of the BlobEntitySet in DbTableSnapshots holding the snapshot.
+   * Null if no snapshot has yet been created.
+   */
+  private static final DataField SNAPSHOT_URI = new DataField("SNAPSHOT_URI", DataType.STRING,
+      true);
+
+  /**
+   * The schemaETag of the table when the snapshot was taken.
+   */
+  private static final DataField SCHEMA_ETAG = new DataField("SCHEMA_ETAG", DataType.STRING, true);
+
+  /**
+   * The dataETag of the table when the snapshot was taken.
+   */
+  private static final DataField DATA_ETAG = new DataField("DATA_ETAG", DataType.STRING, true);
+
+  /**
+   * The highest log sequence value when the snapshot was taken.
+   */
+  private static final DataField SEQUENCE_VALUE = new DataField("SEQUENCE_VALUE",
+      DataType.STRING, true);
+
+  /**
+   * The number of rows in the snapshot.
+   */
+  private static final DataField ROW_COUNT = new DataField("ROW_COUNT", DataType.INTEGER, true);
+
+  /**
+   * When the snapshot was written.
+   */
+  private static final DataField SNAPSHOT_DATE = new DataField("SNAPSHOT_DATE",
+      DataType.DATETIME, true);
+
+  /**
+   * When the watchdog last considered whether a new snapshot was needed.
+   */
+  private static final DataField LAST_CHECK_DATE = new DataField("LAST_CHECK_DATE",
+      DataType.DATETIME, true);
+
+  private static final List<DataField> dataFields;
+  static {
+    dataFields = new ArrayList<DataField>();
+    dataFields.add(SNAPSHOT_URI);
+    dataFields.add(SCHEMA_ETAG);
+    dataFields.add(DATA_ETAG);
+    dataFields.add(SEQUENCE_VALUE);
+    dataFields.add(ROW_COUNT);
+    dataFields.add(SNAPSHOT_DATE);
+    dataFields.add(LAST_CHECK_DATE);
+  }
+
+  public static class DbTableSnapshotEntryEntity {
+    Entity e;
+
+    public DbTableSnapshotEntryEntity(Entity e) {
+      this.e = e;
+    }
+
+    public void put(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+      e.put(cc);
+    }
+
+    public void delete(CallingContext cc) throws ODKDatastoreException {
+      e.delete(cc);
+    }
+
+    // Primary Key -- the tableId
+    public String getId() {
+      return e.getId();
+    }
+
+    // Accessors
+
+    public String getSnapshotUri() {
+      return e.getString(SNAPSHOT_URI);
+    }
+
+    public void setSnapshotUri(String value) {
+      e.set(SNAPSHOT_URI, value);
+    }
+
+    public String getSchemaETag() {
+      return e.getString(SCHEMA_ETAG);
+    }
+
+    public void setSchemaETag(String value) {
+      e.set(SCHEMA_ETAG, value);
+    }
+
+    public String getDataETag() {
+      return e.getString(DATA_ETAG);
+    }
+
+    public void setDataETag(String value) {
+      e.set(DATA_ETAG, value);
+    }
+
+    public String getSequenceValue() {
+      return e.getString(SEQUENCE_VALUE);
+    }
+
+    public void setSequenceValue(String value) {
+      e.set(SEQUENCE_VALUE, value);
+    }
+
+    public Integer getRowCount() {
+      return e.getInteger(ROW_COUNT);
+    }
+
+    public void setRowCount(Integer value) {
+      e.set(ROW_COUNT, value);
+    }
+
+    public Date getSnapshotDate() {
+      return e.getDate(SNAPSHOT_DATE);
+    }
+
+    public void setSnapshotDate(Date value) {
+      e.set(SNAPSHOT_DATE, value);
+    }
+
+    public Date getLastCheckDate() {
+      return e.getDate(LAST_CHECK_DATE);
+    }
+
+    public void setLastCheckDate(Date value) {
+      e.set(LAST_CHECK_DATE, value);
+    }
+  }
+
+  private static DbTableSnapshotEntry relation = null;
+
+  public static synchronized final DbTableSnapshotEntry getRelation(CallingContext cc)
+      throws ODKDatastoreException {
+    if (relation == null) {
+      relation = new DbTableSnapshotEntry(RUtil.NAMESPACE, RELATION_NAME, dataFields, cc);
+    }
+    return relation;
+  }
+
+  /**
+   * Create a new row in this relation. The row is not yet persisted.
+   *
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public static DbTableSnapshotEntryEntity createNewEntity(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    return new DbTableSnapshotEntryEntity(getRelation(cc).newEntity(tableId, cc));
+  }
+
+  public static DbTableSnapshotEntryEntity getTableIdEntry(String tableId, CallingContext cc)
+      throws ODKOverQuotaException, ODKEntityNotFoundException, ODKDatastoreException {
+
+    return new DbTableSnapshotEntryEntity(getRelation(cc).getEntity(tableId, cc));
+  }
+
+}
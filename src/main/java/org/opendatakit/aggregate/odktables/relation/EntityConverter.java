@@ -257,6 +257,28 @@ public class EntityConverter {
    * @return the row
    */
   public Row toRow(Entity entity, List<DbColumnDefinitionsEntity> columns) {
+    Row row = toRowMetadata(entity);
+    row.setValues(getRowValues(entity, columns));
+    return row;
+  }
+
+  /**
+   * Convert a {@link DbTable} entity into a {@link Row} using a
+   * {@link ColumnPlan} built for the entity's relation.
+   *
+   * @param entity
+   *          the {@link DbTable} entity.
+   * @param plan
+   *          the {@link ColumnPlan} of the {@link DbTable}
+   * @return the row
+   */
+  public Row toRow(Entity entity, ColumnPlan plan) {
+    Row row = toRowMetadata(entity);
+    row.setValues(plan.getRowValues(entity));
+    return row;
+  }
+
+  private Row toRowMetadata(Entity entity) {
     Row row = new Row();
     row.setRowId(entity.getId());
     row.setRowETag(entity.getString(DbTable.ROW_ETAG));
@@ -271,8 +293,6 @@ public class EntityConverter {
     row.setSavepointType(entity.getString(DbTable.SAVEPOINT_TYPE));
     row.setSavepointTimestamp(entity.getString(DbTable.SAVEPOINT_TIMESTAMP));
     row.setSavepointCreator(entity.getString(DbTable.SAVEPOINT_CREATOR));
-
-    row.setValues(getRowValues(entity, columns));
     return row;
   }
 
@@ -286,6 +306,28 @@ public class EntityConverter {
    * @return the row
    */
   public Row toRowFromLogTable(Entity entity, List<DbColumnDefinitionsEntity> columns) {
+    Row row = toRowMetadataFromLogTable(entity);
+    row.setValues(getRowValues(entity, columns));
+    return row;
+  }
+
+  /**
+   * Convert a {@link DbLogTable} entity into a {@link Row} using a
+   * {@link ColumnPlan} built for the entity's relation.
+   *
+   * @param entity
+   *          the {@link DbLogTable} entity.
+   * @param plan
+   *          the {@link ColumnPlan} of the {@link DbLogTable}
+   * @return the row
+   */
+  public Row toRowFromLogTable(Entity entity, ColumnPlan plan) {
+    Row row = toRowMetadataFromLogTable(entity);
+    row.setValues(plan.getRowValues(entity));
+    return row;
+  }
+
+  private Row toRowMetadataFromLogTable(Entity entity) {
     Row row = new Row();
     row.setRowId(entity.getString(DbLogTable.ROW_ID));
     row.setRowETag(entity.getId());
@@ -300,8 +342,6 @@ public class EntityConverter {
     row.setSavepointType(entity.getString(DbLogTable.SAVEPOINT_TYPE));
     row.setSavepointTimestamp(entity.getString(DbLogTable.SAVEPOINT_TIMESTAMP));
     row.setSavepointCreator(entity.getString(DbLogTable.SAVEPOINT_CREATOR));
-
-    row.setValues(getRowValues(entity, columns));
     return row;
   }
 
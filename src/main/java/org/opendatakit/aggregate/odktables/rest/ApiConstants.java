@@ -40,4 +40,28 @@ public final class ApiConstants {
   public static final String GZIP_CONTENT_ENCODING = "gzip";
 
   public static final String DEFLATE_CONTENT_ENCODING = "deflate";
+
+  public static final String RANGE_HEADER = "Range";
+
+  public static final String IF_RANGE_HEADER = "If-Range";
+
+  public static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+  public static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+  public static final String BYTES_RANGE_UNIT = "bytes";
+
+  public static final String SNAPSHOT_DATA_ETAG_HEADER = "X-OpenDataKit-Snapshot-DataETag";
+
+  /**
+   * The md5 hash ("md5:...") of a file being uploaded. If the row already
+   * holds this content under another path, the file is stored without
+   * transferring its bytes.
+   */
+  public static final String CONTENT_HASH_HEADER = "X-OpenDataKit-Content-Hash";
+
+  /**
+   * The number of bytes of a resumable upload received by the server.
+   */
+  public static final String UPLOAD_OFFSET_HEADER = "X-OpenDataKit-Upload-Offset";
 }
@@ -85,8 +85,10 @@ public class RFC4180CsvReader {
    *
    * @return <p>a String array with each comma-separated element as a separate
    *         entry in that array.</p>
-   *         <p>Zero-length elements are returned as null values in the
-   *         String[] array.</p>
+   *         <p>Zero-length unquoted elements are returned as null values in
+   *         the String[] array; a quoted zero-length element ("") is
+   *         returned as an empty string, so that values written by the
+   *         RFC4180CsvWriter read back unchanged.</p>
    *         <p>Double-quotes should wrap elements containing new lines
    *         and commas. Embedded double-quotes are represented as two
    *         consecutive double-quote characters.</p>
@@ -236,12 +238,8 @@ public class RFC4180CsvReader {
           if ( ch != quotechar ) {
             // nope -- we are done with this quoted field
             // and expect a comma (or CR LF).
-            String field = b.toString();
-            if ( field.length() == 0 ) {
-              // empty strings are nulls
-              field = null;
-            }
-            results.add(field);
+            // a quoted zero-length field is an empty string, not a null
+            results.add(b.toString());
             b.setLength(0);
             state = ParseState.expectingComma;
             // process the ch we read in but didn't use
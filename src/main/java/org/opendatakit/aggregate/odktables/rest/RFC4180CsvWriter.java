@@ -66,6 +66,7 @@ public class RFC4180CsvWriter {
         // wrap an empty string in double-quotes to
         // distinguish between null and empty string
         if ( term.length() == 0 ||
+             term.indexOf(separator) != -1 ||
              term.indexOf(cr) != -1 ||
              term.indexOf(lf) != -1 ||
              term.indexOf(quotechar) != -1 ) {
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+/**
+ * The state of an asynchronous alterRows request. The outcomes are only
+ * supplied once the job is COMPLETE.
+ */
+@JacksonXmlRootElement(localName="alterRowsJob")
+public class AlterRowsJob {
+
+  public enum JobStatus {
+    PENDING, RUNNING, COMPLETE, FAILED
+  }
+
+  /**
+   * The id of the job.
+   */
+  @JsonProperty(required = false)
+  private String jobId;
+
+  /**
+   * The URL that returns the state of this job.
+   */
+  @JsonProperty(required = false)
+  private String selfUri;
+
+  @JsonProperty(required = false)
+  private JobStatus status;
+
+  /**
+   * The number of rows in the submitted RowList.
+   */
+  @JsonProperty(required = false)
+  private int rowCount;
+
+  /**
+   * The number of rows that have been applied to the table.
+   */
+  @JsonProperty(required = false)
+  private int rowsApplied;
+
+  /**
+   * Why the job FAILED. Rows applied before the failure remain applied and
+   * are reported in the outcomes.
+   */
+  @JsonProperty(required = false)
+  private String errorMessage;
+
+  /**
+   * The outcomes of the rows, once the job has finished.
+   */
+  @JsonProperty(required = false)
+  private RowOutcomeList outcomes;
+
+  /**
+   * Constructor used by Jackson
+   */
+  public AlterRowsJob() {
+  }
+
+  /**
+   * Constructor used by our Java code
+   *
+   * @param jobId
+   * @param status
+   * @param rowCount
+   * @param rowsApplied
+   */
+  public AlterRowsJob(String jobId, JobStatus status, int rowCount, int rowsApplied) {
+    this.jobId = jobId;
+    this.status = status;
+    this.rowCount = rowCount;
+    this.rowsApplied = rowsApplied;
+  }
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  public void setJobId(String jobId) {
+    this.jobId = jobId;
+  }
+
+  public String getSelfUri() {
+    return selfUri;
+  }
+
+  public void setSelfUri(String selfUri) {
+    this.selfUri = selfUri;
+  }
+
+  public JobStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(JobStatus status) {
+    this.status = status;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public void setRowCount(int rowCount) {
+    this.rowCount = rowCount;
+  }
+
+  public int getRowsApplied() {
+    return rowsApplied;
+  }
+
+  public void setRowsApplied(int rowsApplied) {
+    this.rowsApplied = rowsApplied;
+  }
+
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  public void setErrorMessage(String errorMessage) {
+    this.errorMessage = errorMessage;
+  }
+
+  public RowOutcomeList getOutcomes() {
+    return outcomes;
+  }
+
+  public void setOutcomes(RowOutcomeList outcomes) {
+    this.outcomes = outcomes;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((jobId == null) ? 0 : jobId.hashCode());
+    result = prime * result + ((status == null) ? 0 : status.hashCode());
+    result = prime * result + rowCount;
+    result = prime * result + rowsApplied;
+    result = prime * result + ((outcomes == null) ? 0 : outcomes.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof AlterRowsJob)) {
+      return false;
+    }
+    AlterRowsJob other = (AlterRowsJob) obj;
+    return (jobId == null ? other.jobId == null : jobId.equals(other.jobId)) &&
+        (selfUri == null ? other.selfUri == null : selfUri.equals(other.selfUri)) &&
+        (status == null ? other.status == null : status.equals(other.status)) &&
+        (rowCount == other.rowCount) && (rowsApplied == other.rowsApplied) &&
+        (errorMessage == null ? other.errorMessage == null : errorMessage.equals(other.errorMessage)) &&
+        (outcomes == null ? other.outcomes == null : outcomes.equals(other.outcomes));
+  }
+
+}
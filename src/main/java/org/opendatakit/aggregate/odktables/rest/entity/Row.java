@@ -171,6 +171,20 @@ public class Row {
   @JacksonXmlProperty(localName="value")
   private ArrayList<DataKeyValue> orderedColumns;
 
+  /**
+   * Delta encoding of the values.
+   *
+   * If non-null, orderedColumns
+   * holds only the columns whose
+   * values differ from those of
+   * the revision of this row 
+   * with this rowETag. All other
+   * columns have the values of
+   * that revision.
+   */
+  @JsonProperty(required = false)
+  private String baseRowETag;
+
   /**
    * Construct a row for insertion. This is used by the remote client (ODK
    * Tables) to construct a REST request to insert the row.
@@ -276,6 +290,7 @@ public class Row {
     this.savepointCreator = null;
     this.filterScope = null;
     this.orderedColumns = new ArrayList<DataKeyValue>();
+    this.baseRowETag = null;
   }
 
   protected Row(Row r) {
@@ -293,6 +308,7 @@ public class Row {
     this.savepointCreator = r.savepointCreator;
     this.filterScope = r.filterScope;
     this.orderedColumns = r.orderedColumns;
+    this.baseRowETag = r.baseRowETag;
   }
 
   public String getRowId() {
@@ -348,6 +364,10 @@ public class Row {
     return this.orderedColumns;
   }
 
+  public String getBaseRowETag() {
+    return this.baseRowETag;
+  }
+
   public void setRowId(final String rowId) {
     this.rowId = rowId;
   }
@@ -392,6 +412,10 @@ public class Row {
     this.savepointType = savepointType;
   }
 
+  public void setBaseRowETag(String baseRowETag) {
+    this.baseRowETag = baseRowETag;
+  }
+
   @JsonIgnore
   public void setValues(final ArrayList<DataKeyValue> values) {
     if ( values == null ) {
@@ -437,6 +461,7 @@ public class Row {
     result = prime * result + ((savepointType == null) ? 0 : savepointType.hashCode());
     result = prime * result + ((savepointTimestamp == null) ? 0 : savepointTimestamp.hashCode());
     result = prime * result + ((orderedColumns == null) ? 0 : orderedColumns.hashCode());
+    result = prime * result + ((baseRowETag == null) ? 0 : baseRowETag.hashCode());
     return result;
   }
 
@@ -469,6 +494,7 @@ public class Row {
             .equals(other.savepointType))
         && (savepointTimestamp == null ? other.savepointTimestamp == null : savepointTimestamp
             .equals(other.savepointTimestamp))
+        && (baseRowETag == null ? other.baseRowETag == null : baseRowETag.equals(other.baseRowETag))
         && ( orderedColumns == null ? other.orderedColumns == null : 
             (other.orderedColumns != null && orderedColumns.size() == other.orderedColumns.size()));
     if ( !simpleMatch ) {
@@ -568,6 +594,8 @@ public class Row {
     builder.append(savepointCreator);
     builder.append(", orderedValues=");
     builder.append(orderedColumns);
+    builder.append(", baseRowETag=");
+    builder.append(baseRowETag);
     builder.append("]");
     return builder.toString();
   }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import java.util.ArrayList;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+
+/**
+ * A predicate on one of the user-defined columns of a table.
+ * <p>
+ * The value (or values, for IN) are the string representations of the column
+ * values, as they appear in the {@link DataKeyValue} entries of a {@link Row}.
+ */
+public class RowFilter {
+
+  public enum Operation {
+    EQUAL, NOT_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, IN
+  }
+
+  /**
+   * The elementKey of the column to test.
+   */
+  private String elementKey;
+
+  private Operation operation;
+
+  /**
+   * The value to compare against (all operations except IN).
+   */
+  @JsonProperty(required = false)
+  private String value;
+
+  /**
+   * The set of acceptable values (IN only).
+   */
+  @JsonProperty(required = false)
+  @JacksonXmlElementWrapper(localName="values")
+  @JacksonXmlProperty(localName="value")
+  private ArrayList<String> values;
+
+  protected RowFilter() {
+  }
+
+  public RowFilter(final String elementKey, final Operation operation, final String value) {
+    this.elementKey = elementKey;
+    this.operation = operation;
+    this.value = value;
+    this.values = null;
+  }
+
+  public RowFilter(final String elementKey, final ArrayList<String> values) {
+    this.elementKey = elementKey;
+    this.operation = Operation.IN;
+    this.value = null;
+    this.values = values;
+  }
+
+  public String getElementKey() {
+    return elementKey;
+  }
+
+  public void setElementKey(String elementKey) {
+    this.elementKey = elementKey;
+  }
+
+  public Operation getOperation() {
+    return operation;
+  }
+
+  public void setOperation(Operation operation) {
+    this.operation = operation;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public void setValue(String value) {
+    this.value = value;
+  }
+
+  public ArrayList<String> getValues() {
+    return values;
+  }
+
+  public void setValues(ArrayList<String> values) {
+    this.values = values;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((elementKey == null) ? 1 : elementKey.hashCode());
+    result = prime * result + ((operation == null) ? 1 : operation.hashCode());
+    result = prime * result + ((value == null) ? 1 : value.hashCode());
+    result = prime * result + ((values == null) ? 1 : values.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof RowFilter)) {
+      return false;
+    }
+    RowFilter other = (RowFilter) obj;
+    return (elementKey == null ? other.elementKey == null : elementKey.equals(other.elementKey))
+        && (operation == other.operation)
+        && (value == null ? other.value == null : value.equals(other.value))
+        && (values == null ? other.values == null : values.equals(other.values));
+  }
+
+  @Override
+  public String toString() {
+    return "RowFilter [elementKey=" + elementKey + ", operation=" + operation + ", value="
+        + value + ", values=" + values + "]";
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import java.util.ArrayList;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+/**
+ * A query against the current (non-deleted) rows of a table.
+ * <p>
+ * All of the filters must be satisfied (they are AND-ed together). The result
+ * is ordered by the sortElementKey column, or by the row creation date if that
+ * is not specified.
+ */
+@JacksonXmlRootElement(localName="rowQuery")
+public class RowQuery {
+
+  @JsonProperty(required = false)
+  @JacksonXmlElementWrapper(useWrapping=false)
+  @JacksonXmlProperty(localName="filter")
+  private ArrayList<RowFilter> filters;
+
+  /**
+   * The elementKey of the column to sort by.
+   */
+  @JsonProperty(required = false)
+  private String sortElementKey;
+
+  @JsonProperty(required = false)
+  private boolean sortDescending;
+
+  /**
+   * Constructor used by Jackson
+   */
+  public RowQuery() {
+    this.filters = new ArrayList<RowFilter>();
+  }
+
+  /**
+   * Constructor used by our Java code
+   *
+   * @param filters
+   * @param sortElementKey
+   * @param sortDescending
+   */
+  public RowQuery(ArrayList<RowFilter> filters, String sortElementKey, boolean sortDescending) {
+    if ( filters == null ) {
+      this.filters = new ArrayList<RowFilter>();
+    } else {
+      this.filters = filters;
+    }
+    this.sortElementKey = sortElementKey;
+    this.sortDescending = sortDescending;
+  }
+
+  public ArrayList<RowFilter> getFilters() {
+    return filters;
+  }
+
+  public void setFilters(ArrayList<RowFilter> filters) {
+    this.filters = filters;
+  }
+
+  public String getSortElementKey() {
+    return sortElementKey;
+  }
+
+  public void setSortElementKey(String sortElementKey) {
+    this.sortElementKey = sortElementKey;
+  }
+
+  public boolean isSortDescending() {
+    return sortDescending;
+  }
+
+  public void setSortDescending(boolean sortDescending) {
+    this.sortDescending = sortDescending;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((filters == null) ? 1 : filters.hashCode());
+    result = prime * result + ((sortElementKey == null) ? 1 : sortElementKey.hashCode());
+    result = prime * result + (sortDescending ? 1231 : 1237);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof RowQuery)) {
+      return false;
+    }
+    RowQuery other = (RowQuery) obj;
+    return (filters == null ? other.filters == null : filters.equals(other.filters))
+        && (sortElementKey == null ? other.sortElementKey == null : sortElementKey.equals(other.sortElementKey))
+        && (sortDescending == other.sortDescending);
+  }
+
+  @Override
+  public String toString() {
+    return "RowQuery [filters=" + filters + ", sortElementKey=" + sortElementKey
+        + ", sortDescending=" + sortDescending + "]";
+  }
+}
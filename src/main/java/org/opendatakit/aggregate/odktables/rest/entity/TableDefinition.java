@@ -57,6 +57,16 @@ public class TableDefinition {
   @JacksonXmlProperty(localName="column")
   private ArrayList<Column> orderedColumns;
 
+  /**
+   * The elementKeys of the columns that the server should index. Used only
+   * when the table is created; the server creates a database index on each of
+   * these columns to speed up filtered queries against the table.
+   */
+  @JsonProperty(required = false)
+  @JacksonXmlElementWrapper(localName="indexedColumns")
+  @JacksonXmlProperty(localName="elementKey")
+  private ArrayList<String> indexedColumns;
+
   protected TableDefinition() {
   }
 
@@ -127,11 +137,20 @@ public class TableDefinition {
     }
   }
 
+  public ArrayList<String> getIndexedColumns() {
+    return this.indexedColumns;
+  }
+
+  public void setIndexedColumns(final ArrayList<String> indexedColumns) {
+    this.indexedColumns = indexedColumns;
+  }
+
   @Override
   public String toString() {
     return "TableDefinition [schemaETag=" + schemaETag
         + ", tableId=" + tableId
         + ", orderedColumns=" + orderedColumns
+        + ", indexedColumns=" + indexedColumns
         + "]";
   }
 
@@ -142,6 +161,7 @@ public class TableDefinition {
     result = prime * result + ((schemaETag == null) ? 1 : schemaETag.hashCode());
     result = prime * result + ((tableId == null) ? 1 : tableId.hashCode());
     result = prime * result + ((orderedColumns == null) ? 1 : orderedColumns.hashCode());
+    result = prime * result + ((indexedColumns == null) ? 1 : indexedColumns.hashCode());
     return result;
   }
 
@@ -159,7 +179,8 @@ public class TableDefinition {
     TableDefinition other = (TableDefinition) obj;
     return (schemaETag == null ? other.schemaETag == null : schemaETag.equals(other.schemaETag))
         && (tableId == null ? other.tableId == null : tableId.equals(other.tableId))
-        && (orderedColumns == null ? other.orderedColumns == null : orderedColumns.equals(other.orderedColumns));
+        && (orderedColumns == null ? other.orderedColumns == null : orderedColumns.equals(other.orderedColumns))
+        && (indexedColumns == null ? other.indexedColumns == null : indexedColumns.equals(other.indexedColumns));
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import java.util.ArrayList;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+/**
+ * This holds a list of {@link TableEntry}.
+ * Used by the change notification API for both the tableIds and
+ * dataETags known to the client and the tables that have changed.
+ *
+ * Proper XML documents can contain only one root node.
+ * This wrapping class provides that root node.
+ */
+@JacksonXmlRootElement(localName="tableEntryList")
+public class TableEntryList {
+
+  /**
+   * The table entries.
+   */
+  @JsonProperty(required = false)
+  @JacksonXmlElementWrapper(useWrapping=false)
+  @JacksonXmlProperty(localName="tableEntry")
+  private ArrayList<TableEntry> entries;
+
+  /**
+   * Constructor used by Jackson
+   */
+  public TableEntryList() {
+    this.entries = new ArrayList<TableEntry>();
+  }
+
+  /**
+   * Constructor used by our Java code
+   *
+   * @param entries
+   */
+  public TableEntryList(ArrayList<TableEntry> entries) {
+    if ( entries == null ) {
+      this.entries = new ArrayList<TableEntry>();
+    } else {
+      this.entries = entries;
+    }
+  }
+
+  public ArrayList<TableEntry> getEntries() {
+    return entries;
+  }
+
+  public void setEntries(ArrayList<TableEntry> entries) {
+    this.entries = entries;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((entries == null) ? 0 : entries.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof TableEntryList)) {
+      return false;
+    }
+    TableEntryList other = (TableEntryList) obj;
+    boolean simpleResult =
+        (entries == null ? other.entries == null : (other.entries != null && entries.size() == other.entries.size()));
+    if ( !simpleResult ) {
+      return false;
+    }
+
+    if ( entries == null ) {
+      return true;
+    }
+
+    return entries.containsAll(other.entries);
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One table within a batched sync request. Identifies the table, the
+ * schemaETag and dataETag known to the client, and the cursor returned by a
+ * prior (incomplete) fetch of the changes, if any.
+ */
+public class TableSyncRequest {
+
+  /**
+   * The tableId to synchronize.
+   */
+  private String tableId;
+
+  /**
+   * The ETag of the TableDefinition known to the client
+   */
+  @JsonProperty(required = false)
+  private String schemaETag;
+
+  /**
+   * The dataETag known to the client; null to fetch all rows.
+   */
+  @JsonProperty(required = false)
+  private String dataETag;
+
+  /**
+   * The websafe resume cursor of a prior fetch; null to start at the beginning.
+   */
+  @JsonProperty(required = false)
+  private String cursor;
+
+  /**
+   * True to delta-encode the updated rows (see Row.getBaseRowETag()).
+   */
+  @JsonProperty(required = false)
+  private boolean delta;
+
+  protected TableSyncRequest() {
+  }
+
+  public TableSyncRequest(final String tableId, final String schemaETag, final String dataETag,
+      final String cursor) {
+    this.tableId = tableId;
+    this.schemaETag = schemaETag;
+    this.dataETag = dataETag;
+    this.cursor = cursor;
+  }
+
+  public String getTableId() {
+    return this.tableId;
+  }
+
+  public void setTableId(final String tableId) {
+    this.tableId = tableId;
+  }
+
+  public String getSchemaETag() {
+    return schemaETag;
+  }
+
+  public void setSchemaETag(String schemaETag) {
+    this.schemaETag = schemaETag;
+  }
+
+  public String getDataETag() {
+    return this.dataETag;
+  }
+
+  public void setDataETag(final String dataETag) {
+    this.dataETag = dataETag;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public boolean isDelta() {
+    return delta;
+  }
+
+  public void setDelta(boolean delta) {
+    this.delta = delta;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((tableId == null) ? 1 : tableId.hashCode());
+    result = prime * result + ((schemaETag == null) ? 1 : schemaETag.hashCode());
+    result = prime * result + ((dataETag == null) ? 1 : dataETag.hashCode());
+    result = prime * result + ((cursor == null) ? 1 : cursor.hashCode());
+    result = prime * result + (delta ? 1 : 0);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof TableSyncRequest)) {
+      return false;
+    }
+    TableSyncRequest other = (TableSyncRequest) obj;
+    return (tableId == null ? other.tableId == null : tableId.equals(other.tableId))
+        && (schemaETag == null ? other.schemaETag == null : schemaETag.equals(other.schemaETag))
+        && (dataETag == null ? other.dataETag == null : dataETag.equals(other.dataETag))
+        && (cursor == null ? other.cursor == null : cursor.equals(other.cursor))
+        && (delta == other.delta);
+  }
+
+  @Override
+  public String toString() {
+    return "TableSyncRequest [tableId=" + tableId + ", schemaETag=" + schemaETag + ", dataETag="
+        + dataETag + ", cursor=" + cursor + ", delta=" + delta + "]";
+  }
+}
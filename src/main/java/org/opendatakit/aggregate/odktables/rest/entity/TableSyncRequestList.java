@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import java.util.ArrayList;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+/**
+ * This holds a list of {@link TableSyncRequest}.
+ * Used by the batched sync API to supply the tables to synchronize.
+ *
+ * Proper XML documents can contain only one root node.
+ * This wrapping class provides that root node.
+ */
+@JacksonXmlRootElement(localName="tableSyncRequestList")
+public class TableSyncRequestList {
+
+  /**
+   * The requested tables.
+   */
+  @JsonProperty(required = false)
+  @JacksonXmlElementWrapper(useWrapping=false)
+  @JacksonXmlProperty(localName="tableSyncRequest")
+  private ArrayList<TableSyncRequest> entries;
+
+  /**
+   * Constructor used by Jackson
+   */
+  public TableSyncRequestList() {
+    this.entries = new ArrayList<TableSyncRequest>();
+  }
+
+  /**
+   * Constructor used by our Java code
+   *
+   * @param entries
+   */
+  public TableSyncRequestList(ArrayList<TableSyncRequest> entries) {
+    if ( entries == null ) {
+      this.entries = new ArrayList<TableSyncRequest>();
+    } else {
+      this.entries = entries;
+    }
+  }
+
+  public ArrayList<TableSyncRequest> getEntries() {
+    return entries;
+  }
+
+  public void setEntries(ArrayList<TableSyncRequest> entries) {
+    this.entries = entries;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((entries == null) ? 0 : entries.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof TableSyncRequestList)) {
+      return false;
+    }
+    TableSyncRequestList other = (TableSyncRequestList) obj;
+    boolean simpleResult =
+        (entries == null ? other.entries == null : (other.entries != null && entries.size() == other.entries.size()));
+    if ( !simpleResult ) {
+      return false;
+    }
+
+    if ( entries == null ) {
+      return true;
+    }
+
+    return entries.containsAll(other.entries);
+  }
+
+}
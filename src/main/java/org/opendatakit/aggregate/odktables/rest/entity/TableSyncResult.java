@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.rest.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The outcome for one table within a batched sync request.
+ * <p>
+ * Exactly one of changes or error is non-null. The changes are those that
+ * would be returned by the diff API of the table, including the cursors
+ * needed to continue the fetch if hasMore is true.
+ */
+public class TableSyncResult {
+
+  /**
+   * The tableId this result describes.
+   */
+  private String tableId;
+
+  /**
+   * The current ETag of the TableDefinition
+   */
+  @JsonProperty(required = false)
+  private String schemaETag;
+
+  /**
+   * The changed rows, if the table could be read.
+   */
+  @JsonProperty(required = false)
+  private RowResourceList changes;
+
+  /**
+   * The reason the changes could not be returned.
+   */
+  @JsonProperty(required = false)
+  private Error error;
+
+  protected TableSyncResult() {
+  }
+
+  public TableSyncResult(final String tableId, final String schemaETag,
+      final RowResourceList changes) {
+    this.tableId = tableId;
+    this.schemaETag = schemaETag;
+    this.changes = changes;
+    this.error = null;
+  }
+
+  public TableSyncResult(final String tableId, final String schemaETag, final Error error) {
+    this.tableId = tableId;
+    this.schemaETag = schemaETag;
+    this.changes = null;
+    this.error = error;
+  }
+
+  public String getTableId() {
+    return this.tableId;
+  }
+
+  public void setTableId(final String tableId) {
+    this.tableId = tableId;
+  }
+
+  public String getSchemaETag() {
+    return schemaETag;
+  }
+
+  public void setSchemaETag(String schemaETag) {
+    this.schemaETag = schemaETag;
+  }
+
+  public RowResourceList getChanges() {
+    return changes;
+  }
+
+  public void setChanges(RowResourceList changes) {
+    this.changes = changes;
+  }
+
+  public Error getError() {
+    return error;
+  }
+
+  public void setError(Error error) {
+    this.error = error;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((tableId == null) ? 1 : tableId.hashCode());
+    result = prime * result + ((schemaETag == null) ? 1 : schemaETag.hashCode());
+    result = prime * result + ((changes == null) ? 1 : changes.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof TableSyncResult)) {
+      return false;
+    }
+    TableSyncResult other = (TableSyncResult) obj;
+    return (tableId == null ? other.tableId == null : tableId.equals(other.tableId))
+        && (schemaETag == null ? other.schemaETag == null : schemaETag.equals(other.schemaETag))
+        && (changes == null ? other.changes == null : changes.equals(other.changes))
+        && (error == null ? other.error == null : (other.error != null
+            && error.getType() == other.error.getType()));
+  }
+
+  @Override
+  public String toString() {
+    return "TableSyncResult [tableId=" + tableId + ", schemaETag=" + schemaETag + ", changes="
+        + changes + ", error=" + (error == null ? null : error.getType()) + "]";
+  }
+}
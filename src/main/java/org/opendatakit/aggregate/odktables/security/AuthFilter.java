@@ -16,6 +16,7 @@
 
 package org.opendatakit.aggregate.odktables.security;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,7 +34,6 @@ import org.opendatakit.common.web.CallingContext;
 public class AuthFilter {
 
   private CallingContext cc;
-  private TableAclManager am;
   private TablesUserPermissions userPermissions;
   private Set<TablePermission> permissions;
 
@@ -41,7 +41,7 @@ public class AuthFilter {
       ODKDatastoreException {
     this.cc = cc;
     this.userPermissions = userPermissions;
-    this.am = new TableAclManager(appId, tableId, userPermissions, cc);
+    TableAclManager am = new TableAclManager(appId, tableId, userPermissions, cc);
 
     permissions = new HashSet<TablePermission>();
 
@@ -53,6 +53,28 @@ public class AuthFilter {
     }
   }
 
+  /**
+   * Construct the filter from previously-resolved permissions.
+   *
+   * @param userPermissions
+   * @param permissions
+   *          the permissions resolved from the ACLs by the other constructor.
+   * @param cc
+   */
+  public AuthFilter(TablesUserPermissions userPermissions, Set<TablePermission> permissions,
+      CallingContext cc) {
+    this.cc = cc;
+    this.userPermissions = userPermissions;
+    this.permissions = permissions;
+  }
+
+  /**
+   * @return the permissions resolved from the ACLs.
+   */
+  public Set<TablePermission> getPermissions() {
+    return Collections.unmodifiableSet(permissions);
+  }
+
   /**
    * Checks that the current user has the given permission.
    *
@@ -208,19 +208,16 @@ public class OdkTablesUserInfoTable extends CommonFieldsBase implements OdkTable
   public static final boolean deleteOdkTablesUser(String uriUser, CallingContext cc)
       throws ODKDatastoreException {
     OdkTablesUserInfoTable userToDelete = OdkTablesUserInfoTable.getCurrentUserInfo(uriUser, cc);
+    TablesPermissionsCache.forgetUser(uriUser);
     cc.getDatastore().deleteEntity(userToDelete.getEntityKey(), cc.getCurrentUser());
     // TODO: delete the ACLs for this user???
     return true;
   }
 
   
-  public static synchronized final OdkTablesUserInfoTable getOdkTablesUserInfo(String uriUser, Set<GrantedAuthority> grants, CallingContext cc)
+  public static synchronized final OdkTablesUserInfo getOdkTablesUserInfo(String uriUser, Set<GrantedAuthority> grants, CallingContext cc)
       throws ODKDatastoreException, ODKTaskLockException, ODKEntityPersistException,
       ODKOverQuotaException, PermissionDeniedException {
-    Datastore ds = cc.getDatastore();
-
-    OdkTablesUserInfoTable prototype = OdkTablesUserInfoTable.assertRelation(cc);
-
     Log log = LogFactory.getLog(FileManifestManager.class);
 
     log.info("TablesUserPermissionsImpl: " + uriUser);
@@ -233,57 +230,71 @@ public class OdkTablesUserInfoTable extends CommonFieldsBase implements OdkTable
         GrantedAuthorityName.ROLE_ADMINISTER_TABLES.name()));
 
     if (hasSynchronize || hasAdminister) {
+      // the user info rarely changes; avoid the lookup (and possible write)
+      OdkTablesUserInfo odkTablesUserInfo = TablesPermissionsCache.getUserInfo(uriUser);
+      if (odkTablesUserInfo == null) {
+        odkTablesUserInfo = findOrCreateOdkTablesUserInfo(uriUser, cc);
+        TablesPermissionsCache.putUserInfo(uriUser, odkTablesUserInfo);
+      }
+      return odkTablesUserInfo;
+    } else {
+      throw new PermissionDeniedException("User does not have access to ODK Tables");
+    }
+  }
 
-      String uriForUser = null;
-      String externalUID = null;
-
-      if (uriUser.equals(User.ANONYMOUS_USER)) {
-        externalUID = User.ANONYMOUS_USER;
-        uriForUser = User.ANONYMOUS_USER;
-      } else {
-
-        RegisteredUsersTable user = RegisteredUsersTable.getUserByUri(uriUser, ds,
-            cc.getCurrentUser());
-        // Determine the external UID that will identify this user
-        externalUID = null;
-        if (user.getEmail() != null) {
-          externalUID = user.getEmail();
-        } else if (user.getUsername() != null) {
-          externalUID = SecurityUtils.USERNAME_COLON + user.getUsername();
-        }
-        uriForUser = uriUser;
+  private static final OdkTablesUserInfoTable findOrCreateOdkTablesUserInfo(String uriUser,
+      CallingContext cc) throws ODKDatastoreException, ODKTaskLockException {
+    Datastore ds = cc.getDatastore();
+
+    OdkTablesUserInfoTable prototype = OdkTablesUserInfoTable.assertRelation(cc);
+
+    String uriForUser = null;
+    String externalUID = null;
+
+    if (uriUser.equals(User.ANONYMOUS_USER)) {
+      externalUID = User.ANONYMOUS_USER;
+      uriForUser = User.ANONYMOUS_USER;
+    } else {
+
+      RegisteredUsersTable user = RegisteredUsersTable.getUserByUri(uriUser, ds,
+          cc.getCurrentUser());
+      // Determine the external UID that will identify this user
+      externalUID = null;
+      if (user.getEmail() != null) {
+        externalUID = user.getEmail();
+      } else if (user.getUsername() != null) {
+        externalUID = SecurityUtils.USERNAME_COLON + user.getUsername();
       }
+      uriForUser = uriUser;
+    }
 
-      OdkTablesUserInfoTable odkTablesUserInfo = null;
-      odkTablesUserInfo = OdkTablesUserInfoTable.getCurrentUserInfo(uriForUser, cc);
-      if (odkTablesUserInfo == null) {
-        //
-        // GAIN LOCK
-        LockTemplate tablesUserPermissions = new LockTemplate(externalUID,
-            ODKTablesTaskLockType.TABLES_USER_PERMISSION_CREATION, cc);
-        try {
-          tablesUserPermissions.acquire();
-          // attempt to re-fetch the record.
-          // If this succeeds, then we had multiple suitors; the other one beat
-          // us.
-          odkTablesUserInfo = OdkTablesUserInfoTable.getCurrentUserInfo(uriForUser, cc);
-          if (odkTablesUserInfo != null) {
-            return odkTablesUserInfo;
-          }
-          // otherwise, create a record
-          odkTablesUserInfo = ds.createEntityUsingRelation(prototype, cc.getCurrentUser());
-          odkTablesUserInfo.setUriUser(uriForUser);
-          odkTablesUserInfo.setOdkTablesUserId(externalUID);
-          odkTablesUserInfo.persist(cc);
+    OdkTablesUserInfoTable odkTablesUserInfo = null;
+    odkTablesUserInfo = OdkTablesUserInfoTable.getCurrentUserInfo(uriForUser, cc);
+    if (odkTablesUserInfo == null) {
+      //
+      // GAIN LOCK
+      LockTemplate tablesUserPermissions = new LockTemplate(externalUID,
+          ODKTablesTaskLockType.TABLES_USER_PERMISSION_CREATION, cc);
+      try {
+        tablesUserPermissions.acquire();
+        // attempt to re-fetch the record.
+        // If this succeeds, then we had multiple suitors; the other one beat
+        // us.
+        odkTablesUserInfo = OdkTablesUserInfoTable.getCurrentUserInfo(uriForUser, cc);
+        if (odkTablesUserInfo != null) {
           return odkTablesUserInfo;
-        } finally {
-          tablesUserPermissions.release();
         }
-      } else {
+        // otherwise, create a record
+        odkTablesUserInfo = ds.createEntityUsingRelation(prototype, cc.getCurrentUser());
+        odkTablesUserInfo.setUriUser(uriForUser);
+        odkTablesUserInfo.setOdkTablesUserId(externalUID);
+        odkTablesUserInfo.persist(cc);
         return odkTablesUserInfo;
+      } finally {
+        tablesUserPermissions.release();
       }
     } else {
-      throw new PermissionDeniedException("User does not have access to ODK Tables");
+      return odkTablesUserInfo;
     }
   }
 
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.security;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.common.utils.WebUtils;
+
+/**
+ * Node-local cache of the ODK Tables user info (keyed by uriUser) and of the
+ * table permissions resolved from the ACLs for a given user (keyed by appId,
+ * tableId and odkTablesUserId).
+ * <p>
+ * Both maps are bounded and evict the least-recently-used entry. Changes made
+ * on this server are invalidated immediately by the TableAclManager, the
+ * TableManager and the user-management code. Changes made on other servers are
+ * picked up because cached values are only trusted for CACHE_INTERVAL.
+ * <p>
+ * The hit and miss counts are written to the log every METRICS_DUMP_INTERVAL
+ * (in the manner of DatastoreAccessMetrics).
+ */
+public final class TablesPermissionsCache {
+
+  private static final Log logger = LogFactory.getLog(TablesPermissionsCache.class);
+
+  /**
+   * Cached values are re-read after this interval.
+   */
+  public static final long CACHE_INTERVAL = 60 * 1000L; // 1 minute
+
+  public static final int MAX_USER_INFO_ENTRIES = 1000;
+
+  public static final int MAX_PERMISSIONS_ENTRIES = 10000;
+
+  // 20-second dump
+  private static final long METRICS_DUMP_INTERVAL = 20 * 1000L;
+
+  private static final class CachedValue<T> {
+    final T value;
+    final long timestamp;
+
+    CachedValue(T value) {
+      this.value = value;
+      this.timestamp = System.currentTimeMillis();
+    }
+
+    boolean isFresh() {
+      return timestamp + CACHE_INTERVAL > System.currentTimeMillis();
+    }
+  }
+
+  private static final class BoundedMap<T> extends LinkedHashMap<String, CachedValue<T>> {
+    private static final long serialVersionUID = 5370584129436925461L;
+
+    private final int maxEntries;
+
+    BoundedMap(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedValue<T>> eldest) {
+      return size() > maxEntries;
+    }
+  }
+
+  /**
+   * NOTE: should only be accessed via the synchronized methods below.
+   */
+  private static final BoundedMap<OdkTablesUserInfo> userInfos = new BoundedMap<OdkTablesUserInfo>(
+      MAX_USER_INFO_ENTRIES);
+  private static final BoundedMap<Set<TablePermission>> permissions = new BoundedMap<Set<TablePermission>>(
+      MAX_PERMISSIONS_ENTRIES);
+
+  private static long userInfoHits = 0L;
+  private static long userInfoMisses = 0L;
+  private static long permissionsHits = 0L;
+  private static long permissionsMisses = 0L;
+  private static long lastLogging = System.currentTimeMillis();
+
+  private TablesPermissionsCache() {
+  }
+
+  private static String getPermissionsKey(String appId, String tableId, String odkTablesUserId) {
+    return appId + "/" + tableId + "/" + odkTablesUserId;
+  }
+
+  private static <T> T getFresh(BoundedMap<T> map, String key) {
+    CachedValue<T> cached = map.get(key);
+    if (cached == null) {
+      return null;
+    }
+    if (!cached.isFresh()) {
+      map.remove(key);
+      return null;
+    }
+    return cached.value;
+  }
+
+  /**
+   * NOTE: This method is NOT thread-safe. Call only from within a synchronized
+   * method!
+   */
+  private static void logUsageIfDue() {
+    if (lastLogging + METRICS_DUMP_INTERVAL < System.currentTimeMillis()) {
+      logUsage();
+    }
+  }
+
+  /**
+   * Log the hit and miss counts since the last time they were logged.
+   */
+  public static synchronized void logUsage() {
+    long now = System.currentTimeMillis();
+    lastLogging = now;
+    String gmtDate = WebUtils.iso8601Date(new java.util.Date(now));
+    logger.info("---------- " + gmtDate + " TablesPermissionsCache ------------");
+    logger.info("userInfo," + userInfoHits + "," + userInfoMisses + "," + userInfos.size());
+    logger.info("permissions," + permissionsHits + "," + permissionsMisses + ","
+        + permissions.size());
+    logger.info("-----------------------------------------");
+    userInfoHits = 0L;
+    userInfoMisses = 0L;
+    permissionsHits = 0L;
+    permissionsMisses = 0L;
+  }
+
+  /**
+   * @param uriUser
+   * @return the cached user info or null if it is not cached.
+   */
+  public static synchronized OdkTablesUserInfo getUserInfo(String uriUser) {
+    OdkTablesUserInfo userInfo = getFresh(userInfos, uriUser);
+    if (userInfo == null) {
+      ++userInfoMisses;
+    } else {
+      ++userInfoHits;
+    }
+    logUsageIfDue();
+    return userInfo;
+  }
+
+  public static synchronized void putUserInfo(String uriUser, OdkTablesUserInfo userInfo) {
+    userInfos.put(uriUser, new CachedValue<OdkTablesUserInfo>(userInfo));
+  }
+
+  /**
+   * Called when the ODK Tables user info of this user is deleted.
+   *
+   * @param uriUser
+   */
+  public static synchronized void forgetUser(String uriUser) {
+    userInfos.remove(uriUser);
+  }
+
+  /**
+   * Called when the registered users or their granted authorities change.
+   */
+  public static synchronized void forgetAllUsers() {
+    userInfos.clear();
+  }
+
+  /**
+   * @param appId
+   * @param tableId
+   * @param odkTablesUserId
+   * @return the permissions of the user on the table, or null if they are not
+   *         cached.
+   */
+  public static synchronized Set<TablePermission> getPermissions(String appId, String tableId,
+      String odkTablesUserId) {
+    Set<TablePermission> tablePermissions = getFresh(permissions,
+        getPermissionsKey(appId, tableId, odkTablesUserId));
+    if (tablePermissions == null) {
+      ++permissionsMisses;
+    } else {
+      ++permissionsHits;
+    }
+    logUsageIfDue();
+    return tablePermissions;
+  }
+
+  public static synchronized void putPermissions(String appId, String tableId,
+      String odkTablesUserId, Set<TablePermission> tablePermissions) {
+    Set<TablePermission> copy = EnumSet.noneOf(TablePermission.class);
+    copy.addAll(tablePermissions);
+    permissions.put(getPermissionsKey(appId, tableId, odkTablesUserId),
+        new CachedValue<Set<TablePermission>>(Collections.unmodifiableSet(copy)));
+  }
+
+  /**
+   * Called when the ACLs of a table change or the table is created or
+   * deleted.
+   *
+   * @param tableId
+   */
+  public static synchronized void forgetTable(String tableId) {
+    Iterator<String> keys = permissions.keySet().iterator();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      int first = key.indexOf('/');
+      int second = key.indexOf('/', first + 1);
+      if (key.substring(first + 1, second).equals(tableId)) {
+        keys.remove();
+      }
+    }
+  }
+}
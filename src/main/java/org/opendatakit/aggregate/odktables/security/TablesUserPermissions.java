@@ -1,5 +1,7 @@
 package org.opendatakit.aggregate.odktables.security;
 
+import java.util.List;
+
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
@@ -51,6 +53,19 @@ public interface TablesUserPermissions {
   public abstract boolean hasPermission(String appId, String tableId, TablePermission permission)
       throws ODKDatastoreException;
 
+  /**
+   * Resolve the permissions of the current user on all of the given tables
+   * with a fixed number of datastore accesses, so that the subsequent
+   * {@link #hasPermission} and {@link #checkPermission} calls on these tables
+   * do not access the datastore. Used when listing tables.
+   *
+   * @param appId
+   * @param tableIds
+   * @throws ODKDatastoreException
+   */
+  public abstract void resolvePermissions(String appId, List<String> tableIds)
+      throws ODKDatastoreException;
+
   /**
    * Check if the current user has the given filter scope on this table.
    *
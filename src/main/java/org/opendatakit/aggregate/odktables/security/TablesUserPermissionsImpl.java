@@ -17,13 +17,17 @@
 package org.opendatakit.aggregate.odktables.security;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.relation.DbTableAcl;
+import org.opendatakit.aggregate.odktables.relation.DbTableAcl.DbTableAclEntity;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope.Type;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
@@ -98,12 +102,64 @@ public class TablesUserPermissionsImpl implements TablesUserPermissions {
     }
     AuthFilter auth = authFilters.get(tableId);
     if (auth == null) {
-      auth = new AuthFilter(appId, tableId, this, getScopes(), cc);
+      // the permissions resolved on an earlier request can be reused
+      Set<TablePermission> permissions = TablesPermissionsCache.getPermissions(appId, tableId,
+          userInfo.getOdkTablesUserId());
+      if (permissions != null) {
+        auth = new AuthFilter(this, permissions, cc);
+      } else {
+        auth = new AuthFilter(appId, tableId, this, getScopes(), cc);
+        TablesPermissionsCache.putPermissions(appId, tableId, userInfo.getOdkTablesUserId(),
+            auth.getPermissions());
+      }
       authFilters.put(tableId, auth);
     }
     return auth;
   }
 
+  @Override
+  public void resolvePermissions(String appId, List<String> tableIds)
+      throws ODKDatastoreException {
+    if (userInfo == null) {
+      return;
+    }
+    Map<String, Set<TablePermission>> unresolved = new HashMap<String, Set<TablePermission>>();
+    for (String tableId : tableIds) {
+      if (authFilters.containsKey(tableId)) {
+        continue;
+      }
+      Set<TablePermission> permissions = TablesPermissionsCache.getPermissions(appId, tableId,
+          userInfo.getOdkTablesUserId());
+      if (permissions != null) {
+        authFilters.put(tableId, new AuthFilter(this, permissions, cc));
+      } else {
+        unresolved.put(tableId, new HashSet<TablePermission>());
+      }
+    }
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    // one query per scope, across all tables, rather than one per scope per
+    // table.
+    for (Scope scope : getScopes()) {
+      List<DbTableAclEntity> acls = DbTableAcl.queryScopeTypeValueAcls(scope.getType().name(),
+          scope.getValue(), cc);
+      for (DbTableAclEntity acl : acls) {
+        Set<TablePermission> permissions = unresolved.get(acl.getTableId());
+        if (permissions != null) {
+          permissions.addAll(TableRole.valueOf(acl.getRole()).getPermissions());
+        }
+      }
+    }
+
+    for (Map.Entry<String, Set<TablePermission>> entry : unresolved.entrySet()) {
+      authFilters.put(entry.getKey(), new AuthFilter(this, entry.getValue(), cc));
+      TablesPermissionsCache.putPermissions(appId, entry.getKey(), userInfo.getOdkTablesUserId(),
+          entry.getValue());
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -22,6 +22,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -65,6 +66,8 @@ import org.opendatakit.aggregate.odktables.security.TablesUserPermissionsImpl;
 import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.ermodel.BlobEntitySet;
 import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.client.UIQueryResumePoint;
 import org.opendatakit.common.persistence.client.exception.DatastoreFailureException;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
@@ -88,51 +91,6 @@ public class ServerDataServiceImpl extends RemoteServiceServlet implements Serve
 	 */
   private static final long serialVersionUID = -5051558217315955180L;
 
-  @Override
-  public ArrayList<RowClient> getRows(String tableId) throws AccessDeniedException,
-      RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
-      EntityNotFoundExceptionClient, BadColumnNameExceptionClient {
-    HttpServletRequest req = this.getThreadLocalRequest();
-    CallingContext cc = ContextFactory.getCallingContext(this, req);
-    try { // Must use try so that you can catch the ODK specific errors.
-      TablesUserPermissions userPermissions = new TablesUserPermissionsImpl(cc);
-      String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
-      DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      WebsafeRows websafeResult = dm.getRows(null, 2000);
-      List<Row> rows = websafeResult.rows;
-      return transformRows(rows);
-    } catch (ODKEntityNotFoundException e) {
-      e.printStackTrace();
-      throw new EntityNotFoundExceptionClient(e);
-    } catch (ODKDatastoreException e) {
-      e.printStackTrace();
-      throw new DatastoreFailureException(e);
-    } catch (BadColumnNameException e) {
-      e.printStackTrace();
-      throw new BadColumnNameExceptionClient(e);
-    } catch (InconsistentStateException e) {
-      e.printStackTrace();
-      throw new RequestFailureException(e);
-    } catch (ODKTaskLockException e) {
-      e.printStackTrace();
-      throw new RequestFailureException(e);
-    } catch (PermissionDeniedException e) {
-      e.printStackTrace();
-      throw new PermissionDeniedExceptionClient(e);
-    }
-  }
-
   @Override
   public TableContentsClient getRow(String tableId, String rowId) throws AccessDeniedException,
       RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
@@ -255,6 +213,9 @@ public class ServerDataServiceImpl extends RemoteServiceServlet implements Serve
       String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
       TableManager tm = new TableManager(appId, userPermissions, cc);
       TableEntry entry = tm.getTable(tableId);
+      if (entry == null) { // you couldn't find the table
+        throw new ODKEntityNotFoundException();
+      }
       ArrayList<String> elementKeys = DbColumnDefinitions.queryForDbColumnNames(tableId,
           entry.getSchemaETag(), cc);
       return elementKeys;
@@ -308,10 +269,23 @@ public class ServerDataServiceImpl extends RemoteServiceServlet implements Serve
    * e.printStackTrace(); throw new DatastoreFailureException(e); } }
    */
 
-  private ArrayList<RowClient> transformRows(List<Row> rows) {
+  /**
+   * Transform the rows, keeping only the values of the given columns.
+   *
+   * @param rows
+   * @param columnNames
+   * @return
+   */
+  private ArrayList<RowClient> transformRows(List<Row> rows, List<String> columnNames) {
     ArrayList<RowClient> clientRows = new ArrayList<RowClient>();
     for (Row row : rows) {
-      clientRows.add(UtilTransforms.transform(row));
+      RowClient clientRow = UtilTransforms.transform(row);
+      HashMap<String, String> values = new HashMap<String, String>();
+      for (String columnName : columnNames) {
+        values.put(columnName, clientRow.getValues().get(columnName));
+      }
+      clientRow.setValues(values);
+      clientRows.add(clientRow);
     }
     return clientRows;
   }
@@ -332,13 +306,90 @@ public class ServerDataServiceImpl extends RemoteServiceServlet implements Serve
   }
 
   @Override
-  public TableContentsClient getTableContents(String tableId) throws AccessDeniedException,
-      RequestFailureException, DatastoreFailureException, PermissionDeniedExceptionClient,
-      EntityNotFoundExceptionClient, BadColumnNameExceptionClient {
-    TableContentsClient tcc = new TableContentsClient();
-    tcc.rows = getRows(tableId);
-    tcc.columnNames = getColumnNames(tableId);
-    return tcc;
+  public TableContentsClient getTableContents(String tableId, ArrayList<String> columnNames,
+      String sortColumn, boolean sortDescending, UIQueryResumePoint cursor, int fetchLimit)
+      throws AccessDeniedException, RequestFailureException, DatastoreFailureException,
+      PermissionDeniedExceptionClient, EntityNotFoundExceptionClient,
+      BadColumnNameExceptionClient {
+    ArrayList<String> allColumnNames = getColumnNames(tableId);
+    ArrayList<String> shownColumnNames = allColumnNames;
+    if (columnNames != null && !columnNames.isEmpty()) {
+      shownColumnNames = new ArrayList<String>();
+      for (String columnName : columnNames) {
+        if (allColumnNames.contains(columnName) && !shownColumnNames.contains(columnName)) {
+          shownColumnNames.add(columnName);
+        }
+      }
+    }
+    if (fetchLimit <= 0) {
+      fetchLimit = TableContentsClient.DEFAULT_FETCH_LIMIT;
+    }
+    fetchLimit = Math.min(fetchLimit, TableContentsClient.MAX_FETCH_LIMIT);
+
+    HttpServletRequest req = this.getThreadLocalRequest();
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+    try { // Must use try so that you can catch the ODK specific errors.
+      TablesUserPermissions userPermissions = new TablesUserPermissionsImpl(cc);
+      String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
+      DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
+
+      QueryResumePoint startCursor = (cursor == null) ? null : QueryResumePoint.transform(cursor);
+      boolean isForwardCursor = (startCursor == null) || startCursor.isForwardCursor();
+      WebsafeRows websafeResult = dm.queryRows(null, sortColumn, sortDescending, startCursor,
+          fetchLimit);
+
+      ArrayList<RowClient> rows = transformRows(websafeResult.rows, shownColumnNames);
+      TableContentsClient tcc = new TableContentsClient();
+      tcc.columnNames = shownColumnNames;
+      tcc.allColumnNames = allColumnNames;
+      tcc.sortColumn = sortColumn;
+      tcc.sortDescending = sortDescending;
+      UIQueryResumePoint resumeCursor = toUICursor(websafeResult.websafeResumeCursor);
+      UIQueryResumePoint backwardCursor = toUICursor(websafeResult.websafeBackwardCursor);
+      if (isForwardCursor) {
+        tcc.rows = rows;
+        tcc.hasMoreResults = websafeResult.hasMore;
+        tcc.hasPriorResults = websafeResult.hasPrior;
+        tcc.resumeCursor = resumeCursor;
+        tcc.backwardCursor = backwardCursor;
+      } else {
+        // query has the results in the reverse order.
+        // invert them to get them properly ordered.
+        Collections.reverse(rows);
+        tcc.rows = rows;
+        tcc.hasMoreResults = websafeResult.hasPrior;
+        tcc.hasPriorResults = websafeResult.hasMore;
+        tcc.resumeCursor = backwardCursor;
+        tcc.backwardCursor = resumeCursor;
+      }
+      return tcc;
+    } catch (ODKEntityNotFoundException e) {
+      e.printStackTrace();
+      throw new EntityNotFoundExceptionClient(e);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      throw new DatastoreFailureException(e);
+    } catch (BadColumnNameException e) {
+      e.printStackTrace();
+      throw new BadColumnNameExceptionClient(e);
+    } catch (InconsistentStateException e) {
+      e.printStackTrace();
+      throw new RequestFailureException(e);
+    } catch (ODKTaskLockException e) {
+      e.printStackTrace();
+      throw new RequestFailureException(e);
+    } catch (PermissionDeniedException e) {
+      e.printStackTrace();
+      throw new PermissionDeniedExceptionClient(e);
+    }
+  }
+
+  private static UIQueryResumePoint toUICursor(String websafeCursor) {
+    if (websafeCursor == null) {
+      return null;
+    }
+    QueryResumePoint qrp = QueryResumePoint.fromWebsafeCursor(websafeCursor);
+    return (qrp == null) ? null : qrp.transform();
   }
 
   /**
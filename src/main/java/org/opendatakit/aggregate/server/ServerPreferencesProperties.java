@@ -76,6 +76,12 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
   // The main impact on this is validity checking on sync when the appId is
   // checked.
   private static final String ODK_TABLES_APP_ID = "ODK_TABLES_APP_ID";
+  // number of days of superseded DbLogTable history to retain.
+  // null or zero disables the compaction of the log tables.
+  private static final String ODK_TABLES_LOG_RETENTION_DAYS = "ODK_TABLES_LOG_RETENTION_DAYS";
+  // when true, row updates are prepared outside of the table lock and are
+  // only validated and written while holding it.
+  private static final String ODK_TABLES_ROW_LEVEL_CONCURRENCY_ENABLED = "ODK_TABLES_ROW_LEVEL_CONCURRENCY_ENABLED";
 
   /**
    * Construct a relation prototype.
@@ -206,6 +212,25 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
     setServerPreferencesProperty(cc, ODK_TABLES_APP_ID, appId);
   }
 
+  public static Integer getOdkTablesLogRetentionDays(CallingContext cc)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    String value = getServerPreferencesProperty(cc, ODK_TABLES_LOG_RETENTION_DAYS);
+    if (value != null && value.length() != 0) {
+      try {
+        return Integer.valueOf(value);
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+    }
+    // null or unparseable value should be treated as 0 (compaction disabled)
+    return 0;
+  }
+
+  public static void setOdkTablesLogRetentionDays(CallingContext cc, Integer retentionDays)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    setServerPreferencesProperty(cc, ODK_TABLES_LOG_RETENTION_DAYS, retentionDays.toString());
+  }
+
   public static String unsafeIncOdkTablesSequencerBase(CallingContext cc)
       throws ODKEntityNotFoundException, ODKOverQuotaException {
     String value = getServerPreferencesProperty(cc, ODK_TABLES_SEQUENCER_BASE);
@@ -276,6 +301,21 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
     setServerPreferencesProperty(cc, SKIP_MALFORMED_SUBMISSIONS, skipMalformedSubmissions.toString());
   }
 
+  public static Boolean getOdkTablesRowLevelConcurrencyEnabled(CallingContext cc)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    String value = getServerPreferencesProperty(cc, ODK_TABLES_ROW_LEVEL_CONCURRENCY_ENABLED);
+    if (value != null) {
+      return Boolean.valueOf(value);
+    }
+    // null value should be treated as false
+    return false;
+  }
+
+  public static void setOdkTablesRowLevelConcurrencyEnabled(CallingContext cc, Boolean enabled)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    setServerPreferencesProperty(cc, ODK_TABLES_ROW_LEVEL_CONCURRENCY_ENABLED, enabled.toString());
+  }
+
   public void persist(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
@@ -19,6 +19,7 @@ package org.opendatakit.aggregate.server;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -36,7 +37,10 @@ import org.opendatakit.aggregate.odktables.TableManager.WebsafeTables;
 import org.opendatakit.aggregate.odktables.entity.UtilTransforms;
 import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.relation.DbTableDeletions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDeletions.DbTableDeletionEntity;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissionsImpl;
 import org.opendatakit.common.persistence.CommonFieldsBase;
@@ -44,6 +48,7 @@ import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.client.exception.DatastoreFailureException;
 import org.opendatakit.common.persistence.engine.gae.DatastoreImpl;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.security.client.exception.AccessDeniedException;
@@ -79,6 +84,24 @@ public class ServerTableServiceImpl extends RemoteServiceServlet implements Serv
       for (TableEntry entry : result.tables) {
         clientEntries.add(UtilTransforms.transform(entry));
       }
+      // tables being deleted are not returned by getTables(); list them
+      // separately so that the progress of their deletion can be shown.
+      List<DbTableDeletionEntity> deletions = DbTableDeletions.query(cc);
+      List<String> deletedTableIds = new ArrayList<String>();
+      for (DbTableDeletionEntity deletion : deletions) {
+        deletedTableIds.add(deletion.getId());
+      }
+      userPermissions.resolvePermissions(appId, deletedTableIds);
+      for (DbTableDeletionEntity deletion : deletions) {
+        if (!userPermissions.hasPermission(appId, deletion.getId(),
+            TablePermission.READ_TABLE_ENTRY)) {
+          continue;
+        }
+        TableEntryClient clientEntry = new TableEntryClient(deletion.getId(), null, null);
+        clientEntry.setDeletionProgress("Deleting: " + deletion.getRowsDeleted()
+            + " rows and " + deletion.getFilesDeleted() + " attachment sets removed");
+        clientEntries.add(clientEntry);
+      }
       Collections.sort(clientEntries, new Comparator<TableEntryClient>() {
         @Override
         public int compare(TableEntryClient o1, TableEntryClient o2) {
@@ -112,6 +135,9 @@ public class ServerTableServiceImpl extends RemoteServiceServlet implements Serv
       }
       TableEntryClient resource = UtilTransforms.transform(entry);
       return resource;
+    } catch (ODKEntityNotFoundException e) {
+      // no such table, or it is being deleted
+      return null;
     } catch (ODKDatastoreException e) {
       e.printStackTrace();
       throw new DatastoreFailureException(e);
@@ -41,6 +41,7 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
 import org.opendatakit.aggregate.util.ImageUtil;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.utils.WebUtils;
@@ -100,6 +101,8 @@ public class BinaryDataServlet extends ServletUtilBase {
 
     Date lastUpdateDate = null;
     byte[] imageBlob = null;
+    BlobInputStream blobStream = null;
+    String contentHash = null;
     String unrootedFileName = null;
     String contentType = null;
     Long contentLength = null;
@@ -187,11 +190,19 @@ public class BinaryDataServlet extends ServletUtilBase {
             // OK. This is the attachment we want...
             ordinal = ord.intValue();
           }
-          imageBlob = b.getBlob(ordinal, cc);
           lastUpdateDate = b.getLastUpdateDate(ordinal, cc);
           unrootedFileName = b.getUnrootedFilename(ordinal, cc);
           contentType = b.getContentType(ordinal, cc);
           contentLength = b.getContentLength(ordinal, cc);
+          contentHash = b.getContentHash(ordinal, cc);
+          if (previewSize) {
+            // the preview is resized in memory
+            imageBlob = b.getBlob(ordinal, cc);
+          } else if (contentHash != null && contentLength != null && contentLength > 0L) {
+            // a null contentHash means the attachment is not fully stored.
+            // Otherwise, stream it from the datastore one part at a time.
+            blobStream = b.getBlobStream(ordinal, cc);
+          }
         } catch (ODKOverQuotaException e) {
           e.printStackTrace();
           quotaExceededError(resp);
@@ -205,7 +216,15 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
     }
 
-    if (imageBlob != null && imageBlob.length > 0) {
+    if (blobStream != null) {
+      try {
+        writeBlobStream(req, resp, blobStream, contentType, contentHash, contentLength,
+            lastUpdateDate, (downloadAsAttachmentString != null
+                && !"".equals(downloadAsAttachmentString)) ? unrootedFileName : null);
+      } finally {
+        blobStream.close();
+      }
+    } else if (imageBlob != null && imageBlob.length > 0) {
       if (contentType == null) {
         contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
       }
@@ -253,6 +272,76 @@ public class BinaryDataServlet extends ServletUtilBase {
     }
   }
 
+  /**
+   * Write the attachment to the response, honoring If-None-Match and
+   * single-range Range / If-Range requests against the content hash.
+   *
+   * @param req
+   * @param resp
+   * @param blobStream
+   * @param contentType
+   * @param contentHash
+   * @param contentLength
+   * @param lastUpdateDate
+   * @param attachmentFileName
+   *          the filename for the Content-Disposition header, or null.
+   * @throws IOException
+   */
+  private void writeBlobStream(HttpServletRequest req, HttpServletResponse resp,
+      BlobInputStream blobStream, String contentType, String contentHash, long contentLength,
+      Date lastUpdateDate, String attachmentFileName) throws IOException {
+    if (contentType == null) {
+      contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
+    }
+
+    resp.setHeader(HtmlConsts.ETAG, contentHash);
+    resp.setHeader(HtmlConsts.ACCEPT_RANGES, WebUtils.BYTES_RANGE_UNIT);
+    resp.setHeader("Last-Modified:", WebUtils.rfc1123Date(lastUpdateDate));
+
+    // test if we should return a NOT_MODIFIED response...
+    String ifNoneMatch = req.getHeader(HtmlConsts.IF_NONE_MATCH);
+    if (ifNoneMatch != null && ifNoneMatch.equals(contentHash)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    long first = 0L;
+    long count = contentLength;
+    // a Range is only honored if the If-Range (if any) matches the attachment
+    String range = req.getHeader(HtmlConsts.RANGE);
+    String ifRange = req.getHeader(HtmlConsts.IF_RANGE);
+    if (range != null && (ifRange == null || ifRange.equals(contentHash))) {
+      long[] span = WebUtils.parseByteRange(range, contentLength);
+      if (span == null) {
+        resp.setHeader(HtmlConsts.CONTENT_RANGE, WebUtils.BYTES_RANGE_UNIT + " */" + contentLength);
+        resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      if (span.length == 2) {
+        first = span[0];
+        count = span[1] - first + 1L;
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        resp.setHeader(HtmlConsts.CONTENT_RANGE, WebUtils.BYTES_RANGE_UNIT + " " + first + "-"
+            + span[1] + "/" + contentLength);
+      }
+      // otherwise, the Range was malformed -- ignore it.
+    }
+
+    resp.setContentType(contentType);
+    // setContentLength(int) would overflow for attachments of 2GB or more.
+    resp.setHeader(HtmlConsts.CONTENT_LENGTH, Long.toString(count));
+    if (attachmentFileName != null) {
+      // set filename if we are downloading to disk...
+      // need this for manifest fetch logic...
+      resp.addHeader(HtmlConsts.CONTENT_DISPOSITION, "attachment; filename=\""
+          + attachmentFileName + "\"");
+    }
+
+    OutputStream os = resp.getOutputStream();
+    blobStream.writeTo(os, first, count);
+    os.close();
+  }
+
   private final String getKeyPath(List<SubmissionKeyPart> parts) {
     StringBuilder b = new StringBuilder();
     for (SubmissionKeyPart p : parts) {
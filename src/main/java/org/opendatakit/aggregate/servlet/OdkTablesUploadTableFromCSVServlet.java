@@ -17,7 +17,6 @@
 package org.opendatakit.aggregate.servlet;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -25,24 +24,26 @@ import java.io.PrintWriter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 import org.apache.commons.lang3.CharEncoding;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.ContextFactory;
 import org.opendatakit.aggregate.client.exception.BadColumnNameExceptionClient;
-import org.opendatakit.aggregate.client.exception.ETagMismatchExceptionClient;
-import org.opendatakit.aggregate.client.exception.EntityNotFoundExceptionClient;
 import org.opendatakit.aggregate.client.exception.ImportFromCSVExceptionClient;
 import org.opendatakit.aggregate.client.exception.PermissionDeniedExceptionClient;
 import org.opendatakit.aggregate.constants.ErrorConsts;
 import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.constants.common.UIConsts;
+import org.opendatakit.aggregate.odktables.DataManager.ImportProgressListener;
 import org.opendatakit.aggregate.odktables.impl.api.ServiceUtils;
 import org.opendatakit.aggregate.odktables.importexport.CsvUtil;
-import org.opendatakit.aggregate.parser.MultiPartFormData;
-import org.opendatakit.aggregate.parser.MultiPartFormItem;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
 
@@ -139,9 +140,16 @@ public class OdkTablesUploadTableFromCSVServlet extends ServletUtilBase {
   /**
    * Handler for HTTP Post request that takes a CSV file, uses that file to add
    * a new OdkTables table to the datastore.
+   * <p>
+   * The CSV file is streamed from the request into the datastore; the
+   * table_name field must precede the table_file field in the form. The number
+   * of rows imported so far is written to the response as each batch of rows
+   * is stored. The response is not begun until the first batch is stored, so
+   * a file that is rejected within its first batch (e.g., for a repeated _id)
+   * gets a 400 response.
    */
   @Override
-  protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+  protected void doPost(HttpServletRequest req, final HttpServletResponse resp) throws IOException {
     ServiceUtils.examineRequest(getServletContext(), req);
     // TODO here do I need to handle the log stuff?
     CallingContext cc = ContextFactory.getCallingContext(this, req);
@@ -151,58 +159,123 @@ public class OdkTablesUploadTableFromCSVServlet extends ServletUtilBase {
     }
 
     try {
-      MultiPartFormData uploadedFormItems = new MultiPartFormData(req);
+      ServletFileUpload upload = new ServletFileUpload();
+      FileItemIterator items = upload.getItemIterator(req);
 
-      MultiPartFormItem csvFile = uploadedFormItems.getFormDataByFieldName("table_file");
+      String tableName = null;
+      boolean imported = false;
+      while (items.hasNext()) {
+        FileItemStream item = items.next();
+        if (item.isFormField()) {
+          if ("table_name".equals(item.getFieldName())) {
+            tableName = Streams.asString(item.openStream(), CharEncoding.UTF_8);
+          }
+        } else if ("table_file".equals(item.getFieldName())) {
+          if (tableName == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "The table_name must precede the table_file in the form");
+            return;
+          }
 
-      String tableName = uploadedFormItems.getSimpleFormField("table_name");
-
-      addOpenDataKitHeaders(resp);
-      resp.setStatus(HttpServletResponse.SC_CREATED);
-      resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
-      resp.setCharacterEncoding(HtmlConsts.UTF8_ENCODE);
-
-      CsvUtil csvUtil = new CsvUtil();
-      byte[] bytes = csvFile.getStream().toByteArray();
-      ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
-      BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, CharEncoding.UTF_8));
-      boolean success = csvUtil.importNewTable(br, tableName, cc);
-      PrintWriter out = resp.getWriter();
-      if (success) {
-        out.write("The table was created successfully.");
-      } else {
-        // something went wrong while uploading.
-        out.write("There was a problem uploading the table.");
+          CsvUtil csvUtil = new CsvUtil();
+          BufferedReader br = new BufferedReader(new InputStreamReader(item.openStream(),
+              CharEncoding.UTF_8));
+          ImportProgressWriter progress = new ImportProgressWriter(resp);
+          int rowCount = csvUtil.importNewTable(br, tableName, progress, cc);
+          progress.getWriter().write(
+              "The table was created successfully. " + rowCount + " rows were imported.");
+          imported = true;
+        }
+      }
+      if (!imported) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No table_file was supplied");
       }
     } catch (FileUploadException e) {
       logger.error("error uploading csv: " + e.getMessage());
       e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-          ErrorConsts.PERSISTENCE_LAYER_PROBLEM + "\n" + e.getMessage());
+      sendImportError(resp, ErrorConsts.PERSISTENCE_LAYER_PROBLEM + "\n" + e.getMessage());
     } catch (BadColumnNameExceptionClient e) {
       logger.error("bad column name: " + e.getMessage());
       e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-          ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
+      sendImportError(resp, ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
     } catch (ImportFromCSVExceptionClient e) {
       logger.error("problem importing from CSV: " + e.getMessage());
       e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorConsts.PARSING_PROBLEM);
-    } catch (ETagMismatchExceptionClient e) {
-      logger.error("etag mismatch while importing: " + e.getMessage());
-      e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-          ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
+      if (isServerFailure(e)) {
+        sendImportError(resp, ErrorConsts.PARSING_PROBLEM + "\n" + e.getMessage());
+      } else {
+        sendImportError(resp, HttpServletResponse.SC_BAD_REQUEST, ErrorConsts.PARSING_PROBLEM
+            + "\n" + e.getMessage());
+      }
     } catch (PermissionDeniedExceptionClient e) {
       logger.error("permission denied while uploading: " + e.getMessage());
       e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-          ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
-    } catch (EntityNotFoundExceptionClient e) {
-      logger.error("entity not found while uploading: " + e.getMessage());
-      e.printStackTrace();
-      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-          ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
+      sendImportError(resp, ErrorConsts.PERSISTENCE_LAYER_PROBLEM);
+    }
+  }
+
+  /**
+   * Once progress has been written, the status can no longer be changed, so
+   * the error is appended to the response body instead.
+   */
+  private void sendImportError(HttpServletResponse resp, String message) throws IOException {
+    sendImportError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+  }
+
+  private void sendImportError(HttpServletResponse resp, int status, String message)
+      throws IOException {
+    if (resp.isCommitted()) {
+      PrintWriter out = resp.getWriter();
+      out.write("There was a problem uploading the table.\n");
+      out.write(message);
+    } else {
+      resp.sendError(status, message);
+    }
+  }
+
+  /**
+   * @param e
+   * @return true if the import failed because of the server rather than
+   *         because of the content of the CSV file.
+   */
+  private static boolean isServerFailure(ImportFromCSVExceptionClient e) {
+    Throwable cause = e.getCause();
+    return (cause instanceof ODKDatastoreException) || (cause instanceof ODKTaskLockException);
+  }
+
+  /**
+   * Writes the import progress to the response, beginning the (201) response
+   * when the first batch of rows has been stored.
+   */
+  private class ImportProgressWriter implements ImportProgressListener {
+
+    private final HttpServletResponse resp;
+    private PrintWriter out = null;
+
+    ImportProgressWriter(HttpServletResponse resp) {
+      this.resp = resp;
+    }
+
+    PrintWriter getWriter() throws IOException {
+      if (out == null) {
+        addOpenDataKitHeaders(resp);
+        resp.setStatus(HttpServletResponse.SC_CREATED);
+        resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
+        resp.setCharacterEncoding(HtmlConsts.UTF8_ENCODE);
+        out = resp.getWriter();
+      }
+      return out;
+    }
+
+    @Override
+    public void rowsImported(int totalRowCount) {
+      try {
+        PrintWriter writer = getWriter();
+        writer.write("Imported " + totalRowCount + " rows\n");
+        writer.flush();
+      } catch (IOException e) {
+        logger.warn("Unable to report import progress: " + e.getMessage());
+      }
     }
   }
 
@@ -82,6 +82,11 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.getBlob(ordinal, cc);
   }
 
+  public BinaryContentManipulator.BlobInputStream getBlobStream(int ordinal, CallingContext cc)
+      throws ODKDatastoreException {
+    return bcm.getBlobStream(ordinal, cc);
+  }
+
   /**
    * Constructor
    * 
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.AlterRowsJobManager;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Common worker implementation for applying an asynchronous alterRows job.
+ */
+public class TableAlterRowsWorkerImpl {
+
+  private final String jobId;
+  private final CallingContext cc;
+  private final Log logger = LogFactory.getLog(TableAlterRowsWorkerImpl.class);
+
+  public TableAlterRowsWorkerImpl(String jobId, CallingContext cc) {
+    this.jobId = jobId;
+    this.cc = cc;
+  }
+
+  public final void applyJob() throws ODKDatastoreException, ODKTaskLockException, IOException {
+    logger.info("Beginning alterRows job " + jobId);
+    AlterRowsJobManager.runJob(jobId, cc);
+  }
+
+  /**
+   * Fail the job if it cannot be retried.
+   *
+   * @param e
+   *          the reason the job could not be applied.
+   */
+  public final void abandonJob(Exception e) {
+    try {
+      AlterRowsJobManager.abandonJob(jobId, e, cc);
+    } catch (ODKDatastoreException ex) {
+      ex.printStackTrace();
+      logger.error("unable to record the failure of alterRows job " + jobId + ": " + ex.toString());
+    }
+  }
+}
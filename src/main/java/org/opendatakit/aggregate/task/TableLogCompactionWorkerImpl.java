@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.LockTemplate;
+import org.opendatakit.aggregate.odktables.ODKTablesTaskLockType;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbLogTable;
+import org.opendatakit.aggregate.odktables.relation.DbTable;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry.DbTableChangeSetIndexEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets.DbTableChangeSetsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint.DbTableLogCheckpointEntity;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
+import org.opendatakit.common.ermodel.Entity;
+import org.opendatakit.common.ermodel.Query;
+import org.opendatakit.common.ermodel.Query.WebsafeQueryResult;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.utils.WebUtils;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Common worker implementation for the compaction of the DbLogTable of an
+ * ODK Tables table.
+ * <p>
+ * Log entries whose sequence value is older than the retention window and
+ * which are not the most recent entry for their rowId (i.e., the DbTable row
+ * no longer refers to them) are deleted. The most recent entry for each row is
+ * always retained, so getRowsSince() continues to report every row changed
+ * since any dataETag still present in the log, and pending-change reverts are
+ * unaffected. A change set (see DbTableChangeSets) whose log entries have all
+ * been deleted is removed from the change set index.
+ * <p>
+ * The work is done in batches, re-acquiring the table lock for each batch so
+ * that synchronization requests are not blocked for the duration of the
+ * compaction.
+ */
+public class TableLogCompactionWorkerImpl {
+
+  public static final int LOG_COMPACTION_BATCH_SIZE = 500;
+
+  private static final long MILLISECONDS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+  private final String tableId;
+  private final CallingContext cc;
+  private final Log logger = LogFactory.getLog(TableLogCompactionWorkerImpl.class);
+
+  public TableLogCompactionWorkerImpl(String tableId, CallingContext cc) {
+    this.tableId = tableId;
+    this.cc = cc;
+  }
+
+  public final void compactLog() throws ODKDatastoreException, ODKTaskLockException {
+
+    Integer retentionDays = ServerPreferencesProperties.getOdkTablesLogRetentionDays(cc);
+    if (retentionDays == null || retentionDays <= 0) {
+      logger.info("Log compaction is disabled -- skipping " + tableId);
+      return;
+    }
+
+    // sequence values begin with an iso8601 timestamp, so the cutoff
+    // timestamp string compares correctly against them.
+    String cutoffSequenceValue = WebUtils.iso8601Date(new Date(System.currentTimeMillis()
+        - retentionDays * MILLISECONDS_PER_DAY));
+
+    logger.info("Beginning log compaction of " + tableId + " before " + cutoffSequenceValue);
+
+    int deletedCount = 0;
+    int prunedCount = 0;
+    QueryResumePoint startCursor = null;
+    for (;;) {
+      WebsafeQueryResult result;
+      LockTemplate propsLock = new LockTemplate(tableId,
+          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
+      try {
+        propsLock.acquire();
+
+        DbTableEntryEntity entry;
+        try {
+          entry = DbTableEntry.getTableIdEntry(tableId, cc);
+        } catch (ODKEntityNotFoundException e) {
+          logger.info("Table was deleted -- abandoning log compaction of " + tableId);
+          return;
+        }
+        String schemaETag = entry.getSchemaETag();
+        if (schemaETag == null || entry.getPendingDataETag() != null) {
+          // the next sync request will clean up the pending change;
+          // try again on the next compaction cycle.
+          logger.warn("Table is not in a stable state -- abandoning log compaction of " + tableId);
+          return;
+        }
+
+        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
+            cc);
+        List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+
+        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+        DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+        Query query = logTable.query("TableLogCompactionWorkerImpl.compactLog", cc);
+        query.lessThan(DbLogTable.SEQUENCE_VALUE, cutoffSequenceValue);
+        query.sortAscending(DbLogTable.SEQUENCE_VALUE);
+        result = query.execute(startCursor, LOG_COMPACTION_BATCH_SIZE);
+
+        // the current rowETag of each row is the id of its most recent log
+        // entry.
+        Map<String, String> currentRowETags = new HashMap<String, String>();
+        List<Entity> superseded = new ArrayList<Entity>();
+        for (Entity logEntity : result.entities) {
+          String rowId = logEntity.getString(DbLogTable.ROW_ID);
+          String rowETag;
+          if (currentRowETags.containsKey(rowId)) {
+            rowETag = currentRowETags.get(rowId);
+          } else {
+            try {
+              rowETag = table.getEntity(rowId, cc).getString(DbTable.ROW_ETAG);
+            } catch (ODKEntityNotFoundException e) {
+              // should not happen -- retain the log entry
+              rowETag = null;
+            }
+            currentRowETags.put(rowId, rowETag);
+          }
+          if (rowETag != null && !rowETag.equals(logEntity.getId())) {
+            superseded.add(logEntity);
+          }
+        }
+
+        Map<String, Integer> deletedPerChangeSet = new HashMap<String, Integer>();
+        for (Entity logEntity : superseded) {
+          logEntity.delete(cc);
+          String dataETag = logEntity.getString(DbLogTable.DATA_ETAG_AT_MODIFICATION);
+          Integer count = deletedPerChangeSet.get(dataETag);
+          deletedPerChangeSet.put(dataETag, (count == null) ? 1 : count + 1);
+        }
+        deletedCount += superseded.size();
+        prunedCount += pruneChangeSets(deletedPerChangeSet);
+      } finally {
+        propsLock.release();
+      }
+
+      if (!result.hasMore || result.websafeResumeCursor == null) {
+        break;
+      }
+      startCursor = QueryResumePoint.fromWebsafeCursor(result.websafeResumeCursor);
+    }
+
+    // record the checkpoint -- dataETags older than this may no longer be
+    // found in the log.
+    DbTableLogCheckpointEntity checkpoint;
+    try {
+      checkpoint = DbTableLogCheckpoint.getTableIdEntry(tableId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      checkpoint = DbTableLogCheckpoint.createNewEntity(tableId, cc);
+    }
+    String priorCheckpoint = checkpoint.getCheckpointSequenceValue();
+    if (priorCheckpoint == null || priorCheckpoint.compareTo(cutoffSequenceValue) < 0) {
+      checkpoint.setCheckpointSequenceValue(cutoffSequenceValue);
+      checkpoint.put(cc);
+    }
+
+    logger.info("Completed log compaction of " + tableId + " removed " + deletedCount
+        + " superseded log entries and " + prunedCount + " emptied change sets");
+  }
+
+  /**
+   * Reduce the row counts of the change sets whose log entries were just
+   * deleted, and remove the change sets that no longer have any log entries.
+   * Must be called with the table lock held.
+   *
+   * @param deletedPerChangeSet
+   *          the number of log entries deleted for each dataETag.
+   * @return the number of change sets removed.
+   * @throws ODKDatastoreException
+   */
+  private int pruneChangeSets(Map<String, Integer> deletedPerChangeSet)
+      throws ODKDatastoreException {
+    DbTableChangeSetIndexEntryEntity indexEntry = DbTableChangeSetIndexEntry.getTableIdEntry(
+        tableId, cc);
+    if (indexEntry == null || !indexEntry.isComplete()) {
+      // the index is (re)built from the log, so it will only count the log
+      // entries that remain.
+      return 0;
+    }
+    int prunedCount = 0;
+    for (Map.Entry<String, Integer> deleted : deletedPerChangeSet.entrySet()) {
+      DbTableChangeSetsEntity changeSet = DbTableChangeSets.getChangeSet(tableId,
+          deleted.getKey(), cc);
+      if (changeSet == null) {
+        continue;
+      }
+      int remaining = changeSet.getRowCount() - deleted.getValue();
+      if (remaining <= 0) {
+        changeSet.delete(cc);
+        ++prunedCount;
+      } else {
+        changeSet.setRowCount(remaining);
+        changeSet.put(cc);
+      }
+    }
+    return prunedCount;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.SnapshotManager;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Common worker implementation for the creation of a table snapshot.
+ */
+public class TableSnapshotWorkerImpl {
+
+  private final String tableId;
+  private final CallingContext cc;
+  private final Log logger = LogFactory.getLog(TableSnapshotWorkerImpl.class);
+
+  public TableSnapshotWorkerImpl(String tableId, CallingContext cc) {
+    this.tableId = tableId;
+    this.cc = cc;
+  }
+
+  public final void createSnapshot() throws ODKDatastoreException, ODKTaskLockException,
+      IOException {
+    logger.info("Beginning snapshot of " + tableId);
+    SnapshotManager sm = new SnapshotManager(tableId, cc);
+    sm.createSnapshot();
+  }
+}
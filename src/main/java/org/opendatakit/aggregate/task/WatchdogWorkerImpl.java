@@ -41,13 +41,23 @@ import org.opendatakit.aggregate.form.FormFactory;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.MiscTasks;
 import org.opendatakit.aggregate.form.PersistentResults;
+import org.opendatakit.aggregate.odktables.AlterRowsJobManager;
+import org.opendatakit.aggregate.odktables.InstanceFileUploadManager;
+import org.opendatakit.aggregate.odktables.SnapshotManager;
+import org.opendatakit.aggregate.odktables.TableDeletionManager;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint;
+import org.opendatakit.aggregate.odktables.relation.DbTableLogCheckpoint.DbTableLogCheckpointEntity;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.util.BackendActionsTable;
 import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 
@@ -62,6 +72,11 @@ public class WatchdogWorkerImpl {
 
   private Log logger = LogFactory.getLog(WatchdogWorkerImpl.class);
 
+  /**
+   * Minimum interval between compactions of an ODK Tables log table.
+   */
+  private static final long TABLE_LOG_COMPACTION_INTERVAL_MILLISECONDS = 24L * 60L * 60L * 1000L;
+
   private static class SubmissionMetadata {
     public final String uri;
     public final Date markedAsCompleteDate;
@@ -141,6 +156,9 @@ public class WatchdogWorkerImpl {
       PurgeOlderSubmissions purgeSubmissions = (PurgeOlderSubmissions) cc
           .getBean(BeanDefs.PURGE_OLDER_SUBMISSIONS_BEAN);
       JsonFileGenerator jsonGenerator = (JsonFileGenerator) cc.getBean(BeanDefs.JSON_FILE_BEAN);
+      TableLogCompaction tableLogCompaction = (TableLogCompaction) cc
+          .getBean(BeanDefs.TABLE_LOG_COMPACTION_BEAN);
+      TableSnapshot tableSnapshot = (TableSnapshot) cc.getBean(BeanDefs.TABLE_SNAPSHOT_BEAN);
       boolean foundActiveTasks = false;
       // NOTE: do not short-circuit these check actions...
       foundActiveTasks = foundActiveTasks | checkFormServiceCursors(uploadSubmissions, cc);
@@ -148,6 +166,11 @@ public class WatchdogWorkerImpl {
           | checkPersistentResults(csvGenerator, kmlGenerator, jsonGenerator, cc);
       foundActiveTasks = foundActiveTasks
           | checkMiscTasks(worksheetCreator, formDelete, purgeSubmissions, cc);
+      foundActiveTasks = foundActiveTasks | checkTableLogCompaction(tableLogCompaction, cc);
+      foundActiveTasks = foundActiveTasks | checkTableSnapshots(tableSnapshot, cc);
+      foundActiveTasks = foundActiveTasks | checkTableDeletions(cc);
+      foundActiveTasks = foundActiveTasks | checkAbandonedUploads(cc);
+      foundActiveTasks = foundActiveTasks | checkAlterRowsJobs(cc);
       activeTasks = foundActiveTasks;
     } finally {
       // NOTE: if the above threw an exception, we re-start the watchdog.
@@ -414,4 +437,105 @@ public class WatchdogWorkerImpl {
     }
   }
 
+  private boolean checkTableLogCompaction(TableLogCompaction tableLogCompaction, CallingContext cc)
+      throws ODKDatastoreException {
+    try {
+      logger.info("Checking table log compaction");
+      if (!ServerPreferencesProperties.getOdkTablesEnabled(cc)) {
+        return false;
+      }
+      Integer retentionDays = ServerPreferencesProperties.getOdkTablesLogRetentionDays(cc);
+      if (retentionDays == null || retentionDays <= 0) {
+        return false;
+      }
+      Date now = new Date();
+      List<DbTableEntryEntity> entries = DbTableEntry.query(cc);
+      for (DbTableEntryEntity entry : entries) {
+        if (entry.getSchemaETag() == null) {
+          continue;
+        }
+        String tableId = entry.getId();
+        DbTableLogCheckpointEntity checkpoint;
+        try {
+          checkpoint = DbTableLogCheckpoint.getTableIdEntry(tableId, cc);
+        } catch (ODKEntityNotFoundException e) {
+          checkpoint = DbTableLogCheckpoint.createNewEntity(tableId, cc);
+        }
+        Date lastStart = checkpoint.getLastCompactionStart();
+        if (lastStart != null
+            && lastStart.getTime() + TABLE_LOG_COMPACTION_INTERVAL_MILLISECONDS > now.getTime()) {
+          continue;
+        }
+        logger.info("Launching log compaction of table: " + tableId);
+        checkpoint.setLastCompactionStart(now);
+        checkpoint.put(cc);
+        tableLogCompaction.createTableLogCompactionTask(tableId, cc);
+      }
+      // compaction is not time-critical -- it does not need a faster watchdog
+      return false;
+    } finally {
+      logger.info("Done checking table log compaction");
+    }
+  }
+
+  private boolean checkTableSnapshots(TableSnapshot tableSnapshot, CallingContext cc)
+      throws ODKDatastoreException {
+    try {
+      logger.info("Checking table snapshots");
+      if (!ServerPreferencesProperties.getOdkTablesEnabled(cc)) {
+        return false;
+      }
+      List<DbTableEntryEntity> entries = DbTableEntry.query(cc);
+      for (DbTableEntryEntity entry : entries) {
+        SnapshotManager sm = new SnapshotManager(entry.getId(), cc);
+        if (sm.isSnapshotNeeded(entry)) {
+          logger.info("Launching snapshot of table: " + entry.getId());
+          tableSnapshot.createTableSnapshotTask(entry.getId(), cc);
+        }
+      }
+      // snapshots are not time-critical -- they do not need a faster watchdog
+      return false;
+    } finally {
+      logger.info("Done checking table snapshots");
+    }
+  }
+
+  private boolean checkTableDeletions(CallingContext cc) throws ODKDatastoreException {
+    try {
+      logger.info("Checking table deletions");
+      if (!ServerPreferencesProperties.getOdkTablesEnabled(cc)) {
+        return false;
+      }
+      return TableDeletionManager.restartStalledDeletions(cc);
+    } finally {
+      logger.info("Done checking table deletions");
+    }
+  }
+
+  private boolean checkAlterRowsJobs(CallingContext cc) throws ODKDatastoreException {
+    try {
+      logger.info("Checking alterRows jobs");
+      if (!ServerPreferencesProperties.getOdkTablesEnabled(cc)) {
+        return false;
+      }
+      return AlterRowsJobManager.restartStalledJobs(cc);
+    } finally {
+      logger.info("Done checking alterRows jobs");
+    }
+  }
+
+  private boolean checkAbandonedUploads(CallingContext cc) throws ODKDatastoreException {
+    try {
+      logger.info("Checking abandoned instance file uploads");
+      if (!ServerPreferencesProperties.getOdkTablesEnabled(cc)) {
+        return false;
+      }
+      InstanceFileUploadManager.expireAbandonedUploads(cc);
+      // abandoned uploads are only found after a day; no need to hurry.
+      return false;
+    } finally {
+      logger.info("Done checking abandoned instance file uploads");
+    }
+  }
+
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.gae;
+
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.task.TableDeletion;
+import org.opendatakit.aggregate.task.gae.servlet.TableDeletionTaskServlet;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * This is a singleton bean. It cannot have any per-request state.
+ */
+public class TableDeletionImpl implements TableDeletion {
+
+  @Override
+  public final void createTableDeletionTask(String tableId, CallingContext cc) {
+    TaskOptionsBuilder b = new TaskOptionsBuilder(TableDeletionTaskServlet.ADDR);
+    b.param(ServletConsts.TABLE_ID, tableId);
+    b.enqueue();
+  }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.gae;
+
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.task.TableLogCompaction;
+import org.opendatakit.aggregate.task.gae.servlet.TableLogCompactionTaskServlet;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * This is a singleton bean. It cannot have any per-request state.
+ */
+public class TableLogCompactionImpl implements TableLogCompaction {
+
+  @Override
+  public final void createTableLogCompactionTask(String tableId, CallingContext cc) {
+    TaskOptionsBuilder b = new TaskOptionsBuilder(TableLogCompactionTaskServlet.ADDR);
+    b.countdownMillis(PersistConsts.MAX_SETTLE_MILLISECONDS);
+    b.param(ServletConsts.TABLE_ID, tableId);
+    b.enqueue();
+  }
+
+}
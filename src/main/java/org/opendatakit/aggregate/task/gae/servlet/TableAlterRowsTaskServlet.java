@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.task.gae.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.servlet.ServletUtilBase;
+import org.opendatakit.aggregate.task.TableAlterRowsWorkerImpl;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Applies an asynchronous alterRows job. A failed request is retried by the
+ * task queue; the job resumes after the last batch it applied.
+ */
+public class TableAlterRowsTaskServlet extends ServletUtilBase {
+
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = -6853349427402156634L;
+
+  private static final Log logger = LogFactory.getLog(TableAlterRowsTaskServlet.class);
+
+  /**
+   * URI from base
+   */
+  public static final String ADDR = "gae/tableAlterRowsTask";
+
+  /**
+   * Handler for HTTP Get request that applies an alterRows job
+   *
+   * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
+   *      javax.servlet.http.HttpServletResponse)
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+    cc.setAsDaemon(true);
+
+    // get parameter
+
+    String jobId = getParameter(req, ServletConsts.JOB_ID);
+    if (jobId == null) {
+      errorMissingKeyParam(resp);
+      logger.error("missing " + ServletConsts.JOB_ID);
+      return;
+    }
+
+    try {
+      TableAlterRowsWorkerImpl worker = new TableAlterRowsWorkerImpl(jobId, cc);
+      worker.applyJob();
+    } catch (ODKOverQuotaException e) {
+      e.printStackTrace();
+      quotaExceededError(resp);
+      logger.error("alterRows job failed: " + e.toString());
+      return;
+    } catch (Exception e) {
+      e.printStackTrace();
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+      logger.error("alterRows job failed: " + e.toString());
+      return;
+    }
+  }
+}
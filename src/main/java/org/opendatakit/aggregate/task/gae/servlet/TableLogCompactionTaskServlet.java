@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.task.gae.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.servlet.ServletUtilBase;
+import org.opendatakit.aggregate.task.TableLogCompactionWorkerImpl;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ */
+public class TableLogCompactionTaskServlet extends ServletUtilBase {
+
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = -3102468519873457113L;
+
+  private static final Log logger = LogFactory.getLog(TableLogCompactionTaskServlet.class);
+
+  /**
+   * URI from base
+   */
+  public static final String ADDR = "gae/tableLogCompactionTask";
+
+  /**
+   * Handler for HTTP Get request that compacts the log of a table
+   *
+   * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
+   *      javax.servlet.http.HttpServletResponse)
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+    cc.setAsDaemon(true);
+
+    // get parameter
+
+    String tableId = getParameter(req, ServletConsts.TABLE_ID);
+    if (tableId == null) {
+      errorMissingKeyParam(resp);
+      logger.error("missing " + ServletConsts.TABLE_ID);
+      return;
+    }
+
+    try {
+      TableLogCompactionWorkerImpl worker = new TableLogCompactionWorkerImpl(tableId, cc);
+      worker.compactLog();
+    } catch (ODKOverQuotaException e) {
+      e.printStackTrace();
+      quotaExceededError(resp);
+      logger.error("log compaction failed: " + e.toString());
+      return;
+    } catch (Exception e) {
+      e.printStackTrace();
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+      logger.error("log compaction failed: " + e.toString());
+      return;
+    }
+  }
+}
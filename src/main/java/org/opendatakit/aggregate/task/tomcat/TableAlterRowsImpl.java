@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.tomcat;
+
+import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.task.TableAlterRows;
+import org.opendatakit.aggregate.task.TableAlterRowsWorkerImpl;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * This is a singleton bean. It cannot have any per-request state. It uses a
+ * static inner class to encapsulate the per-request state of a running
+ * background task.
+ */
+public class TableAlterRowsImpl implements TableAlterRows {
+
+  static class TableAlterRowsRunner implements Runnable {
+    final TableAlterRowsWorkerImpl impl;
+
+    public TableAlterRowsRunner(String jobId, CallingContext cc) {
+      impl = new TableAlterRowsWorkerImpl(jobId, cc);
+    }
+
+    @Override
+    public void run() {
+      try {
+        impl.applyJob();
+      } catch (ODKDatastoreException e) {
+        e.printStackTrace();
+        // the watchdog relaunches the stalled job
+      } catch (ODKTaskLockException e) {
+        e.printStackTrace();
+        // the job is running elsewhere, or the watchdog relaunches it
+      } catch (Exception e) {
+        e.printStackTrace();
+        // there is no retry -- report the failure to the client
+        impl.abandonJob(e);
+      }
+    }
+  }
+
+  @Override
+  public final void createTableAlterRowsTask(String jobId, CallingContext cc)
+      throws ODKDatastoreException {
+    WatchdogImpl wd = (WatchdogImpl) cc.getBean(BeanDefs.WATCHDOG);
+    // use watchdog's calling context in runner...
+    TableAlterRowsRunner r = new TableAlterRowsRunner(jobId, wd.getCallingContext());
+    AggregrateThreadExecutor exec = AggregrateThreadExecutor.getAggregateThreadExecutor();
+    exec.execute(r);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.tomcat;
+
+import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.task.TableLogCompaction;
+import org.opendatakit.aggregate.task.TableLogCompactionWorkerImpl;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * This is a singleton bean. It cannot have any per-request state. It uses a
+ * static inner class to encapsulate the per-request state of a running
+ * background task.
+ */
+public class TableLogCompactionImpl implements TableLogCompaction {
+
+  static class TableLogCompactionRunner implements Runnable {
+    final TableLogCompactionWorkerImpl impl;
+
+    public TableLogCompactionRunner(String tableId, CallingContext cc) {
+      impl = new TableLogCompactionWorkerImpl(tableId, cc);
+    }
+
+    @Override
+    public void run() {
+      try {
+        impl.compactLog();
+      } catch (Exception e) {
+        e.printStackTrace();
+        // the next watchdog cycle will retry the compaction
+      }
+    }
+  }
+
+  @Override
+  public final void createTableLogCompactionTask(String tableId, CallingContext cc)
+      throws ODKDatastoreException {
+    WatchdogImpl wd = (WatchdogImpl) cc.getBean(BeanDefs.WATCHDOG);
+    // use watchdog's calling context in runner...
+    TableLogCompactionRunner r = new TableLogCompactionRunner(tableId, wd.getCallingContext());
+    AggregrateThreadExecutor exec = AggregrateThreadExecutor.getAggregateThreadExecutor();
+    exec.execute(r);
+  }
+}
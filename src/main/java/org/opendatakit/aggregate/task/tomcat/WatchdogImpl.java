@@ -30,6 +30,10 @@ import org.opendatakit.aggregate.task.FormDelete;
 import org.opendatakit.aggregate.task.JsonFileGenerator;
 import org.opendatakit.aggregate.task.KmlGenerator;
 import org.opendatakit.aggregate.task.PurgeOlderSubmissions;
+import org.opendatakit.aggregate.task.TableAlterRows;
+import org.opendatakit.aggregate.task.TableDeletion;
+import org.opendatakit.aggregate.task.TableLogCompaction;
+import org.opendatakit.aggregate.task.TableSnapshot;
 import org.opendatakit.aggregate.task.UploadSubmissions;
 import org.opendatakit.aggregate.task.Watchdog;
 import org.opendatakit.aggregate.task.WatchdogWorkerImpl;
@@ -83,6 +87,10 @@ public class WatchdogImpl implements Watchdog, SmartLifecycle, InitializingBean,
   JsonFileGenerator jsonFileGenerator = null;
   PurgeOlderSubmissions purgeSubmissions = null;
   FormDelete formDelete = null;
+  TableSnapshot tableSnapshot = null;
+  TableAlterRows tableAlterRows = null;
+  TableDeletion tableDeletion = null;
+  TableLogCompaction tableLogCompaction = null;
   WorksheetCreator worksheetCreator = null;
   ServletContext ctxt = null;
   HttpClientFactory httpClientFactory = null;
@@ -176,6 +184,14 @@ public class WatchdogImpl implements Watchdog, SmartLifecycle, InitializingBean,
         return datastore;
       } else if (BeanDefs.FORM_DELETE_BEAN.equals(beanName)) {
         return formDelete;
+      } else if (BeanDefs.TABLE_SNAPSHOT_BEAN.equals(beanName)) {
+        return tableSnapshot;
+      } else if (BeanDefs.TABLE_ALTER_ROWS_BEAN.equals(beanName)) {
+        return tableAlterRows;
+      } else if (BeanDefs.TABLE_DELETION_BEAN.equals(beanName)) {
+        return tableDeletion;
+      } else if (BeanDefs.TABLE_LOG_COMPACTION_BEAN.equals(beanName)) {
+        return tableLogCompaction;
       } else if (BeanDefs.PURGE_OLDER_SUBMISSIONS_BEAN.equals(beanName)) {
         return purgeSubmissions;
       } else if (BeanDefs.KML_BEAN.equals(beanName)) {
@@ -412,6 +428,38 @@ public class WatchdogImpl implements Watchdog, SmartLifecycle, InitializingBean,
     this.formDelete = formDelete;
   }
 
+  public TableSnapshot getTableSnapshot() {
+    return tableSnapshot;
+  }
+
+  public void setTableSnapshot(TableSnapshot tableSnapshot) {
+    this.tableSnapshot = tableSnapshot;
+  }
+
+  public TableAlterRows getTableAlterRows() {
+    return tableAlterRows;
+  }
+
+  public void setTableAlterRows(TableAlterRows tableAlterRows) {
+    this.tableAlterRows = tableAlterRows;
+  }
+
+  public TableDeletion getTableDeletion() {
+    return tableDeletion;
+  }
+
+  public void setTableDeletion(TableDeletion tableDeletion) {
+    this.tableDeletion = tableDeletion;
+  }
+
+  public TableLogCompaction getTableLogCompaction() {
+    return tableLogCompaction;
+  }
+
+  public void setTableLogCompaction(TableLogCompaction tableLogCompaction) {
+    this.tableLogCompaction = tableLogCompaction;
+  }
+
   public PurgeOlderSubmissions getPurgeSubmissions() {
     return purgeSubmissions;
   }
@@ -463,6 +511,14 @@ public class WatchdogImpl implements Watchdog, SmartLifecycle, InitializingBean,
       throw new IllegalStateException("no jsonFileGenerator specified");
     if (formDelete == null)
       throw new IllegalStateException("no formDelete specified");
+    if (tableSnapshot == null)
+      throw new IllegalStateException("no tableSnapshot specified");
+    if (tableAlterRows == null)
+      throw new IllegalStateException("no tableAlterRows specified");
+    if (tableDeletion == null)
+      throw new IllegalStateException("no tableDeletion specified");
+    if (tableLogCompaction == null)
+      throw new IllegalStateException("no tableLogCompaction specified");
     if (purgeSubmissions == null)
       throw new IllegalStateException("no purgeSubmissions specified");
     if (worksheetCreator == null)
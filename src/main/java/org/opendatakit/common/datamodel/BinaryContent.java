@@ -14,6 +14,7 @@
 package org.opendatakit.common.datamodel;
 
 import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.IndexType;
 import org.opendatakit.common.security.User;
 
 /**
@@ -49,8 +50,9 @@ public final class BinaryContent extends DynamicBase {
 			DataField.DataType.STRING, true, 80L);
 	private static final DataField CONTENT_LENGTH = new DataField("CONTENT_LENGTH",
 			DataField.DataType.INTEGER, true);
+	// indexed so that identical content can be found and shared
 	private static final DataField CONTENT_HASH = new DataField("CONTENT_HASH", 
-			DataField.DataType.STRING, true);
+			DataField.DataType.STRING, true).setIndexable(IndexType.HASH);
 
 	public final DataField unrootedFilePath;
 	public final DataField contentType;
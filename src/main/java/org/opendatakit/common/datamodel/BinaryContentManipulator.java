@@ -14,22 +14,32 @@
 package org.opendatakit.common.datamodel;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.ITaskLockType;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.Direction;
 import org.opendatakit.common.persistence.Query.FilterOperation;
+import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.web.CallingContext;
 
@@ -58,6 +68,32 @@ public class BinaryContentManipulator {
     FILE_UNCHANGED, NEW_FILE_VERSION, COMPLETELY_NEW_FILE
   }
 
+  /**
+   * Lock held, per content hash, while stored content is being shared with
+   * an attachment or while an attachment is giving up its share of it.
+   */
+  private static enum SharedContentLockType implements ITaskLockType {
+    SHARED_CONTENT(120000);
+
+    private long timeout;
+
+    private SharedContentLockType(long timeout) {
+      this.timeout = timeout;
+    }
+
+    @Override
+    public long getLockExpirationTimeout() {
+      return timeout;
+    }
+
+    @Override
+    public String getName() {
+      return name();
+    }
+  }
+
+  private static final int SHARED_CONTENT_LOCK_TRIES = 10;
+
   private final String parentKey;
   private final String topLevelKey;
 
@@ -80,6 +116,9 @@ public class BinaryContentManipulator {
 
     private List<BinaryContentRefBlob> dbBcbEntityList = new ArrayList<BinaryContentRefBlob>();
     private List<RefBlob> dbRefBlobList = new ArrayList<RefBlob>();
+    // only set when constructed from a stream
+    private Long contentLength = null;
+    private String contentHash = null;
 
     /**
      * Construct an blob entity and persist it into the data store
@@ -122,17 +161,143 @@ public class BinaryContentManipulator {
       }
     }
 
+    /**
+     * Construct an blob entity from the given stream and persist it into the
+     * data store. The stream is read one part at a time, so only a single
+     * part of the blob is held in memory. The md5 hash and length of the
+     * content are computed as the parts are written.
+     *
+     * @param stream
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public BlobManipulator(InputStream stream, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+      this(stream, 1L, uriVersionedContent, bcbRef, ref, topLevelKey, cc);
+    }
+
+    /**
+     * Construct blob entities from the given stream and persist them into the
+     * data store as parts firstPart, firstPart+1, ... of the blob. Used to
+     * append to a blob that is being staged in several requests. The md5 hash
+     * and length are those of the content read from this stream.
+     *
+     * @param stream
+     * @param firstPart
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public BlobManipulator(InputStream stream, long firstPart, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+
+      MessageDigest md = CommonFieldsBase.newMD5Digest();
+      byte[] buffer = new byte[ref.value.getMaxCharLen().intValue()];
+      long part = firstPart;
+      long length = 0L;
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      int len;
+      while ((len = readPart(stream, buffer)) > 0) {
+        md.update(buffer, 0, len);
+        length += len;
+        byte[] partialBlob = Arrays.copyOf(buffer, len);
+        RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
+        eBlob.setTopLevelAuri(topLevelKey);
+        eBlob.setValue(partialBlob);
+        BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+        bcb.setTopLevelAuri(topLevelKey);
+        bcb.setDomAuri(uriVersionedContent);
+        bcb.setSubAuri(eBlob.getUri());
+        bcb.setPart(part++);
+        dbBcbEntityList.add(bcb);
+        ds.putEntity(eBlob, user);
+        ds.putEntity(bcb, user);
+        // the persisted parts are not retained, so that heap use is bounded
+        // by the size of a single part.
+      }
+      contentLength = length;
+      contentHash = CommonFieldsBase.newMD5HashUri(md);
+    }
+
     public BlobManipulator(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
         CallingContext cc) throws ODKDatastoreException {
 
       Datastore ds = cc.getDatastore();
       User user = cc.getCurrentUser();
       // gather the ordered list of parts...
+      dbBcbEntityList.addAll(getOrderedParts(uriVersionedContent, bcbRef, cc));
+
+      // and gather the blob parts themselves...
+      for (BinaryContentRefBlob b : dbBcbEntityList) {
+        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
+        if (eBlob == null) {
+          throw new IllegalStateException("Missing blob part!");
+        }
+        dbRefBlobList.add(eBlob);
+      }
+    }
+
+    /**
+     * Construct the references for a blob whose content is already stored
+     * under another attachment (sourceContent) and persist them into the
+     * data store. No RefBlob entities are created; the new references share
+     * the RefBlob parts of the source.
+     *
+     * @param sourceContent
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     */
+    public BlobManipulator(BinaryContent sourceContent, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException {
+
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      for (BinaryContentRefBlob source : getOrderedParts(sourceContent.getUri(), bcbRef, cc)) {
+        BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+        bcb.setTopLevelAuri(topLevelKey);
+        bcb.setDomAuri(uriVersionedContent);
+        bcb.setSubAuri(source.getSubAuri());
+        bcb.setPart(source.getPart());
+        dbBcbEntityList.add(bcb);
+        ds.putEntity(bcb, user);
+      }
+    }
+
+    /**
+     * Query for the references to the parts of a blob, in part order.
+     *
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param cc
+     * @return
+     * @throws ODKDatastoreException
+     */
+    static List<BinaryContentRefBlob> getOrderedParts(String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, CallingContext cc) throws ODKDatastoreException {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
       Query q = ds.createQuery(bcbRef, "BinaryContentManipulator.BlobManipulator.constructor", user);
       q.addFilter(bcbRef.domAuri, FilterOperation.EQUAL, uriVersionedContent);
       q.addSort(bcbRef.domAuri, Direction.ASCENDING); // gae optimization
       q.addSort(bcbRef.part, Direction.ASCENDING);
       List<? extends CommonFieldsBase> bcbList = q.executeQuery();
+      List<BinaryContentRefBlob> parts = new ArrayList<BinaryContentRefBlob>();
       long expectedPart = 1L;
       for (CommonFieldsBase cb : bcbList) {
         BinaryContentRefBlob bcref = (BinaryContentRefBlob) cb;
@@ -144,17 +309,57 @@ public class BinaryContentManipulator {
           throw new ODKEnumeratedElementException(errString);
         }
         ++expectedPart;
-        dbBcbEntityList.add(bcref);
+        parts.add(bcref);
       }
+      return parts;
+    }
 
-      // and gather the blob parts themselves...
-      for (BinaryContentRefBlob b : dbBcbEntityList) {
-        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
-        if (eBlob == null) {
-          throw new IllegalStateException("Missing blob part!");
+    /**
+     * Fill the buffer from the stream.
+     *
+     * @param stream
+     * @param buffer
+     * @return the number of bytes read; less than the buffer length only at
+     *         the end of the stream.
+     * @throws IOException
+     */
+    static int readPart(InputStream stream, byte[] buffer) throws IOException {
+      return readPart(stream, buffer, 0);
+    }
+
+    /**
+     * Fill the remainder of the buffer, beginning at offset, from the stream.
+     *
+     * @param stream
+     * @param buffer
+     * @param offset
+     * @return the number of bytes in the buffer (offset plus the bytes read);
+     *         less than the buffer length only at the end of the stream.
+     * @throws IOException
+     */
+    static int readPart(InputStream stream, byte[] buffer, int offset) throws IOException {
+      while (offset < buffer.length) {
+        int len = stream.read(buffer, offset, buffer.length - offset);
+        if (len == -1) {
+          break;
         }
-        dbRefBlobList.add(eBlob);
+        offset += len;
       }
+      return offset;
+    }
+
+    /**
+     * @return the length of the content written from a stream.
+     */
+    public Long getContentLength() {
+      return contentLength;
+    }
+
+    /**
+     * @return the md5 hash of the content written from a stream.
+     */
+    public String getContentHash() {
+      return contentHash;
     }
 
     public String getTopLevelAuri() {
@@ -221,6 +426,144 @@ public class BinaryContentManipulator {
 
   }
 
+  /**
+   * InputStream over a persisted blob. The RefBlob parts are fetched from the
+   * datastore one at a time, as they are read, so only a single part of the
+   * blob is held in memory.
+   * <p>
+   * Every part but the last has the length of the first part, so skip() steps
+   * over whole parts without fetching them.
+   */
+  public static class BlobInputStream extends InputStream {
+
+    private final RefBlob ref;
+    private final CallingContext cc;
+    private final List<BinaryContentRefBlob> parts;
+    private int nextPart = 0;
+    private byte[] currentPart = null;
+    private int offset = 0;
+    private long partLength = 0L;
+
+    public BlobInputStream(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
+        CallingContext cc) throws ODKDatastoreException {
+      this.ref = ref;
+      this.cc = cc;
+      this.parts = BlobManipulator.getOrderedParts(uriVersionedContent, bcbRef, cc);
+    }
+
+    /**
+     * Make the next part available, fetching it if needed.
+     *
+     * @return false at the end of the blob.
+     * @throws IOException
+     */
+    private boolean fillPart() throws IOException {
+      while (currentPart == null || offset >= currentPart.length) {
+        if (nextPart >= parts.size()) {
+          return false;
+        }
+        BinaryContentRefBlob b = parts.get(nextPart++);
+        try {
+          RefBlob eBlob = cc.getDatastore().getEntity(ref, b.getSubAuri(), cc.getCurrentUser());
+          if (eBlob == null) {
+            throw new IllegalStateException("Missing blob part!");
+          }
+          currentPart = eBlob.getValue();
+        } catch (ODKDatastoreException e) {
+          throw new IOException("Unable to retrieve blob part", e);
+        }
+        offset = 0;
+        if (nextPart == 1) {
+          partLength = currentPart.length;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0L || !fillPart()) {
+        return 0L;
+      }
+      // the rest of the current part
+      long skipped = Math.min(n, currentPart.length - offset);
+      offset += (int) skipped;
+      // whole parts, without fetching them. The last part may be short, so
+      // it is always fetched.
+      if (skipped < n && partLength > 0L) {
+        long wholeParts = Math.min((n - skipped) / partLength, parts.size() - 1 - nextPart);
+        if (wholeParts > 0L) {
+          nextPart += (int) wholeParts;
+          skipped += wholeParts * partLength;
+          currentPart = null;
+        }
+      }
+      // and into the part where the skip ends
+      if (skipped < n && fillPart()) {
+        long count = Math.min(n - skipped, currentPart.length - offset);
+        offset += (int) count;
+        skipped += count;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fillPart()) {
+        return -1;
+      }
+      return currentPart[offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fillPart()) {
+        return -1;
+      }
+      int count = Math.min(len, currentPart.length - offset);
+      System.arraycopy(currentPart, offset, b, off, count);
+      offset += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      currentPart = null;
+      nextPart = parts.size();
+    }
+
+    /**
+     * Write count bytes of the blob, beginning at the given offset, to the
+     * output stream.
+     *
+     * @param os
+     * @param first
+     * @param count
+     * @throws IOException
+     */
+    public void writeTo(OutputStream os, long first, long count) throws IOException {
+      while (first > 0L) {
+        long skipped = skip(first);
+        if (skipped <= 0L) {
+          throw new IOException("Blob is shorter than the requested offset");
+        }
+        first -= skipped;
+      }
+      byte[] buffer = new byte[8192];
+      while (count > 0L) {
+        int len = read(buffer, 0, (int) Math.min(buffer.length, count));
+        if (len == -1) {
+          throw new IOException("Blob is shorter than its recorded length");
+        }
+        os.write(buffer, 0, len);
+        count -= len;
+      }
+    }
+  }
+
   public BinaryContentManipulator(String parentKey, String topLevelKey, BinaryContent ctntRelation,
       BinaryContentRefBlob vrefRelation, RefBlob blbRelation) {
     this.parentKey = parentKey;
@@ -358,6 +701,23 @@ public class BinaryContentManipulator {
     return blbManipulator.getBlob();
   }
 
+  /**
+   * @param ordinal
+   * @param cc
+   * @return a stream over the attachment content that fetches its parts from
+   *         the datastore as they are read.
+   * @throws ODKDatastoreException
+   */
+  public BlobInputStream getBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    return new BlobInputStream(b.getUri(), vrefRelation, blbRelation, cc);
+  }
+
   /**
    * Atomically rename the given source file path to the destination path.
    * Will fail if the destination path already exists.
@@ -510,16 +870,14 @@ public class BinaryContentManipulator {
 
         // Step (2)
         // -- should not have any data. If it does, prior request failed before step 4 completed.
-        BlobManipulator b = new BlobManipulator(matchedBc.getUri(), vrefRelation, blbRelation, cc);
         List<EntityKey> keyList = new ArrayList<EntityKey>();
-        b.recursivelyAddEntityKeysForDeletion(keyList);
+        addPartKeysForDeletion(BlobManipulator.getOrderedParts(matchedBc.getUri(),
+            vrefRelation, cc), true, keyList);
         DeleteHelper.deleteEntities(keyList, cc);
 
         // Step (3)
-        // persist the binary data
-        @SuppressWarnings("unused")
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
-            blbRelation, topLevelKey, cc);
+        // persist the binary data (or share identical stored data)
+        storeByteArray(byteArray, md5Hash, matchedBc, cc);
 
         // Step (4)
         matchedBc.setContentHash(md5Hash);
@@ -539,23 +897,17 @@ public class BinaryContentManipulator {
         // (3) create the database entries for the new data.
         // (4) update contentHash to indicate that data is properly stored.
 
-        // Step (1)
-        matchedBc.setContentHash(null);
+        // Steps (1) and (2)
+        // the old data may be shared with other attachments; see
+        // deleteContentParts() for the order of these steps.
+        deleteContentParts(matchedBc, cc);
         matchedBc.setContentType(contentType);
         matchedBc.setContentLength(Long.valueOf(byteArray.length));
         ds.putEntity(matchedBc, user);
 
-        // Step (2)
-        BlobManipulator b = new BlobManipulator(matchedBc.getUri(), vrefRelation, blbRelation, cc);
-        List<EntityKey> keyList = new ArrayList<EntityKey>();
-        b.recursivelyAddEntityKeysForDeletion(keyList);
-        DeleteHelper.deleteEntities(keyList, cc);
-
         // Step (3)
-        // persist the binary data
-        @SuppressWarnings("unused")
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
-            blbRelation, topLevelKey, cc);
+        // persist the binary data (or share identical stored data)
+        storeByteArray(byteArray, md5Hash, matchedBc, cc);
 
         // Step (4)
         matchedBc.setContentHash(md5Hash);
@@ -568,6 +920,710 @@ public class BinaryContentManipulator {
     }
   }
 
+  /**
+   * Save the attachment to the database, reading its content from the given
+   * stream. The content is written to the datastore one part at a time as it
+   * is read, and its md5 hash is computed incrementally, so the full
+   * attachment is never held in memory. If identical content is already
+   * stored in these attachment relations, the newly written parts are
+   * discarded and the stored parts are shared instead.
+   * <p>
+   * Because the hash is not known until the stream has been consumed, an
+   * existing file is replaced by first moving it into the intermediate update
+   * state (null md5 hash) and then writing the new data. If the stream fails
+   * part-way through, the entry remains in that intermediate state and is
+   * cleaned up by the next save to the same unrootedFilePath. When the file
+   * exists and overwriteOK is false, the stream is only digested and nothing
+   * is stored.
+   *
+   * @param stream
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK -- if the file exists and is different, must be true to overwrite existing value.
+   * @param cc
+   * @return COMPLETELY_NEW_FILE on successful save; FILE_UNCHANGED on hash
+   *         equivalence; NEW_FILE_VERSION on updating existing file (save not allowed unless overwriteOK).
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+
+    if (stream == null || contentType == null) {
+      throw new IllegalArgumentException("unexpected null values passed into method");
+    }
+
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    String currentContentHash = (matchedBc == null) ? null : matchedBc.getContentHash();
+
+    if (currentContentHash != null && !overwriteOK) {
+      // only the hash is needed to determine the outcome.
+      MessageDigest md = CommonFieldsBase.newMD5Digest();
+      byte[] buffer = new byte[blbRelation.value.getMaxCharLen().intValue()];
+      int len;
+      while ((len = BlobManipulator.readPart(stream, buffer)) > 0) {
+        md.update(buffer, 0, len);
+      }
+      if (currentContentHash.equals(CommonFieldsBase.newMD5HashUri(md))) {
+        return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
+      }
+      return BinaryContentManipulator.BlobSubmissionOutcome.NEW_FILE_VERSION;
+    }
+
+    // Steps (0) - (2)
+    matchedBc = prepareForNewContent(matchedBc, unrootedFilePath, contentType, cc);
+
+    // Step (3)
+    // stream the new data into the database, computing its md5 hash.
+    BlobManipulator subBlob = new BlobManipulator(stream, matchedBc.getUri(), vrefRelation,
+        blbRelation, topLevelKey, cc);
+    String md5Hash = subBlob.getContentHash();
+
+    // Step (4)
+    // if identical content is already stored, what we just wrote is discarded
+    // and the stored parts are shared instead.
+    if (!shareStoredContent(matchedBc, md5Hash, subBlob.getContentLength(), false, cc)) {
+      matchedBc.setContentLength(subBlob.getContentLength());
+      matchedBc.setContentHash(md5Hash);
+      cc.getDatastore().putEntity(matchedBc, cc.getCurrentUser());
+    }
+
+    return getOutcome(currentContentHash, md5Hash);
+  }
+
+  /**
+   * Save the attachment to the database by sharing the content of an
+   * already-stored attachment with the given md5 hash. This allows a client
+   * to offer the hash of a file before sending its bytes; if the content is
+   * already present among the attachments of this parent, the bytes need
+   * not be transferred.
+   * <p>
+   * Knowing the md5 hash of some content does not show that the caller may
+   * read it, so only the attachments of this parent are searched; content
+   * held elsewhere in these attachment relations must be sent in full (it
+   * is then shared by the other setValue methods).
+   *
+   * @param md5Hash
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK -- if the file exists and is different, must be true to overwrite existing value.
+   * @param cc
+   * @return null if no content with this hash is stored (the content must be
+   *         supplied); otherwise, as for setValueFromByteArray.
+   * @throws ODKDatastoreException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromContentHash(String md5Hash,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException {
+
+    if (md5Hash == null || contentType == null) {
+      throw new IllegalArgumentException("unexpected null values passed into method");
+    }
+
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    String currentContentHash = (matchedBc == null) ? null : matchedBc.getContentHash();
+
+    if (md5Hash.equals(currentContentHash)) {
+      return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
+    }
+    if (currentContentHash != null && !overwriteOK) {
+      return BinaryContentManipulator.BlobSubmissionOutcome.NEW_FILE_VERSION;
+    }
+
+    if (findStoredContent(md5Hash, null, true, cc) == null) {
+      return null;
+    }
+
+    // Steps (0) - (2)
+    matchedBc = prepareForNewContent(matchedBc, unrootedFilePath, contentType, cc);
+
+    // Steps (3) and (4)
+    // share the stored parts.
+    if (!shareStoredContent(matchedBc, md5Hash, null, true, cc)) {
+      // the stored content was removed in the meantime.
+      return null;
+    }
+
+    return getOutcome(currentContentHash, md5Hash);
+  }
+
+  /**
+   * Begin staging the content of an attachment that will be supplied in
+   * several requests (a resumable upload). Any existing content at this
+   * unrootedFilePath is discarded and the entry is left in the intermediate
+   * update state (null md5 hash) with a content length of zero. While
+   * staging, the content length is the number of bytes staged so far.
+   *
+   * @param contentType
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void startStagedValue(String contentType, String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+    if (contentType == null) {
+      throw new IllegalArgumentException("unexpected null values passed into method");
+    }
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    // Steps (0) - (2)
+    matchedBc = prepareForNewContent(matchedBc, unrootedFilePath, contentType, cc);
+    matchedBc.setContentLength(0L);
+    cc.getDatastore().putEntity(matchedBc, cc.getCurrentUser());
+  }
+
+  /**
+   * @param unrootedFilePath
+   * @param cc
+   * @return the number of bytes staged, or null if the attachment is not
+   *         being staged (it does not exist or its content is complete).
+   * @throws ODKDatastoreException
+   */
+  public Long getStagedLength(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    if (matchedBc == null || matchedBc.getContentHash() != null) {
+      return null;
+    }
+    return matchedBc.getContentLength();
+  }
+
+  /**
+   * Append the content of the stream to a staged attachment. The stream is
+   * written directly as additional RefBlob parts of the attachment, so no
+   * copy is needed when the staging completes. A short final part left by the
+   * previous append is first filled from the stream, so that every part but
+   * the last stays full-length (see BlobInputStream.skip()).
+   * <p>
+   * The staged length is only updated once the stream has been written. If an
+   * earlier append was interrupted, whatever it wrote beyond the staged length
+   * is discarded first. Callers must not append to the same attachment
+   * concurrently.
+   *
+   * @param stream
+   * @param offset
+   *          the offset at which the stream content begins. Must equal the
+   *          number of bytes already staged.
+   * @param unrootedFilePath
+   * @param cc
+   * @return the number of bytes staged. If this is not offset, the offset
+   *         was wrong and nothing was read from the stream.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public long appendStagedValue(InputStream stream, long offset, String unrootedFilePath,
+      CallingContext cc) throws ODKDatastoreException, IOException {
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    if (matchedBc == null || matchedBc.getContentHash() != null
+        || matchedBc.getContentLength() == null) {
+      throw new IllegalStateException("attachment is not being staged");
+    }
+    long stagedLength = matchedBc.getContentLength();
+    if (stagedLength != offset) {
+      return stagedLength;
+    }
+    List<BinaryContentRefBlob> parts = truncateStagedParts(matchedBc, stagedLength, cc);
+    int partLength = blbRelation.value.getMaxCharLen().intValue();
+    int lastPartLength = (int) (stagedLength % partLength);
+    if (!parts.isEmpty() && lastPartLength != 0) {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      RefBlob lastBlob = ds.getEntity(blbRelation, parts.get(parts.size() - 1).getSubAuri(), user);
+      byte[] buffer = Arrays.copyOf(lastBlob.getValue(), partLength);
+      int len = BlobManipulator.readPart(stream, buffer, lastPartLength);
+      if (len != lastPartLength) {
+        lastBlob.setValue(Arrays.copyOf(buffer, len));
+        ds.putEntity(lastBlob, user);
+        stagedLength += len - lastPartLength;
+      }
+    }
+    long nextPart = parts.size() + 1L;
+    BlobManipulator subBlob = new BlobManipulator(stream, nextPart, matchedBc.getUri(),
+        vrefRelation, blbRelation, topLevelKey, cc);
+    stagedLength += subBlob.getContentLength();
+    matchedBc.setContentLength(stagedLength);
+    cc.getDatastore().putEntity(matchedBc, cc.getCurrentUser());
+    return stagedLength;
+  }
+
+  /**
+   * Complete the staging of an attachment. The md5 hash of the staged parts
+   * is computed by reading them back one part at a time and compared with
+   * the expected hash. If they match, the attachment is marked as complete
+   * (sharing identical stored content, if any). If they do not, the staged
+   * content is discarded and staging must start again from offset zero.
+   *
+   * @param md5Hash
+   *          the expected hash of the content
+   * @param unrootedFilePath
+   * @param cc
+   * @return COMPLETELY_NEW_FILE on success; null if the hash did not match.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome finishStagedValue(String md5Hash,
+      String unrootedFilePath, CallingContext cc) throws ODKDatastoreException, IOException {
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    if (matchedBc == null || matchedBc.getContentHash() != null
+        || matchedBc.getContentLength() == null) {
+      throw new IllegalStateException("attachment is not being staged");
+    }
+    truncateStagedParts(matchedBc, matchedBc.getContentLength(), cc);
+
+    MessageDigest md = CommonFieldsBase.newMD5Digest();
+    BlobInputStream staged = new BlobInputStream(matchedBc.getUri(), vrefRelation, blbRelation, cc);
+    try {
+      byte[] buffer = new byte[blbRelation.value.getMaxCharLen().intValue()];
+      int len;
+      while ((len = staged.read(buffer, 0, buffer.length)) != -1) {
+        md.update(buffer, 0, len);
+      }
+    } finally {
+      staged.close();
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    if (!CommonFieldsBase.newMD5HashUri(md).equals(md5Hash)) {
+      // discard what was staged
+      deleteContentParts(matchedBc, cc);
+      matchedBc.setContentLength(0L);
+      ds.putEntity(matchedBc, user);
+      return null;
+    }
+
+    // Step (4)
+    // if identical content is already stored, share it instead.
+    if (!shareStoredContent(matchedBc, md5Hash, matchedBc.getContentLength(), false, cc)) {
+      matchedBc.setContentHash(md5Hash);
+      ds.putEntity(matchedBc, user);
+    }
+    return BinaryContentManipulator.BlobSubmissionOutcome.COMPLETELY_NEW_FILE;
+  }
+
+  /**
+   * Discard the staged content of an attachment (e.g., an abandoned upload).
+   * The attachment is left in the intermediate update state with a null
+   * content length, as after an interrupted save, so it is no longer being
+   * staged. Does nothing if the attachment is not being staged.
+   *
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void abandonStagedValue(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+    BinaryContent matchedBc = findAttachment(unrootedFilePath, cc);
+    if (matchedBc == null || matchedBc.getContentHash() != null
+        || matchedBc.getContentLength() == null) {
+      return;
+    }
+    deleteContentParts(matchedBc, cc);
+    matchedBc.setContentLength(null);
+    cc.getDatastore().putEntity(matchedBc, cc.getCurrentUser());
+  }
+
+  /**
+   * Discard whatever an interrupted append wrote beyond the staged length of
+   * an attachment: the parts after the one holding the last staged byte, and
+   * the bytes after that byte within its part. As every part but the last is
+   * full-length, the staged length determines which parts are kept.
+   *
+   * @param matchedBc
+   *          the attachment being staged
+   * @param stagedLength
+   * @param cc
+   * @return the parts that were kept, in order.
+   * @throws ODKDatastoreException
+   */
+  private List<BinaryContentRefBlob> truncateStagedParts(BinaryContent matchedBc,
+      long stagedLength, CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    List<BinaryContentRefBlob> parts = BlobManipulator.getOrderedParts(matchedBc.getUri(),
+        vrefRelation, cc);
+    int partLength = blbRelation.value.getMaxCharLen().intValue();
+    int keptParts = (int) ((stagedLength + partLength - 1L) / partLength);
+    if (parts.size() < keptParts) {
+      throw new IllegalStateException("staged attachment is missing parts");
+    }
+    if (parts.size() > keptParts) {
+      List<EntityKey> keyList = new ArrayList<EntityKey>();
+      for (BinaryContentRefBlob b : parts.subList(keptParts, parts.size())) {
+        keyList.add(new EntityKey(blbRelation, b.getSubAuri()));
+        keyList.add(b.getEntityKey());
+      }
+      DeleteHelper.deleteEntities(keyList, cc);
+      parts = new ArrayList<BinaryContentRefBlob>(parts.subList(0, keptParts));
+    }
+    int lastPartLength = (int) (stagedLength % partLength);
+    if (lastPartLength != 0) {
+      RefBlob lastBlob = ds.getEntity(blbRelation, parts.get(keptParts - 1).getSubAuri(), user);
+      if (lastBlob.getValue().length > lastPartLength) {
+        lastBlob.setValue(Arrays.copyOf(lastBlob.getValue(), lastPartLength));
+        ds.putEntity(lastBlob, user);
+      }
+    }
+    return parts;
+  }
+
+  private BinaryContentManipulator.BlobSubmissionOutcome getOutcome(String priorContentHash,
+      String md5Hash) {
+    if (priorContentHash == null) {
+      return BinaryContentManipulator.BlobSubmissionOutcome.COMPLETELY_NEW_FILE;
+    } else if (priorContentHash.equals(md5Hash)) {
+      return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
+    } else {
+      return BinaryContentManipulator.BlobSubmissionOutcome.NEW_FILE_VERSION;
+    }
+  }
+
+  /**
+   * @param unrootedFilePath
+   * @param cc
+   * @return the attachment with the given unrootedFilePath, or null.
+   * @throws ODKDatastoreException
+   */
+  private BinaryContent findAttachment(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+    updateAttachments(cc);
+    for (BinaryContent bc : attachments.values()) {
+      String bcFilePath = bc.getUnrootedFilePath();
+      if ((bcFilePath == null) ? (unrootedFilePath == null)
+          : (unrootedFilePath != null && bcFilePath.equals(unrootedFilePath))) {
+        return bc;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Steps (0) - (2) of saving new content:
+   * (0) create entry if no matchedBc
+   * (1) modify entry to be intermediate update state (null md5 hash).
+   * (2) delete the database entries for any old data.
+   *
+   * @param matchedBc
+   * @param unrootedFilePath
+   * @param contentType
+   * @param cc
+   * @return the entry, ready to have its content stored.
+   * @throws ODKDatastoreException
+   */
+  private BinaryContent prepareForNewContent(BinaryContent matchedBc, String unrootedFilePath,
+      String contentType, CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    boolean newBc = (matchedBc == null);
+
+    if (newBc) {
+      // Step (0)
+      // create the record...
+      matchedBc = (BinaryContent) ds.createEntityUsingRelation(ctntRelation, user);
+      matchedBc.setTopLevelAuri(topLevelKey);
+      matchedBc.setParentAuri(parentKey);
+      matchedBc.setOrdinalNumber(internalGetAttachmentCount() + 1L);
+      matchedBc.setUnrootedFilePath(unrootedFilePath);
+    } else {
+      // Steps (1) and (2)
+      // the old data may be shared with other attachments; see
+      // deleteContentParts() for the order of these steps.
+      deleteContentParts(matchedBc, cc);
+    }
+
+    matchedBc.setContentHash(null);
+    matchedBc.setContentType(contentType);
+    matchedBc.setContentLength(null);
+    ds.putEntity(matchedBc, user);
+
+    if (newBc) {
+      // persist was successful -- remember this new record...
+      attachments.put(matchedBc.getOrdinalNumber(), matchedBc);
+    }
+
+    return matchedBc;
+  }
+
+  /**
+   * Delete the content of the given attachment and leave it in the
+   * intermediate update state (null md5 hash).
+   *
+   * @param bc
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  private void deleteContentParts(BinaryContent bc, CallingContext cc)
+      throws ODKDatastoreException {
+    List<EntityKey> keyList = new ArrayList<EntityKey>();
+    addContentKeysForDeletion(bc, keyList, cc);
+    DeleteHelper.deleteEntities(keyList, cc);
+  }
+
+  /**
+   * Add the keys of the content of the given attachment to keyList and put
+   * the attachment into the intermediate update state (null md5 hash).
+   * <p>
+   * Only complete attachments (non-null md5 hash) are shared, and an
+   * attachment never references shared parts while it is incomplete. So the
+   * parts of an incomplete attachment are always its own. The parts of a
+   * complete attachment are shared if another complete attachment with the
+   * same hash references the same first part. The check is made under the
+   * shared content lock, which is also held while content is being shared
+   * (see shareStoredContent()). In that case, the references of this
+   * attachment are deleted here, before its hash is cleared, and only the
+   * other attachments keep the parts. Otherwise, the hash is cleared first,
+   * so that the content can no longer be shared, and the keys of the
+   * references and the parts are added to keyList.
+   * <p>
+   * When several attachments that share content are deleted together, each
+   * but the last finds the content shared and gives up its references; the
+   * last finds it unshared and adds the parts to keyList.
+   *
+   * @param bc
+   * @param keyList
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  private void addContentKeysForDeletion(BinaryContent bc, List<EntityKey> keyList,
+      CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    String md5Hash = bc.getContentHash();
+    List<BinaryContentRefBlob> parts = BlobManipulator.getOrderedParts(bc.getUri(),
+        vrefRelation, cc);
+    if (md5Hash == null) {
+      addPartKeysForDeletion(parts, true, keyList);
+      return;
+    }
+
+    String lockId = obtainSharedContentLock(md5Hash, cc);
+    try {
+      String firstPartUri = parts.isEmpty() ? null : parts.get(0).getSubAuri();
+      if (isContentShared(bc, firstPartUri, cc)) {
+        List<EntityKey> referenceKeys = new ArrayList<EntityKey>();
+        addPartKeysForDeletion(parts, false, referenceKeys);
+        DeleteHelper.deleteEntities(referenceKeys, cc);
+        bc.setContentHash(null);
+        ds.putEntity(bc, user);
+      } else {
+        bc.setContentHash(null);
+        ds.putEntity(bc, user);
+        addPartKeysForDeletion(parts, true, keyList);
+      }
+    } finally {
+      releaseSharedContentLock(lockId, md5Hash, cc);
+    }
+  }
+
+  /**
+   * Add the keys of the given references to keyList and, if includeBlobs, the
+   * keys of the RefBlob parts they reference. The parts themselves are never
+   * read, so that deleting an attachment does not load its content.
+   *
+   * @param parts
+   * @param includeBlobs
+   * @param keyList
+   */
+  private void addPartKeysForDeletion(List<BinaryContentRefBlob> parts, boolean includeBlobs,
+      List<EntityKey> keyList) {
+    Set<String> blobUris = new HashSet<String>();
+    for (BinaryContentRefBlob b : parts) {
+      if (includeBlobs && blobUris.add(b.getSubAuri())) {
+        keyList.add(new EntityKey(blbRelation, b.getSubAuri()));
+      }
+      keyList.add(b.getEntityKey());
+    }
+  }
+
+  /**
+   * @param bc
+   *          a complete attachment
+   * @param firstPartUri
+   *          the uri of its first part
+   * @param cc
+   * @return true if another complete attachment references the same parts.
+   * @throws ODKDatastoreException
+   */
+  private boolean isContentShared(BinaryContent bc, String firstPartUri, CallingContext cc)
+      throws ODKDatastoreException {
+    if (firstPartUri == null) {
+      return false;
+    }
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    Query q = ds.createQuery(ctntRelation, "BinaryContentManipulator.isContentShared", user);
+    q.addFilter(ctntRelation.contentHash, FilterOperation.EQUAL, bc.getContentHash());
+    q.addSort(ctntRelation.contentHash, Direction.ASCENDING); // GAE work-around
+    for (CommonFieldsBase cb : q.executeQuery()) {
+      BinaryContent other = (BinaryContent) cb;
+      if (other.getUri().equals(bc.getUri())) {
+        continue;
+      }
+      Query qp = ds.createQuery(vrefRelation, "BinaryContentManipulator.isContentShared", user);
+      qp.addFilter(vrefRelation.domAuri, FilterOperation.EQUAL, other.getUri());
+      qp.addFilter(vrefRelation.part, FilterOperation.EQUAL, 1L);
+      for (CommonFieldsBase cp : qp.executeQuery()) {
+        if (firstPartUri.equals(((BinaryContentRefBlob) cp).getSubAuri())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Complete the incomplete attachment matchedBc by sharing the parts of a
+   * complete attachment with the given md5 hash, if one is stored. Any parts
+   * already written for matchedBc are discarded.
+   * <p>
+   * This is done under the shared content lock (see
+   * addContentKeysForDeletion()). The hash of matchedBc is set before the
+   * references are written, so that an incomplete attachment never
+   * references shared parts.
+   *
+   * @param matchedBc
+   * @param md5Hash
+   * @param contentLength
+   *          the length of the content, or null if it is not known.
+   * @param sameParentOnly
+   *          true if only the attachments of this parent may be shared.
+   * @param cc
+   * @return false if no such attachment is stored; matchedBc is unchanged.
+   * @throws ODKDatastoreException
+   */
+  private boolean shareStoredContent(BinaryContent matchedBc, String md5Hash,
+      Long contentLength, boolean sameParentOnly, CallingContext cc)
+      throws ODKDatastoreException {
+    String lockId = obtainSharedContentLock(md5Hash, cc);
+    try {
+      BinaryContent storedContent = findStoredContent(md5Hash, contentLength, sameParentOnly, cc);
+      if (storedContent == null) {
+        return false;
+      }
+      deleteContentParts(matchedBc, cc);
+      matchedBc.setContentLength(storedContent.getContentLength());
+      matchedBc.setContentHash(md5Hash);
+      cc.getDatastore().putEntity(matchedBc, cc.getCurrentUser());
+      @SuppressWarnings("unused")
+      BlobManipulator link = new BlobManipulator(storedContent, matchedBc.getUri(), vrefRelation,
+          topLevelKey, cc);
+      return true;
+    } finally {
+      releaseSharedContentLock(lockId, md5Hash, cc);
+    }
+  }
+
+  private String getSharedContentLockName(String md5Hash) {
+    return ctntRelation.getSchemaName() + "." + ctntRelation.getTableName() + "/" + md5Hash;
+  }
+
+  /**
+   * @param md5Hash
+   * @param cc
+   * @return the id of the lock that was obtained.
+   * @throws ODKDatastoreException
+   *           if the lock could not be obtained.
+   */
+  private String obtainSharedContentLock(String md5Hash, CallingContext cc)
+      throws ODKDatastoreException {
+    String lockId = CommonFieldsBase.newUri();
+    String lockName = getSharedContentLockName(md5Hash);
+    try {
+      for (int i = 0; i < SHARED_CONTENT_LOCK_TRIES; ++i) {
+        if (i != 0) {
+          try {
+            Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
+          } catch (InterruptedException e) {
+            // we remain in the loop even if we get kicked out.
+          }
+        }
+        TaskLock lock = cc.getDatastore().createTaskLock(cc.getCurrentUser());
+        if (lock.obtainLock(lockId, lockName, SharedContentLockType.SHARED_CONTENT)) {
+          return lockId;
+        }
+      }
+    } catch (ODKTaskLockException e) {
+      throw new ODKDatastoreException("Unable to lock the shared content " + lockName, e);
+    }
+    throw new ODKDatastoreException("Timed out waiting for the lock on the shared content "
+        + lockName);
+  }
+
+  private void releaseSharedContentLock(String lockId, String md5Hash, CallingContext cc) {
+    String lockName = getSharedContentLockName(md5Hash);
+    try {
+      for (int i = 0; i < SHARED_CONTENT_LOCK_TRIES; ++i) {
+        TaskLock lock = cc.getDatastore().createTaskLock(cc.getCurrentUser());
+        if (lock.releaseLock(lockId, lockName, SharedContentLockType.SHARED_CONTENT)) {
+          return;
+        }
+        try {
+          Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
+        } catch (InterruptedException e) {
+          // just move on, this retry mechanism
+          // is to make things nice
+        }
+      }
+    } catch (ODKTaskLockException e) {
+      // the lock will expire.
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Persist the byte array as the content of matchedBc, sharing the parts of
+   * an identical stored attachment if there is one.
+   *
+   * @param byteArray
+   * @param md5Hash
+   * @param matchedBc
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  private void storeByteArray(byte[] byteArray, String md5Hash, BinaryContent matchedBc,
+      CallingContext cc) throws ODKDatastoreException {
+    if (!shareStoredContent(matchedBc, md5Hash, Long.valueOf(byteArray.length), false, cc)) {
+      @SuppressWarnings("unused")
+      BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
+          blbRelation, topLevelKey, cc);
+    }
+  }
+
+  /**
+   * Find a fully-stored attachment with the given content hash within these
+   * attachment relations. Entries in the intermediate update state have a
+   * null hash and are never matched.
+   *
+   * @param md5Hash
+   * @param contentLength
+   *          if not null, the length the content must have.
+   * @param sameParentOnly
+   *          true if only the attachments of this parent are searched.
+   * @param cc
+   * @return the attachment or null if the content is not stored.
+   * @throws ODKDatastoreException
+   */
+  private BinaryContent findStoredContent(String md5Hash, Long contentLength,
+      boolean sameParentOnly, CallingContext cc) throws ODKDatastoreException {
+    Query q = cc.getDatastore().createQuery(ctntRelation,
+        "BinaryContentManipulator.findStoredContent", cc.getCurrentUser());
+    q.addFilter(ctntRelation.contentHash, FilterOperation.EQUAL, md5Hash);
+    q.addSort(ctntRelation.contentHash, Direction.ASCENDING); // GAE work-around
+    for (CommonFieldsBase cb : q.executeQuery()) {
+      BinaryContent bc = (BinaryContent) cb;
+      if (contentLength != null && !contentLength.equals(bc.getContentLength())) {
+        continue;
+      }
+      if (sameParentOnly && !parentKey.equals(bc.getParentAuri())) {
+        continue;
+      }
+      return bc;
+    }
+    return null;
+  }
+
   public synchronized void updateAttachments(CallingContext cc) throws ODKDatastoreException {
     if ( refreshBeforeUse ) {
       // clear our mutable state.
@@ -656,6 +1712,10 @@ public class BinaryContentManipulator {
    * Build up the list of entity keys for the attachments and their
    * references and blobs. This is done so that if we delete these in
    * reverse order, we don't get into a bad state.
+   * <p>
+   * The attachments are put into the intermediate update state, and the
+   * references to content shared with other attachments are deleted now
+   * (see addContentKeysForDeletion()).
    * 
    * @param keyList
    * @param cc
@@ -666,10 +1726,7 @@ public class BinaryContentManipulator {
 
     updateAttachments(cc);
     for (BinaryContent bc : attachments.values()) {
-      if (bc.getContentHash() != null) {
-        BlobManipulator b = new BlobManipulator(bc.getUri(), vrefRelation, blbRelation, cc);
-        b.recursivelyAddEntityKeysForDeletion(keyList);
-      }
+      addContentKeysForDeletion(bc, keyList, cc);
       keyList.add(bc.getEntityKey());
     }
   }
@@ -13,22 +13,31 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.datamodel.BinaryContentManipulator;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
 import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
 import org.opendatakit.common.datamodel.BinaryContentRefBlob;
 import org.opendatakit.common.datamodel.RefBlob;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.Query.FilterOperation;
+import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.BasicConsts;
 
 /**
  * Base class for manipulating blob sets. The constructors assume that the base
@@ -278,6 +287,29 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
     }
   }
 
+  @Override
+  public int deleteBlobEntitySets(int maxCount, CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    Query q = ds.createQuery(ctntRelation, "AbstractBlobRelationSet.deleteBlobEntitySets", user);
+    q.addSort(ctntRelation.creationDate, Direction.ASCENDING);
+    // we need the filter to activate the sort...
+    q.addFilter(ctntRelation.creationDate, FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
+
+    // a blob entity set has one content record per attachment
+    Set<String> removed = new HashSet<String>();
+    QueryResult result = q.executeQuery(null, maxCount);
+    for (CommonFieldsBase b : result.getResultList()) {
+      BinaryContent bc = (BinaryContent) b;
+      String uri = bc.getParentAuri();
+      if (removed.add(uri)) {
+        BlobEntitySet bs = getBlobEntitySet(uri, bc.getTopLevelAuri(), cc);
+        bs.remove(cc);
+      }
+    }
+    return removed.size();
+  }
+
   /**
    * Numerous possibilities for failures here...
    */
@@ -345,6 +377,12 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
       return m.getBlob(ordinal, cc);
     }
 
+    @Override
+    public BlobInputStream getBlobStream(int ordinal, CallingContext cc)
+        throws ODKDatastoreException {
+      return m.getBlobStream(ordinal, cc);
+    }
+
     @Override
     public String getContentHash(int ordinal, CallingContext cc) throws ODKDatastoreException {
       return m.getContentHash(ordinal, cc);
@@ -392,6 +430,50 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
         throws ODKDatastoreException {
       return m.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
     }
+
+    @Override
+    public BlobSubmissionOutcome addBlob(InputStream stream, String contentType,
+        String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+      return m.setValueFromStream(stream, contentType, unrootedFilePath, overwriteOK, cc);
+    }
+
+    @Override
+    public BlobSubmissionOutcome addBlobByContentHash(String md5Hash, String contentType,
+        String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+        throws ODKDatastoreException {
+      return m.setValueFromContentHash(md5Hash, contentType, unrootedFilePath, overwriteOK, cc);
+    }
+
+    @Override
+    public void startStagedBlob(String contentType, String unrootedFilePath, CallingContext cc)
+        throws ODKDatastoreException {
+      m.startStagedValue(contentType, unrootedFilePath, cc);
+    }
+
+    @Override
+    public Long getStagedBlobLength(String unrootedFilePath, CallingContext cc)
+        throws ODKDatastoreException {
+      return m.getStagedLength(unrootedFilePath, cc);
+    }
+
+    @Override
+    public long appendStagedBlob(InputStream stream, long offset, String unrootedFilePath,
+        CallingContext cc) throws ODKDatastoreException, IOException {
+      return m.appendStagedValue(stream, offset, unrootedFilePath, cc);
+    }
+
+    @Override
+    public BlobSubmissionOutcome finishStagedBlob(String md5Hash, String unrootedFilePath,
+        CallingContext cc) throws ODKDatastoreException, IOException {
+      return m.finishStagedValue(md5Hash, unrootedFilePath, cc);
+    }
+
+    @Override
+    public void abandonStagedBlob(String unrootedFilePath, CallingContext cc)
+        throws ODKDatastoreException {
+      m.abandonStagedValue(unrootedFilePath, cc);
+    }
   }
 
   public List<BinaryContent> getAllBinaryContents(CallingContext cc) throws ODKDatastoreException {
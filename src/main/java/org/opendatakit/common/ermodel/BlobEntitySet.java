@@ -13,8 +13,11 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
 import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -143,6 +146,19 @@ public interface BlobEntitySet {
    */
   public byte[] getBlob(int ordinal, CallingContext cc) throws ODKDatastoreException;
 
+  /**
+   * Get a stream over the blob that retrieves its parts from the datastore as
+   * they are read. Use this in preference to getBlob for large blobs.
+   * 
+   * @param ordinal
+   *          [1..]
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public BlobInputStream getBlobStream(int ordinal, CallingContext cc)
+      throws ODKDatastoreException;
+
   /**
    * Save this BlobSet. Only useful for empty blob sets, as inserting a blob
    * always causes an immediate persist of the blob set.
@@ -179,4 +195,106 @@ public interface BlobEntitySet {
   public BlobSubmissionOutcome addBlob(byte[] byteArray, String contentType,
       String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException;
 
+  /**
+   * Insert the blob read from the given stream into the Blob set and persist
+   * the change to the datastore. The stream is written to the datastore as it
+   * is read, so the blob is never held in memory. The semantics of the return
+   * value and of overwriteOK are the same as for the byte array form.
+   * 
+   * @param stream
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BlobSubmissionOutcome addBlob(InputStream stream, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException;
+
+  /**
+   * Insert a blob into the Blob set by sharing the content of a blob already
+   * stored in this Blob set that has the given md5 hash. No bytes are
+   * transferred or copied. Blobs of other Blob sets are not searched, as
+   * knowing the hash of content does not show that the caller may read it.
+   * The semantics of the return value and of overwriteOK are the same as for
+   * the byte array form.
+   * 
+   * @param md5Hash
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK
+   * @param cc
+   * @return null if no blob with the given hash is stored; the content must
+   *         then be supplied.
+   * @throws ODKDatastoreException
+   */
+  public BlobSubmissionOutcome addBlobByContentHash(String md5Hash, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException;
+
+  /**
+   * Begin staging a blob whose content will be supplied in several requests.
+   * Any existing blob at this unrootedFilePath is discarded.
+   * 
+   * @param contentType
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void startStagedBlob(String contentType, String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException;
+
+  /**
+   * @param unrootedFilePath
+   * @param cc
+   * @return the number of bytes of the blob that have been staged, or null if
+   *         the blob is not being staged.
+   * @throws ODKDatastoreException
+   */
+  public Long getStagedBlobLength(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException;
+
+  /**
+   * Append the stream to a staged blob. Nothing is read from the stream if
+   * offset is not the number of bytes already staged.
+   * 
+   * @param stream
+   * @param offset
+   * @param unrootedFilePath
+   * @param cc
+   * @return the number of bytes staged.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public long appendStagedBlob(InputStream stream, long offset, String unrootedFilePath,
+      CallingContext cc) throws ODKDatastoreException, IOException;
+
+  /**
+   * Complete a staged blob, verifying its content against the given md5 hash.
+   * On a mismatch, the staged content is discarded.
+   * 
+   * @param md5Hash
+   * @param unrootedFilePath
+   * @param cc
+   * @return COMPLETELY_NEW_FILE on success, null if the hash did not match.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BlobSubmissionOutcome finishStagedBlob(String md5Hash, String unrootedFilePath,
+      CallingContext cc) throws ODKDatastoreException, IOException;
+
+  /**
+   * Discard the staged content of a blob whose upload was abandoned. Does
+   * nothing if the blob is not being staged.
+   * 
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void abandonStagedBlob(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException;
+
 }
\ No newline at end of file
@@ -122,6 +122,18 @@ public interface BlobRelationSet {
   public void deleteBlobEntitySets(List<BlobEntitySet> e, CallingContext cc)
       throws ODKDatastoreException;
 
+  /**
+   * Delete up to maxCount of the blob entity sets. Use it to empty a large
+   * blob relation set over several requests before calling
+   * dropBlobRelationSet().
+   * 
+   * @param maxCount
+   * @param cc
+   * @return the number of blob entity sets deleted. Zero once none remain.
+   * @throws ODKDatastoreException
+   */
+  public int deleteBlobEntitySets(int maxCount, CallingContext cc) throws ODKDatastoreException;
+
   /**
    * Delete all the blob entity sets and drop their underlying relations
    * (tables).
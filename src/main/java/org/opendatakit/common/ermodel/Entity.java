@@ -125,6 +125,14 @@ public interface Entity {
    */
   public abstract String getAsString(String fieldName);
 
+  /**
+   * Retrieves the value of the given attribute and returns the value as a
+   * String. The DataField must be one obtained from this entity's Relation.
+   * Use this when converting many entities to avoid the per-value field name
+   * lookups of getAsString(String).
+   */
+  public abstract String getAsString(DataField field);
+
   /**
    * Attempts to parse 'value' to the correct type for the given attribute and
    * then set it on this entity.
@@ -434,6 +434,24 @@ public class Query {
     return results.get(0);
   }
 
+  /**
+   * Get the first entity result of the query. Only that entity is retrieved
+   * from the datastore, so, with a supporting index, this is efficient even
+   * when the query matches a great many entities.
+   *
+   * @return the first entity of the results of executing this query, or null
+   *         if the query returned no results
+   * @throws ODKDatastoreException
+   *           if there is a problem communicating with the datastore.
+   */
+  public Entity getFirst() throws ODKDatastoreException {
+    List<? extends CommonFieldsBase> list = query.executeQuery(1);
+    if (list.isEmpty()) {
+      return null;
+    }
+    return relation.new EntityImpl((RelationImpl) list.get(0));
+  }
+
   /**
    * @return true if the results of executing this query are not empty
    * @throws ODKDatastoreException
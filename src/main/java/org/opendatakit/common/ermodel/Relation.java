@@ -22,11 +22,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.Query.FilterOperation;
+import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -34,6 +38,7 @@ import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.BasicConsts;
 
 /**
  * Base class for user-defined relations. The constructors assume that the name
@@ -47,6 +52,8 @@ public class Relation {
 
   /** regex for legal UPPER_CASE_COL_NAME column and table names */
   public static final String VALID_UPPER_CASE_NAME_REGEX = "[\\p{Upper}_][\\p{Upper}\\p{Digit}_]*";
+  /** compiled form of VALID_UPPER_CASE_NAME_REGEX, for the per-value field name lookups */
+  private static final Pattern VALID_UPPER_CASE_NAME_PATTERN = Pattern.compile(VALID_UPPER_CASE_NAME_REGEX);
   /** maximum length of a table or column name */
   public static final int MAX_PERSISTENCE_NAME_LENGTH = 63;
 
@@ -87,7 +94,7 @@ public class Relation {
       throw new IllegalArgumentException("Backing table name is too long: " + backingTableName);
     }
     this.namespace = TableNamespace.EXTENSION;
-    initialize(fields, cc);
+    initialize(fields, null, cc);
   }
 
   /**
@@ -116,6 +123,25 @@ public class Relation {
    */
   public Relation(String namespace, String tableName, List<DataField> fields, CallingContext cc)
       throws ODKDatastoreException {
+    this(namespace, tableName, fields, null, cc);
+  }
+
+  /**
+   * As above, but also declares multi-column indices on the table. Each index
+   * is an ordered list of field names; these may include the names of the 5
+   * reserved fields (e.g., CommonFieldsBase.LAST_UPDATE_DATE_COLUMN_NAME).
+   * The indices are only created when the backing table is created.
+   *
+   * @param namespace
+   * @param tableName
+   * @param fields
+   * @param compositeIndexes
+   *          may be null.
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public Relation(String namespace, String tableName, List<DataField> fields,
+      List<List<String>> compositeIndexes, CallingContext cc) throws ODKDatastoreException {
     if (!namespace.matches(VALID_UPPER_CASE_NAME_REGEX) || namespace.contains("__")
         || namespace.startsWith("_")) {
       throw new IllegalArgumentException(
@@ -131,7 +157,7 @@ public class Relation {
       throw new IllegalArgumentException("Backing table name is too long: " + backingTableName);
     }
     this.namespace = TableNamespace.EXTENSION;
-    initialize(fields, cc);
+    initialize(fields, compositeIndexes, cc);
   }
 
   /**
@@ -195,7 +221,7 @@ public class Relation {
     default:
       throw new IllegalStateException("Unexpected TableNamespace value");
     }
-    initialize(fields, cc);
+    initialize(fields, null, cc);
   }
 
   /**
@@ -302,6 +328,34 @@ public class Relation {
     prototype = null;
   }
 
+  /**
+   * This deletes up to maxCount records from your table. Use it to empty a
+   * large table over several requests before calling dropRelation(), so that
+   * no single request has to delete every record.
+   *
+   * @param maxCount
+   * @param cc
+   * @return the number of records deleted. Zero once the table is empty.
+   * @throws ODKDatastoreException
+   */
+  public int deleteRecords(int maxCount, CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    org.opendatakit.common.persistence.Query q = ds.createQuery(prototype,
+        "AbstractRelation.deleteRecords", user);
+    q.addSort(prototype.creationDate, Direction.ASCENDING);
+    // we need the filter to activate the sort...
+    q.addFilter(prototype.creationDate, FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
+    QueryResult result = q.executeQuery(null, maxCount);
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (CommonFieldsBase b : result.getResultList()) {
+      keys.add(b.getEntityKey());
+    }
+    ds.deleteEntities(keys, user);
+    return keys.size();
+  }
+
   /**
    * Retrieve the DataField that matches the given fieldName. Useful when
    * working with a dynamically-constructed table.
@@ -357,10 +411,40 @@ public class Relation {
       super(ref, user);
     }
 
+    void addCompositeIndex(List<String> fieldNames) {
+      List<DataField> indexFields = new ArrayList<DataField>();
+      for (String name : fieldNames) {
+        DataField match = null;
+        for (DataField f : fieldList) {
+          if (f.getName().equals(name)) {
+            match = f;
+            break;
+          }
+        }
+        if (match == null) {
+          throw new IllegalArgumentException("Index field name " + name
+              + " is not a valid field name for this relation");
+        }
+        indexFields.add(match);
+      }
+      compositeIndexList.add(indexFields);
+    }
+
     @Override
     public CommonFieldsBase getEmptyRow(User user) {
       return new RelationImpl(this, user);
     }
+
+    /**
+     * Retrieve the value of a field that the caller has already verified
+     * belongs to this relation.
+     *
+     * @param f
+     * @return the value, or null
+     */
+    Object getVerifiedFieldValue(DataField f) {
+      return fieldValueMap.get(f);
+    }
   };
 
   /**
@@ -577,33 +661,28 @@ public class Relation {
     @Override
     public String getAsString(String fieldName) {
       DataField f;
-      if (fieldName.matches(VALID_UPPER_CASE_NAME_REGEX)) {
+      if (VALID_UPPER_CASE_NAME_PATTERN.matcher(fieldName).matches()) {
         f = Relation.this.getDataField(fieldName);
       } else {
         f = Relation.this.getDataField(WebUtils.unCamelCase(fieldName));
       }
+      return getAsString(f);
+    }
+
+    @Override
+    public String getAsString(DataField f) {
+      // the defined fields are hashed; only the reserved fields need the list scan.
+      Object o = backingObject.getVerifiedFieldValue(fieldSet.contains(f) ? f : verify(f));
       switch (f.getDataType()) {
       case INTEGER:
-        Long l = backingObject.getLongField(f);
-        if (l == null)
-          return null;
-        return l.toString();
       case DECIMAL:
-        BigDecimal v = backingObject.getNumericField(f);
-        if (v == null)
-          return null;
-        return v.toString();
       case BOOLEAN:
-        Boolean b = backingObject.getBooleanField(f);
-        if (b == null)
-          return null;
-        return b.toString();
+        return (o == null) ? null : o.toString();
       case STRING:
       case URI:
-        return backingObject.getStringField(f);
+        return (String) o;
       case DATETIME:
-        Date d = backingObject.getDateField(f);
-        return WebUtils.iso8601Date(d);
+        return WebUtils.iso8601Date((Date) o);
       default:
         throw new IllegalArgumentException("Invalid type for field " + f.getName());
       }
@@ -714,7 +793,7 @@ public class Relation {
 
     private DataField getDataField(String fieldName) {
       DataField f;
-      if (fieldName.matches(VALID_UPPER_CASE_NAME_REGEX)) {
+      if (VALID_UPPER_CASE_NAME_PATTERN.matcher(fieldName).matches()) {
         f = Relation.this.getDataField(fieldName);
       } else {
         f = Relation.this.getDataField(WebUtils.unCamelCase(fieldName));
@@ -739,7 +818,8 @@ public class Relation {
    * @param cc
    * @throws ODKDatastoreException
    */
-  private void initialize(List<DataField> fields, CallingContext cc) throws ODKDatastoreException {
+  private void initialize(List<DataField> fields, List<List<String>> compositeIndexes,
+      CallingContext cc) throws ODKDatastoreException {
 
     List<DataField> definedFields = new ArrayList<DataField>();
     for (DataField f : fields) {
@@ -776,6 +856,11 @@ public class Relation {
     String schema = ds.getDefaultSchemaName();
     synchronized (Relation.class) {
       RelationImpl candidate = new RelationImpl(schema, backingTableName, definedFields);
+      if (compositeIndexes != null) {
+        for (List<String> fieldNames : compositeIndexes) {
+          candidate.addCompositeIndex(fieldNames);
+        }
+      }
       ds.assertRelation(candidate, user);
       prototype = candidate;
     }
@@ -72,6 +72,8 @@ public abstract class CommonFieldsBase {
   private boolean fromDatabase = false;
   private Object opaquePersistenceData = null;
   protected final List<DataField> fieldList = new ArrayList<DataField>();
+  /** multi-column (ordered) indices, in addition to the indices of the individual fields */
+  protected final List<List<DataField>> compositeIndexList = new ArrayList<List<DataField>>();
   protected final Map<DataField, Object> fieldValueMap = new HashMap<DataField, Object>();
 
   public final DataField primaryKey;
@@ -117,6 +119,7 @@ public abstract class CommonFieldsBase {
     lastUpdateDate = ref.lastUpdateDate;
 
     fieldList.addAll(ref.fieldList);
+    compositeIndexList.addAll(ref.compositeIndexList);
 
     // populate the audit fields...
     Date now = new Date();
@@ -165,6 +168,15 @@ public abstract class CommonFieldsBase {
     return Collections.unmodifiableList(fieldList);
   }
 
+  /**
+   * @return the multi-column indices of this relation. Each is an ordered
+   *         list of fields of this relation. The persistence layer creates
+   *         these when it creates the backing table.
+   */
+  public final List<List<DataField>> getCompositeIndexList() {
+    return Collections.unmodifiableList(compositeIndexList);
+  }
+
   public final String getStringField(DataField f) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
@@ -441,22 +453,39 @@ public abstract class CommonFieldsBase {
   }
 
   public final static String newMD5HashUri(byte[] asBytes) {
-    try {
-      MessageDigest md = MessageDigest.getInstance("MD5");
-      md.update(asBytes);
-
-      byte[] messageDigest = md.digest();
+    MessageDigest md = newMD5Digest();
+    md.update(asBytes);
+    return newMD5HashUri(md);
+  }
 
-      BigInteger number = new BigInteger(1, messageDigest);
-      String md5 = number.toString(16);
-      while (md5.length() < 32)
-        md5 = "0" + md5;
-      return "md5:" + md5;
+  /**
+   * @return an MD5 MessageDigest that can be incrementally updated and then
+   *         passed to {@link #newMD5HashUri(MessageDigest)}.
+   */
+  public final static MessageDigest newMD5Digest() {
+    try {
+      return MessageDigest.getInstance("MD5");
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalStateException("Unexpected problem computing md5 hash", e);
     }
   }
 
+  /**
+   * Completes the digest and formats it as an "md5:..." hash uri.
+   *
+   * @param md
+   * @return
+   */
+  public final static String newMD5HashUri(MessageDigest md) {
+    byte[] messageDigest = md.digest();
+
+    BigInteger number = new BigInteger(1, messageDigest);
+    String md5 = number.toString(16);
+    while (md5.length() < 32)
+      md5 = "0" + md5;
+    return "md5:" + md5;
+  }
+
   /**********************************************************************************
    **********************************************************************************
    **********************************************************************************
@@ -86,6 +86,19 @@ public interface Query {
    */
   public List<? extends CommonFieldsBase> executeQuery() throws ODKDatastoreException;
 
+  /**
+   * Returns a list of at most fetchLimit entities which are the first results
+   * of executing the query. Unlike the cursor-style executeQuery, no resume
+   * cursors are computed and only fetchLimit records are read from the
+   * datastore.
+   * 
+   * @param fetchLimit -- maximum number of records to fetch (zero for all)
+   * @return a List<Entity> which contains the Entity objects from the results of the Query
+   * @throws ODKDatastoreException if there was a  problem executing the Query
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public List<? extends CommonFieldsBase> executeQuery(int fetchLimit) throws ODKDatastoreException;
+
   /**
    * Returns a list of entities which are the results of executing the query.
    * 
@@ -947,6 +947,18 @@ public class QueryImpl implements org.opendatakit.common.persistence.Query {
     }
   }
 
+  @Override
+  public List<? extends CommonFieldsBase> executeQuery(int fetchLimit) throws ODKDatastoreException, ODKOverQuotaException {
+
+    try {
+      establishDominantSort();
+      CoreResult result = coreExecuteQuery(null, fetchLimit);
+      return result.results;
+    } finally {
+      gaeCostLogger.wrapUp();
+    }
+  }
+
   @Override
   public Set<EntityKey> executeForeignKeyQuery(CommonFieldsBase topLevelTable,
       DataField topLevelAuri) throws ODKDatastoreException, ODKOverQuotaException {
@@ -19,8 +19,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -60,6 +62,12 @@ public class DatastoreImpl implements Datastore, InitializingBean {
 
   private String schemaName = null;
 
+  /**
+   * Existing tables (`schema`.`table`) whose single-field indexes have been
+   * verified since this server started.
+   */
+  private final Set<String> indexedTables = new HashSet<String>();
+
   public DatastoreImpl() throws ODKDatastoreException {
   }
 
@@ -86,6 +94,8 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public static final String K_CREATE_TABLE = "CREATE TABLE ";
   public static final String K_DROP_TABLE = "DROP TABLE ";
   public static final String K_SHOW_CREATE_TABLE = "SHOW CREATE TABLE ";
+  public static final String K_SHOW_INDEX = "SHOW INDEX FROM ";
+  public static final String K_ALTER_TABLE = "ALTER TABLE ";
 
   public static final String K_OPEN_PAREN = " ( ";
   public static final String K_CLOSE_PAREN = " ) ";
@@ -448,6 +458,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       // see if relation already is defined and update it with dimensions...
       if (updateRelation(relation, null)) {
         // it exists -- we're done!
+        assertIndexes(relation);
         return;
       } else {
         // need to create the table...
@@ -572,6 +583,21 @@ public class DatastoreImpl implements Datastore, InitializingBean {
             }
           }
         }
+        // and the multi-column indicies
+        for (List<DataField> fields : relation.getCompositeIndexList()) {
+          b.append(", INDEX(");
+          boolean first = true;
+          for (DataField f : fields) {
+            if (!first) {
+              b.append(K_CS);
+            }
+            first = false;
+            b.append(K_BQ);
+            b.append(f.getName());
+            b.append(K_BQ);
+          }
+          b.append(K_CLOSE_PAREN);
+        }
         b.append(K_CLOSE_PAREN);
 
         String createTableStmt = b.toString();
@@ -588,6 +614,77 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     }
   }
 
+  /**
+   * Tables created before an index was declared on one of their fields do not
+   * have that index. Create any that are missing. Each table is only checked
+   * once per server start. A failure is logged but not thrown -- the index is
+   * only needed for performance.
+   *
+   * @param relation
+   *          an existing relation.
+   */
+  private void assertIndexes(CommonFieldsBase relation) {
+    String key = relation.getSchemaName() + "." + relation.getTableName();
+    synchronized (indexedTables) {
+      if (indexedTables.contains(key)) {
+        return;
+      }
+    }
+    try {
+      StringBuilder b = new StringBuilder();
+      b.append(K_SHOW_INDEX);
+      b.append(K_BQ);
+      b.append(relation.getSchemaName());
+      b.append(K_BQ);
+      b.append(".");
+      b.append(K_BQ);
+      b.append(relation.getTableName());
+      b.append(K_BQ);
+      List<Map<String, Object>> l = getJdbcConnection().queryForList(b.toString());
+      dam.recordQueryUsage("SHOW INDEX", l.size());
+
+      // the columns that lead an index
+      Set<String> indexedColumns = new HashSet<String>();
+      for (Map<String, Object> index : l) {
+        Object seq = index.get("Seq_in_index");
+        if (seq != null && "1".equals(seq.toString())) {
+          indexedColumns.add((String) index.get("Column_name"));
+        }
+      }
+
+      for (DataField f : relation.getFieldList()) {
+        if ((f.getIndexable() != IndexType.NONE) && (f != relation.primaryKey)
+            && !indexedColumns.contains(f.getName())) {
+          b.setLength(0);
+          b.append(K_ALTER_TABLE);
+          b.append(K_BQ);
+          b.append(relation.getSchemaName());
+          b.append(K_BQ);
+          b.append(".");
+          b.append(K_BQ);
+          b.append(relation.getTableName());
+          b.append(K_BQ);
+          b.append(" ADD INDEX(");
+          b.append(K_BQ);
+          b.append(f.getName());
+          b.append(K_BQ);
+          b.append(K_CLOSE_PAREN);
+          if (f.getIndexable() == IndexType.HASH) {
+            b.append(K_USING_HASH);
+          }
+          LogFactory.getLog(DatastoreImpl.class).warn("Creating missing index: " + b.toString());
+          getJdbcConnection().execute(b.toString());
+        }
+      }
+    } catch (Exception e) {
+      LogFactory.getLog(DatastoreImpl.class).warn(
+          "Unable to create missing indexes on " + key + ": " + e.toString());
+    }
+    synchronized (indexedTables) {
+      indexedTables.add(key);
+    }
+  }
+
   @Override
   public boolean hasRelation(String schema, String tableName, User user) {
     // Query for the create table string.
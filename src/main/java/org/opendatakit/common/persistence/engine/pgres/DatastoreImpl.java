@@ -20,8 +20,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -69,6 +71,12 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   private static final Long MAX_BLOB_SIZE = 65536 * 4096L;
   private String schemaName = null;
 
+  /**
+   * Existing tables ("schema"."table") whose single-field indexes have been
+   * verified since this server started.
+   */
+  private final Set<String> indexedTables = new HashSet<String>();
+
   public DatastoreImpl() throws ODKDatastoreException {
   }
 
@@ -171,6 +179,19 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         + INFORMATION_SCHEMA_COLUMNS + K_WHERE + TABLE_SCHEMA + K_EQ + K_BIND_VALUE + K_AND
         + TABLE_NAME + K_EQ + K_BIND_VALUE;
 
+    public static final String PG_INDEX = "pg_catalog.pg_index";
+
+    /**
+     * Counts the indexes of a table (schema, table) whose first column is the
+     * given column.
+     */
+    public static final String INDEX_EXISTS_QUERY = K_SELECT + K_COUNT_ONE + K_FROM + PG_INDEX
+        + " i JOIN pg_catalog.pg_class c ON c.oid = i.indrelid"
+        + " JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace"
+        + " JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = i.indkey[0]"
+        + K_WHERE + "n.nspname" + K_EQ + K_BIND_VALUE + K_AND + "c.relname" + K_EQ
+        + K_BIND_VALUE + K_AND + "a.attname" + K_EQ + K_BIND_VALUE;
+
     private static final String YES = "YES";
     private static final String TEXT = "text"; // lower case!
     private static final String CHAR = "char";
@@ -420,6 +441,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         // it exists -- we're done!
         tm.commit(status);
         status = null;
+        assertIndexes(jc, relation);
         return;
       } else {
         tm.commit(status);
@@ -537,6 +559,16 @@ public class DatastoreImpl implements Datastore, InitializingBean {
             createIndex(jc, relation, idx, f);
           }
         }
+        // and the multi-column indicies
+        for (List<DataField> fields : relation.getCompositeIndexList()) {
+          StringBuilder idxName = new StringBuilder();
+          idxName.append(relation.getTableName());
+          for (DataField f : fields) {
+            idxName.append("_");
+            idxName.append(shortPrefix(f.getName()));
+          }
+          createCompositeIndex(jc, relation, idxName.toString(), fields);
+        }
 
         // and update the relation with actual dimensions...
         updateRelation(jc, relation, createTableStmt);
@@ -597,6 +629,80 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     jc.execute(b.toString());
   }
 
+  /**
+   * Tables created before an index was declared on one of their fields do not
+   * have that index. Create any that are missing. Each table is only checked
+   * once per server start. A failure is logged but not thrown -- the index is
+   * only needed for performance.
+   *
+   * @param jc
+   * @param relation
+   *          an existing relation.
+   */
+  private void assertIndexes(JdbcTemplate jc, CommonFieldsBase relation) {
+    String key = relation.getSchemaName() + "." + relation.getTableName();
+    synchronized (indexedTables) {
+      if (indexedTables.contains(key)) {
+        return;
+      }
+    }
+    for (DataField f : relation.getFieldList()) {
+      if ((f.getIndexable() != IndexType.NONE) && (f != relation.primaryKey)) {
+        try {
+          dam.recordQueryUsage(TableDefinition.PG_INDEX, 1);
+          Integer indexCount = jc.queryForObject(TableDefinition.INDEX_EXISTS_QUERY,
+              new Object[] { relation.getSchemaName(), relation.getTableName(), f.getName() },
+              Integer.class);
+          if (indexCount == null || indexCount == 0) {
+            String idx = relation.getTableName() + "_" + shortPrefix(f.getName());
+            LogFactory.getLog(DatastoreImpl.class).warn(
+                "Creating missing index " + idx + " on " + key);
+            createIndex(jc, relation, idx, f);
+          }
+        } catch (Exception e) {
+          LogFactory.getLog(DatastoreImpl.class).warn(
+              "Unable to create missing index on " + key + "." + f.getName() + ": "
+                  + e.toString());
+        }
+      }
+    }
+    synchronized (indexedTables) {
+      indexedTables.add(key);
+    }
+  }
+
+  private void createCompositeIndex(JdbcTemplate jc, CommonFieldsBase tbl, String idxName,
+      List<DataField> fields) {
+    StringBuilder b = new StringBuilder();
+
+    b.append(K_CREATE_INDEX);
+    b.append(K_BQ);
+    b.append(idxName);
+    b.append(K_BQ);
+    b.append(K_ON);
+    b.append(K_BQ);
+    b.append(tbl.getSchemaName());
+    b.append(K_BQ);
+    b.append(".");
+    b.append(K_BQ);
+    b.append(tbl.getTableName());
+    b.append(K_BQ);
+    b.append(" (");
+    boolean first = true;
+    for (DataField f : fields) {
+      if (!first) {
+        b.append(K_CS);
+      }
+      first = false;
+      b.append(K_BQ);
+      b.append(f.getName());
+      b.append(K_BQ);
+    }
+    b.append(" )");
+
+    jc.execute(b.toString());
+  }
+
   @Override
   public boolean hasRelation(String schema, String tableName, User user) {
     dam.recordQueryUsage(TableDefinition.INFORMATION_SCHEMA_COLUMNS, 1);
@@ -58,6 +58,7 @@ public class QueryImpl implements Query {
   private static final String K_IN_CLOSE = ")";
   private static final String K_BIND_VALUE = " ? ";
   private static final String K_ORDER_BY = " ORDER BY ";
+  private static final String K_LIMIT = " LIMIT ";
 
   private static Map<FilterOperation, String> operationMap = new HashMap<FilterOperation, String>();
   private static Map<Direction, String> directionMap = new HashMap<Direction, String>();
@@ -267,6 +268,31 @@ public class QueryImpl implements Query {
     }
   }
 
+  @Override
+  public List<? extends CommonFieldsBase> executeQuery(int fetchLimit) throws ODKDatastoreException {
+
+    if (fetchLimit == 0) {
+      return executeQuery();
+    }
+
+    String query = generateQuery() + queryBindBuilder.toString() + querySortBuilder.toString()
+        + K_LIMIT + Integer.toString(fetchLimit) + ";";
+    RowMapper<? extends CommonFieldsBase> rowMapper = null;
+    rowMapper = new RelationRowMapper(relation, user);
+
+    try {
+      queryStringLogger.debug(query);
+      List<? extends CommonFieldsBase> l = dataStoreImpl.getJdbcConnection().query(query,
+          bindValues.toArray(), rowMapper);
+      dataStoreImpl.recordQueryUsage(relation, l.size());
+      return l;
+    } catch (Exception e) {
+      dataStoreImpl.recordQueryUsage(relation, 0);
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    }
+  }
+
   @Override
   public List<?> executeDistinctValueForDataField(DataField dataField) throws ODKDatastoreException {
 
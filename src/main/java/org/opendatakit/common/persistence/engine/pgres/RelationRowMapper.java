@@ -16,6 +16,7 @@ package org.opendatakit.common.persistence.engine.pgres;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
@@ -32,10 +33,19 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
 
   private final CommonFieldsBase relation;
   private final User user;
+  private final DataField[] fields;
+  /**
+   * The ResultSet column index of each of the fields. Every row of a query
+   * has the same columns, so these are resolved once, from the first row,
+   * rather than looking up each column by name in every row.
+   */
+  private int[] columnIndexes = null;
 
   RelationRowMapper(CommonFieldsBase relation, User user) {
     this.relation = relation;
     this.user = user;
+    List<DataField> fieldList = relation.getFieldList();
+    this.fields = fieldList.toArray(new DataField[fieldList.size()]);
   }
 
   @Override
@@ -49,19 +59,29 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
       throw new IllegalStateException("failed to create empty row", e);
     }
 
-    for (DataField f : relation.getFieldList()) {
+    if (columnIndexes == null) {
+      int[] indexes = new int[fields.length];
+      for (int i = 0; i < fields.length; ++i) {
+        indexes[i] = rs.findColumn(fields[i].getName());
+      }
+      columnIndexes = indexes;
+    }
+
+    for (int i = 0; i < fields.length; ++i) {
+      DataField f = fields[i];
+      int columnIndex = columnIndexes[i];
       switch (f.getDataType()) {
       case BINARY:
-        byte[] blobBytes = rs.getBytes(f.getName());
+        byte[] blobBytes = rs.getBytes(columnIndex);
         row.setBlobField(f, blobBytes);
         break;
       case LONG_STRING:
       case URI:
       case STRING:
-        row.setStringField(f, rs.getString(f.getName()));
+        row.setStringField(f, rs.getString(columnIndex));
         break;
       case INTEGER:
-        long l = rs.getLong(f.getName());
+        long l = rs.getLong(columnIndex);
         if (rs.wasNull()) {
           row.setLongField(f, null);
         } else {
@@ -69,10 +89,10 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DECIMAL:
-        row.setNumericField(f, rs.getBigDecimal(f.getName()));
+        row.setNumericField(f, rs.getBigDecimal(columnIndex));
         break;
       case BOOLEAN:
-        Boolean b = rs.getBoolean(f.getName());
+        Boolean b = rs.getBoolean(columnIndex);
         if (rs.wasNull()) {
           row.setBooleanField(f, null);
         } else {
@@ -80,7 +100,7 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DATETIME:
-        Date d = rs.getTimestamp(f.getName());
+        Date d = rs.getTimestamp(columnIndex);
         if (d == null) {
           row.setDateField(f, null);
         } else {
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import javax.servlet.http.HttpServletRequest;
 
 import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.odktables.security.TablesPermissionsCache;
 import org.opendatakit.common.persistence.client.exception.DatastoreFailureException;
 import org.opendatakit.common.security.client.UserSecurityInfo;
 import org.opendatakit.common.security.client.exception.AccessDeniedException;
@@ -68,5 +69,6 @@ org.opendatakit.common.security.client.security.admin.SecurityAdminService {
 	    SecurityServiceUtil.setStandardSiteAccessConfiguration( users, allGroups, cc ); 
 	    // clear the cache of saved user identities as we don't know what has changed...
 	    cc.getUserService().reloadPermissions();
+	    TablesPermissionsCache.forgetAllUsers();
 	}
 }
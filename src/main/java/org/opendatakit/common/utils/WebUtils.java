@@ -83,6 +83,11 @@ public class WebUtils {
 
   private static final String PURGE_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
+  /**
+   * The only range unit defined for HTTP Range requests.
+   */
+  public static final String BYTES_RANGE_UNIT = "bytes";
+
   private WebUtils() {
   };
 
@@ -401,6 +406,66 @@ public class WebUtils {
     return asGMTiso8601.format(d);
   }
 
+  /**
+   * Parse a single byte range of the form "bytes=first-last", "bytes=first-"
+   * or "bytes=-suffixLength".
+   *
+   * @param range
+   *          the value of the Range header
+   * @param length
+   *          length of the content
+   * @return null if the range cannot be satisfied, a zero-length array if the
+   *         range is malformed (and should be ignored), otherwise the first
+   *         and last byte offsets (inclusive).
+   */
+  public static final long[] parseByteRange(String range, long length) {
+    String prefix = BYTES_RANGE_UNIT + "=";
+    range = range.trim();
+    if (!range.startsWith(prefix) || range.indexOf(',') != -1) {
+      return new long[0];
+    }
+    String spec = range.substring(prefix.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return new long[0];
+    }
+    long first;
+    long last;
+    try {
+      String firstStr = spec.substring(0, dash).trim();
+      String lastStr = spec.substring(dash + 1).trim();
+      if (firstStr.length() == 0) {
+        // suffix range
+        if (lastStr.length() == 0) {
+          return new long[0];
+        }
+        long suffix = Long.parseLong(lastStr);
+        if (suffix <= 0L) {
+          return null;
+        }
+        first = Math.max(0L, length - suffix);
+        last = length - 1L;
+      } else {
+        first = Long.parseLong(firstStr);
+        if (lastStr.length() == 0) {
+          last = length - 1L;
+        } else {
+          last = Long.parseLong(lastStr);
+          if (last < first) {
+            return new long[0];
+          }
+          last = Math.min(last, length - 1L);
+        }
+      }
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+    if (first < 0L || first >= length) {
+      return null;
+    }
+    return new long[] { first, last };
+  }
+
   /**
    * Return the RFC1123 string representation of a date.
    * 
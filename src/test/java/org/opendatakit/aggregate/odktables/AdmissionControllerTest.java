@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.AdmissionController.Metrics;
+import org.opendatakit.aggregate.odktables.AdmissionController.Ticket;
+
+/**
+ * The controller holds no datastore state, so these tests do not need a
+ * datastore.
+ */
+public class AdmissionControllerTest {
+
+  private static final String USER_ID = "mailto:someone@example.com";
+  private static final String OTHER_USER_ID = "mailto:other@example.com";
+  private static final String TABLE_ID = "tables/admission_test_table";
+  private static final String OTHER_TABLE_ID = "tables/admission_test_table_other";
+
+  @Test
+  public void testLimits() throws InterruptedException {
+    // no queue -- anything that does not fit is rejected
+    AdmissionController ac = new AdmissionController(3, 2, 1, 0, 0, 0L);
+
+    Ticket t1 = ac.admit(USER_ID, TABLE_ID);
+    assertNotNull(t1);
+    // per-table limit
+    assertNull(ac.admit(OTHER_USER_ID, TABLE_ID));
+    Ticket t2 = ac.admit(USER_ID, OTHER_TABLE_ID);
+    assertNotNull(t2);
+    // per-user limit
+    assertNull(ac.admit(USER_ID, null));
+    Ticket t3 = ac.admit(OTHER_USER_ID, null);
+    assertNotNull(t3);
+    // global limit
+    assertNull(ac.admit(OTHER_USER_ID, null));
+
+    ac.release(t1);
+    // releasing twice has no effect
+    ac.release(t1);
+    Ticket t4 = ac.admit(OTHER_USER_ID, TABLE_ID);
+    assertNotNull(t4);
+    assertNull(ac.admit(OTHER_USER_ID, null));
+
+    Metrics m = ac.getMetrics();
+    assertEquals(3, m.getInFlight());
+    assertEquals(4, m.getAdmitted());
+    assertEquals(4, m.getRejected());
+    assertEquals(0, m.getQueued());
+
+    ac.release(t2);
+    ac.release(t3);
+    ac.release(t4);
+    assertEquals(0, ac.getMetrics().getInFlight());
+  }
+
+  @Test
+  public void testQueueTimeout() throws InterruptedException {
+    AdmissionController ac = new AdmissionController(1, 0, 0, 1, 0, 50L);
+
+    Ticket t1 = ac.admit(USER_ID, TABLE_ID);
+    assertNotNull(t1);
+    // waits in the queue, then gives up
+    assertNull(ac.admit(OTHER_USER_ID, TABLE_ID));
+
+    Metrics m = ac.getMetrics();
+    assertEquals(1, m.getQueued());
+    assertEquals(1, m.getTimedOut());
+    assertEquals(0, m.getQueueLength());
+    assertEquals(1, m.getPeakQueueLength());
+    ac.release(t1);
+  }
+
+  @Test
+  public void testQueueAdmission() throws InterruptedException {
+    final AdmissionController ac = new AdmissionController(0, 0, 1, 10, 0, 10000L);
+
+    final Ticket t1 = ac.admit(USER_ID, TABLE_ID);
+    assertNotNull(t1);
+
+    final Ticket[] waited = new Ticket[1];
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          waited[0] = ac.admit(OTHER_USER_ID, TABLE_ID);
+        } catch (InterruptedException e) {
+          // leave it null
+        }
+      }
+    };
+    waiter.start();
+    while (ac.getMetrics().getQueueLength() == 0) {
+      Thread.sleep(10L);
+    }
+
+    // a request against another table is not held up by the waiting one
+    Ticket t2 = ac.admit(USER_ID, OTHER_TABLE_ID);
+    assertNotNull(t2);
+
+    ac.release(t1);
+    waiter.join(10000L);
+    assertNotNull(waited[0]);
+    assertEquals(2, ac.getMetrics().getInFlight());
+    ac.release(waited[0]);
+    ac.release(t2);
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobFiles;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobs;
+import org.opendatakit.aggregate.odktables.relation.DbTableAlterRowsJobs.DbTableAlterRowsJobEntity;
+import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
+import org.opendatakit.aggregate.odktables.rest.entity.AlterRowsJob.JobStatus;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.PersistenceUtils;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class AlterRowsJobManagerTest {
+
+  private class MockCurrentUserPermissions implements TablesUserPermissions {
+
+    @Override
+    public String getOdkTablesUserId() {
+      return "myid";
+    }
+
+    @Override
+    public String getPhoneNumber() {
+      return null;
+    }
+
+    @Override
+    public String getXBearerCode() {
+      return null;
+    }
+
+    @Override
+    public void checkPermission(String appId, String tableId, TablePermission permission)
+        throws ODKDatastoreException, PermissionDeniedException {
+      return;
+    }
+
+    @Override
+    public boolean hasPermission(String appId, String tableId, TablePermission permission)
+        throws ODKDatastoreException {
+      return true;
+    }
+
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
+    }
+
+    @Override
+    public boolean hasFilterScope(String appId, String tableId, TablePermission permission,
+        String rowId, Scope filterScope) {
+      return true;
+    }
+
+  }
+
+  /**
+   * Writes a row of its own to the table each time the job finishes a batch.
+   */
+  private class InterleavingLock extends LockTemplate {
+    private int writes = 0;
+
+    InterleavingLock() {
+      super(T.tableId, ODKTablesTaskLockType.TABLES_ALTER_ROWS_JOB, cc);
+    }
+
+    @Override
+    public void renew() throws ODKTaskLockException {
+      try {
+        ArrayList<Row> other = new ArrayList<Row>();
+        other.add(Row.forInsert("other-" + (++writes), T.form_id_1, T.locale_1,
+            SavepointTypeManipulator.complete(), T.savepoint_timestamp_1,
+            T.savepoint_creator_1, Scope.EMPTY_SCOPE, T.Data.DYLAN.getValues()));
+        dm.insertOrUpdateRows(new RowList(other, dm.getCurrentDataETag()));
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private CallingContext cc;
+  private TablesUserPermissions userPermissions;
+  private TableManager tm;
+  private DataManager dm;
+
+  @Before
+  public void setUp() throws Exception {
+    this.cc = TestContextFactory.getCallingContext();
+
+    userPermissions = new MockCurrentUserPermissions();
+
+    this.tm = new TableManager(T.appId, userPermissions, cc);
+
+    tm.createTable(T.tableId, T.columns);
+
+    this.dm = new DataManager(T.appId, T.tableId, userPermissions, cc);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    try {
+      tm.deleteTable(T.tableId);
+    } catch (ODKEntityNotFoundException e) {
+      // ignore
+    }
+    // finish the background deletion (and job removal) before the tableId is re-used
+    TableDeletionManager.runDeletion(T.tableId, cc);
+  }
+
+  private DbTableAlterRowsJobEntity newJob(List<Row> rows, String dataETag) throws Exception {
+    DbTableAlterRowsJobEntity job = DbTableAlterRowsJobs.createNewEntity(
+        PersistenceUtils.newUri(), T.tableId, cc);
+    job.setUriUser(cc.getCurrentUser().getUriUser());
+    job.setOdkTablesUserId(userPermissions.getOdkTablesUserId());
+    job.setStatus(JobStatus.RUNNING.name());
+    job.setDataETag(dataETag);
+    job.setRowCount(rows.size());
+    job.setRowsApplied(0);
+    job.put(cc);
+    return job;
+  }
+
+  private BlobEntitySet newBlobSet(DbTableAlterRowsJobEntity job) throws Exception {
+    return new DbTableAlterRowsJobFiles(cc).newBlobEntitySet(job.getId(), cc);
+  }
+
+  @Test
+  public void testLaterBatchesFollowInterleavedWrites() throws Exception {
+    List<Row> rows = new ArrayList<Row>(T.rows);
+    DbTableAlterRowsJobEntity job = newJob(rows, dm.getCurrentDataETag());
+
+    // batches of one row: the lock writes to the table between the batches
+    AlterRowsJobManager.applyBatches(job, rows, 1, dm, newBlobSet(job), new InterleavingLock(),
+        cc);
+
+    assertEquals(rows.size(), job.getRowsApplied().intValue());
+    for (Row row : rows) {
+      assertNotNull(dm.getRow(row.getRowId()));
+    }
+    // the write made between the batches was kept
+    assertNotNull(dm.getRow("other-1"));
+  }
+
+  @Test
+  public void testFirstBatchMustMatchDataETag() throws Exception {
+    List<Row> rows = new ArrayList<Row>(T.rows);
+    DbTableAlterRowsJobEntity job = newJob(rows, "stale-data-etag");
+
+    try {
+      AlterRowsJobManager.applyBatches(job, rows, 1, dm, newBlobSet(job),
+          new InterleavingLock(), cc);
+      fail("expected TableDataETagMismatchException");
+    } catch (TableDataETagMismatchException e) {
+      // expected
+    }
+    assertEquals(0, job.getRowsApplied().intValue());
+  }
+}
@@ -85,6 +85,10 @@ public class AuthFilterTest {
       return true;
     }
 
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
+    }
+
     @Override
     public boolean hasFilterScope(String appId, String tableId, TablePermission permission, String rowId, Scope filterScope) {
       return true;
@@ -120,6 +124,8 @@ public class AuthFilterTest {
     } catch (ODKEntityNotFoundException e) {
       // ignore
     }
+    // finish the background deletion before the tableId is re-used
+    TableDeletionManager.runDeletion(tableId, cc);
   }
 
   @Test(expected = PermissionDeniedException.class)
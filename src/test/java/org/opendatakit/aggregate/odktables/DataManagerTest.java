@@ -18,12 +18,16 @@ package org.opendatakit.aggregate.odktables;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -34,16 +38,25 @@ import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
 import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.exception.TableDataETagMismatchException;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSetIndexEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableChangeSets;
 import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
 import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome.OutcomeType;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope.Type;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -51,6 +64,8 @@ import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.TestContextFactory;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class DataManagerTest {
 
   private class MockCurrentUserPermissions implements TablesUserPermissions {
@@ -82,6 +97,10 @@ public class DataManagerTest {
       return true;
     }
 
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
+    }
+
     @Override
     public boolean hasFilterScope(String appId, String tableId, TablePermission permission, String rowId, Scope filterScope) {
       return true;
@@ -118,6 +137,8 @@ public class DataManagerTest {
     } catch (ODKEntityNotFoundException e) {
       // ignore
     }
+    // finish the background deletion before the tableId is re-used
+    TableDeletionManager.runDeletion(T.tableId, cc);
   }
 
   @Test
@@ -165,6 +186,66 @@ public class DataManagerTest {
     }
   }
 
+  @Test
+  public void testInsertOrUpdateRowsRowLevelConcurrency() throws Exception {
+    ServerPreferencesProperties.setOdkTablesRowLevelConcurrencyEnabled(cc, true);
+    try {
+      RowOutcomeList outcomes = dm.insertOrUpdateRows(new RowList(new ArrayList<Row>(rows), null));
+      assertEquals(rows.size(), outcomes.getRows().size());
+      for (RowOutcome outcome : outcomes.getRows()) {
+        assertEquals(OutcomeType.SUCCESS, outcome.getOutcome());
+      }
+      assertEquals(outcomes.getDataETag(), dm.getCurrentDataETag());
+
+      // a RowList based on an earlier dataETag is rejected
+      try {
+        dm.insertOrUpdateRows(new RowList(new ArrayList<Row>(rows), null));
+        fail("expected TableDataETagMismatchException");
+      } catch (TableDataETagMismatchException e) {
+        // expected
+      }
+
+      // a stale rowETag with different values is reported as a conflict
+      Row stale = Row.forUpdate(rows.get(0).getRowId(), "stale-etag", rows.get(0).getFormId(),
+          rows.get(0).getLocale(), rows.get(0).getSavepointType(),
+          rows.get(0).getSavepointTimestamp(), rows.get(0).getSavepointCreator(),
+          rows.get(0).getFilterScope(), new ArrayList<DataKeyValue>());
+      ArrayList<Row> staleRows = new ArrayList<Row>();
+      staleRows.add(stale);
+      RowOutcomeList staleOutcomes = dm.insertOrUpdateRows(new RowList(staleRows,
+          outcomes.getDataETag()));
+      assertEquals(1, staleOutcomes.getRows().size());
+      assertEquals(OutcomeType.IN_CONFLICT, staleOutcomes.getRows().get(0).getOutcome());
+    } finally {
+      ServerPreferencesProperties.setOdkTablesRowLevelConcurrencyEnabled(cc, false);
+    }
+  }
+
+  @Test
+  public void testGetAppliedRowOutcomes() throws Exception {
+    RowList rowList = new RowList(new ArrayList<Row>(rows), null);
+    // nothing was written under an unused dataETag
+    assertNull(dm.getAppliedRowOutcomes(rowList, "unused-data-etag"));
+
+    RowOutcomeList outcomes = dm.insertOrUpdateRows(rowList, "applied-data-etag");
+    assertEquals("applied-data-etag", dm.getCurrentDataETag());
+
+    // the outcomes of the write can be recovered, even once the table has
+    // moved on
+    dm.insertOrUpdateRows(new RowList(new ArrayList<Row>(outcomes.getRows()),
+        "applied-data-etag"));
+    RowOutcomeList recovered = dm.getAppliedRowOutcomes(rowList, "applied-data-etag");
+    assertEquals("applied-data-etag", recovered.getDataETag());
+    assertEquals(outcomes.getRows().size(), recovered.getRows().size());
+    for (int i = 0; i < outcomes.getRows().size(); ++i) {
+      RowOutcome expected = outcomes.getRows().get(i);
+      RowOutcome actual = recovered.getRows().get(i);
+      assertEquals(OutcomeType.SUCCESS, actual.getOutcome());
+      assertEquals(expected.getRowId(), actual.getRowId());
+      assertEquals(expected.getRowETag(), actual.getRowETag());
+    }
+  }
+
   @Test
   public void testGetRows() throws ODKDatastoreException, ODKTaskLockException,
       BadColumnNameException, ETagMismatchException, PermissionDeniedException, InconsistentStateException {
@@ -182,6 +263,119 @@ public class DataManagerTest {
     }
   }
 
+  @Test
+  public void testQueryRowsPagesThroughNullAndEqualSortValues() throws Exception {
+    String[][] data = { { "q1", "b" }, { "q2", null }, { "q3", "a" }, { "q4", "b" },
+        { "q5", null }, { "q6", "c" } };
+    for (String[] d : data) {
+      ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
+      values.add(new DataKeyValue(T.Columns.column_name.getElementKey(), d[1]));
+      dm.insertOrUpdateRow(Row.forInsert(d[0], T.form_id_1, T.locale_1,
+          SavepointTypeManipulator.complete(), T.savepoint_timestamp_1, T.savepoint_creator_1,
+          Scope.EMPTY_SCOPE, values));
+    }
+    String sortKey = T.Columns.column_name.getElementKey();
+
+    // equal values are ordered by rowId; nulls come last when ascending
+    List<String> ascending = new ArrayList<String>();
+    WebsafeRows page = null;
+    QueryResumePoint cursor = null;
+    do {
+      page = dm.queryRows(null, sortKey, false, cursor, 2);
+      for (Row row : page.rows) {
+        ascending.add(row.getRowId());
+      }
+      cursor = QueryResumePoint.fromWebsafeCursor(page.websafeResumeCursor);
+    } while (page.hasMore);
+    assertEquals(Arrays.asList("q3", "q1", "q4", "q6", "q2", "q5"), ascending);
+    String lastPageBackwardCursor = page.websafeBackwardCursor;
+
+    // ...and first when descending
+    List<String> descending = new ArrayList<String>();
+    cursor = null;
+    do {
+      page = dm.queryRows(null, sortKey, true, cursor, 2);
+      for (Row row : page.rows) {
+        descending.add(row.getRowId());
+      }
+      cursor = QueryResumePoint.fromWebsafeCursor(page.websafeResumeCursor);
+    } while (page.hasMore);
+    assertEquals(Arrays.asList("q5", "q2", "q6", "q4", "q1", "q3"), descending);
+
+    // paging backward from the last ascending page returns the earlier rows,
+    // nearest first
+    List<String> backward = new ArrayList<String>();
+    cursor = QueryResumePoint.fromWebsafeCursor(lastPageBackwardCursor);
+    do {
+      page = dm.queryRows(null, sortKey, false, cursor, 2);
+      for (Row row : page.rows) {
+        backward.add(row.getRowId());
+      }
+      cursor = QueryResumePoint.fromWebsafeCursor(page.websafeResumeCursor);
+    } while (page.hasMore);
+    assertEquals(Arrays.asList("q6", "q4", "q1", "q3"), backward);
+  }
+
+  @Test
+  public void testGetCurrentDataETag() throws ODKDatastoreException, ODKTaskLockException,
+      BadColumnNameException, ETagMismatchException, PermissionDeniedException, InconsistentStateException {
+    Row row = null;
+    for ( Row r : rows ) {
+      row = dm.insertOrUpdateRow(r);
+    }
+    assertEquals(row.getDataETagAtModification(), dm.getCurrentDataETag());
+    WebsafeRows websafeResult = dm.getRows(null, 2000);
+    assertEquals(websafeResult.dataETag, dm.getCurrentDataETag());
+
+    String dataETag = dm.deleteRow(row.getRowId(), row.getRowETag());
+    assertEquals(dataETag, dm.getCurrentDataETag());
+  }
+
+  @Test
+  public void testChangeSetIndexBackfill() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    for ( Row r : rows ) {
+      expected.add(dm.insertOrUpdateRow(r).getDataETagAtModification());
+    }
+    assertEquals(expected, dm.getChangeSetsSince(null, null).getChangeSets());
+
+    // make the table look like one created before the index existed
+    DbTableChangeSets.deleteTableChangeSets(T.tableId, cc);
+    DbTableChangeSetIndexEntry.deleteTableIdEntry(T.tableId, cc);
+
+    // the index is rebuilt from the log
+    assertNull(DbTableChangeSetIndexEntry.getTableIdEntry(T.tableId, cc));
+    ArrayList<String> actual = dm.getChangeSetsSince(null, null).getChangeSets();
+    assertEquals(expected.size(), actual.size());
+    assertTrue(actual.containsAll(expected));
+    assertTrue(DbTableChangeSetIndexEntry.getTableIdEntry(T.tableId, cc).isComplete());
+    assertEquals(expected, dm.getChangeSetsSince(null, null).getChangeSets());
+    for (String dataETag : expected) {
+      assertEquals(Integer.valueOf(1), DbTableChangeSets.getChangeSet(T.tableId, dataETag, cc)
+          .getRowCount());
+    }
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    SnapshotManager sm = new SnapshotManager(T.tableId, cc);
+    assertNull(sm.getSnapshot());
+
+    for ( Row r : rows ) {
+      dm.insertOrUpdateRow(r);
+    }
+    assertTrue(sm.createSnapshot());
+
+    SnapshotManager.Snapshot snapshot = sm.getSnapshot();
+    assertEquals(dm.getCurrentDataETag(), snapshot.dataETag);
+
+    GZIPInputStream gzip = new GZIPInputStream(snapshot.openStream());
+    RowList rowList = new ObjectMapper().readValue(gzip, RowList.class);
+    gzip.close();
+    assertEquals(snapshot.dataETag, rowList.getDataETag());
+    assertEquals(rows.size(), rowList.getRows().size());
+  }
+
 //  @Test
 //  public void testGetRowsByScope() throws ODKEntityPersistException, ODKDatastoreException,
 //      ODKTaskLockException, ETagMismatchException, BadColumnNameException, PermissionDeniedException {
@@ -403,6 +597,75 @@ public class DataManagerTest {
     Util.assertCollectionSameElements(expected.values(), actual);
   }
 
+  @Test
+  public void testRowDeltas() throws Exception {
+    List<Row> changes = new ArrayList<Row>();
+    for ( Row r : rows ) {
+      changes.add(dm.insertOrUpdateRow(r));
+    }
+    String insertETag = dm.getCurrentDataETag();
+    String ageKey = T.Columns.column_age.getElementKey();
+
+    Row row = changes.get(0);
+    String insertRowETag = row.getRowETag();
+    Map<String,String> evalues = Row.convertToMap(row.getValues());
+    evalues.put(ageKey, "123");
+    row.setValues(Row.convertFromMap(evalues));
+    Row updated = dm.insertOrUpdateRow(row);
+
+    // only the changed column is sent, relative to the inserted revision
+    List<Row> deltas = dm.getRowsSince(insertETag, null, 2000, true).rows;
+    assertEquals(1, deltas.size());
+    Row delta = deltas.get(0);
+    assertEquals(updated.getRowETag(), delta.getRowETag());
+    assertEquals(insertRowETag, delta.getBaseRowETag());
+    assertEquals(1, delta.getValues().size());
+    assertEquals(new DataKeyValue(ageKey, "123"), delta.getValues().get(0));
+
+    // the whole row is sent if deltas are not requested
+    Row whole = dm.getRowsSince(insertETag, null, 2000).rows.get(0);
+    assertNull(whole.getBaseRowETag());
+    assertEquals(updated.getValues(), whole.getValues());
+
+    // upload a delta against the current revision
+    ArrayList<DataKeyValue> changed = new ArrayList<DataKeyValue>();
+    changed.add(new DataKeyValue(ageKey, "55"));
+    Row upload = Row.forUpdate(updated.getRowId(), updated.getRowETag(), updated.getFormId(),
+        updated.getLocale(), updated.getSavepointType(), updated.getSavepointTimestamp(),
+        updated.getSavepointCreator(), updated.getFilterScope(), changed);
+    upload.setBaseRowETag(updated.getRowETag());
+    ArrayList<Row> uploads = new ArrayList<Row>();
+    uploads.add(upload);
+    RowOutcomeList outcomes = dm.insertOrUpdateRows(new RowList(uploads, dm.getCurrentDataETag()));
+    assertEquals(OutcomeType.SUCCESS, outcomes.getRows().get(0).getOutcome());
+
+    Map<String,String> expected = Row.convertToMap(updated.getValues());
+    expected.put(ageKey, "55");
+    assertEquals(expected, Row.convertToMap(dm.getRow(updated.getRowId()).getValues()));
+
+    // a delta against an unknown revision is a conflict
+    upload = Row.forUpdate(updated.getRowId(), "unknown-etag", updated.getFormId(),
+        updated.getLocale(), updated.getSavepointType(), updated.getSavepointTimestamp(),
+        updated.getSavepointCreator(), updated.getFilterScope(), changed);
+    upload.setBaseRowETag("unknown-etag");
+    uploads.clear();
+    uploads.add(upload);
+    outcomes = dm.insertOrUpdateRows(new RowList(uploads, dm.getCurrentDataETag()));
+    assertEquals(OutcomeType.IN_CONFLICT, outcomes.getRows().get(0).getOutcome());
+
+    // as is a delta against a missing revision, even if the rowETag is current
+    Row current = dm.getRow(updated.getRowId());
+    upload = Row.forUpdate(current.getRowId(), current.getRowETag(), current.getFormId(),
+        current.getLocale(), current.getSavepointType(), current.getSavepointTimestamp(),
+        current.getSavepointCreator(), current.getFilterScope(), changed);
+    upload.setBaseRowETag("missing-etag");
+    uploads.clear();
+    uploads.add(upload);
+    outcomes = dm.insertOrUpdateRows(new RowList(uploads, dm.getCurrentDataETag()));
+    assertEquals(OutcomeType.IN_CONFLICT, outcomes.getRows().get(0).getOutcome());
+    assertEquals(current.getRowETag(), dm.getRow(current.getRowId()).getRowETag());
+  }
+
 //  @Test
 //  public void testGetRowsSinceByScope() throws ODKEntityPersistException, ETagMismatchException,
 //      BadColumnNameException, ODKDatastoreException, ODKTaskLockException, PermissionDeniedException {
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
+
+/**
+ * The manifest entries are cached against an ETag supplied by the caller, so
+ * these tests do not need a datastore.
+ */
+public class ETagCacheTest {
+
+  private static final String APP_ID = "tables";
+  private static final String TABLE_ID = "etag_cache_test_table";
+
+  private List<OdkTablesFileManifestEntry> getEntries() {
+    OdkTablesFileManifestEntry entry = new OdkTablesFileManifestEntry();
+    entry.filename = "tables/" + TABLE_ID + "/forms/form.json";
+    entry.contentLength = 42L;
+    entry.contentType = "application/json";
+    entry.md5hash = "md5:00112233445566778899aabbccddeeff";
+    List<OdkTablesFileManifestEntry> entries = new ArrayList<OdkTablesFileManifestEntry>();
+    entries.add(entry);
+    return entries;
+  }
+
+  @Test
+  public void testManifestEntries() {
+    List<OdkTablesFileManifestEntry> entries = getEntries();
+    ETagCache.putManifestEntries(APP_ID, "2", TABLE_ID, "etag1", entries);
+
+    assertEquals(entries, ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag1"));
+    assertNull(ETagCache.getManifestEntries(APP_ID, "1", TABLE_ID, "etag1"));
+    assertNull(ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, null));
+
+    // the caller may modify the returned entries
+    ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag1").get(0).downloadUrl = "http://x";
+    assertEquals(entries, ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag1"));
+
+    // a different ETag discards the cached manifest
+    assertNull(ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag2"));
+    assertNull(ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag1"));
+  }
+
+  @Test
+  public void testForgetManifestETag() {
+    ETagCache.putManifestEntries(APP_ID, "2", TABLE_ID, "etag3", getEntries());
+    ETagCache.forgetManifestETag(TABLE_ID);
+    assertNull(ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, "etag3"));
+
+    // nothing is cached without an ETag
+    ETagCache.putManifestEntries(APP_ID, "2", TABLE_ID, null, getEntries());
+    assertNull(ETagCache.getManifestEntries(APP_ID, "2", TABLE_ID, null));
+  }
+}
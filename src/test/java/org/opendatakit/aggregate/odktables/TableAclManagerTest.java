@@ -19,6 +19,8 @@ package org.opendatakit.aggregate.odktables;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -75,6 +77,10 @@ public class TableAclManagerTest {
       return true;
     }
 
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
+    }
+
     @Override
     public boolean hasFilterScope(String appId, String tableId, TablePermission permission, String rowId, Scope filterScope) {
       return true;
@@ -105,6 +111,8 @@ public class TableAclManagerTest {
     } catch (ODKEntityNotFoundException e) {
       // ignore
     }
+    // finish the background deletion before the tableId is re-used
+    TableDeletionManager.runDeletion(tableId, cc);
   }
 
   @Test
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+
+/**
+ * The ETagCache holds the committed values, so these tests do not need a
+ * datastore.
+ */
+public class TableChangeNotifierTest {
+
+  private static final String TABLE_ID = "notifier_test_table";
+
+  @Test
+  public void testChangeAlreadyCommitted() throws Exception {
+    TableChangeNotifier.dataETagChanged(TABLE_ID, "etag2");
+
+    List<TableEntry> known = new ArrayList<TableEntry>();
+    known.add(new TableEntry(TABLE_ID, "etag1", "schema"));
+    List<TableEntry> changed = TableChangeNotifier.waitForChanges(known, 1000L, null);
+    assertEquals(1, changed.size());
+    assertEquals("etag2", changed.get(0).getDataETag());
+  }
+
+  @Test
+  public void testWakesOnChange() throws Exception {
+    TableChangeNotifier.dataETagChanged(TABLE_ID, "etag3");
+
+    final List<TableEntry> known = new ArrayList<TableEntry>();
+    known.add(new TableEntry(TABLE_ID, "etag3", "schema"));
+
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200L);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        TableChangeNotifier.dataETagChanged(TABLE_ID, "etag4");
+      }
+    };
+    long start = System.currentTimeMillis();
+    t.start();
+    List<TableEntry> changed = TableChangeNotifier.waitForChanges(known, 2000L, null);
+    t.join();
+    assertEquals(1, changed.size());
+    assertEquals("etag4", changed.get(0).getDataETag());
+    assertTrue(System.currentTimeMillis() - start < 2000L);
+  }
+}
@@ -17,7 +17,10 @@
 package org.opendatakit.aggregate.odktables;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,12 +33,14 @@ import org.opendatakit.aggregate.odktables.TableManager.WebsafeTables;
 import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.exception.TableAlreadyExistsException;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.Column;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -50,7 +55,7 @@ import com.google.common.collect.Lists;
 public class TableManagerTest {
 
   private CallingContext cc;
-  private TablesUserPermissions userPermissions;
+  private MockCurrentUserPermissions userPermissions;
   private TableManager tm;
   private String tableId;
   private String tableId2;
@@ -59,6 +64,8 @@ public class TableManagerTest {
 
   private class MockCurrentUserPermissions implements TablesUserPermissions {
 
+    String hiddenTableId = null;
+
     @Override
     public String getOdkTablesUserId() {
       return "myid";
@@ -83,7 +90,11 @@ public class TableManagerTest {
     @Override
     public boolean hasPermission(String appId, String tableId, TablePermission permission)
         throws ODKDatastoreException {
-      return true;
+      return !(permission == TablePermission.READ_TABLE_ENTRY && tableId.equals(hiddenTableId));
+    }
+
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
     }
 
     @Override
@@ -116,6 +127,9 @@ public class TableManagerTest {
     } catch (ODKEntityNotFoundException e) {
       // ignore
     }
+    // finish the background deletions before the tableIds are re-used
+    TableDeletionManager.runDeletion(tableId, cc);
+    TableDeletionManager.runDeletion(tableId2, cc);
   }
 
   @Test
@@ -156,6 +170,24 @@ public class TableManagerTest {
     tm.createTable(tableId, T.columns);
   }
 
+  @Test
+  public void testCreateTableBadIndexedColumn() throws ODKDatastoreException,
+      TableAlreadyExistsException, PermissionDeniedException, ODKTaskLockException {
+    try {
+      tm.createTable(tableId, T.columns, Lists.newArrayList("no_such_column"));
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    // nothing should have been written
+    try {
+      DbTableEntry.getTableIdEntry(tableId, cc);
+      fail("expected no table entry");
+    } catch (ODKEntityNotFoundException e) {
+      // expected
+    }
+  }
+
 //  @Test(expected = IllegalArgumentException.class)
 //  public void testCreateTableNullTableId() throws ODKEntityPersistException, ODKDatastoreException,
 //      TableAlreadyExistsException {
@@ -213,6 +245,46 @@ public class TableManagerTest {
     Util.assertCollectionSameElements(expected, actual);
   }
 
+  @Test
+  public void testGetTablesOmitsTablesBeingDeleted() throws ODKDatastoreException,
+      ODKTaskLockException, TableAlreadyExistsException, PermissionDeniedException {
+    tm.createTable(tableId, T.columns);
+    TableEntry two = tm.createTable(tableId2, T.columns);
+    tm.deleteTable(tableId);
+    assertTrue(TableDeletionManager.isDeletionPending(tableId, cc));
+
+    WebsafeTables result = tm.getTables(null, 2000);
+    assertEquals(1, result.tables.size());
+    assertEquals(two.getTableId(), result.tables.get(0).getTableId());
+
+    TableDeletionManager.runDeletion(tableId, cc);
+  }
+
+  @Test
+  public void testGetTablesPaginated() throws ODKDatastoreException, ODKTaskLockException,
+      TableAlreadyExistsException, PermissionDeniedException {
+    tm.createTable(tableId, T.columns);
+    tm.createTable(tableId2, T.columns);
+
+    List<String> expected = Lists.newArrayList(tableId, tableId2);
+    List<String> actual = new ArrayList<String>();
+    WebsafeTables result = tm.getTables(null, 1);
+    assertEquals(1, result.tables.size());
+    assertTrue(result.hasMore);
+    actual.add(result.tables.get(0).getTableId());
+
+    result = tm.getTables(QueryResumePoint.fromWebsafeCursor(result.websafeResumeCursor), 1);
+    assertEquals(1, result.tables.size());
+    actual.add(result.tables.get(0).getTableId());
+    Util.assertCollectionSameElements(expected, actual);
+
+    // a table the user cannot see does not shorten the page
+    userPermissions.hiddenTableId = tableId;
+    result = tm.getTables(null, 1);
+    assertEquals(1, result.tables.size());
+    assertEquals(tableId2, result.tables.get(0).getTableId());
+  }
+
   // TODO: reactivate when we have scopes working...
   @Ignore
   public void testGetTablesByScopes() throws ODKEntityNotFoundException, ODKDatastoreException,
@@ -248,6 +320,21 @@ public class TableManagerTest {
     tm.getTableNullSafe(tableId);
   }
 
+  @Test
+  public void testDeleteTableThenCreateTable() throws ODKDatastoreException,
+      ODKTaskLockException, TableAlreadyExistsException, PermissionDeniedException {
+
+    tm.createTable(tableId, T.columns);
+    tm.deleteTable(tableId);
+    assertNull(tm.getTable(tableId));
+
+    // finish the background deletion, then re-use the tableId
+    TableDeletionManager.runDeletion(tableId, cc);
+    assertFalse(TableDeletionManager.isDeletionPending(tableId, cc));
+    TableEntry entry = tm.createTable(tableId, T.columns);
+    assertEquals(entry, tm.getTableNullSafe(tableId));
+  }
+
   @Test(expected = ODKEntityNotFoundException.class)
   public void testDeleteTableDoesNotExist() throws ODKDatastoreException, ODKTaskLockException, PermissionDeniedException {
     tm.deleteTable(tableId);
@@ -28,6 +28,8 @@ import org.opendatakit.aggregate.odktables.T;
 import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
 import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowFilter;
+import org.opendatakit.aggregate.odktables.rest.entity.RowQuery;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResource;
 import org.opendatakit.aggregate.odktables.rest.entity.RowResourceList;
 import org.opendatakit.aggregate.odktables.rest.entity.Scope;
@@ -36,6 +38,8 @@ import org.opendatakit.aggregate.odktables.rest.entity.TableAclResource;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableResource;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncRequest;
+import org.opendatakit.aggregate.odktables.rest.entity.TableSyncRequestList;
 
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
@@ -181,4 +185,33 @@ public class SerializationTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testTableSyncRequestList() throws Exception {
+    ArrayList<TableSyncRequest> entries = new ArrayList<TableSyncRequest>();
+    entries.add(new TableSyncRequest("1", "schema4", "data2", null));
+    entries.add(new TableSyncRequest("2", "schema5", null, "cursor7"));
+    TableSyncRequestList expected = new TableSyncRequestList(entries);
+    serializer.writeValue(writer, expected);
+    String xml = writer.toString();
+    System.out.println(xml);
+    TableSyncRequestList actual = serializer.readValue(xml, TableSyncRequestList.class);
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testRowQuery() throws Exception {
+    ArrayList<RowFilter> filters = new ArrayList<RowFilter>();
+    filters.add(new RowFilter("age", RowFilter.Operation.GREATER_THAN_OR_EQUAL, "21"));
+    ArrayList<String> values = new ArrayList<String>();
+    values.add("red");
+    values.add("blue");
+    filters.add(new RowFilter("color", values));
+    RowQuery expected = new RowQuery(filters, "age", true);
+    serializer.writeValue(writer, expected);
+    String xml = writer.toString();
+    System.out.println(xml);
+    RowQuery actual = serializer.readValue(xml, RowQuery.class);
+    assertEquals(expected, actual);
+  }
+
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.impl.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.DataManager;
+import org.opendatakit.aggregate.odktables.T;
+import org.opendatakit.aggregate.odktables.TableDeletionManager;
+import org.opendatakit.aggregate.odktables.TableManager;
+import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.relation.DbTableInstanceFiles;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+public class InstanceFileArchiveServiceImplTest {
+
+  private class MockCurrentUserPermissions implements TablesUserPermissions {
+
+    @Override
+    public String getOdkTablesUserId() {
+      return "myid";
+    }
+
+    @Override
+    public String getPhoneNumber() {
+      return null;
+    }
+
+    @Override
+    public String getXBearerCode() {
+      return null;
+    }
+
+    @Override
+    public void checkPermission(String appId, String tableId, TablePermission permission)
+        throws ODKDatastoreException, PermissionDeniedException {
+      return;
+    }
+
+    @Override
+    public boolean hasPermission(String appId, String tableId, TablePermission permission)
+        throws ODKDatastoreException {
+      return true;
+    }
+
+    @Override
+    public void resolvePermissions(String appId, List<String> tableIds) {
+    }
+
+    @Override
+    public boolean hasFilterScope(String appId, String tableId, TablePermission permission,
+        String rowId, Scope filterScope) {
+      return true;
+    }
+
+  }
+
+  private CallingContext cc;
+  private TablesUserPermissions userPermissions;
+  private TableManager tm;
+  private DataManager dm;
+
+  @Before
+  public void setUp() throws Exception {
+    this.cc = TestContextFactory.getCallingContext();
+
+    userPermissions = new MockCurrentUserPermissions();
+
+    this.tm = new TableManager(T.appId, userPermissions, cc);
+
+    tm.createTable(T.tableId, T.columns);
+
+    this.dm = new DataManager(T.appId, T.tableId, userPermissions, cc);
+    dm.insertOrUpdateRows(new RowList(T.rows, dm.getCurrentDataETag()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    try {
+      tm.deleteTable(T.tableId);
+    } catch (ODKEntityNotFoundException e) {
+      // ignore
+    }
+    TableDeletionManager.runDeletion(T.tableId, cc);
+  }
+
+  private void addFile(String rowId, String path, String content) throws Exception {
+    DbTableInstanceFiles blobStore = new DbTableInstanceFiles(T.tableId, cc);
+    BlobEntitySet instance = blobStore.getBlobEntitySet(rowId, cc);
+    instance.addBlob(content.getBytes("UTF-8"), "text/plain", path, false, cc);
+  }
+
+  private Map<String, String> readArchive(Response response) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(out);
+
+    Map<String, String> entries = new HashMap<String, String>();
+    ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int len;
+      while ((len = zip.read(buffer)) != -1) {
+        content.write(buffer, 0, len);
+      }
+      entries.put(entry.getName(), new String(content.toByteArray(), "UTF-8"));
+    }
+    zip.close();
+    return entries;
+  }
+
+  @Test
+  public void testArchiveOfAllRows() throws Exception {
+    String rowId1 = T.rows.get(0).getRowId();
+    String rowId2 = T.rows.get(1).getRowId();
+    addFile(rowId1, "photo.txt", "one");
+    addFile(rowId2, "media/clip.txt", "two");
+
+    InstanceFileArchiveServiceImpl service = new InstanceFileArchiveServiceImpl(T.appId,
+        T.tableId, userPermissions, cc);
+    Response response = service.getArchive(null, null);
+
+    Map<String, String> entries = readArchive(response);
+    assertEquals(2, entries.size());
+    assertEquals("one", entries.get(rowId1 + "/photo.txt"));
+    assertEquals("two", entries.get(rowId2 + "/media/clip.txt"));
+  }
+
+  @Test
+  public void testArchiveOfOneRow() throws Exception {
+    String rowId1 = T.rows.get(0).getRowId();
+    String rowId2 = T.rows.get(1).getRowId();
+    addFile(rowId1, "photo.txt", "one");
+    addFile(rowId2, "photo.txt", "two");
+
+    InstanceFileArchiveServiceImpl service = new InstanceFileArchiveServiceImpl(T.appId,
+        T.tableId, userPermissions, cc);
+    List<String> rowIds = new ArrayList<String>();
+    rowIds.add(rowId2);
+    Response response = service.getArchive(rowIds, null);
+
+    assertEquals("attachment; filename=\"" + T.tableId + "-" + rowId2 + "-files.zip\"",
+        response.getMetadata().getFirst(HtmlConsts.CONTENT_DISPOSITION));
+    Map<String, String> entries = readArchive(response);
+    assertEquals(Collections.singletonMap(rowId2 + "/photo.txt", "two"), entries);
+  }
+
+  @Test
+  public void testArchiveSkipsEscapingPaths() throws Exception {
+    String rowId1 = T.rows.get(0).getRowId();
+    addFile(rowId1, "../escape.txt", "bad");
+    addFile(rowId1, "/rooted.txt", "good");
+
+    InstanceFileArchiveServiceImpl service = new InstanceFileArchiveServiceImpl(T.appId,
+        T.tableId, userPermissions, cc);
+    Response response = service.getArchive(null, null);
+
+    Map<String, String> entries = readArchive(response);
+    assertEquals(Collections.singletonMap(rowId1 + "/rooted.txt", "good"), entries);
+  }
+
+  @Test
+  public void testToEntryName() {
+    assertEquals("r1/a.txt", InstanceFileArchiveServiceImpl.toEntryName("r1", "a.txt"));
+    assertEquals("r1/a/b.txt", InstanceFileArchiveServiceImpl.toEntryName("r1", "/a//./b.txt"));
+    assertEquals("r1/a/b.txt", InstanceFileArchiveServiceImpl.toEntryName("r1", "a\\b.txt"));
+    assertEquals("r_1/a.txt", InstanceFileArchiveServiceImpl.toEntryName("r/1", "a.txt"));
+    assertEquals("_../a.txt", InstanceFileArchiveServiceImpl.toEntryName("..", "a.txt"));
+    assertNull(InstanceFileArchiveServiceImpl.toEntryName("r1", "../a.txt"));
+    assertNull(InstanceFileArchiveServiceImpl.toEntryName("r1", "a/../../b.txt"));
+    assertNull(InstanceFileArchiveServiceImpl.toEntryName("r1", "/"));
+  }
+
+  @Test
+  public void testToFilename() {
+    assertEquals("t1-r1-files.zip", InstanceFileArchiveServiceImpl.toFilename("t1-r1-files.zip"));
+    assertEquals("t1-r__1_-files.zip",
+        InstanceFileArchiveServiceImpl.toFilename("t1-r\"\n1\\-files.zip"));
+    assertEquals("t1-r_1_-files.zip",
+        InstanceFileArchiveServiceImpl.toFilename("t1-r 1;-files.zip"));
+  }
+}
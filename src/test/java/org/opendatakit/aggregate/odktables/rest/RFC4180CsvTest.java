@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class RFC4180CsvTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    String[] header = { "_id", "name", "notes" };
+    String[] row1 = { "1", "Smith, John", "said \"hello\"" };
+    String[] row2 = { "2", null, "line one\r\nline two" };
+    String[] row3 = { "3", "", "plain" };
+
+    StringWriter sw = new StringWriter();
+    RFC4180CsvWriter writer = new RFC4180CsvWriter(sw);
+    writer.writeNext(header);
+    writer.writeNext(row1);
+    writer.writeNext(row2);
+    writer.writeNext(row3);
+    writer.close();
+
+    RFC4180CsvReader reader = new RFC4180CsvReader(new StringReader(sw.toString()));
+    assertArrayEquals(header, reader.readNext());
+    assertArrayEquals(row1, reader.readNext());
+    assertArrayEquals(row2, reader.readNext());
+    // empty strings are quoted, so they are not read back as null
+    assertArrayEquals(row3, reader.readNext());
+    assertNull(reader.readNext());
+    reader.close();
+  }
+
+  @Test
+  public void testEmptyFields() throws Exception {
+    RFC4180CsvReader reader = new RFC4180CsvReader(new StringReader("a,,\"\",b\r\n"));
+    assertArrayEquals(new String[] { "a", null, "", "b" }, reader.readNext());
+    assertNull(reader.readNext());
+    reader.close();
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+
+/**
+ * The cache holds values supplied by the caller, so these tests do not need a
+ * datastore.
+ */
+public class TablesPermissionsCacheTest {
+
+  private static final String APP_ID = "tables";
+  private static final String TABLE_ID = "permissions_cache_test_table";
+  private static final String USER_ID = "mailto:someone@example.com";
+
+  @Test
+  public void testPermissions() {
+    Set<TablePermission> permissions = EnumSet.of(TablePermission.READ_ROW,
+        TablePermission.WRITE_ROW);
+    TablesPermissionsCache.putPermissions(APP_ID, TABLE_ID, USER_ID, permissions);
+    assertEquals(permissions, TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID, USER_ID));
+    assertNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID, "username:other"));
+    assertNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID + "_other", USER_ID));
+
+    // an ACL change forgets the permissions of every user of the table
+    TablesPermissionsCache.putPermissions(APP_ID, TABLE_ID + "_other", USER_ID, permissions);
+    TablesPermissionsCache.forgetTable(TABLE_ID);
+    assertNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID, USER_ID));
+    assertNotNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID + "_other", USER_ID));
+    TablesPermissionsCache.forgetTable(TABLE_ID + "_other");
+  }
+
+  @Test
+  public void testBounded() {
+    Set<TablePermission> permissions = EnumSet.of(TablePermission.READ_ROW);
+    for (int i = 0; i <= TablesPermissionsCache.MAX_PERMISSIONS_ENTRIES; ++i) {
+      TablesPermissionsCache.putPermissions(APP_ID, TABLE_ID + i, USER_ID, permissions);
+    }
+    // the least-recently-used entry was evicted
+    assertNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID + 0, USER_ID));
+    assertNotNull(TablesPermissionsCache.getPermissions(APP_ID, TABLE_ID
+        + TablesPermissionsCache.MAX_PERMISSIONS_ENTRIES, USER_ID));
+  }
+}
@@ -15,9 +15,19 @@ package org.opendatakit.common.ermodel;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobInputStream;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
+import org.opendatakit.common.persistence.PersistenceUtils;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.TestContextFactory;
@@ -79,4 +89,148 @@ public class BlobRelationSetTest {
 		
 		rel.dropBlobRelationSet(cc);
 	}
+
+	@Test
+	public void testStreamedBlob() throws ODKDatastoreException, IOException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+		
+		MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+		
+		BlobEntitySet instance = rel.newBlobEntitySet(cc);
+		
+		// span several blob parts
+		StringBuilder b = new StringBuilder();
+		for ( int i = 0 ; i < 200000 ; ++i ) {
+			b.append((char) ('a' + (i % 26)));
+		}
+		byte[] content = b.toString().getBytes();
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, instance.addBlob(
+				new ByteArrayInputStream(content), "text/plain", "streamed", false, cc));
+		assertEquals(content.length, instance.getContentLength(1, cc).intValue());
+		assertEquals(PersistenceUtils.newMD5HashUri(content), instance.getContentHash(1, cc));
+		assertArrayEquals(content, instance.getBlob(1, cc));
+		
+		// read back a span that crosses blob parts
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		BlobInputStream blobStream = instance.getBlobStream(1, cc);
+		blobStream.writeTo(os, 100000L, 50000L);
+		blobStream.close();
+		assertArrayEquals(Arrays.copyOfRange(content, 100000, 150000), os.toByteArray());
+		
+		assertEquals(BlobSubmissionOutcome.FILE_UNCHANGED, instance.addBlob(
+				new ByteArrayInputStream(content), "text/plain", "streamed", false, cc));
+		assertEquals(BlobSubmissionOutcome.NEW_FILE_VERSION, instance.addBlob(
+				new ByteArrayInputStream("changed".getBytes()), "text/plain", "streamed", false, cc));
+		assertArrayEquals(content, instance.getBlob(1, cc));
+		
+		assertEquals(BlobSubmissionOutcome.NEW_FILE_VERSION, instance.addBlob(
+				new ByteArrayInputStream("changed".getBytes()), "text/plain", "streamed", true, cc));
+		assertArrayEquals("changed".getBytes(), instance.getBlob(1, cc));
+		
+		rel.dropBlobRelationSet(cc);
+	}
+
+	@Test
+	public void testSharedContent() throws ODKDatastoreException, IOException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+		
+		MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+		
+		byte[] content = "shared content".getBytes();
+		String md5Hash = PersistenceUtils.newMD5HashUri(content);
+		
+		BlobEntitySet first = rel.newBlobEntitySet(cc);
+		assertNull(first.addBlobByContentHash(md5Hash, "text/plain", "a", false, cc));
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				first.addBlob(content, "text/plain", "a", false, cc));
+		
+		// identical content shares the stored parts
+		BlobEntitySet second = rel.newBlobEntitySet(cc);
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				second.addBlob(new ByteArrayInputStream(content), "text/plain", "b", false, cc));
+		// but the hash alone only shares content held by the same entity set
+		BlobEntitySet third = rel.newBlobEntitySet(cc);
+		assertNull(third.addBlobByContentHash(md5Hash, "text/plain", "c", false, cc));
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				second.addBlobByContentHash(md5Hash, "text/plain", "c", false, cc));
+		assertEquals(content.length, second.getContentLength(2, cc).intValue());
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				third.addBlob(content, "text/plain", "c", false, cc));
+		
+		// the parts survive until their last reference is removed
+		first.remove(cc);
+		assertArrayEquals(content, second.getBlob(1, cc));
+		assertArrayEquals(content, second.getBlob(2, cc));
+		// removes two references at once
+		second.remove(cc);
+		assertArrayEquals(content, third.getBlob(1, cc));
+		
+		// overwriting shared content leaves the other references intact
+		BlobEntitySet fourth = rel.newBlobEntitySet(cc);
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				fourth.addBlob(content, "text/plain", "d", false, cc));
+		assertEquals(BlobSubmissionOutcome.NEW_FILE_VERSION, 
+				fourth.addBlob("changed".getBytes(), "text/plain", "d", true, cc));
+		assertArrayEquals(content, third.getBlob(1, cc));
+		assertArrayEquals("changed".getBytes(), fourth.getBlob(1, cc));
+		third.remove(cc);
+		fourth.remove(cc);
+		
+		rel.dropBlobRelationSet(cc);
+	}
+
+	@Test
+	public void testStagedBlob() throws ODKDatastoreException, IOException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+		
+		MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+		
+		byte[] content = "first chunk|second chunk".getBytes();
+		int split = "first chunk|".length();
+		String md5Hash = PersistenceUtils.newMD5HashUri(content);
+		
+		BlobEntitySet instance = rel.newBlobEntitySet(cc);
+		assertNull(instance.getStagedBlobLength("staged", cc));
+		instance.startStagedBlob("text/plain", "staged", cc);
+		assertEquals(0L, instance.getStagedBlobLength("staged", cc).longValue());
+		
+		assertEquals(split, instance.appendStagedBlob(
+				new ByteArrayInputStream(Arrays.copyOfRange(content, 0, split)), 0L, "staged", cc));
+		// a chunk at the wrong offset is not accepted
+		assertEquals(split, instance.appendStagedBlob(
+				new ByteArrayInputStream(content), 0L, "staged", cc));
+		// a chunk that is interrupted leaves the staged length unchanged
+		try {
+			instance.appendStagedBlob(new SequenceInputStream(
+					new ByteArrayInputStream(Arrays.copyOfRange(content, split, split + 3)),
+					new InputStream() {
+						@Override
+						public int read() throws IOException {
+							throw new IOException("connection dropped");
+						}
+					}), split, "staged", cc);
+			fail("interrupted chunk was accepted");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(split, instance.getStagedBlobLength("staged", cc).longValue());
+		assertEquals(content.length, instance.appendStagedBlob(
+				new ByteArrayInputStream(Arrays.copyOfRange(content, split, content.length)), 
+				split, "staged", cc));
+		
+		// a hash mismatch discards the staged content
+		assertNull(instance.finishStagedBlob(PersistenceUtils.newMD5HashUri("other".getBytes()), 
+				"staged", cc));
+		assertEquals(0L, instance.getStagedBlobLength("staged", cc).longValue());
+		
+		assertEquals(content.length, instance.appendStagedBlob(
+				new ByteArrayInputStream(content), 0L, "staged", cc));
+		assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE, 
+				instance.finishStagedBlob(md5Hash, "staged", cc));
+		assertNull(instance.getStagedBlobLength("staged", cc));
+		assertEquals(md5Hash, instance.getContentHash(1, cc));
+		assertArrayEquals(content, instance.getBlob(1, cc));
+		
+		rel.dropBlobRelationSet(cc);
+	}
 }
@@ -223,4 +223,33 @@ public class RelationTest {
 
       rel.dropRelation(cc);
    }
+
+   @Test
+   public void testCase8() throws ODKDatastoreException {
+      CallingContext cc = TestContextFactory.getCallingContext();
+
+      MyRelation rel = new MyRelation(cc);
+      Entity e = rel.newEntity(cc);
+      e.set(MyRelation.fieldInt, 5);
+      e.put(cc);
+
+      Entity e2 = rel.newEntity(cc);
+      e2.set(MyRelation.fieldInt, 6);
+      e2.put(cc);
+
+      Query query;
+
+      query = rel.query("DbTable.testCase8.fieldInt-first", cc);
+      query.addFilter(MyRelation.fieldInt.getName(), FilterOperation.GREATER_THAN, 0);
+      query.sortDescending(MyRelation.fieldInt);
+      Entity first = query.getFirst();
+      assertEquals( e2.getId(), first.getId());
+
+      query = rel.query("DbTable.testCase8.fieldInt-none", cc);
+      query.addFilter(MyRelation.fieldInt.getName(), FilterOperation.GREATER_THAN, 10);
+      query.sortDescending(MyRelation.fieldInt);
+      assertNull( query.getFirst());
+
+      rel.dropRelation(cc);
+   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class WebUtilsTest {
+
+  @Test
+  public void testParseByteRange() {
+    long[] span = WebUtils.parseByteRange("bytes=0-99", 1000L);
+    assertEquals(0L, span[0]);
+    assertEquals(99L, span[1]);
+
+    span = WebUtils.parseByteRange("bytes=500-", 1000L);
+    assertEquals(500L, span[0]);
+    assertEquals(999L, span[1]);
+
+    span = WebUtils.parseByteRange("bytes=-100", 1000L);
+    assertEquals(900L, span[0]);
+    assertEquals(999L, span[1]);
+
+    span = WebUtils.parseByteRange("bytes=900-5000", 1000L);
+    assertEquals(900L, span[0]);
+    assertEquals(999L, span[1]);
+  }
+
+  @Test
+  public void testUnsatisfiableByteRange() {
+    assertNull(WebUtils.parseByteRange("bytes=1000-", 1000L));
+    assertNull(WebUtils.parseByteRange("bytes=-0", 1000L));
+  }
+
+  @Test
+  public void testMalformedByteRange() {
+    assertEquals(0, WebUtils.parseByteRange("bytes=5-3", 1000L).length);
+    assertEquals(0, WebUtils.parseByteRange("bytes=0-1,5-6", 1000L).length);
+    assertEquals(0, WebUtils.parseByteRange("items=0-1", 1000L).length);
+    assertEquals(0, WebUtils.parseByteRange("bytes=a-b", 1000L).length);
+  }
+}